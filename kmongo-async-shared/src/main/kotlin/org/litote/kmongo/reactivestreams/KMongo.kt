@@ -20,8 +20,10 @@ import com.mongodb.MongoClientSettings
 import com.mongodb.MongoDriverInformation
 import com.mongodb.reactivestreams.client.MongoClient
 import com.mongodb.reactivestreams.client.MongoClients
+import com.mongodb.reactivestreams.client.ReactiveContextProvider
 import org.bson.codecs.configuration.CodecRegistry
 import org.litote.kmongo.service.ClassMappingType
+import org.litote.kmongo.util.OperationTracer
 
 /**
  *  Main object used to create a [MongoClient](https://api.mongodb.com/java/current/com/mongodb/reactivestreams/client/MongoClient.html) instance.
@@ -45,7 +47,16 @@ object KMongo {
         val codecRegistry = ClassMappingType.codecRegistry(settings.codecRegistry)
         return MongoClients.create(
             MongoClientSettings.builder(settings)
-                .codecRegistry(codecRegistry).build(),
+                .codecRegistry(codecRegistry)
+                .apply {
+                    if (OperationTracer.enabled && OperationTracer.commandListener !in settings.commandListeners) {
+                        addCommandListener(OperationTracer.commandListener)
+                        if (settings.contextProvider == null) {
+                            contextProvider(ReactiveContextProvider { OperationTracer.requestContext() })
+                        }
+                    }
+                }
+                .build(),
             MongoDriverInformation.builder().driverName("kmongo").driverPlatform(String.format("Kotlin/%s", KotlinVersion.CURRENT)).build()
         )
     }
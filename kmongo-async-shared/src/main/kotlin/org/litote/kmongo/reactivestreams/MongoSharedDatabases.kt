@@ -18,7 +18,9 @@ package org.litote.kmongo.reactivestreams
 
 import com.mongodb.reactivestreams.client.MongoCollection
 import com.mongodb.reactivestreams.client.MongoDatabase
+import org.litote.kmongo.util.CollectionHandleCache
 import org.litote.kmongo.util.KMongoUtil.defaultCollectionName
+import java.util.concurrent.TimeUnit
 
 //*******
 //MongoDatabase extension methods
@@ -49,4 +51,40 @@ inline fun <reified T : Any> MongoDatabase.getCollectionOfName(collectionName: S
  * @see defaultCollectionName
  */
 inline fun <reified T : Any> MongoDatabase.getCollection(): MongoCollection<T> =
-    getCollection(defaultCollectionName(T::class), T::class.java)
\ No newline at end of file
+    getCollection(defaultCollectionName(T::class), T::class.java)
+
+private val collectionHandles = CollectionHandleCache<MongoCollection<*>>()
+
+/**
+ * Gets a cached collection: the handle is created once by database (name, codec registry & settings), collection name and document class.
+ * Use it instead of [getCollection] in code paths that get the same collection repeatedly.
+ *
+ * @param collectionName the name of the collection to return - default is [defaultCollectionName]
+ * @param <T>            the default target type of the collection to return
+ * @return the collection
+ */
+inline fun <reified T : Any> MongoDatabase.getCachedCollection(
+    collectionName: String = defaultCollectionName(T::class)
+): MongoCollection<T> = getCachedCollection(collectionName, T::class.java)
+
+/**
+ * Gets a cached collection: the handle is created once by database (name, codec registry & settings), collection name and document class.
+ *
+ * @param collectionName the name of the collection to return
+ * @param documentClass  the default target type of the collection to return
+ * @return the collection
+ */
+@Suppress("UNCHECKED_CAST")
+fun <T : Any> MongoDatabase.getCachedCollection(collectionName: String, documentClass: Class<T>): MongoCollection<T> =
+    collectionHandles.getOrPut(
+        codecRegistry,
+        name,
+        readPreference,
+        writeConcern,
+        readConcern,
+        getTimeout(TimeUnit.MILLISECONDS),
+        collectionName,
+        documentClass
+    ) {
+        getCollection(collectionName, documentClass)
+    } as MongoCollection<T>
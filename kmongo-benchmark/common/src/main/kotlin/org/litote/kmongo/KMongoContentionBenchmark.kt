@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo
+
+import org.bson.BsonReader
+import org.bson.BsonWriter
+import org.bson.codecs.Codec
+import org.bson.codecs.DecoderContext
+import org.bson.codecs.EncoderContext
+import org.bson.codecs.configuration.CodecRegistry
+import org.litote.kmongo.util.KMongoUtil
+import org.litote.kmongo.util.ObjectMappingConfiguration
+
+/**
+ * The lookups of the shared caches and registries of KMongo - codec lookup, id extraction and path resolution -
+ * and the writes that may contend with them.
+ */
+object KMongoContentionBenchmark {
+
+    /**
+     * The number of [org.openjdk.jmh.infra.Blackhole.consumeCPU] tokens between two writes.
+     */
+    const val WRITE_INTERVAL = 100_000L
+
+    private class Marker
+
+    private object MarkerCodec : Codec<Marker> {
+        override fun encode(writer: BsonWriter, value: Marker, encoderContext: EncoderContext) = writer.writeNull()
+
+        override fun decode(reader: BsonReader, decoderContext: DecoderContext): Marker {
+            reader.readNull()
+            return Marker()
+        }
+
+        override fun getEncoderClass(): Class<Marker> = Marker::class.java
+    }
+
+    private val friend = KMongoEncodeBenchmark.friend
+    private val friendWithBuddies = KMongoEncodeBenchmark.friendWithBuddies
+
+    fun codecLookup(registry: CodecRegistry): Int =
+        registry.get(Friend::class.java).hashCode() +
+                registry.get(FriendWithBuddies::class.java).hashCode() +
+                registry.get(Coordinate::class.java).hashCode()
+
+    fun idExtraction(): Int = KMongoUtil.getIdValue(friend).hashCode() + KMongoUtil.getIdValue(friendWithBuddies).hashCode()
+
+    fun pathResolution(): Int =
+        Friend::name.path().length +
+                (Friend::coordinate / Coordinate::lat).path().length +
+                FriendWithBuddies::id.path().length
+
+    /**
+     * A request: codec lookup, id extraction, path resolution and the encoding of a document.
+     */
+    fun lookups(registry: CodecRegistry): Int =
+        codecLookup(registry) + idExtraction() + pathResolution() + KMongoEncodeBenchmark.encode(registry, friend)
+
+    /**
+     * Adds (again) a custom codec.
+     */
+    fun addCustomCodec() {
+        ObjectMappingConfiguration.addCustomCodec(MarkerCodec)
+    }
+}
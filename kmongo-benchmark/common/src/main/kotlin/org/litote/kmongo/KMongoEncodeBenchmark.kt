@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo
+
+import org.bson.BsonBinaryWriter
+import org.bson.Document
+import org.bson.codecs.CollectibleCodec
+import org.bson.codecs.EncoderContext
+import org.bson.codecs.configuration.CodecRegistry
+import org.bson.io.BasicOutputBuffer
+import org.bson.types.ObjectId
+import org.litote.kmongo.util.KMongoUtil
+
+/**
+ * The write path counterpart of [KMongoBenchmark]: the encoded objects are the objects of [KMongoBenchmark.FRIEND_AS_BYTE].
+ */
+object KMongoEncodeBenchmark {
+
+    private val encoderContext = EncoderContext.builder().build()
+
+    val friend = Friend(ObjectId("507480ff3004983e1fe5ed55"), "John0", "Address0", Coordinate(1, 0))
+
+    val friendWithBuddies = FriendWithBuddies(
+        friend.id,
+        friend.name,
+        friend.address,
+        friend.coordinate,
+        null,
+        (1..4).map { FriendWithBuddies(null, "John0$it", "Address0", Coordinate(1, 0)) }
+    )
+
+    fun friendDocument(friend: Friend): Document =
+        Document("_id", friend.id)
+            .append("name", friend.name)
+            .append("address", friend.address)
+            .append("coordinate", friend.coordinate?.let { Document("lat", it.lat).append("lng", it.lng) })
+
+    fun friendWithBuddiesDocument(friend: FriendWithBuddies): Document =
+        Document("_id", friend.id)
+            .append("name", friend.name)
+            .append("address", friend.address)
+            .append("coordinate", friend.coordinate?.let { Document("lat", it.lat).append("lng", it.lng) })
+            .append("buddies", friend.buddies.map { friendWithBuddiesDocument(it) })
+
+    /**
+     * The driver document of [friend], built once so the driver benchmarks measure only the encoding.
+     */
+    val friendAsDocument: Document = friendDocument(friend)
+
+    /**
+     * The driver document of [friendWithBuddies], built once so the driver benchmarks measure only the encoding.
+     */
+    val friendWithBuddiesAsDocument: Document = friendWithBuddiesDocument(friendWithBuddies)
+
+    /**
+     * Encodes the value with the codec of the registry, and returns the size of the encoded document.
+     */
+    fun <T : Any> encode(registry: CodecRegistry, value: T): Int {
+        val buffer = BasicOutputBuffer(512)
+        registry.get(value.javaClass).encode(BsonBinaryWriter(buffer), value, encoderContext)
+        return buffer.size
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    fun <T : Any> collectibleCodec(registry: CodecRegistry, type: Class<T>): CollectibleCodec<T> =
+        registry.get(type) as CollectibleCodec<T>
+
+    fun filterIdToBson(value: Any): Int = KMongoUtil.filterIdToBson(value).size
+
+    fun toExtendedJson(value: Any): String = KMongoUtil.toExtendedJson(value)
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo
+
+import org.bson.BsonDocument
+import org.bson.codecs.configuration.CodecRegistry
+import org.bson.conversions.Bson
+
+/**
+ * The query DSL counterpart of [KMongoEncodeBenchmark]: typical paths, filters, updates and pipelines
+ * built with the kmongo-property DSL, and their rendering to [BsonDocument] with a codec registry.
+ */
+object KMongoQueryBenchmark {
+
+    /**
+     * Resolves a simple, a nested, a positional and a map key path.
+     */
+    fun paths(): Int =
+        Friend::name.path().length +
+                (Friend::coordinate / Coordinate::lat).path().length +
+                (FriendWithBuddies::buddies.posOp / FriendWithBuddies::name).path().length +
+                MapDocument::values.keyProjection("key1").path().length
+
+    fun filter(): Bson =
+        and(
+            Friend::name eq "John0",
+            Friend::coordinate / Coordinate::lat gt 0,
+            FriendWithBuddies::buddies / FriendWithBuddies::address `in` listOf("Address0", "Address1"),
+            Friend::gender.exists()
+        )
+
+    fun update(): Bson =
+        combine(
+            set(
+                Friend::name setTo "John1",
+                Friend::coordinate / Coordinate::lng setTo 2,
+                FriendWithBuddies::buddies.posOp / FriendWithBuddies::address setTo "Address1"
+            ),
+            inc(Friend::coordinate / Coordinate::lat, 1),
+            unset(Friend::gender)
+        )
+
+    fun pipeline(): List<Bson> =
+        listOf(
+            match(Friend::name eq "John0", Friend::coordinate / Coordinate::lat gt 0),
+            FriendWithBuddies::buddies.unwind(),
+            project(Friend::name, Friend::address, Friend::coordinate),
+            group(Friend::address, Coordinate::lat sum (Friend::coordinate / Coordinate::lat)),
+            sort(descending(Coordinate::lat)),
+            limit(10)
+        )
+
+    /**
+     * Renders the filter, update or pipeline stage with the codec registry.
+     */
+    fun render(bson: Bson, registry: CodecRegistry): BsonDocument = bson.toBsonDocument(BsonDocument::class.java, registry)
+
+    fun render(pipeline: List<Bson>, registry: CodecRegistry): Int = pipeline.sumOf { render(it, registry).size }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo
+
+import org.bson.BsonArray
+import org.bson.BsonBinaryReader
+import org.bson.BsonDocument
+import org.bson.BsonInt32
+import org.bson.BsonObjectId
+import org.bson.BsonString
+import org.bson.BsonValue
+import org.bson.RawBsonDocument
+import org.bson.codecs.BsonDocumentCodec
+import org.bson.codecs.DecoderContext
+import org.bson.codecs.configuration.CodecRegistry
+import org.bson.types.ObjectId
+import java.nio.ByteBuffer
+import kotlin.reflect.full.memberProperties
+import kotlin.reflect.full.primaryConstructor
+
+/**
+ * The large or deep document scenarios - use them as a JMH `@Param`.
+ */
+enum class Scenario(val type: Class<*>) {
+    LARGE_1MB(LargeDocument::class.java) {
+        override fun model(): Any = ScenarioGenerator.large(1)
+    },
+    LARGE_10MB(LargeDocument::class.java) {
+        override fun model(): Any = ScenarioGenerator.large(10)
+    },
+    ARRAY_10K(ArrayDocument::class.java) {
+        override fun model(): Any = ScenarioGenerator.array(10_000)
+    },
+    ARRAY_100K(ArrayDocument::class.java) {
+        override fun model(): Any = ScenarioGenerator.array(100_000)
+    },
+    DEEP_10(DeepDocument::class.java) {
+        override fun model(): Any = ScenarioGenerator.deep(10)
+    },
+    DEEP_20(DeepDocument::class.java) {
+        override fun model(): Any = ScenarioGenerator.deep(20)
+    },
+    MAP_1K(MapDocument::class.java) {
+        override fun model(): Any = ScenarioGenerator.map(1_000)
+    },
+    MAP_10K(MapDocument::class.java) {
+        override fun model(): Any = ScenarioGenerator.map(10_000)
+    },
+    WIDE_200(WideDocument::class.java) {
+        override fun model(): Any = wideDocument(ScenarioGenerator.id)
+    };
+
+    /**
+     * Returns a new model object of the scenario.
+     */
+    abstract fun model(): Any
+
+    /**
+     * Returns the BSON bytes of the model object of the scenario.
+     */
+    fun bytes(): ByteArray = ScenarioGenerator.bytes(model())
+}
+
+/**
+ * Generates the objects and the BSON bytes of the [Scenario]s.
+ *
+ * The bytes are built from the Kotlin properties of the objects (`id` is `_id`, null properties are skipped),
+ * so they do not depend on the mapping under test.
+ */
+object ScenarioGenerator {
+
+    private const val CHUNK_SIZE = 1024
+
+    val id = ObjectId("507480ff3004983e1fe5ed55")
+
+    private val decoderContext = DecoderContext.builder().build()
+
+    /**
+     * Returns a document of about [megabytes] MB.
+     */
+    fun large(megabytes: Int): LargeDocument =
+        LargeDocument(id, List(megabytes * 1024) { i -> i.toString().padEnd(CHUNK_SIZE, 'x') })
+
+    /**
+     * Returns a document with an array of [size] elements.
+     */
+    fun array(size: Int): ArrayDocument = ArrayDocument(id, List(size) { it })
+
+    /**
+     * Returns a document of [levels] nested levels.
+     */
+    fun deep(levels: Int): DeepDocument {
+        require(levels > 0) { "levels must be positive" }
+        return (levels - 1 downTo 0).fold(null as DeepDocument?) { child, level -> DeepDocument(level, child) }!!
+    }
+
+    /**
+     * Returns a document with a map of [keys] keys.
+     */
+    fun map(keys: Int): MapDocument = MapDocument(id, (0 until keys).associate { "key$it" to it })
+
+    /**
+     * Returns the BSON bytes of the model object.
+     */
+    fun bytes(model: Any): ByteArray {
+        val buffer = RawBsonDocument(toBson(model) as BsonDocument, BsonDocumentCodec()).byteBuffer
+        return ByteArray(buffer.remaining()).also { buffer.get(it) }
+    }
+
+    /**
+     * Decodes the bytes with the codec of the registry.
+     */
+    fun <T> decode(registry: CodecRegistry, type: Class<T>, bytes: ByteArray): T =
+        registry.get(type).decode(BsonBinaryReader(ByteBuffer.wrap(bytes)), decoderContext)
+
+    private fun toBson(value: Any): BsonValue =
+        when (value) {
+            is ObjectId -> BsonObjectId(value)
+            is Int -> BsonInt32(value)
+            is String -> BsonString(value)
+            is List<*> -> BsonArray(value.map { toBson(it!!) })
+            is Map<*, *> -> BsonDocument().apply { value.forEach { (k, v) -> put(k.toString(), toBson(v!!)) } }
+            else -> {
+                val properties = value::class.memberProperties.associateBy { it.name }
+                BsonDocument().apply {
+                    value::class.primaryConstructor!!.parameters.forEach { parameter ->
+                        properties.getValue(parameter.name!!).getter.call(value)?.let {
+                            put(if (parameter.name == "id") "_id" else parameter.name!!, toBson(it))
+                        }
+                    }
+                }
+            }
+        }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo
+
+import kotlinx.serialization.Contextual
+import kotlinx.serialization.SerialName
+import kotlinx.serialization.Serializable
+import org.bson.codecs.pojo.annotations.BsonId
+import org.bson.types.ObjectId
+
+/**
+ * A large document: [chunks] of 1 KB strings.
+ */
+@Serializable
+data class LargeDocument(
+    @Contextual
+    @SerialName("_id")
+    @BsonId
+    val id: ObjectId? = null,
+    val chunks: List<String> = emptyList()
+)
+
+/**
+ * A document with a long array.
+ */
+@Serializable
+data class ArrayDocument(
+    @Contextual
+    @SerialName("_id")
+    @BsonId
+    val id: ObjectId? = null,
+    val values: List<Int> = emptyList()
+)
+
+/**
+ * A deeply nested document.
+ */
+@Serializable
+data class DeepDocument(
+    val level: Int = 0,
+    val child: DeepDocument? = null
+)
+
+/**
+ * A document with a large map.
+ */
+@Serializable
+data class MapDocument(
+    @Contextual
+    @SerialName("_id")
+    @BsonId
+    val id: ObjectId? = null,
+    val values: Map<String, Int> = emptyMap()
+)
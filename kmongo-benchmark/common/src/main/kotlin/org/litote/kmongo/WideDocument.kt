@@ -0,0 +1,444 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo
+
+import kotlinx.serialization.Contextual
+import kotlinx.serialization.SerialName
+import kotlinx.serialization.Serializable
+import org.bson.codecs.pojo.annotations.BsonId
+import org.bson.types.ObjectId
+
+// Generated file - the fields alternate Int and String properties.
+
+/**
+ * A wide class with 200 fields.
+ */
+@Serializable
+data class WideDocument(
+    @Contextual
+    @SerialName("_id")
+    @BsonId
+    val id: ObjectId? = null,
+    val f000: Int = 0,
+    val f001: String = "",
+    val f002: Int = 0,
+    val f003: String = "",
+    val f004: Int = 0,
+    val f005: String = "",
+    val f006: Int = 0,
+    val f007: String = "",
+    val f008: Int = 0,
+    val f009: String = "",
+    val f010: Int = 0,
+    val f011: String = "",
+    val f012: Int = 0,
+    val f013: String = "",
+    val f014: Int = 0,
+    val f015: String = "",
+    val f016: Int = 0,
+    val f017: String = "",
+    val f018: Int = 0,
+    val f019: String = "",
+    val f020: Int = 0,
+    val f021: String = "",
+    val f022: Int = 0,
+    val f023: String = "",
+    val f024: Int = 0,
+    val f025: String = "",
+    val f026: Int = 0,
+    val f027: String = "",
+    val f028: Int = 0,
+    val f029: String = "",
+    val f030: Int = 0,
+    val f031: String = "",
+    val f032: Int = 0,
+    val f033: String = "",
+    val f034: Int = 0,
+    val f035: String = "",
+    val f036: Int = 0,
+    val f037: String = "",
+    val f038: Int = 0,
+    val f039: String = "",
+    val f040: Int = 0,
+    val f041: String = "",
+    val f042: Int = 0,
+    val f043: String = "",
+    val f044: Int = 0,
+    val f045: String = "",
+    val f046: Int = 0,
+    val f047: String = "",
+    val f048: Int = 0,
+    val f049: String = "",
+    val f050: Int = 0,
+    val f051: String = "",
+    val f052: Int = 0,
+    val f053: String = "",
+    val f054: Int = 0,
+    val f055: String = "",
+    val f056: Int = 0,
+    val f057: String = "",
+    val f058: Int = 0,
+    val f059: String = "",
+    val f060: Int = 0,
+    val f061: String = "",
+    val f062: Int = 0,
+    val f063: String = "",
+    val f064: Int = 0,
+    val f065: String = "",
+    val f066: Int = 0,
+    val f067: String = "",
+    val f068: Int = 0,
+    val f069: String = "",
+    val f070: Int = 0,
+    val f071: String = "",
+    val f072: Int = 0,
+    val f073: String = "",
+    val f074: Int = 0,
+    val f075: String = "",
+    val f076: Int = 0,
+    val f077: String = "",
+    val f078: Int = 0,
+    val f079: String = "",
+    val f080: Int = 0,
+    val f081: String = "",
+    val f082: Int = 0,
+    val f083: String = "",
+    val f084: Int = 0,
+    val f085: String = "",
+    val f086: Int = 0,
+    val f087: String = "",
+    val f088: Int = 0,
+    val f089: String = "",
+    val f090: Int = 0,
+    val f091: String = "",
+    val f092: Int = 0,
+    val f093: String = "",
+    val f094: Int = 0,
+    val f095: String = "",
+    val f096: Int = 0,
+    val f097: String = "",
+    val f098: Int = 0,
+    val f099: String = "",
+    val f100: Int = 0,
+    val f101: String = "",
+    val f102: Int = 0,
+    val f103: String = "",
+    val f104: Int = 0,
+    val f105: String = "",
+    val f106: Int = 0,
+    val f107: String = "",
+    val f108: Int = 0,
+    val f109: String = "",
+    val f110: Int = 0,
+    val f111: String = "",
+    val f112: Int = 0,
+    val f113: String = "",
+    val f114: Int = 0,
+    val f115: String = "",
+    val f116: Int = 0,
+    val f117: String = "",
+    val f118: Int = 0,
+    val f119: String = "",
+    val f120: Int = 0,
+    val f121: String = "",
+    val f122: Int = 0,
+    val f123: String = "",
+    val f124: Int = 0,
+    val f125: String = "",
+    val f126: Int = 0,
+    val f127: String = "",
+    val f128: Int = 0,
+    val f129: String = "",
+    val f130: Int = 0,
+    val f131: String = "",
+    val f132: Int = 0,
+    val f133: String = "",
+    val f134: Int = 0,
+    val f135: String = "",
+    val f136: Int = 0,
+    val f137: String = "",
+    val f138: Int = 0,
+    val f139: String = "",
+    val f140: Int = 0,
+    val f141: String = "",
+    val f142: Int = 0,
+    val f143: String = "",
+    val f144: Int = 0,
+    val f145: String = "",
+    val f146: Int = 0,
+    val f147: String = "",
+    val f148: Int = 0,
+    val f149: String = "",
+    val f150: Int = 0,
+    val f151: String = "",
+    val f152: Int = 0,
+    val f153: String = "",
+    val f154: Int = 0,
+    val f155: String = "",
+    val f156: Int = 0,
+    val f157: String = "",
+    val f158: Int = 0,
+    val f159: String = "",
+    val f160: Int = 0,
+    val f161: String = "",
+    val f162: Int = 0,
+    val f163: String = "",
+    val f164: Int = 0,
+    val f165: String = "",
+    val f166: Int = 0,
+    val f167: String = "",
+    val f168: Int = 0,
+    val f169: String = "",
+    val f170: Int = 0,
+    val f171: String = "",
+    val f172: Int = 0,
+    val f173: String = "",
+    val f174: Int = 0,
+    val f175: String = "",
+    val f176: Int = 0,
+    val f177: String = "",
+    val f178: Int = 0,
+    val f179: String = "",
+    val f180: Int = 0,
+    val f181: String = "",
+    val f182: Int = 0,
+    val f183: String = "",
+    val f184: Int = 0,
+    val f185: String = "",
+    val f186: Int = 0,
+    val f187: String = "",
+    val f188: Int = 0,
+    val f189: String = "",
+    val f190: Int = 0,
+    val f191: String = "",
+    val f192: Int = 0,
+    val f193: String = "",
+    val f194: Int = 0,
+    val f195: String = "",
+    val f196: Int = 0,
+    val f197: String = "",
+    val f198: Int = 0,
+    val f199: String = ""
+)
+
+/**
+ * Returns a [WideDocument] with a distinct value in each field.
+ */
+fun wideDocument(id: ObjectId?): WideDocument =
+    WideDocument(
+        id,
+        0,
+        "value1",
+        2,
+        "value3",
+        4,
+        "value5",
+        6,
+        "value7",
+        8,
+        "value9",
+        10,
+        "value11",
+        12,
+        "value13",
+        14,
+        "value15",
+        16,
+        "value17",
+        18,
+        "value19",
+        20,
+        "value21",
+        22,
+        "value23",
+        24,
+        "value25",
+        26,
+        "value27",
+        28,
+        "value29",
+        30,
+        "value31",
+        32,
+        "value33",
+        34,
+        "value35",
+        36,
+        "value37",
+        38,
+        "value39",
+        40,
+        "value41",
+        42,
+        "value43",
+        44,
+        "value45",
+        46,
+        "value47",
+        48,
+        "value49",
+        50,
+        "value51",
+        52,
+        "value53",
+        54,
+        "value55",
+        56,
+        "value57",
+        58,
+        "value59",
+        60,
+        "value61",
+        62,
+        "value63",
+        64,
+        "value65",
+        66,
+        "value67",
+        68,
+        "value69",
+        70,
+        "value71",
+        72,
+        "value73",
+        74,
+        "value75",
+        76,
+        "value77",
+        78,
+        "value79",
+        80,
+        "value81",
+        82,
+        "value83",
+        84,
+        "value85",
+        86,
+        "value87",
+        88,
+        "value89",
+        90,
+        "value91",
+        92,
+        "value93",
+        94,
+        "value95",
+        96,
+        "value97",
+        98,
+        "value99",
+        100,
+        "value101",
+        102,
+        "value103",
+        104,
+        "value105",
+        106,
+        "value107",
+        108,
+        "value109",
+        110,
+        "value111",
+        112,
+        "value113",
+        114,
+        "value115",
+        116,
+        "value117",
+        118,
+        "value119",
+        120,
+        "value121",
+        122,
+        "value123",
+        124,
+        "value125",
+        126,
+        "value127",
+        128,
+        "value129",
+        130,
+        "value131",
+        132,
+        "value133",
+        134,
+        "value135",
+        136,
+        "value137",
+        138,
+        "value139",
+        140,
+        "value141",
+        142,
+        "value143",
+        144,
+        "value145",
+        146,
+        "value147",
+        148,
+        "value149",
+        150,
+        "value151",
+        152,
+        "value153",
+        154,
+        "value155",
+        156,
+        "value157",
+        158,
+        "value159",
+        160,
+        "value161",
+        162,
+        "value163",
+        164,
+        "value165",
+        166,
+        "value167",
+        168,
+        "value169",
+        170,
+        "value171",
+        172,
+        "value173",
+        174,
+        "value175",
+        176,
+        "value177",
+        178,
+        "value179",
+        180,
+        "value181",
+        182,
+        "value183",
+        184,
+        "value185",
+        186,
+        "value187",
+        188,
+        "value189",
+        190,
+        "value191",
+        192,
+        "value193",
+        194,
+        "value195",
+        196,
+        "value197",
+        198,
+        "value199"
+    )
@@ -0,0 +1,18 @@
+#!/usr/bin/env bash
+#
+# Copyright (C) 2016/2022 Litote
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+
+java -jar target/benchmarks.jar -rf json -rff endtoend.json -wi 3 -f 1 -prof gc
\ No newline at end of file
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.endtoend
+
+import com.mongodb.client.result.InsertManyResult
+import com.mongodb.client.result.UpdateResult
+import com.mongodb.reactivestreams.client.MongoClient
+import kotlinx.coroutines.runBlocking
+import org.litote.kmongo.Friend
+import org.litote.kmongo.coroutine.CoroutineCollection
+import org.litote.kmongo.coroutine.coroutine
+import org.litote.kmongo.coroutine.updateOne
+import org.litote.kmongo.endtoend.EndToEnd.COLLECTION
+import org.litote.kmongo.endtoend.EndToEnd.DATABASE
+import org.litote.kmongo.endtoend.EndToEnd.friend
+import org.litote.kmongo.endtoend.EndToEnd.friendId
+import org.litote.kmongo.reactivestreams.KMongo
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+
+/**
+ * The KMongo coroutine API - each operation includes a `runBlocking`.
+ */
+@State(Scope.Benchmark)
+open class CoroutineBenchmark {
+
+    private lateinit var server: FakeMongoServer
+    private lateinit var client: MongoClient
+    private lateinit var col: CoroutineCollection<Friend>
+
+    @Setup
+    fun setup() {
+        server = EndToEnd.newServer()
+        client = KMongo.createClient(server.connectionString)
+        col = client.getDatabase(DATABASE).getCollection(COLLECTION, Friend::class.java).coroutine
+    }
+
+    @TearDown
+    fun tearDown() {
+        client.close()
+        server.close()
+    }
+
+    @Benchmark
+    fun findOne(): Friend? = runBlocking { col.findOneById(friendId) }
+
+    @Benchmark
+    fun findToList(): List<Friend> = runBlocking { col.find().toList() }
+
+    @Benchmark
+    fun insertMany(): InsertManyResult = runBlocking { col.insertMany(EndToEnd.newFriends()) }
+
+    @Benchmark
+    fun save(): UpdateResult? = runBlocking { col.save(friend) }
+
+    @Benchmark
+    fun updateOne(): UpdateResult = runBlocking { col.updateOne(friend) }
+}
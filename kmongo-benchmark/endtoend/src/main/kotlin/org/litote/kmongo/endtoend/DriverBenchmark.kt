@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.endtoend
+
+import com.mongodb.client.MongoClient
+import com.mongodb.client.MongoClients
+import com.mongodb.client.MongoCollection
+import com.mongodb.client.model.Filters
+import com.mongodb.client.model.ReplaceOptions
+import com.mongodb.client.result.InsertManyResult
+import com.mongodb.client.result.UpdateResult
+import org.bson.Document
+import org.litote.kmongo.KMongoEncodeBenchmark
+import org.litote.kmongo.endtoend.EndToEnd.COLLECTION
+import org.litote.kmongo.endtoend.EndToEnd.DATABASE
+import org.litote.kmongo.endtoend.EndToEnd.friend
+import org.litote.kmongo.endtoend.EndToEnd.friendId
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+
+/**
+ * The baseline: the sync driver with [Document]s, built from and to the objects as KMongo does.
+ */
+@State(Scope.Benchmark)
+open class DriverBenchmark {
+
+    private lateinit var server: FakeMongoServer
+    private lateinit var client: MongoClient
+    private lateinit var col: MongoCollection<Document>
+
+    @Setup
+    fun setup() {
+        server = EndToEnd.newServer()
+        client = MongoClients.create(server.connectionString)
+        col = client.getDatabase(DATABASE).getCollection(COLLECTION)
+    }
+
+    @TearDown
+    fun tearDown() {
+        client.close()
+        server.close()
+    }
+
+    @Benchmark
+    fun findOne(): Document? = col.find(Filters.eq("_id", friendId)).first()
+
+    @Benchmark
+    fun findToList(): List<Document> = col.find().into(ArrayList())
+
+    @Benchmark
+    fun insertMany(): InsertManyResult = col.insertMany(EndToEnd.newDocuments())
+
+    @Benchmark
+    fun save(): UpdateResult =
+        col.replaceOne(Filters.eq("_id", friendId), KMongoEncodeBenchmark.friendDocument(friend), ReplaceOptions().upsert(true))
+
+    @Benchmark
+    fun updateOne(): UpdateResult =
+        col.updateOne(
+            Filters.eq("_id", friendId),
+            Document("\$set", KMongoEncodeBenchmark.friendDocument(friend).apply { remove("_id") })
+        )
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.endtoend
+
+import org.bson.Document
+import org.bson.RawBsonDocument
+import org.bson.codecs.DocumentCodec
+import org.bson.types.ObjectId
+import org.litote.kmongo.Friend
+import org.litote.kmongo.KMongoEncodeBenchmark
+
+/**
+ * The data of the end to end benchmarks.
+ */
+object EndToEnd {
+
+    /**
+     * The number of documents returned by a find.
+     */
+    const val FIND_SIZE = 100
+
+    /**
+     * The number of documents inserted by an insertMany.
+     */
+    const val INSERT_SIZE = 10
+
+    const val DATABASE = "benchmark"
+    const val COLLECTION = "friend"
+
+    val friend: Friend = KMongoEncodeBenchmark.friend
+
+    val friendId: ObjectId = friend.id!!
+
+    fun newServer(): FakeMongoServer =
+        FakeMongoServer(
+            (1..FIND_SIZE).map {
+                RawBsonDocument(
+                    KMongoEncodeBenchmark.friendDocument(friend.copy(id = ObjectId())),
+                    DocumentCodec()
+                )
+            }
+        )
+
+    /**
+     * New objects without id, so the id generation is measured.
+     */
+    fun newFriends(): List<Friend> = List(INSERT_SIZE) { friend.copy(id = null) }
+
+    /**
+     * New documents without id, so the id generation is measured.
+     */
+    fun newDocuments(): List<Document> = List(INSERT_SIZE) { KMongoEncodeBenchmark.friendDocument(friend).apply { remove("_id") } }
+}
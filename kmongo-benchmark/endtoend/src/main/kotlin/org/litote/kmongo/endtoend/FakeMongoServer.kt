@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.endtoend
+
+import org.bson.BsonArray
+import org.bson.BsonBoolean
+import org.bson.BsonDateTime
+import org.bson.BsonDocument
+import org.bson.BsonDouble
+import org.bson.BsonInt32
+import org.bson.BsonInt64
+import org.bson.BsonString
+import org.bson.RawBsonDocument
+import org.bson.codecs.BsonDocumentCodec
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.Closeable
+import java.io.DataInputStream
+import java.io.EOFException
+import java.io.IOException
+import java.io.OutputStream
+import java.net.InetAddress
+import java.net.ServerSocket
+import java.net.Socket
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.concurrent.thread
+
+/**
+ * An in-process stand-in for a standalone mongod, speaking enough of the wire protocol (`OP_MSG`,
+ * and `OP_QUERY` for the legacy handshake) to answer `find`, `getMore`, `insert`, `update` and `delete`.
+ *
+ * Every `find` returns the [documents] (or the [collections] documents of the queried collection), whatever the filter,
+ * and the writes report as many modified documents as they contain statements -
+ * so the driver and KMongo do their whole job, but the server does nothing.
+ *
+ * @param documents the documents returned by the queries
+ * @param collections the documents returned by the queries of a collection, by collection name
+ */
+class FakeMongoServer(
+    private val documents: List<RawBsonDocument>,
+    private val collections: Map<String, List<RawBsonDocument>> = emptyMap()
+) : Closeable {
+
+    private class Cursor(val namespace: String, val documents: List<RawBsonDocument>, var position: Int, val limit: Int)
+
+    private val serverSocket = ServerSocket(0, 50, InetAddress.getLoopbackAddress())
+    private val requestIds = AtomicInteger()
+    private val connectionIds = AtomicInteger()
+    private val cursorIds = AtomicLong()
+    private val cursors = ConcurrentHashMap<Long, Cursor>()
+    private val commands = ConcurrentHashMap<String, AtomicLong>()
+
+    @Volatile
+    private var closed = false
+
+    /**
+     * The port of the server.
+     */
+    val port: Int get() = serverSocket.localPort
+
+    /**
+     * The connection string of the server.
+     */
+    val connectionString: String get() = "mongodb://127.0.0.1:$port/?directConnection=true"
+
+    init {
+        thread(isDaemon = true, name = "fake-mongo-server") {
+            while (!closed) {
+                val socket = try {
+                    serverSocket.accept()
+                } catch (e: IOException) {
+                    break
+                }
+                thread(isDaemon = true, name = "fake-mongo-connection") { serve(socket) }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of received commands with this name.
+     */
+    fun commandCount(name: String): Long = commands[name]?.get() ?: 0
+
+    private fun serve(socket: Socket) {
+        socket.use {
+            socket.tcpNoDelay = true
+            val input = DataInputStream(BufferedInputStream(socket.getInputStream()))
+            val output = BufferedOutputStream(socket.getOutputStream())
+            val connectionId = connectionIds.incrementAndGet()
+            val header = ByteArray(HEADER_SIZE)
+            try {
+                while (!closed) {
+                    input.readFully(header)
+                    val headerBuffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN)
+                    val length = headerBuffer.int
+                    val requestId = headerBuffer.int
+                    headerBuffer.int
+                    val opCode = headerBuffer.int
+                    val body = ByteArray(length - HEADER_SIZE)
+                    input.readFully(body)
+                    val message = ByteBuffer.wrap(body).order(ByteOrder.LITTLE_ENDIAN)
+                    when (opCode) {
+                        OP_MSG -> {
+                            val flags = message.int
+                            val reply = command(readMessage(message, body.size - if (flags and CHECKSUM_PRESENT != 0) 4 else 0), connectionId)
+                            if (flags and MORE_TO_COME == 0) {
+                                writeMessage(output, requestId, reply)
+                            }
+                        }
+
+                        OP_QUERY -> writeReply(output, requestId, command(readQuery(message), connectionId))
+                        else -> error("unsupported opCode $opCode")
+                    }
+                    output.flush()
+                }
+            } catch (e: EOFException) {
+                //connection closed by the client
+            } catch (e: IOException) {
+                //connection closed by the server
+            }
+        }
+    }
+
+    private fun ByteBuffer.document(): RawBsonDocument {
+        val size = getInt(position())
+        return RawBsonDocument(array(), position(), size).also { position(position() + size) }
+    }
+
+    private fun ByteBuffer.cString(): String {
+        val start = position()
+        while (get() != 0.toByte()) {
+            //find the end of the string
+        }
+        return String(array(), start, position() - start - 1, Charsets.UTF_8)
+    }
+
+    /**
+     * Reads an `OP_MSG` body: the command and its document sequences are merged in one document.
+     */
+    private fun readMessage(message: ByteBuffer, end: Int): BsonDocument {
+        val command = BsonDocument()
+        while (message.position() < end) {
+            when (message.get().toInt()) {
+                0 -> command.putAll(message.document())
+                1 -> {
+                    val sectionEnd = message.position() + message.int
+                    val identifier = message.cString()
+                    val sequence = BsonArray()
+                    while (message.position() < sectionEnd) {
+                        sequence.add(message.document())
+                    }
+                    command[identifier] = sequence
+                }
+
+                else -> error("unsupported section")
+            }
+        }
+        return command
+    }
+
+    /**
+     * Reads an `OP_QUERY` body - only used by the handshake.
+     */
+    private fun readQuery(message: ByteBuffer): BsonDocument {
+        message.int
+        message.cString()
+        message.int
+        message.int
+        return BsonDocument().apply { putAll(message.document()) }
+    }
+
+    private fun command(command: BsonDocument, connectionId: Int): BsonDocument {
+        val name = command.firstKey
+        commands.computeIfAbsent(name) { AtomicLong() }.incrementAndGet()
+        val database = command.getString("\$db", BsonString("admin")).value
+        return when (name) {
+            "hello", "isMaster", "ismaster" -> hello(connectionId)
+            "find" -> find(database, command.getString(name).value, command)
+            "getMore" -> getMore(command)
+            "insert" -> written(command, "documents")
+            "update" -> written(command, "updates").append("nModified", BsonInt32(command.getArray("updates").size))
+            "delete" -> written(command, "deletes")
+            "killCursors" -> {
+                command.getArray("cursors").forEach { cursors.remove(it.asInt64().value) }
+                ok().append("cursorsKilled", command.getArray("cursors"))
+            }
+
+            else -> ok()
+        }
+    }
+
+    private fun ok(): BsonDocument = BsonDocument("ok", BsonDouble(1.0))
+
+    private fun hello(connectionId: Int): BsonDocument =
+        ok()
+            .append("helloOk", BsonBoolean.TRUE)
+            .append("isWritablePrimary", BsonBoolean.TRUE)
+            .append("ismaster", BsonBoolean.TRUE)
+            .append("maxBsonObjectSize", BsonInt32(16 * 1024 * 1024))
+            .append("maxMessageSizeBytes", BsonInt32(48_000_000))
+            .append("maxWriteBatchSize", BsonInt32(100_000))
+            .append("localTime", BsonDateTime(System.currentTimeMillis()))
+            .append("logicalSessionTimeoutMinutes", BsonInt32(30))
+            .append("connectionId", BsonInt32(connectionId))
+            .append("minWireVersion", BsonInt32(0))
+            .append("maxWireVersion", BsonInt32(MAX_WIRE_VERSION))
+
+    private fun BsonDocument.int(key: String, defaultValue: Int): Int =
+        get(key)?.takeIf { it.isNumber }?.asNumber()?.intValue()?.takeIf { it != 0 } ?: defaultValue
+
+    private fun find(database: String, collection: String, command: BsonDocument): BsonDocument {
+        val limit = command.int("limit", Int.MAX_VALUE).let { if (it < 0) -it else it }
+        val documents = collections[collection] ?: documents
+        val cursor = Cursor("$database.$collection", documents, 0, minOf(limit, documents.size))
+        val batchSize = if (command.getBoolean("singleBatch", BsonBoolean.FALSE).value) {
+            cursor.limit
+        } else {
+            command.int("batchSize", DEFAULT_FIRST_BATCH_SIZE)
+        }
+        return cursorReply(cursor, batchSize, null, "firstBatch")
+    }
+
+    private fun getMore(command: BsonDocument): BsonDocument {
+        val cursorId = command.getInt64("getMore").value
+        val cursor = cursors[cursorId] ?: return BsonDocument("ok", BsonDouble(0.0))
+            .append("errmsg", BsonString("cursor id $cursorId not found"))
+            .append("code", BsonInt32(CURSOR_NOT_FOUND))
+        return cursorReply(cursor, command.int("batchSize", Int.MAX_VALUE), cursorId, "nextBatch")
+    }
+
+    private fun cursorReply(cursor: Cursor, batchSize: Int, cursorId: Long?, batchName: String): BsonDocument {
+        val end = cursor.position + minOf(batchSize, cursor.limit - cursor.position)
+        val batch = BsonArray(cursor.documents.subList(cursor.position, end))
+        cursor.position = end
+        val id = when {
+            cursor.position >= cursor.limit -> 0L.also { cursorId?.let { cursors.remove(it) } }
+            cursorId != null -> cursorId
+            else -> cursorIds.incrementAndGet().also { cursors[it] = cursor }
+        }
+        return ok().append(
+            "cursor",
+            BsonDocument("id", BsonInt64(id))
+                .append("ns", BsonString(cursor.namespace))
+                .append(batchName, batch)
+        )
+    }
+
+    private fun written(command: BsonDocument, statements: String): BsonDocument =
+        ok().append("n", BsonInt32(command.getArray(statements, BsonArray()).size))
+
+    private fun encode(document: BsonDocument): RawBsonDocument = RawBsonDocument(document, documentCodec)
+
+    private fun writeHeader(buffer: ByteBuffer, length: Int, responseTo: Int, opCode: Int) {
+        buffer.putInt(length).putInt(requestIds.incrementAndGet()).putInt(responseTo).putInt(opCode)
+    }
+
+    private fun writeMessage(output: OutputStream, responseTo: Int, reply: BsonDocument) {
+        val document = encode(reply).byteBuffer.asNIO()
+        val buffer = ByteBuffer.allocate(HEADER_SIZE + 5).order(ByteOrder.LITTLE_ENDIAN)
+        writeHeader(buffer, HEADER_SIZE + 5 + document.remaining(), responseTo, OP_MSG)
+        buffer.putInt(0).put(0)
+        output.write(buffer.array())
+        output.write(document.array(), document.arrayOffset() + document.position(), document.remaining())
+    }
+
+    private fun writeReply(output: OutputStream, responseTo: Int, reply: BsonDocument) {
+        val document = encode(reply).byteBuffer.asNIO()
+        val buffer = ByteBuffer.allocate(HEADER_SIZE + 20).order(ByteOrder.LITTLE_ENDIAN)
+        writeHeader(buffer, HEADER_SIZE + 20 + document.remaining(), responseTo, OP_REPLY)
+        buffer.putInt(0).putLong(0).putInt(0).putInt(1)
+        output.write(buffer.array())
+        output.write(document.array(), document.arrayOffset() + document.position(), document.remaining())
+    }
+
+    override fun close() {
+        closed = true
+        serverSocket.close()
+    }
+
+    private companion object {
+        const val HEADER_SIZE = 16
+        const val OP_REPLY = 1
+        const val OP_QUERY = 2004
+        const val OP_MSG = 2013
+        const val CHECKSUM_PRESENT = 1
+        const val MORE_TO_COME = 2
+        const val MAX_WIRE_VERSION = 21
+        const val DEFAULT_FIRST_BATCH_SIZE = 101
+        const val CURSOR_NOT_FOUND = 43
+
+        val documentCodec = BsonDocumentCodec()
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.endtoend
+
+import com.mongodb.client.result.InsertManyResult
+import com.mongodb.client.result.UpdateResult
+import com.mongodb.reactivestreams.client.MongoClient
+import com.mongodb.reactivestreams.client.MongoCollection
+import org.litote.kmongo.Friend
+import org.litote.kmongo.endtoend.EndToEnd.COLLECTION
+import org.litote.kmongo.endtoend.EndToEnd.DATABASE
+import org.litote.kmongo.endtoend.EndToEnd.friend
+import org.litote.kmongo.endtoend.EndToEnd.friendId
+import org.litote.kmongo.reactivestreams.KMongo
+import org.litote.kmongo.rxjava2.blockingGet
+import org.litote.kmongo.rxjava2.findOneById
+import org.litote.kmongo.rxjava2.save
+import org.litote.kmongo.rxjava2.toObservable
+import org.litote.kmongo.rxjava2.updateOne
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+
+/**
+ * The KMongo rxjava2 API - each operation blocks until its result.
+ */
+@State(Scope.Benchmark)
+open class RxJava2Benchmark {
+
+    private lateinit var server: FakeMongoServer
+    private lateinit var client: MongoClient
+    private lateinit var col: MongoCollection<Friend>
+
+    @Setup
+    fun setup() {
+        server = EndToEnd.newServer()
+        client = KMongo.createClient(server.connectionString)
+        col = client.getDatabase(DATABASE).getCollection(COLLECTION, Friend::class.java)
+    }
+
+    @TearDown
+    fun tearDown() {
+        client.close()
+        server.close()
+    }
+
+    @Benchmark
+    fun findOne(): Friend? = col.findOneById(friendId).blockingGet()
+
+    @Benchmark
+    fun findToList(): List<Friend> = col.find().toObservable().toList().blockingGet()
+
+    @Benchmark
+    fun insertMany(): InsertManyResult = col.insertMany(EndToEnd.newFriends()).blockingGet()
+
+    @Benchmark
+    fun save() = col.save(friend).blockingAwait()
+
+    @Benchmark
+    fun updateOne(): UpdateResult? = col.updateOne(friend).blockingGet()
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.endtoend
+
+import org.bson.RawBsonDocument
+import org.litote.kmongo.ArrayDocument
+import org.litote.kmongo.Coordinate
+import org.litote.kmongo.DeepDocument
+import org.litote.kmongo.Friend
+import org.litote.kmongo.FriendWithBuddies
+import org.litote.kmongo.KMongo
+import org.litote.kmongo.LargeDocument
+import org.litote.kmongo.MapDocument
+import org.litote.kmongo.WideDocument
+import org.litote.kmongo.endtoend.EndToEnd.DATABASE
+import org.litote.kmongo.util.StartupTimeline
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.openjdk.jmh.annotations.Warmup
+
+/**
+ * The time to first query: from [KMongo.createClient] to the first decoded document of [models] model classes,
+ * measured once by fresh JVM - the mapping service loading, the mapper creation and the model class introspection
+ * are included.
+ *
+ * Run with `-prof gc` to get the allocations, and with `-jvmArgsAppend -Dorg.litote.kmongo.startupTimeline=log`
+ * to print the startup timeline of each fork.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+open class StartupBenchmark {
+
+    @Param("1", "4", "8")
+    @JvmField
+    var models: Int = 0
+
+    private lateinit var server: FakeMongoServer
+
+    @Setup
+    fun setup() {
+        server = FakeMongoServer(emptyList(), documents)
+    }
+
+    @TearDown
+    fun tearDown() {
+        server.close()
+        if (StartupTimeline.enabled) {
+            System.err.println(StartupTimeline.report())
+        }
+    }
+
+    @Benchmark
+    fun timeToFirstQuery(): Int =
+        KMongo.createClient(server.connectionString).use { client ->
+            val database = client.getDatabase(DATABASE)
+            types.take(models).count { database.getCollection(it.simpleName, it).find().first() != null }
+        }
+
+    companion object {
+
+        /**
+         * The model classes, by first query order.
+         */
+        private val types: List<Class<*>> = listOf(
+            Friend::class.java,
+            FriendWithBuddies::class.java,
+            Coordinate::class.java,
+            LargeDocument::class.java,
+            ArrayDocument::class.java,
+            DeepDocument::class.java,
+            MapDocument::class.java,
+            WideDocument::class.java
+        )
+
+        private const val ID = """"_id": {"${'$'}oid": "507480ff3004983e1fe5ed55"}"""
+        private const val FRIEND = """"name": "John0", "address": "Address0", "coordinate": {"lat": 1, "lng": 0}"""
+
+        /**
+         * The documents of the model classes, written by hand so the setup does not warm up the model classes.
+         */
+        private val documents: Map<String, List<RawBsonDocument>> =
+            listOf(
+                """{$ID, $FRIEND}""",
+                """{$ID, $FRIEND, "buddies": [{$FRIEND}, {$FRIEND}]}""",
+                """{"lat": 1, "lng": 0}""",
+                """{$ID, "chunks": ["${"x".repeat(1024)}", "${"y".repeat(1024)}"]}""",
+                """{$ID, "values": [${(0 until 100).joinToString()}]}""",
+                """{"level": 0, "child": {"level": 1, "child": {"level": 2}}}""",
+                """{$ID, "values": {${(0 until 100).joinToString { "\"key$it\": $it" }}}}""",
+                """{$ID, ${(0 until 200).joinToString { "\"f%03d\": %s".format(it, if (it % 2 == 0) "$it" else "\"value$it\"") }}}"""
+            )
+                .mapIndexed { index, json -> types[index].simpleName to listOf(RawBsonDocument.parse(json)) }
+                .toMap()
+    }
+}
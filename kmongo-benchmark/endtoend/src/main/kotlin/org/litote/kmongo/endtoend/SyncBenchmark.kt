@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.endtoend
+
+import com.mongodb.client.MongoClient
+import com.mongodb.client.MongoCollection
+import com.mongodb.client.result.InsertManyResult
+import com.mongodb.client.result.UpdateResult
+import org.litote.kmongo.Friend
+import org.litote.kmongo.KMongo
+import org.litote.kmongo.endtoend.EndToEnd.COLLECTION
+import org.litote.kmongo.endtoend.EndToEnd.DATABASE
+import org.litote.kmongo.endtoend.EndToEnd.friend
+import org.litote.kmongo.endtoend.EndToEnd.friendId
+import org.litote.kmongo.findOneById
+import org.litote.kmongo.save
+import org.litote.kmongo.updateOne
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+
+/**
+ * The KMongo sync API.
+ */
+@State(Scope.Benchmark)
+open class SyncBenchmark {
+
+    private lateinit var server: FakeMongoServer
+    private lateinit var client: MongoClient
+    private lateinit var col: MongoCollection<Friend>
+
+    @Setup
+    fun setup() {
+        server = EndToEnd.newServer()
+        client = KMongo.createClient(server.connectionString)
+        col = client.getDatabase(DATABASE).getCollection(COLLECTION, Friend::class.java)
+    }
+
+    @TearDown
+    fun tearDown() {
+        client.close()
+        server.close()
+    }
+
+    @Benchmark
+    fun findOne(): Friend? = col.findOneById(friendId)
+
+    @Benchmark
+    fun findToList(): List<Friend> = col.find().toList()
+
+    @Benchmark
+    fun insertMany(): InsertManyResult = col.insertMany(EndToEnd.newFriends())
+
+    @Benchmark
+    fun save() = col.save(friend)
+
+    @Benchmark
+    fun updateOne(): UpdateResult = col.updateOne(friend)
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo
+
+import org.bson.BsonDocument
+import org.bson.conversions.Bson
+import org.litote.kmongo.KMongoBenchmark.kmongoCodecRegistry
+import org.litote.kmongo.KMongoQueryBenchmark.filter
+import org.litote.kmongo.KMongoQueryBenchmark.paths
+import org.litote.kmongo.KMongoQueryBenchmark.pipeline
+import org.litote.kmongo.KMongoQueryBenchmark.render
+import org.litote.kmongo.KMongoQueryBenchmark.update
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+
+/**
+ * Builds paths, filters, updates and pipelines with the query DSL, and renders them with the codec registry.
+ */
+open class QueryDslBenchmark {
+
+    @Benchmark
+    fun jacksonPaths(): Int = paths()
+
+    @Benchmark
+    fun jacksonFilter(): Bson = filter()
+
+    @Benchmark
+    fun jacksonUpdate(): Bson = update()
+
+    @Benchmark
+    fun jacksonPipeline(): List<Bson> = pipeline()
+
+    @Benchmark
+    fun jacksonRenderFilter(): BsonDocument = render(filter(), kmongoCodecRegistry)
+
+    @Benchmark
+    fun jacksonRenderUpdate(): BsonDocument = render(update(), kmongoCodecRegistry)
+
+    @Benchmark
+    fun jacksonRenderPipeline(): Int = render(pipeline(), kmongoCodecRegistry)
+
+    companion object {
+
+        @JvmStatic
+        fun main(args: Array<String>) {
+            val b = QueryDslBenchmark()
+            println(b.jacksonPaths())
+            println(b.jacksonRenderFilter())
+            println(b.jacksonRenderUpdate())
+            println(b.jacksonRenderPipeline())
+            println(pipeline().map { render(it, kmongoCodecRegistry) })
+        }
+    }
+}
+
+/**
+ * [QueryDslBenchmark] with the path cache disabled: every path is calculated by the mapping.
+ */
+@Fork(jvmArgsAppend = ["-Dorg.litote.kmongo.disablePathCache=true"])
+open class QueryDslNoPathCacheBenchmark : QueryDslBenchmark()
+
+/**
+ * [QueryDslBenchmark] with the soft references (the path cache and the kotlin-reflect caches)
+ * cleared before each invocation: with `SoftRefLRUPolicyMSPerMB=0`, the second full GC clears
+ * the soft references reached since the previous one.
+ */
+@State(Scope.Thread)
+@Fork(jvmArgsAppend = ["-XX:SoftRefLRUPolicyMSPerMB=0"])
+open class QueryDslClearedSoftReferencesBenchmark : QueryDslBenchmark() {
+
+    @Setup(Level.Invocation)
+    fun clearSoftReferences() {
+        System.gc()
+        System.gc()
+    }
+}
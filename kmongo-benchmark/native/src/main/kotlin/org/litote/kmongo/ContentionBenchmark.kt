@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo
+
+import org.litote.kmongo.KMongoBenchmark.kmongoCodecRegistry
+import org.litote.kmongo.KMongoContentionBenchmark.WRITE_INTERVAL
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Group
+import org.openjdk.jmh.annotations.GroupThreads
+import org.openjdk.jmh.infra.Blackhole
+
+/**
+ * Concurrent lookups of the shared caches and registries.
+ * Run with `-t <threads>` for the lookup benchmarks and `-tg 1,<threads>` for the `withWrites` group (JMH orders the group methods by name),
+ * where one thread adds a custom codec from time to time - `contention.sh` runs both from 1 to N threads.
+ */
+open class ContentionBenchmark {
+
+    @Benchmark
+    fun codecLookup(): Int = KMongoContentionBenchmark.codecLookup(kmongoCodecRegistry)
+
+    @Benchmark
+    fun idExtraction(): Int = KMongoContentionBenchmark.idExtraction()
+
+    @Benchmark
+    fun pathResolution(): Int = KMongoContentionBenchmark.pathResolution()
+
+    @Benchmark
+    @Group("withWrites")
+    @GroupThreads(7)
+    fun lookups(): Int = KMongoContentionBenchmark.lookups(kmongoCodecRegistry)
+
+    @Benchmark
+    @Group("withWrites")
+    @GroupThreads(1)
+    fun addCustomCodec() {
+        KMongoContentionBenchmark.addCustomCodec()
+        Blackhole.consumeCPU(WRITE_INTERVAL)
+    }
+
+    companion object {
+
+        @JvmStatic
+        fun main(args: Array<String>) {
+            val b = ContentionBenchmark()
+            println(b.codecLookup())
+            println(b.idExtraction())
+            println(b.pathResolution())
+            b.addCustomCodec()
+            println(b.lookups())
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo
+
+import org.litote.kmongo.KMongoBenchmark.kmongoCodecRegistry
+import org.litote.kmongo.KMongoEncodeBenchmark.encode
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+
+/**
+ * Encodes and decodes the large or deep documents of the [Scenario]s.
+ * Select the scenarios with `-p scenario=LARGE_1MB,DEEP_20`.
+ */
+@State(Scope.Benchmark)
+open class ScenarioBenchmark {
+
+    @Param
+    lateinit var scenario: Scenario
+
+    private lateinit var model: Any
+    private lateinit var bytes: ByteArray
+
+    @Setup
+    fun setup() {
+        model = scenario.model()
+        bytes = scenario.bytes()
+    }
+
+    @Benchmark
+    fun nativeEncode(): Int = encode(kmongoCodecRegistry, model)
+
+    @Benchmark
+    fun nativeDecode(): Any = ScenarioGenerator.decode(kmongoCodecRegistry, scenario.type, bytes)
+
+    companion object {
+
+        @JvmStatic
+        fun main(args: Array<String>) {
+            Scenario.values().forEach {
+                val b = ScenarioBenchmark()
+                b.scenario = it
+                b.setup()
+                println("$it ${b.nativeEncode()} ${b.nativeDecode() == b.model}")
+            }
+        }
+    }
+}
@@ -15,4 +15,4 @@
 # limitations under the License.
 #
 
-java -jar target/benchmarks.jar -rf json -rff serialization.json -wi 3 -f 1
\ No newline at end of file
+java -jar target/benchmarks.jar -rf json -rff serialization.json -wi 3 -f 1 -prof gc
\ No newline at end of file
@@ -0,0 +1,28 @@
+#!/usr/bin/env bash
+#
+# Copyright (C) 2016/2022 Litote
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# Runs the contention benchmarks from 1 to MAX_THREADS (default 64) threads, doubling the threads at each step.
+# The results of the steps are merged in contention-serialization.csv - the Threads column gives the scaling curve.
+
+MAX_THREADS=${1:-64}
+t=1
+rm -f contention-serialization-*.csv
+while [ $t -le $MAX_THREADS ]; do
+  java -jar target/benchmarks.jar "SerializationContentionBenchmark\.(codecLookup|idExtraction|pathResolution)$" -t $t -rf csv -rff contention-serialization-$t.csv -wi 3 -i 5 -f 1
+  java -jar target/benchmarks.jar "SerializationContentionBenchmark\.withWrites" -tg 1,$t,1 -rf csv -rff contention-serialization-writes-$t.csv -wi 3 -i 5 -f 1
+  t=$((t * 2))
+done
+{ head -n 1 contention-serialization-1.csv; tail -q -n +2 contention-serialization-*.csv; } > contention-serialization.csv
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.serialization
+
+import org.bson.BsonValue
+import org.litote.kmongo.Friend
+import org.litote.kmongo.KMongoBenchmark.defaultCodecRegistry
+import org.litote.kmongo.KMongoBenchmark.kmongoCodecRegistry
+import org.litote.kmongo.KMongoEncodeBenchmark
+import org.litote.kmongo.KMongoEncodeBenchmark.collectibleCodec
+import org.litote.kmongo.KMongoEncodeBenchmark.encode
+import org.litote.kmongo.KMongoEncodeBenchmark.friend
+import org.litote.kmongo.KMongoEncodeBenchmark.friendAsDocument
+import org.litote.kmongo.KMongoEncodeBenchmark.friendWithBuddies
+import org.litote.kmongo.KMongoEncodeBenchmark.friendWithBuddiesAsDocument
+import org.openjdk.jmh.annotations.Benchmark
+
+/**
+ * Run with `-prof gc` to get the allocations by operation.
+ */
+open class SerializationEncodeBenchmark {
+
+    @Benchmark
+    fun driverFriendWithBuddies(): Int = encode(defaultCodecRegistry, friendWithBuddiesAsDocument)
+
+    @Benchmark
+    fun driverFriend(): Int = encode(defaultCodecRegistry, friendAsDocument)
+
+    @Benchmark
+    fun serializationFriendWithBuddies(): Int = encode(kmongoCodecRegistry, friendWithBuddies)
+
+    @Benchmark
+    fun serializationFriend(): Int = encode(kmongoCodecRegistry, friend)
+
+    @Benchmark
+    fun serializationFilterIdToBson(): Int = KMongoEncodeBenchmark.filterIdToBson(friend)
+
+    @Benchmark
+    fun serializationToExtendedJson(): String = KMongoEncodeBenchmark.toExtendedJson(friend)
+
+    @Benchmark
+    fun serializationGetDocumentId(): BsonValue = friendCodec.getDocumentId(friend)
+
+    @Benchmark
+    fun serializationGenerateIdIfAbsentFromDocument(): Friend =
+        friendCodec.generateIdIfAbsentFromDocument(friend.copy(id = null))
+
+    companion object {
+
+        private val friendCodec = collectibleCodec(kmongoCodecRegistry, Friend::class.java)
+
+        @JvmStatic
+        fun main(args: Array<String>) {
+            val b = SerializationEncodeBenchmark()
+            println(b.driverFriendWithBuddies())
+            println(b.serializationFriendWithBuddies())
+            println(b.driverFriend())
+            println(b.serializationFriend())
+            println(b.serializationFilterIdToBson())
+            println(b.serializationToExtendedJson())
+            println(b.serializationGetDocumentId())
+            println(b.serializationGenerateIdIfAbsentFromDocument())
+        }
+    }
+}
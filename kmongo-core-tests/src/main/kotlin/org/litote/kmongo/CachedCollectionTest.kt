@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo
+
+import com.mongodb.ReadPreference
+import org.bson.Document
+import org.junit.Test
+import org.litote.kmongo.model.Friend
+import kotlin.test.assertEquals
+import kotlin.test.assertNotSame
+import kotlin.test.assertSame
+
+/**
+ *
+ */
+class CachedCollectionTest : AllCategoriesKMongoBaseTest<Friend>() {
+
+    @Test
+    fun `getCachedCollection returns the same handle`() {
+        val friends = database.getCachedCollection<Friend>()
+        assertSame(friends, database.getCachedCollection<Friend>())
+        assertEquals(col.namespace, friends.namespace)
+
+        friends.insertOne(Friend("John"))
+        assertEquals("John", col.findOne()?.name)
+    }
+
+    @Test
+    fun `getCachedCollection handles depend on name, class and database settings`() {
+        val friends = database.getCachedCollection<Friend>()
+        assertNotSame<Any>(friends, database.getCachedCollection<Friend>("otherFriend"))
+        assertNotSame<Any>(friends, database.getCachedCollection<Document>("friend"))
+        val secondaryDatabase = database.withReadPreference(ReadPreference.secondaryPreferred())
+        val secondaryFriends = secondaryDatabase.getCachedCollection<Friend>()
+        assertNotSame(friends, secondaryFriends)
+        assertEquals(ReadPreference.secondaryPreferred(), secondaryFriends.readPreference)
+    }
+}
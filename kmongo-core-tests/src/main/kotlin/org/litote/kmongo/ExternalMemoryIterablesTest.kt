@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo
+
+import org.bson.types.ObjectId
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.litote.kmongo.model.Friend
+import org.litote.kmongo.util.ExternalMemoryOptions
+import java.nio.file.Files
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+/**
+ *
+ */
+class ExternalMemoryIterablesTest : AllCategoriesKMongoBaseTest<Friend>() {
+
+    //forces spilling every few documents
+    private val smallBudget = ExternalMemoryOptions(maxInMemoryBytes = 256, partitions = 4)
+
+    private val friends = (0 until 100).map { Friend(ObjectId(), "John${it % 10}", "${100 - it} Wall Street") }
+
+    private val codec by lazy { col.codecRegistry.get(Friend::class.java) }
+
+    private val tempDirectory = Files.createTempDirectory("kmongo-spill-test").toFile()
+
+    @Before
+    fun setup() {
+        col.insertMany(friends)
+    }
+
+    @After
+    fun deleteTempDirectory() {
+        tempDirectory.deleteRecursively()
+    }
+
+    @Test
+    fun canSortWithSpilling() {
+        assertEquals(
+            friends.sortedBy { it.name },
+            col.find().externalSortedBy(codec, smallBudget) { it.name }.toList()
+        )
+        assertEquals(
+            friends.sortedByDescending { it.address },
+            col.find().externalSortedByDescending(codec, smallBudget) { it.address }.toList()
+        )
+    }
+
+    @Test
+    fun canSortInMemory() {
+        assertEquals(
+            friends.sortedBy { it.name },
+            col.find().externalSortedBy(codec) { it.name }.toList()
+        )
+    }
+
+    @Test
+    fun canReverseWithSpilling() {
+        assertEquals(
+            friends.reversed(),
+            col.find().ascendingSort(Friend::_id).externalReversed(codec, smallBudget).toList()
+        )
+    }
+
+    @Test
+    fun canGroupByWithSpilling() {
+        assertEquals(
+            friends.groupBy { it.name },
+            col.find().ascendingSort(Friend::_id).externalGroupBy(codec, smallBudget) { it.name }.toMap()
+        )
+    }
+
+    @Test
+    fun canDistinctWithSpilling() {
+        assertEquals(
+            friends.distinctBy { it.name }.toSet(),
+            col.find().ascendingSort(Friend::_id).externalDistinctBy(codec, smallBudget) { it.name }.toSet()
+        )
+        assertEquals(friends.toSet(), col.find().externalDistinct(codec, smallBudget).toSet())
+    }
+
+    @Test
+    fun closingTheSequenceDeletesTheRemainingSpillFiles() {
+        val options = ExternalMemoryOptions(maxInMemoryBytes = 256, partitions = 4, tempDirectory = tempDirectory)
+
+        col.find().externalGroupBy(codec, options) { it.name }.use { it.first() }
+        col.find().externalSortedBy(codec, options) { it.name }.use { it.take(3).toList() }
+        col.find().externalReversed(codec, options).close()
+
+        assertTrue(tempDirectory.listFiles()!!.isEmpty())
+    }
+}
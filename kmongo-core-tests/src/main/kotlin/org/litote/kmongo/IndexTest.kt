@@ -16,12 +16,14 @@
 
 package org.litote.kmongo
 
+import com.mongodb.client.model.IndexModel
 import com.mongodb.client.model.IndexOptions
 import org.junit.Test
 import org.litote.kmongo.model.Friend
 import java.util.concurrent.TimeUnit
 import kotlin.reflect.KProperty
 import kotlin.test.assertEquals
+import kotlin.test.assertFalse
 
 /**
  *
@@ -45,4 +47,28 @@ class IndexTest : AllCategoriesKMongoBaseTest<Friend>() {
     fun `orderBy index compiles as expected`() {
         col.ensureIndex(orderBy(mapOf(Friend::name to true, Friend::tags to false)))
     }
-}
\ No newline at end of file
+
+    @Test
+    fun `reconcileIndexes creates only missing or changed indexes`() {
+        col.ensureIndex(Friend::creationDate, indexOptions = IndexOptions().expireAfter(1, TimeUnit.DAYS))
+        col.ensureIndex(Friend::address)
+
+        val indexes = listOf(
+            IndexModel(ascending(Friend::creationDate), IndexOptions().expireAfter(50, TimeUnit.SECONDS)),
+            IndexModel(ascending(Friend::address)),
+            IndexModel(ascending(Friend::name), IndexOptions().unique(true))
+        )
+        val report = col.reconcileIndexes(indexes)
+        assertEquals(listOf("creationDate_1", "name_1"), report.created)
+        assertEquals(listOf("creationDate_1"), report.dropped)
+        assertEquals(listOf("address_1"), report.unchanged)
+        assertEquals(
+            50,
+            col.listIndexes().first { (it.getString("name") == "creationDate_1") }.getInteger("expireAfterSeconds")
+        )
+
+        val second = col.reconcileIndexes(indexes)
+        assertFalse(second.changed)
+        assertEquals(3, second.unchanged.size)
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo
+
+import org.junit.Test
+import org.litote.kmongo.model.Friend
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNull
+
+/**
+ *
+ */
+class KeysetPaginationTest : AllCategoriesKMongoBaseTest<Friend>() {
+
+    @Test
+    fun `paginate returns the next page from the token`() {
+        col.insertMany((1..25).map { Friend("John${it % 3}", "$it") })
+
+        val first = col.paginate(EMPTY_BSON, Friend::name, Friend::_id, pageSize = 10)
+        val second = col.paginate(EMPTY_BSON, Friend::name, Friend::_id, pageSize = 10, token = first.nextToken)
+        val third = col.paginate(EMPTY_BSON, Friend::name, Friend::_id, pageSize = 10, token = second.nextToken)
+
+        assertEquals(listOf(10, 10, 5), listOf(first, second, third).map { it.items.size })
+        assertNull(third.nextToken)
+        assertFalse(third.hasNext)
+        assertEquals(
+            col.find().sort(ascending(Friend::name, Friend::_id)).map { it.address }.toList(),
+            (first.items + second.items + third.items).map { it.address }
+        )
+    }
+
+    @Test
+    fun `pages streams all the pages matching the filter`() {
+        col.insertMany((1..25).map { Friend("John", if (it % 2 == 0) "even" else "odd") })
+
+        val pages = col.pages(Friend::address eq "even", Friend::_id, pageSize = 5, descending = true).toList()
+
+        assertEquals(listOf(5, 5, 2), pages.map { it.items.size })
+        assertEquals(
+            col.find(Friend::address eq "even").sort(descending(Friend::_id)).map { it._id }.toList(),
+            pages.flatMap { page -> page.items.map { it._id } }
+        )
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo
+
+import org.junit.Test
+import org.litote.kmongo.model.Friend
+import java.util.concurrent.ConcurrentLinkedQueue
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+/**
+ *
+ */
+class ParallelScanTest : AllCategoriesKMongoBaseTest<Friend>() {
+
+    @Test
+    fun `scanPartitions returns disjoint partitions covering the collection`() {
+        col.insertMany((1..200).map { Friend("John$it") })
+
+        val partitions = col.scanPartitions(4)
+        val names = partitions.flatMap { partition -> partition.map { it.name!! }.toList() }
+
+        assertTrue(partitions.size in 2..4)
+        assertEquals(200, names.size)
+        assertEquals(200, names.toSet().size)
+    }
+
+    @Test
+    fun `parallelScan applies the filter`() {
+        col.insertMany((1..100).map { Friend("John$it", if (it % 2 == 0) "even" else "odd") })
+
+        val names = ConcurrentLinkedQueue<String>()
+        col.parallelScan(3, Friend::address eq "even") { names.add(it.name!!) }
+
+        assertEquals((1..100).filter { it % 2 == 0 }.map { "John$it" }.toSet(), names.toSet())
+        assertEquals(50, names.size)
+    }
+}
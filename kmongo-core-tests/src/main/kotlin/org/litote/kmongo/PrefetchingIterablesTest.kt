@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo
+
+import com.mongodb.client.MongoCursor
+import com.mongodb.client.MongoIterable
+import org.bson.RawBsonDocument
+import org.bson.types.ObjectId
+import org.junit.Before
+import org.junit.Test
+import org.litote.kmongo.model.Friend
+import org.litote.kmongo.util.PrefetchOptions
+import java.util.concurrent.Executor
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+/**
+ *
+ */
+class PrefetchingIterablesTest : AllCategoriesKMongoBaseTest<Friend>() {
+
+    private val friends = (0 until 100).map { Friend(ObjectId(), "John$it") }
+
+    @Before
+    fun setup() {
+        col.insertMany(friends)
+    }
+
+    @Test
+    fun canFindWithPrefetching() {
+        assertEquals(
+            friends,
+            col.findPrefetching(options = PrefetchOptions(prefetchBatches = 1)) {
+                sort(ascending(Friend::_id)).batchSize(7)
+            }.toList()
+        )
+    }
+
+    @Test
+    fun canMapWithPrefetching() {
+        assertEquals(
+            friends.map { it.name },
+            col.findPrefetching { sort(ascending(Friend::_id)).batchSize(10) }.map { it.name }.toList()
+        )
+    }
+
+    @Test
+    fun canIterateSequenceWithPrefetching() {
+        assertEquals(
+            friends.filter { it.name!!.endsWith("1") },
+            col.withDocumentClass<RawBsonDocument>()
+                .find()
+                .sort(ascending(Friend::_id))
+                .batchSize(3)
+                .prefetchingSequence(col.codecRegistry.get(Friend::class.java))
+                .filter { it.name!!.endsWith("1") }
+                .toList()
+        )
+    }
+
+    @Test
+    fun canCloseCursorBeforeTheEnd() {
+        col.findPrefetching { batchSize(5) }.iterator().use { cursor ->
+            assertEquals(3, (0 until 3).map { cursor.next() }.size)
+        }
+    }
+
+    @Test
+    fun canCloseCursorBeforeTheReaderStarts() {
+        val source = col.withDocumentClass<RawBsonDocument>().find().batchSize(5)
+        val sourceCursor = source.iterator()
+        var sourceClosed = false
+        val trackedSource = object : MongoIterable<RawBsonDocument> by source {
+            override fun iterator(): MongoCursor<RawBsonDocument> =
+                object : MongoCursor<RawBsonDocument> by sourceCursor {
+                    override fun close() {
+                        sourceClosed = true
+                        sourceCursor.close()
+                    }
+                }
+        }
+        val queued = mutableListOf<Runnable>()
+        val cursor = trackedSource
+            .prefetching(col.codecRegistry.get(Friend::class.java), PrefetchOptions(readExecutor = Executor { queued.add(it) }))
+            .iterator()
+
+        cursor.close()
+        assertTrue(sourceClosed)
+        queued.forEach { it.run() }
+        assertFalse(cursor.hasNext())
+    }
+}
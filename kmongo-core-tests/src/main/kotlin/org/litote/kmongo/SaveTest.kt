@@ -21,6 +21,7 @@ import org.bson.types.ObjectId
 import org.junit.After
 import org.junit.Test
 import org.litote.kmongo.model.Friend
+import org.litote.kmongo.util.SaveAllOptions
 import kotlin.test.assertEquals
 import kotlin.test.assertNotNull
 
@@ -84,4 +85,22 @@ class SaveTest : AllCategoriesKMongoBaseTest<Friend>() {
         colWithoutId.save(instance)
         assertEquals(2, colWithoutId.countDocuments())
     }
-}
\ No newline at end of file
+
+    @Test
+    fun testSaveAll() {
+        val existing = Friend(ObjectId(), "Yoda")
+        col.insertOne(existing)
+        existing.name = "Luke"
+        val friends = listOf(Friend("John"), existing, Friend(ObjectId(), "Joe"), Friend("Bob"))
+
+        val result = col.saveAll(friends, SaveAllOptions(maxBatchSize = 3))
+
+        assertEquals(2, result.insertedCount)
+        assertEquals(1, result.matchedCount)
+        assertEquals(listOf(2), result.upserts.map { it.index })
+        assertEquals(4, col.countDocuments())
+        assertEquals("Luke", col.findOneById(existing._id!!)!!.name)
+        assertNotNull(friends[3]._id)
+        assertEquals("Bob", col.findOneById(friends[3]._id!!)!!.name)
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo
+
+import com.mongodb.client.MongoChangeStreamCursor
+import com.mongodb.client.MongoCollection
+import com.mongodb.client.model.ReplaceOptions
+import com.mongodb.client.model.UpdateOptions
+import com.mongodb.client.model.changestream.ChangeStreamDocument
+import com.mongodb.client.result.DeleteResult
+import com.mongodb.client.result.UpdateResult
+import org.bson.BsonDocument
+import org.bson.BsonValue
+import org.bson.RawBsonDocument
+import org.bson.conversions.Bson
+import org.litote.kmongo.util.EntityCache
+import org.litote.kmongo.util.EntityCacheMetrics
+import org.litote.kmongo.util.EntityCacheOptions
+import org.litote.kmongo.util.IdBatchLoading
+import org.litote.kmongo.util.KMongoUtil
+import org.litote.kmongo.util.UpdateConfiguration
+import java.io.Closeable
+import kotlin.concurrent.thread
+
+/**
+ * An in-process cache of the documents of a collection, by id.
+ *
+ * The cache is invalidated by the writes of this class, and, if [EntityCacheOptions.watch] is true,
+ * by a change stream watched on a background thread - the other writes are seen with the change stream latency.
+ * The documents are cached only while the change stream is open: after a change stream error,
+ * the whole cache is invalidated and the documents are no longer cached until the change stream is resumed.
+ *
+ * @see entityCache
+ */
+class MongoEntityCache<T : Any> internal constructor(
+    val collection: MongoCollection<T>,
+    private val options: EntityCacheOptions
+) : Closeable {
+
+    private val cache = EntityCache<Any>(options)
+    private val codec = collection.codecRegistry.get(collection.documentClass)
+    private val rawCollection = collection.withDocumentClass(RawBsonDocument::class.java)
+
+    @Volatile
+    private var closed = false
+
+    @Volatile
+    private var cursor: MongoChangeStreamCursor<ChangeStreamDocument<BsonDocument>>? = null
+
+    private val watcher = if (options.watch) {
+        cache.pause()
+        thread(isDaemon = true, name = "kmongo-entity-cache") { watch() }
+    } else {
+        null
+    }
+
+    /**
+     * The cache counters.
+     */
+    val metrics: EntityCacheMetrics get() = cache.metrics
+
+    private fun watch() {
+        var resumeToken: BsonDocument? = null
+        while (!closed) {
+            try {
+                collection.watch(BsonDocument::class.java)
+                    .apply { resumeToken?.let { resumeAfter(it) } }
+                    .cursor()
+                    .use { changes ->
+                        cursor = changes
+                        if (closed) return
+                        //the next writes are seen by the change stream, so the documents can be cached
+                        resumeToken = changes.resumeToken ?: resumeToken
+                        cache.resume()
+                        while (!closed && changes.hasNext()) {
+                            val change = changes.next()
+                            cache.onChange(change.operationType, change.documentKey)
+                            resumeToken = changes.resumeToken ?: change.resumeToken
+                        }
+                    }
+            } catch (e: Exception) {
+                if (closed) return
+                cache.pause()
+                if (!KMongoUtil.isResumableChangeStreamError(e)) {
+                    resumeToken = null
+                }
+                try {
+                    Thread.sleep(options.watchRetryMillis)
+                } catch (e: InterruptedException) {
+                    return
+                }
+            }
+        }
+    }
+
+    private fun id(id: Any): BsonValue = IdBatchLoading.idValue(id, collection.codecRegistry)
+
+    @Suppress("UNCHECKED_CAST")
+    private fun decode(document: Any?): T? =
+        if (document is RawBsonDocument && options.storeRawDocuments) document.decode(codec) else document as T?
+
+    private fun findOneById(id: BsonValue): T? =
+        decode(
+            cache.getOrLoad(id) {
+                if (options.storeRawDocuments) rawCollection.findOneById(id) else collection.findOneById(id)
+            }
+        )
+
+    /**
+     * Finds the document that match the id parameter - from the cache if possible.
+     *
+     * @param id the object id
+     */
+    fun findOneById(id: Any): T? = findOneById(id(id))
+
+    /**
+     * Finds the first document that match the filter - from the cache if the filter is an `_id` equality.
+     *
+     * @param filter the query filter
+     */
+    fun findOne(filter: Bson): T? {
+        val id = EntityCache.idOf(filter, collection.codecRegistry)
+        return if (id != null) findOneById(id) else collection.findOne(filter)
+    }
+
+    /**
+     * Save the document and invalidates its cache entry.
+     *
+     * @param document the document to save
+     * @see MongoCollection.save
+     */
+    fun save(document: T) {
+        try {
+            collection.save(document)
+        } finally {
+            KMongoUtil.getIdValue(document)?.let { invalidate(it) }
+        }
+    }
+
+    /**
+     * Replaces a document and invalidates its cache entry.
+     *
+     * @param id          the object id
+     * @param replacement the replacement document
+     * @param options     the options to apply to the replace operation
+     * @see MongoCollection.replaceOneById
+     */
+    fun replaceOneById(id: Any, replacement: T, options: ReplaceOptions = ReplaceOptions()): UpdateResult =
+        invalidateAfter(id) { collection.replaceOneById(id, replacement, options) }
+
+    /**
+     * Updates a document and invalidates its cache entry.
+     *
+     * @param id        the object id
+     * @param update    the update object
+     * @param options   the options to apply to the update operation
+     * @param updateOnlyNotNullProperties if true do not change null properties
+     * @see MongoCollection.updateOneById
+     */
+    fun updateOneById(
+        id: Any,
+        update: Any,
+        options: UpdateOptions = UpdateOptions(),
+        updateOnlyNotNullProperties: Boolean = UpdateConfiguration.updateOnlyNotNullProperties
+    ): UpdateResult =
+        invalidateAfter(id) { collection.updateOneById(id, update, options, updateOnlyNotNullProperties) }
+
+    /**
+     * Deletes a document and invalidates its cache entry.
+     *
+     * @param id the object id
+     * @see MongoCollection.deleteOneById
+     */
+    fun deleteOneById(id: Any): DeleteResult = invalidateAfter(id) { collection.deleteOneById(id) }
+
+    private inline fun <R> invalidateAfter(id: Any, write: () -> R): R =
+        try {
+            write()
+        } finally {
+            invalidate(id)
+        }
+
+    /**
+     * Removes a document from the cache.
+     *
+     * @param id the object id
+     */
+    fun invalidate(id: Any) = cache.invalidate(id(id))
+
+    /**
+     * Removes all the documents from the cache.
+     */
+    fun invalidateAll() = cache.invalidateAll()
+
+    /**
+     * Stops the change stream watcher.
+     */
+    override fun close() {
+        closed = true
+        cursor?.close()
+        watcher?.interrupt()
+    }
+}
+
+/**
+ * Returns an in-process cache of the documents of this collection, by id.
+ * The returned cache should be closed in order to stop its change stream.
+ *
+ * @param options the cache options
+ * @return a new cache
+ */
+fun <T : Any> MongoCollection<T>.entityCache(options: EntityCacheOptions = EntityCacheOptions()): MongoEntityCache<T> =
+    MongoEntityCache(this, options)
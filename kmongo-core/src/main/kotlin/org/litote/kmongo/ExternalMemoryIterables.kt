@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo
+
+import com.mongodb.client.MongoIterable
+import org.bson.codecs.Codec
+import org.litote.kmongo.util.ExternalMemory
+import org.litote.kmongo.util.ExternalMemoryOptions
+import org.litote.kmongo.util.ExternalSequence
+
+//spill-to-disk variants of the client side MongoIterable reorganization methods.
+//The cursor is fully read (and closed) when the method is called,
+//documents that do not fit in the memory budget are written to temp files with the [codec].
+//The returned sequence can be iterated only once, and has to be closed if it is not fully iterated
+//(for example `externalSortedBy(codec) { it.name }.use { it.take(10).toList() }`) to delete the remaining temp files.
+
+/**
+ * Returns a sequence of all elements sorted according to the specified [comparator],
+ * using bounded heap: sorted runs are spilled to disk and lazily merged.
+ *
+ * The sort is stable.
+ *
+ * @param codec the codec used to write documents to disk - usually `collection.codecRegistry.get(T::class.java)`
+ * @param comparator the comparator
+ * @param options the memory budget
+ */
+fun <T> MongoIterable<T>.externalSortedWith(
+    codec: Codec<T>,
+    comparator: Comparator<in T>,
+    options: ExternalMemoryOptions = ExternalMemoryOptions()
+): ExternalSequence<T> = useCursor { ExternalMemory(codec, options).sort(it.iterator(), comparator) }
+
+/**
+ * Returns a sequence of all elements sorted according to natural sort order of the value returned by specified [selector] function,
+ * using bounded heap: sorted runs are spilled to disk and lazily merged.
+ *
+ * @param codec the codec used to write documents to disk
+ * @param options the memory budget
+ * @param selector the sort value selector
+ */
+inline fun <T, R : Comparable<R>> MongoIterable<T>.externalSortedBy(
+    codec: Codec<T>,
+    options: ExternalMemoryOptions = ExternalMemoryOptions(),
+    crossinline selector: (T) -> R?
+): ExternalSequence<T> = externalSortedWith(codec, compareBy(selector), options)
+
+/**
+ * Returns a sequence of all elements sorted descending according to natural sort order of the value returned by specified [selector] function,
+ * using bounded heap: sorted runs are spilled to disk and lazily merged.
+ *
+ * @param codec the codec used to write documents to disk
+ * @param options the memory budget
+ * @param selector the sort value selector
+ */
+inline fun <T, R : Comparable<R>> MongoIterable<T>.externalSortedByDescending(
+    codec: Codec<T>,
+    options: ExternalMemoryOptions = ExternalMemoryOptions(),
+    crossinline selector: (T) -> R?
+): ExternalSequence<T> = externalSortedWith(codec, compareByDescending(selector), options)
+
+/**
+ * Returns a sequence with elements in reversed order, using bounded heap.
+ *
+ * @param codec the codec used to write documents to disk
+ * @param options the memory budget
+ */
+fun <T> MongoIterable<T>.externalReversed(
+    codec: Codec<T>,
+    options: ExternalMemoryOptions = ExternalMemoryOptions()
+): ExternalSequence<T> = useCursor { ExternalMemory(codec, options).reverse(it.iterator()) }
+
+/**
+ * Groups elements by the key returned by the given [keySelector] function, using bounded heap.
+ *
+ * If the elements do not fit in the memory budget, they are hash partitioned by key to disk,
+ * then each partition is grouped in memory: the order of the groups is not preserved in this case.
+ * The elements of each group keep the order of the original collection.
+ *
+ * @param codec the codec used to write documents to disk
+ * @param options the memory budget
+ * @param keySelector the key selector
+ * @return a sequence of (key, group) pairs
+ */
+fun <T, K> MongoIterable<T>.externalGroupBy(
+    codec: Codec<T>,
+    options: ExternalMemoryOptions = ExternalMemoryOptions(),
+    keySelector: (T) -> K
+): ExternalSequence<Pair<K, List<T>>> = useCursor {
+    ExternalMemory(codec, options).partition(it.iterator(), keySelector) { partition ->
+        partition.groupBy(keySelector).asSequence().map { e -> e.toPair() }
+    }
+}
+
+/**
+ * Returns a sequence containing only elements having distinct keys returned by the given [selector] function,
+ * using bounded heap.
+ *
+ * If the elements do not fit in the memory budget, they are hash partitioned by key to disk,
+ * and the order of the original collection is not preserved.
+ *
+ * @param codec the codec used to write documents to disk
+ * @param options the memory budget
+ * @param selector the key selector
+ */
+fun <T, K> MongoIterable<T>.externalDistinctBy(
+    codec: Codec<T>,
+    options: ExternalMemoryOptions = ExternalMemoryOptions(),
+    selector: (T) -> K
+): ExternalSequence<T> = useCursor {
+    ExternalMemory(codec, options).partition(it.iterator(), selector) { partition ->
+        partition.distinctBy(selector).asSequence()
+    }
+}
+
+/**
+ * Returns a sequence containing only distinct elements, using bounded heap.
+ * This is the spilling counterpart of [toSet].
+ *
+ * If the elements do not fit in the memory budget, they are hash partitioned to disk,
+ * and the order of the original collection is not preserved.
+ *
+ * @param codec the codec used to write documents to disk
+ * @param options the memory budget
+ */
+fun <T> MongoIterable<T>.externalDistinct(
+    codec: Codec<T>,
+    options: ExternalMemoryOptions = ExternalMemoryOptions()
+): ExternalSequence<T> = externalDistinctBy(codec, options) { it }
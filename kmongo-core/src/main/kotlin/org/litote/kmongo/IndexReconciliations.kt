@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo
+
+import com.mongodb.client.MongoCollection
+import com.mongodb.client.model.IndexModel
+import org.bson.BsonDocument
+import org.litote.kmongo.util.IndexReconciliation
+import org.litote.kmongo.util.IndexReconciliationReport
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.FutureTask
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Reconciles the indexes of the collection with the desired [indexes]:
+ * the existing indexes are listed once, then only the missing or changed indexes are created,
+ * with a single `createIndexes` command.
+ * A changed index (same keys or same name, but different options) is dropped before.
+ *
+ * This is the batch alternative to a list of [ensureIndex] calls.
+ *
+ * @param indexes the desired indexes
+ * @param dropExtraIndexes if true, the existing indexes that are not desired are dropped (except the _id index)
+ * @return the reconciliation report
+ */
+fun <T> MongoCollection<T>.reconcileIndexes(
+    indexes: List<IndexModel>,
+    dropExtraIndexes: Boolean = false
+): IndexReconciliationReport {
+    val diff = IndexReconciliation.diff(
+        listIndexes(BsonDocument::class.java).toList(),
+        indexes,
+        codecRegistry,
+        dropExtraIndexes
+    )
+    diff.toDrop.forEach { dropIndex(it) }
+    val created = if (diff.toCreate.isEmpty()) emptyList() else createIndexes(diff.toCreate)
+    return IndexReconciliationReport(namespace, created, diff.toDrop, diff.unchanged, diff.extra)
+}
+
+/**
+ * Reconciles the indexes of the collection with the desired [indexes].
+ *
+ * @param indexes the desired indexes
+ * @param dropExtraIndexes if true, the existing indexes that are not desired are dropped (except the _id index)
+ * @return the reconciliation report
+ * @see reconcileIndexes
+ */
+fun <T> MongoCollection<T>.reconcileIndexes(
+    vararg indexes: IndexModel,
+    dropExtraIndexes: Boolean = false
+): IndexReconciliationReport = reconcileIndexes(indexes.toList(), dropExtraIndexes)
+
+private val indexThreadCount = AtomicInteger()
+
+//the indexes are reconciled with blocking I/O, by threads reused between calls
+private val indexExecutor: ExecutorService by lazy {
+    Executors.newCachedThreadPool { r ->
+        Thread(r, "kmongo-index-${indexThreadCount.incrementAndGet()}").apply { isDaemon = true }
+    }
+}
+
+/**
+ * Reconciles the indexes of several collections, in parallel.
+ *
+ * @param indexes the desired indexes by collection
+ * @param dropExtraIndexes if true, the existing indexes that are not desired are dropped (except the _id index)
+ * @param parallelism the maximum number of collections reconciled at the same time
+ * @param executor the executor running the reconciliations - default is a shared pool of daemon threads
+ * @return the reconciliation reports, in the [indexes] order
+ */
+fun reconcileIndexes(
+    indexes: Map<out MongoCollection<*>, List<IndexModel>>,
+    dropExtraIndexes: Boolean = false,
+    parallelism: Int = 4,
+    executor: Executor = indexExecutor
+): List<IndexReconciliationReport> {
+    require(parallelism > 0) { "parallelism must be positive" }
+    val entries = indexes.entries.toList()
+    if (entries.size <= 1 || parallelism == 1) {
+        return entries.map { (collection, collectionIndexes) -> collection.reconcileIndexes(collectionIndexes, dropExtraIndexes) }
+    }
+    //each worker reconciles the next collection until there is none left
+    val reports = arrayOfNulls<IndexReconciliationReport>(entries.size)
+    val next = AtomicInteger()
+    val workers = List(minOf(parallelism, entries.size)) {
+        FutureTask {
+            var index = next.getAndIncrement()
+            while (index < entries.size) {
+                val (collection, collectionIndexes) = entries[index]
+                try {
+                    reports[index] = collection.reconcileIndexes(collectionIndexes, dropExtraIndexes)
+                } catch (e: Throwable) {
+                    //the other workers stop after their current collection
+                    next.set(entries.size)
+                    throw e
+                }
+                index = next.getAndIncrement()
+            }
+        }
+    }
+    workers.forEach { executor.execute(it) }
+    workers.forEach {
+        try {
+            it.get()
+        } catch (e: ExecutionException) {
+            throw e.cause ?: e
+        }
+    }
+    return reports.requireNoNulls().asList()
+}
@@ -26,6 +26,7 @@ import com.mongodb.client.MongoClients
 import org.bson.codecs.configuration.CodecRegistry
 import org.litote.kmongo.service.ClassMappingType
 import org.litote.kmongo.util.KMongoUtil
+import org.litote.kmongo.util.OperationTracer
 
 /**
  * Main object used to create a [MongoClient](https://api.mongodb.com/java/current/com/mongodb/MongoClient.html) instance.
@@ -73,7 +74,11 @@ object KMongo {
     fun createClient(settings: MongoClientSettings): MongoClient = MongoClients.create(
         MongoClientSettings.builder(settings).codecRegistry(
             configureRegistry(settings.codecRegistry)
-        ).build(),
+        ).apply {
+            if (OperationTracer.enabled && OperationTracer.commandListener !in settings.commandListeners) {
+                addCommandListener(OperationTracer.commandListener)
+            }
+        }.build(),
         MongoDriverInformation.builder().driverName("kmongo")
             .driverPlatform(String.format("Kotlin/%s", KotlinVersion.CURRENT)).build()
     )
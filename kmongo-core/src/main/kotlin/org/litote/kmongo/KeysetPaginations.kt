@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo
+
+import com.mongodb.client.MongoCollection
+import org.bson.BsonDocumentWrapper
+import org.bson.conversions.Bson
+import org.litote.kmongo.util.KeysetPage
+import org.litote.kmongo.util.KeysetPagination
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.reflect.KProperty
+
+/**
+ * Returns a page of the documents matching the [filter], sorted by the [properties],
+ * using keyset (seek) pagination: unlike `skip`, the cost of a page does not depend on its position.
+ *
+ * The sort properties must not be null, and the last one must be unique (usually `_id`).
+ *
+ * @param filter the query filter
+ * @param properties the sort properties
+ * @param pageSize the maximum number of documents of the page
+ * @param token the [KeysetPage.nextToken] of the previous page, null for the first page
+ * @param descending true to sort in descending order
+ * @return the page
+ */
+fun <T : Any> MongoCollection<T>.paginate(
+    filter: Bson,
+    vararg properties: KProperty<*>,
+    pageSize: Int,
+    token: String? = null,
+    descending: Boolean = false
+): KeysetPage<T> = paginate(filter, properties.map { it.path() }, pageSize, token, descending)
+
+private val pageThreadCount = AtomicInteger()
+
+//the next pages are queried with blocking I/O, so not on the common fork join pool
+private val pageExecutor: ExecutorService by lazy {
+    Executors.newCachedThreadPool { r ->
+        Thread(r, "kmongo-page-${pageThreadCount.incrementAndGet()}").apply { isDaemon = true }
+    }
+}
+
+/**
+ * Returns all the pages of the documents matching the [filter], sorted by the [properties].
+ * The next page is queried on [executor] while the current page is consumed.
+ *
+ * @param filter the query filter
+ * @param properties the sort properties
+ * @param pageSize the maximum number of documents of a page
+ * @param descending true to sort in descending order
+ * @param executor the executor used to query the next page - default is a shared pool of daemon threads
+ * @return the pages
+ * @see paginate
+ */
+fun <T : Any> MongoCollection<T>.pages(
+    filter: Bson,
+    vararg properties: KProperty<*>,
+    pageSize: Int,
+    descending: Boolean = false,
+    executor: Executor = pageExecutor
+): Sequence<KeysetPage<T>> {
+    val paths = properties.map { it.path() }
+    return sequence {
+        var page = paginate(filter, paths, pageSize, null, descending)
+        while (true) {
+            val next = page.nextToken?.let { token ->
+                CompletableFuture.supplyAsync({ paginate(filter, paths, pageSize, token, descending) }, executor)
+            }
+            yield(page)
+            page = try {
+                next?.get() ?: break
+            } catch (e: ExecutionException) {
+                throw e.cause ?: e
+            }
+        }
+    }
+}
+
+private fun <T : Any> MongoCollection<T>.paginate(
+    filter: Bson,
+    paths: List<String>,
+    pageSize: Int,
+    token: String?,
+    descending: Boolean
+): KeysetPage<T> {
+    require(pageSize > 0) { "pageSize must be positive" }
+    val results = find(KeysetPagination.filter(filter, paths, token, descending))
+        .sort(KeysetPagination.sort(paths, descending))
+        .limit(pageSize + 1)
+        .toList()
+    return KeysetPagination.page(results, pageSize, paths) { BsonDocumentWrapper.asBsonDocument(it, codecRegistry) }
+}
@@ -39,9 +39,14 @@ import com.mongodb.client.model.WriteModel
 import com.mongodb.client.result.DeleteResult
 import com.mongodb.client.result.UpdateResult
 import org.bson.BsonDocument
+import org.bson.RawBsonDocument
 import org.bson.conversions.Bson
 import org.litote.kmongo.util.KMongoUtil
+import org.litote.kmongo.util.NPlusOneDetector
+import org.litote.kmongo.util.OperationTracer
 import org.litote.kmongo.util.PairProjection
+import org.litote.kmongo.util.SaveAll
+import org.litote.kmongo.util.SaveAllOptions
 import org.litote.kmongo.util.SingleProjection
 import org.litote.kmongo.util.TripleProjection
 import org.litote.kmongo.util.UpdateConfiguration
@@ -75,7 +80,7 @@ inline fun <reified NewTDocument : Any> MongoCollection<*>.withDocumentClass():
  * @return the number of documents in the collection
  */
 fun <T> MongoCollection<T>.countDocuments(filter: String, options: CountOptions = CountOptions()): Long =
-    countDocuments(KMongoUtil.toBson(filter), options)
+    KMongoUtil.toBson(filter).let { traced("countDocuments", it) { countDocuments(it, options) } }
 
 /**
  * Gets the distinct values of the specified field name.
@@ -129,7 +134,8 @@ fun <T> MongoCollection<T>.find(vararg filters: Bson?): FindIterable<T> = find(a
  * @param filter the query filter
  * @return the first item returned or null
  */
-fun <T> MongoCollection<T>.findOne(filter: String = KMongoUtil.EMPTY_JSON): T? = find(filter).firstOrNull()
+fun <T> MongoCollection<T>.findOne(filter: String = KMongoUtil.EMPTY_JSON): T? =
+    KMongoUtil.toBson(filter).let { lookup("findOne", it) { find(it).firstOrNull() } }
 
 /**
  * Finds the first document that match the filter in the collection.
@@ -137,7 +143,7 @@ fun <T> MongoCollection<T>.findOne(filter: String = KMongoUtil.EMPTY_JSON): T? =
  * @param filter the query filter
  * @return the first item returned or null
  */
-fun <T> MongoCollection<T>.findOne(filter: Bson): T? = find(filter).firstOrNull()
+fun <T> MongoCollection<T>.findOne(filter: Bson): T? = lookup("findOne", filter) { find(filter).firstOrNull() }
 
 /**
  * Finds the first document that match the filters in the collection.
@@ -146,7 +152,7 @@ fun <T> MongoCollection<T>.findOne(filter: Bson): T? = find(filter).firstOrNull(
  * @return the first item returned or null
  */
 fun <T> MongoCollection<T>.findOne(vararg filters: Bson?): T? =
-    find(*filters).firstOrNull()
+    and(*filters).let { lookup("findOne", it) { find(it).firstOrNull() } }
 
 /**
  * Finds the first document that match the filter in the collection.
@@ -162,7 +168,8 @@ inline fun <reified T : Any> MongoCollection<T>.findOne(filters: () -> Bson): T?
  * @param id       the object id
  * @return the first item returned or null
  */
-fun <T> MongoCollection<T>.findOneById(id: Any): T? = findOne(KMongoUtil.idFilterQuery(id))
+fun <T> MongoCollection<T>.findOneById(id: Any): T? =
+    KMongoUtil.idFilterQuery(id).let { lookup("findOneById", it) { find(it).firstOrNull() } }
 
 /**
  * Aggregates documents according to the specified aggregation pipeline.
@@ -243,7 +250,8 @@ inline fun <reified T : Any> MongoCollection<T>.insertOne(
  * @throws com.mongodb.MongoWriteConcernException if the write failed due being unable to fulfil the write concern
  * @throws com.mongodb.MongoException             if the write failed due some other failure
  */
-fun <T> MongoCollection<T>.deleteOne(filter: String): DeleteResult = deleteOne(KMongoUtil.toBson(filter))
+fun <T> MongoCollection<T>.deleteOne(filter: String): DeleteResult =
+    KMongoUtil.toBson(filter).let { traced("deleteOne", it) { deleteOne(it) } }
 
 /**
  * Removes at most one document from the collection that matches the given filter.  If no documents match, the collection is not
@@ -257,7 +265,8 @@ fun <T> MongoCollection<T>.deleteOne(filter: String): DeleteResult = deleteOne(K
  * @throws com.mongodb.MongoWriteConcernException if the write failed due being unable to fulfil the write concern
  * @throws com.mongodb.MongoException             if the write failed due some other failure
  */
-fun <T> MongoCollection<T>.deleteOne(vararg filters: Bson?): DeleteResult = deleteOne(and(*filters))
+fun <T> MongoCollection<T>.deleteOne(vararg filters: Bson?): DeleteResult =
+    and(*filters).let { traced("deleteOne", it) { deleteOne(it) } }
 
 /**
  * Removes at most one document from the id parameter.  If no documents match, the collection is not
@@ -269,7 +278,8 @@ fun <T> MongoCollection<T>.deleteOne(vararg filters: Bson?): DeleteResult = dele
  * @throws com.mongodb.MongoWriteConcernException if the write failed due being unable to fulfil the write concern
  * @throws com.mongodb.MongoException             if the write failed due some other failure
  */
-fun <T> MongoCollection<T>.deleteOneById(id: Any): DeleteResult = deleteOne(KMongoUtil.idFilterQuery(id))
+fun <T> MongoCollection<T>.deleteOneById(id: Any): DeleteResult =
+    KMongoUtil.idFilterQuery(id).let { traced("deleteOneById", it) { deleteOne(it) } }
 
 /**
  * Removes all documents from the collection that match the given query filter.  If no documents match, the collection is not modified.
@@ -284,7 +294,7 @@ fun <T> MongoCollection<T>.deleteOneById(id: Any): DeleteResult = deleteOne(KMon
  * @throws com.mongodb.MongoException             if the write failed due some other failure
  */
 fun <T> MongoCollection<T>.deleteMany(filter: String, options: DeleteOptions = DeleteOptions()): DeleteResult =
-    deleteMany(KMongoUtil.toBson(filter), options)
+    KMongoUtil.toBson(filter).let { traced("deleteMany", it) { deleteMany(it, options) } }
 
 /**
  * Removes all documents from the collection that match the given query filter.  If no documents match, the collection is not modified.
@@ -299,7 +309,7 @@ fun <T> MongoCollection<T>.deleteMany(filter: String, options: DeleteOptions = D
  * @throws com.mongodb.MongoException             if the write failed due some other failure
  */
 fun <T> MongoCollection<T>.deleteMany(vararg filters: Bson?, options: DeleteOptions = DeleteOptions()): DeleteResult =
-    deleteMany(and(*filters), options)
+    and(*filters).let { traced("deleteMany", it) { deleteMany(it, options) } }
 
 /**
  * Save the document.
@@ -314,13 +324,36 @@ fun <T> MongoCollection<T>.deleteMany(vararg filters: Bson?, options: DeleteOpti
  */
 fun <T : Any> MongoCollection<T>.save(document: T) {
     val id = KMongoUtil.getIdValue(document)
-    if (id != null) {
-        replaceOneById(id, document, ReplaceOptions().upsert(true))
-    } else {
-        insertOne(document)
+    traced("save", id?.let { KMongoUtil.idFilterQuery(it) }) {
+        if (id != null) {
+            replaceOneById(id, document, ReplaceOptions().upsert(true))
+        } else {
+            insertOne(document)
+        }
     }
 }
 
+/**
+ * Save the documents with unordered bulk writes, instead of one [save] round trip per document.
+ * Documents without id are inserted, the other ones are upserted by id.
+ * The writes are split in batches according to the [options].
+ *
+ * @param documents the documents to save
+ * @param options the batch options
+ * @return the aggregated result of the bulk writes
+ */
+fun <T : Any> MongoCollection<T>.saveAll(
+    documents: Iterable<T>,
+    options: SaveAllOptions = SaveAllOptions()
+): BulkWriteResult {
+    val rawCollection = withDocumentClass<RawBsonDocument>()
+    return SaveAll.aggregate(
+        SaveAll.batches(documents, codecRegistry.get(documentClass), options)
+            .map { it to rawCollection.bulkWrite(it.requests, options.bulkWriteOptions) }
+            .toList()
+    )
+}
+
 /**
  * Replace a document in the collection according to the specified arguments.
  *
@@ -337,10 +370,11 @@ fun <T : Any> MongoCollection<T>.replaceOneById(
     id: Any,
     replacement: T,
     options: ReplaceOptions = ReplaceOptions()
-): UpdateResult = withDocumentClass<BsonDocument>().replaceOne(
-    KMongoUtil.idFilterQuery(id),
-    KMongoUtil.filterIdToBson(replacement), options
-)
+): UpdateResult = KMongoUtil.idFilterQuery(id).let {
+    traced("replaceOneById", it) {
+        withDocumentClass<BsonDocument>().replaceOne(it, KMongoUtil.filterIdToBson(replacement), options)
+    }
+}
 
 /**
  * Replace a document in the collection according to the specified arguments.
@@ -374,12 +408,11 @@ fun <T : Any> MongoCollection<T>.replaceOne(
     filter: String,
     replacement: T,
     options: ReplaceOptions = ReplaceOptions()
-): UpdateResult = withDocumentClass<BsonDocument>()
-    .replaceOne(
-        KMongoUtil.toBson(filter),
-        KMongoUtil.filterIdToBson(replacement),
-        options
-    )
+): UpdateResult = KMongoUtil.toBson(filter).let {
+    traced("replaceOne", it) {
+        withDocumentClass<BsonDocument>().replaceOne(it, KMongoUtil.filterIdToBson(replacement), options)
+    }
+}
 
 /**
  * Replace a document in the collection according to the specified arguments.
@@ -401,10 +434,9 @@ fun <T : Any> MongoCollection<T>.replaceOneWithFilter(
     filter: Bson,
     replacement: T,
     replaceOptions: ReplaceOptions = ReplaceOptions()
-): UpdateResult = withDocumentClass<BsonDocument>().replaceOne(
-    filter,
-    KMongoUtil.filterIdToBson(replacement), replaceOptions
-)
+): UpdateResult = traced("replaceOneWithFilter", filter) {
+    withDocumentClass<BsonDocument>().replaceOne(filter, KMongoUtil.filterIdToBson(replacement), replaceOptions)
+}
 
 /**
  * Update a single document in the collection according to the specified arguments.
@@ -423,7 +455,8 @@ fun <T> MongoCollection<T>.updateOne(
     filter: String,
     update: String,
     options: UpdateOptions = UpdateOptions()
-): UpdateResult = updateOne(KMongoUtil.toBson(filter), KMongoUtil.toBson(update), options)
+): UpdateResult =
+    KMongoUtil.toBson(filter).let { traced("updateOne", it) { updateOne(it, KMongoUtil.toBson(update), options) } }
 
 /**
  * Update a single document in the collection according to the specified arguments.
@@ -444,8 +477,9 @@ fun <T> MongoCollection<T>.updateOne(
     update: Any,
     options: UpdateOptions = UpdateOptions(),
     updateOnlyNotNullProperties: Boolean = UpdateConfiguration.updateOnlyNotNullProperties
-): UpdateResult =
-    updateOne(KMongoUtil.toBson(filter), KMongoUtil.toBsonModifier(update, updateOnlyNotNullProperties), options)
+): UpdateResult = KMongoUtil.toBson(filter).let {
+    traced("updateOne", it) { updateOne(it, KMongoUtil.toBsonModifier(update, updateOnlyNotNullProperties), options) }
+}
 
 /**
  * Update a single document in the collection according to the specified arguments.
@@ -484,7 +518,9 @@ fun <T> MongoCollection<T>.updateOne(
     target: Any,
     options: UpdateOptions = UpdateOptions(),
     updateOnlyNotNullProperties: Boolean = UpdateConfiguration.updateOnlyNotNullProperties
-): UpdateResult = updateOne(filter, KMongoUtil.toBsonModifier(target, updateOnlyNotNullProperties), options)
+): UpdateResult = traced("updateOne", filter) {
+    updateOne(filter, KMongoUtil.toBsonModifier(target, updateOnlyNotNullProperties), options)
+}
 
 /**
  * Update a single document in the collection according to the specified arguments.
@@ -503,7 +539,7 @@ fun <T : Any> MongoCollection<T>.updateOne(
     filter: Bson,
     vararg updates: SetTo<*>,
     updateOptions: UpdateOptions = UpdateOptions()
-): UpdateResult = updateOne(filter, set(*updates), updateOptions)
+): UpdateResult = traced("updateOne", filter) { updateOne(filter, set(*updates), updateOptions) }
 
 /**
  * Update a single document in the collection according to the specified arguments.
@@ -524,8 +560,9 @@ fun <T> MongoCollection<T>.updateOneById(
     update: Any,
     options: UpdateOptions = UpdateOptions(),
     updateOnlyNotNullProperties: Boolean = UpdateConfiguration.updateOnlyNotNullProperties
-): UpdateResult =
-    updateOne(KMongoUtil.idFilterQuery(id), KMongoUtil.toBsonModifier(update, updateOnlyNotNullProperties), options)
+): UpdateResult = KMongoUtil.idFilterQuery(id).let {
+    traced("updateOneById", it) { updateOne(it, KMongoUtil.toBsonModifier(update, updateOnlyNotNullProperties), options) }
+}
 
 /**
  * Update a single document in the collection according to the specified arguments.
@@ -544,7 +581,8 @@ fun <T : Any> MongoCollection<T>.updateOneById(
     id: Any,
     vararg updates: SetTo<*>,
     options: UpdateOptions = UpdateOptions()
-): UpdateResult = updateOne(KMongoUtil.idFilterQuery(id), set(*updates), options)
+): UpdateResult =
+    KMongoUtil.idFilterQuery(id).let { traced("updateOneById", it) { updateOne(it, set(*updates), options) } }
 
 /**
  * Update all documents in the collection according to the specified arguments.
@@ -563,7 +601,9 @@ fun <T : Any> MongoCollection<T>.updateMany(
     filter: String,
     update: String,
     updateOptions: UpdateOptions = UpdateOptions()
-): UpdateResult = updateMany(KMongoUtil.toBson(filter), KMongoUtil.toBson(update), updateOptions)
+): UpdateResult = KMongoUtil.toBson(filter).let {
+    traced("updateMany", it) { updateMany(it, KMongoUtil.toBson(update), updateOptions) }
+}
 
 /**
  * Update all documents in the collection according to the specified arguments.
@@ -582,7 +622,7 @@ fun <T : Any> MongoCollection<T>.updateMany(
     filter: Bson,
     vararg updates: SetTo<*>,
     updateOptions: UpdateOptions = UpdateOptions()
-): UpdateResult = updateMany(filter, set(*updates), updateOptions)
+): UpdateResult = traced("updateMany", filter) { updateMany(filter, set(*updates), updateOptions) }
 
 /**
  * Atomically find a document and remove it.
@@ -862,4 +902,18 @@ inline fun <T, reified F1, reified F2, reified F3> MongoCollection<T>.projection
         .find(query)
         .let { options(it) }
         .projection(fields(excludeId(), include(property1), include(property2), include(property3)))
-        .map { Triple(it.field1, it.field2, it.field3) }
\ No newline at end of file
+        .map { Triple(it.field1, it.field2, it.field3) }
+
+/**
+ * Runs the operation, traced by the [OperationTracer] if it is enabled.
+ */
+private inline fun <T, R> MongoCollection<T>.traced(operation: String, filter: Bson?, block: () -> R): R =
+    OperationTracer.trace(operation, namespace, filter, codecRegistry, block)
+
+/**
+ * Runs a single document lookup, counted by the [NPlusOneDetector] and traced by the [OperationTracer].
+ */
+private inline fun <T, R> MongoCollection<T>.lookup(operation: String, filter: Bson, block: () -> R): R {
+    NPlusOneDetector.record(operation, namespace, filter, codecRegistry)
+    return traced(operation, filter, block)
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo
+
+import com.mongodb.client.FindIterable
+import com.mongodb.client.MongoCollection
+import org.bson.BsonDocument
+import org.bson.conversions.Bson
+import org.litote.kmongo.util.ParallelScan
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+
+/**
+ * Splits the documents matching the [filter] in (at most) [partitions] `_id` ranges of roughly the same size.
+ * The split points are computed from a `$sample` of the documents matching the [filter].
+ *
+ * @param partitions the desired number of partitions
+ * @param filter the query filter
+ * @return one find iterable by partition
+ */
+fun <T> MongoCollection<T>.scanPartitions(partitions: Int, filter: Bson = EMPTY_BSON): List<FindIterable<T>> {
+    val splitPoints =
+        if (partitions == 1) {
+            emptyList()
+        } else {
+            val sample = aggregate(ParallelScan.samplePipeline(partitions, filter), BsonDocument::class.java).toList()
+            ParallelScan.splitPoints(ParallelScan.sampledIds(sample), partitions)
+        }
+    return ParallelScan.partitionFilters(splitPoints, filter).map { find(it) }
+}
+
+/**
+ * Scans the documents matching the [filter] with one cursor by partition, in parallel,
+ * and calls [action] for each document. [action] is called concurrently from several threads.
+ *
+ * @param partitions the desired number of partitions
+ * @param filter the query filter
+ * @param parallelism the maximum number of partitions scanned at the same time
+ * @param action the action called for each document
+ * @see scanPartitions
+ */
+fun <T> MongoCollection<T>.parallelScan(
+    partitions: Int,
+    filter: Bson = EMPTY_BSON,
+    parallelism: Int = partitions,
+    action: (T) -> Unit
+) {
+    require(parallelism > 0) { "parallelism must be positive" }
+    val iterables = scanPartitions(partitions, filter)
+    if (iterables.size == 1 || parallelism == 1) {
+        iterables.forEach { it.forEach(action) }
+        return
+    }
+    val executor = Executors.newFixedThreadPool(minOf(parallelism, iterables.size))
+    try {
+        executor
+            .invokeAll(iterables.map { Callable { it.forEach(action) } })
+            .forEach {
+                try {
+                    it.get()
+                } catch (e: ExecutionException) {
+                    throw e.cause ?: e
+                }
+            }
+    } finally {
+        executor.shutdown()
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo
+
+import com.mongodb.client.FindIterable
+import com.mongodb.client.MongoCollection
+import com.mongodb.client.MongoIterable
+import org.bson.RawBsonDocument
+import org.bson.codecs.Decoder
+import org.bson.conversions.Bson
+import org.litote.kmongo.util.PrefetchOptions
+import org.litote.kmongo.util.PrefetchingIterable
+
+/**
+ * Returns a [MongoIterable] that pipelines network and decode:
+ * the raw server batches are fetched ahead on a background thread,
+ * and decoded with [decoder] on [PrefetchOptions.decodeExecutor] while the next batch is requested.
+ * Documents are returned in the cursor order.
+ *
+ * Useful for large result sets when decoding is costly - close the cursor if it is not fully consumed.
+ *
+ * @param decoder the decoder - usually `collection.codecRegistry.get(T::class.java)`
+ * @param options the prefetch options
+ */
+fun <T : Any> MongoIterable<RawBsonDocument>.prefetching(
+    decoder: Decoder<T>,
+    options: PrefetchOptions = PrefetchOptions()
+): MongoIterable<T> = PrefetchingIterable(this, PrefetchingIterable.rawDecoder(decoder), options)
+
+/**
+ * Returns a lazy [Sequence] backed by a [prefetching] cursor.
+ * The cursor is closed when the sequence is fully consumed.
+ *
+ * @param decoder the decoder
+ * @param options the prefetch options
+ */
+fun <T : Any> MongoIterable<RawBsonDocument>.prefetchingSequence(
+    decoder: Decoder<T>,
+    options: PrefetchOptions = PrefetchOptions()
+): Sequence<T> = sequence { prefetching(decoder, options).iterator().use { yieldAll(it) } }.constrainOnce()
+
+/**
+ * Finds all documents that match the filter in the collection, with a [prefetching] cursor.
+ *
+ * @param filter the query filter
+ * @param options the prefetch options
+ * @param configure configures the find operation (sort, batch size, ...)
+ */
+fun <T : Any> MongoCollection<T>.findPrefetching(
+    filter: Bson = EMPTY_BSON,
+    options: PrefetchOptions = PrefetchOptions(),
+    configure: FindIterable<RawBsonDocument>.() -> FindIterable<RawBsonDocument> = { this }
+): MongoIterable<T> =
+    withDocumentClass(RawBsonDocument::class.java).find(filter).configure()
+        .prefetching(codecRegistry.get(documentClass), options)
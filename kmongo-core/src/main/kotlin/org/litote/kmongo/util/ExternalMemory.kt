@@ -0,0 +1,404 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.util
+
+import org.bson.BsonBinaryReader
+import org.bson.BsonBinaryWriter
+import org.bson.codecs.Codec
+import org.bson.codecs.DecoderContext
+import org.bson.codecs.EncoderContext
+import org.bson.io.BasicOutputBuffer
+import java.io.BufferedOutputStream
+import java.io.Closeable
+import java.io.File
+import java.io.FileOutputStream
+import java.io.RandomAccessFile
+import java.nio.Buffer
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.channels.FileChannel
+import java.util.PriorityQueue
+
+/**
+ * Memory budget of the spilling operations (`externalSortedBy`, `externalGroupBy`, ...)
+ * available on [com.mongodb.client.MongoIterable].
+ *
+ * @param maxInMemoryBytes the maximum encoded size of the documents kept in heap - when reached, documents are spilled to disk.
+ * The documents in memory are kept both encoded and decoded, so the heap footprint is this budget plus the size of the decoded documents
+ * @param partitions the number of spill files used by the hash based operations (group by & distinct)
+ * @param tempDirectory the directory of the spill files - default is `java.io.tmpdir`
+ */
+class ExternalMemoryOptions(
+    val maxInMemoryBytes: Long = DEFAULT_MAX_IN_MEMORY_BYTES,
+    val partitions: Int = DEFAULT_PARTITIONS,
+    val tempDirectory: File? = null
+) {
+
+    companion object {
+        /**
+         * Default in memory budget: 64MB.
+         */
+        const val DEFAULT_MAX_IN_MEMORY_BYTES: Long = 64L * 1024 * 1024
+
+        /**
+         * Default number of spill files for hash based operations.
+         */
+        const val DEFAULT_PARTITIONS: Int = 64
+
+        //a spill file is memory mapped, so it has to stay under 2GB
+        private const val MAX_IN_MEMORY_BYTES: Long = Int.MAX_VALUE / 2L
+    }
+
+    init {
+        require(maxInMemoryBytes in 1..MAX_IN_MEMORY_BYTES) { "maxInMemoryBytes must be in 1..$MAX_IN_MEMORY_BYTES" }
+        require(partitions > 0) { "partitions must be positive" }
+    }
+}
+
+/**
+ * A [Sequence] of a spilling operation, that can be iterated only once.
+ *
+ * The spill files are deleted once read: close the sequence if it is not fully iterated
+ * (`first()`, `take(n)`, an exception...) to delete the remaining spill files and release the open ones.
+ */
+class ExternalSequence<T> internal constructor(
+    private val sequence: Sequence<T>,
+    private val resources: Closeable
+) : Sequence<T>, Closeable {
+
+    override fun iterator(): Iterator<T> = sequence.iterator()
+
+    override fun close() = resources.close()
+}
+
+/**
+ * A decoded document and its BSON representation.
+ */
+private class EncodedDocument<T>(val value: T, val bytes: ByteArray)
+
+/**
+ * Spill-to-disk implementation of sort, reverse, group by & distinct operations.
+ * Documents are stored in temp files as raw BSON documents, written and read back with memory-mapped I/O.
+ * Closing it deletes the remaining spill files.
+ */
+internal class ExternalMemory<T>(private val codec: Codec<T>, private val options: ExternalMemoryOptions) : Closeable {
+
+    private val decoderContext: DecoderContext = DecoderContext.builder().build()
+    private val encoderContext: EncoderContext = EncoderContext.builder().build()
+    private val outputBuffer = BasicOutputBuffer()
+
+    //the spill files not deleted yet, and the spill files being read
+    private val files = mutableSetOf<File>()
+    private val readers = mutableSetOf<SpillFileIterator>()
+
+    private fun encode(value: T): EncodedDocument<T> {
+        outputBuffer.truncateToPosition(0)
+        BsonBinaryWriter(outputBuffer).use { codec.encode(it, value, encoderContext) }
+        return EncodedDocument(value, outputBuffer.toByteArray())
+    }
+
+    private fun newSpillFile(): File =
+        File.createTempFile("kmongo-spill", ".bson", options.tempDirectory).also { files.add(it) }
+
+    override fun close() {
+        readers.toList().forEach { it.close() }
+        files.forEach { it.delete() }
+        files.clear()
+    }
+
+    private fun result(sequence: Sequence<T>): ExternalSequence<T> = ExternalSequence(sequence.constrainOnce(), this)
+
+    /**
+     * Runs [block] on new spill files - the files are deleted if the block fails.
+     */
+    private inline fun <R> spilling(files: List<File>, block: () -> R): R =
+        try {
+            block()
+        } catch (e: Throwable) {
+            files.forEach { it.delete() }
+            throw e
+        }
+
+    /**
+     * Reads the source in chunks limited by [ExternalMemoryOptions.maxInMemoryBytes].
+     * Each full chunk is given to [spill], the last one (possibly the only one) is returned.
+     */
+    private inline fun chunk(
+        source: Iterator<T>,
+        spill: (MutableList<EncodedDocument<T>>) -> Unit
+    ): MutableList<EncodedDocument<T>> {
+        val chunk = mutableListOf<EncodedDocument<T>>()
+        var bytes = 0L
+        while (source.hasNext()) {
+            val document = encode(source.next())
+            if (bytes + document.bytes.size > options.maxInMemoryBytes && chunk.isNotEmpty()) {
+                spill(chunk)
+                chunk.clear()
+                bytes = 0
+            }
+            chunk.add(document)
+            bytes += document.bytes.size
+        }
+        return chunk
+    }
+
+    private fun writeRun(documents: List<EncodedDocument<T>>): File {
+        val file = newSpillFile()
+        spilling(listOf(file)) {
+            val size = documents.sumOf { it.bytes.size.toLong() }
+            RandomAccessFile(file, "rw").use { raf ->
+                raf.channel.use { channel ->
+                    val buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size)
+                    documents.forEach { buffer.put(it.bytes) }
+                }
+            }
+        }
+        return file
+    }
+
+    private fun read(file: File): Iterator<T> = SpillFileIterator(file)
+
+    private fun readAll(files: List<File>): List<Iterator<T>> =
+        files.mapIndexed { index, file -> spilling(files.subList(index, files.size)) { read(file) } }
+
+    /**
+     * Sorts the source using sorted runs spilled to disk, then lazily merges the runs.
+     * The sort is stable.
+     */
+    fun sort(source: Iterator<T>, comparator: Comparator<in T>): ExternalSequence<T> {
+        val documentComparator = Comparator<EncodedDocument<T>> { d1, d2 -> comparator.compare(d1.value, d2.value) }
+        val runs = mutableListOf<File>()
+        val last = spilling(runs) {
+            chunk(source) { chunk ->
+                chunk.sortWith(documentComparator)
+                runs.add(writeRun(chunk))
+            }
+        }
+        last.sortWith(documentComparator)
+        val lastRun = last.map { it.value }
+        if (runs.isEmpty()) {
+            return result(lastRun.asSequence())
+        }
+        val iterators = readAll(runs) + lastRun.iterator()
+        return result(mergeRuns(iterators, comparator))
+    }
+
+    private fun mergeRuns(runs: List<Iterator<T>>, comparator: Comparator<in T>): Sequence<T> = sequence {
+        //equal elements are taken from the first run to keep the sort stable
+        val heads = PriorityQueue<RunHead<T>>(runs.size) { h1, h2 ->
+            comparator.compare(h1.current, h2.current).takeUnless { it == 0 } ?: h1.index.compareTo(h2.index)
+        }
+        runs.forEachIndexed { index, run ->
+            if (run.hasNext()) {
+                heads.add(RunHead(index, run, run.next()))
+            }
+        }
+        while (heads.isNotEmpty()) {
+            val head = heads.poll()
+            yield(head.current)
+            if (head.run.hasNext()) {
+                head.current = head.run.next()
+                heads.add(head)
+            }
+        }
+    }
+
+    /**
+     * Reverses the source: each spilled run is written in reverse order, then runs are read from the last one.
+     */
+    fun reverse(source: Iterator<T>): ExternalSequence<T> {
+        val runs = mutableListOf<File>()
+        val last = spilling(runs) {
+            chunk(source) { chunk ->
+                chunk.reverse()
+                runs.add(writeRun(chunk))
+            }
+        }
+        val lastRun = last.asReversed().map { it.value }
+        if (runs.isEmpty()) {
+            return result(lastRun.asSequence())
+        }
+        return result(
+            (sequenceOf(lastRun.asSequence()) + readAll(runs.asReversed()).asSequence().map { it.asSequence() }).flatten()
+        )
+    }
+
+    /**
+     * Hash partitions the source by key if it does not fit in memory,
+     * then applies [transform] on each partition loaded in memory.
+     * A partition larger than the memory budget is partitioned again with another hash function,
+     * until it fits or it can not be split anymore (all its documents have the same key).
+     * If the source fits in memory, [transform] is applied on the whole source (and order is preserved).
+     */
+    fun <K, R> partition(
+        source: Iterator<T>,
+        keySelector: (T) -> K,
+        transform: (List<T>) -> Sequence<R>
+    ): ExternalSequence<R> {
+        var writers: List<PartitionWriter>? = null
+        val last = spillingPartitions({ writers }) {
+            chunk(source) { chunk ->
+                val partitions = writers ?: newPartitionWriters().also { writers = it }
+                chunk.forEach { partitions[partitionIndex(keySelector(it.value), 0)].write(it.bytes) }
+            }
+        }
+        val partitions = writers ?: return ExternalSequence(transform(last.map { it.value }).constrainOnce(), this)
+        spillingPartitions({ partitions }) {
+            last.forEach { partitions[partitionIndex(keySelector(it.value), 0)].write(it.bytes) }
+            partitions.forEach { it.close() }
+        }
+        return ExternalSequence(transformPartitions(partitions, 0, keySelector, transform).constrainOnce(), this)
+    }
+
+    private fun newPartitionWriters(): List<PartitionWriter> {
+        val writers = mutableListOf<PartitionWriter>()
+        spillingPartitions({ writers }) {
+            repeat(options.partitions) { writers.add(PartitionWriter(newSpillFile())) }
+        }
+        return writers
+    }
+
+    /**
+     * Runs [block] on partition writers - the writers are closed and their files deleted if the block fails.
+     */
+    private inline fun <R> spillingPartitions(writers: () -> List<PartitionWriter>?, block: () -> R): R =
+        try {
+            block()
+        } catch (e: Throwable) {
+            writers()?.forEach { writer ->
+                runCatching { writer.close() }
+                writer.file.delete()
+            }
+            throw e
+        }
+
+    //each level of partitioning uses a different hash function, so an oversized partition can be split again
+    private fun partitionIndex(key: Any?, depth: Int): Int {
+        val hash = key.hashCode()
+        val mixed = if (depth == 0) hash else Integer.rotateLeft(hash * -0x61c88647, depth * 7) xor hash
+        return Math.floorMod(mixed, options.partitions)
+    }
+
+    private fun <K, R> transformPartitions(
+        partitions: List<PartitionWriter>,
+        depth: Int,
+        keySelector: (T) -> K,
+        transform: (List<T>) -> Sequence<R>
+    ): Sequence<R> =
+        partitions.asSequence().flatMap { partition ->
+            if (partition.size <= options.maxInMemoryBytes || depth >= MAX_PARTITION_DEPTH) {
+                transform(read(partition.file).asSequence().toList())
+            } else {
+                val subPartitions = newPartitionWriters()
+                spillingPartitions({ subPartitions }) {
+                    read(partition.file).forEach {
+                        subPartitions[partitionIndex(keySelector(it), depth + 1)].write(encode(it).bytes)
+                    }
+                    subPartitions.forEach { it.close() }
+                }
+                val single = subPartitions.find { it.size == partition.size }
+                if (single != null) {
+                    //a single key: the partition can not be split, so it is loaded in memory
+                    subPartitions.forEach { if (it !== single) delete(it.file) }
+                    transformPartitions(listOf(single), MAX_PARTITION_DEPTH, keySelector, transform)
+                } else {
+                    transformPartitions(subPartitions, depth + 1, keySelector, transform)
+                }
+            }
+        }
+
+    private class RunHead<T>(val index: Int, val run: Iterator<T>, var current: T)
+
+    private class PartitionWriter(val file: File) {
+        private val output = BufferedOutputStream(FileOutputStream(file), 64 * 1024)
+
+        var size: Long = 0
+            private set
+
+        fun write(bytes: ByteArray) {
+            output.write(bytes)
+            size += bytes.size
+        }
+
+        fun close() = output.close()
+    }
+
+    private fun delete(file: File) {
+        if (file.delete()) {
+            files.remove(file)
+        }
+    }
+
+    /**
+     * Reads the BSON documents of a spill file through memory-mapped windows.
+     * The file is deleted as soon as it is opened (or once fully read if the platform does not allow it).
+     */
+    private inner class SpillFileIterator(private val file: File) : Iterator<T>, Closeable {
+
+        private val channel: FileChannel = RandomAccessFile(file, "r").channel
+        private val size: Long = channel.size()
+        private var offset: Long = 0
+        private var buffer: ByteBuffer
+
+        init {
+            readers.add(this)
+            delete(file)
+            buffer = map()
+        }
+
+        private fun map(): ByteBuffer =
+            channel.map(FileChannel.MapMode.READ_ONLY, offset, minOf(MAX_WINDOW_BYTES, size - offset))
+                .order(ByteOrder.LITTLE_ENDIAN)
+
+        override fun hasNext(): Boolean =
+            (offset + buffer.position() < size).also {
+                if (!it) {
+                    close()
+                }
+            }
+
+        override fun close() {
+            if (channel.isOpen) {
+                channel.close()
+                readers.remove(this)
+                delete(file)
+            }
+        }
+
+        override fun next(): T {
+            if (!hasNext()) throw NoSuchElementException()
+            if (buffer.remaining() < 4 || buffer.remaining() < buffer.getInt(buffer.position())) {
+                offset += buffer.position()
+                buffer = map()
+            }
+            val start = buffer.position()
+            val end = start + buffer.getInt(start)
+            val document = buffer.duplicate()
+            (document as Buffer).limit(end)
+            (buffer as Buffer).position(end)
+            return BsonBinaryReader(document.slice()).use { codec.decode(it, decoderContext) }
+        }
+    }
+
+    private companion object {
+        //how many times an oversized partition is partitioned again
+        const val MAX_PARTITION_DEPTH = 3
+
+        //large enough for any BSON document, small enough to be mapped
+        const val MAX_WINDOW_BYTES: Long = 1L shl 30
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.util
+
+import com.mongodb.Function
+import com.mongodb.ServerAddress
+import com.mongodb.ServerCursor
+import com.mongodb.client.MongoCursor
+import com.mongodb.client.MongoIterable
+import org.bson.BsonBinaryReader
+import org.bson.RawBsonDocument
+import org.bson.codecs.Decoder
+import org.bson.codecs.DecoderContext
+import org.bson.io.ByteBufferBsonInput
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.FutureTask
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Options of the prefetching cursors.
+ *
+ * @param prefetchBatches the maximum number of batches fetched (and decoded) ahead of the consumer
+ * @param decodeExecutor the executor used to decode the batches - default is a shared pool bounded to the number of processors
+ * @param readExecutor the executor running the reader of each cursor, for the cursor lifetime - default is a shared pool
+ * of daemon threads, reused between cursors (a bounded executor limits the number of cursors read concurrently)
+ */
+class PrefetchOptions(
+    val prefetchBatches: Int = DEFAULT_PREFETCH_BATCHES,
+    val decodeExecutor: Executor = defaultDecodeExecutor,
+    val readExecutor: Executor = defaultReadExecutor
+) {
+
+    companion object {
+        /**
+         * Default number of prefetched batches.
+         */
+        const val DEFAULT_PREFETCH_BATCHES: Int = 2
+
+        private val threadCount = AtomicInteger()
+        private val readerCount = AtomicInteger()
+
+        /**
+         * The default decode executor.
+         */
+        val defaultDecodeExecutor: ExecutorService by lazy {
+            Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()) { r ->
+                Thread(r, "kmongo-decode-${threadCount.incrementAndGet()}").apply { isDaemon = true }
+            }
+        }
+
+        /**
+         * The default read executor.
+         */
+        val defaultReadExecutor: ExecutorService by lazy {
+            Executors.newCachedThreadPool { r ->
+                Thread(r, "kmongo-prefetch-${readerCount.incrementAndGet()}").apply { isDaemon = true }
+            }
+        }
+    }
+
+    init {
+        require(prefetchBatches > 0) { "prefetchBatches must be positive" }
+    }
+}
+
+/**
+ * [MongoIterable] reading raw batches on [PrefetchOptions.readExecutor] and decoding them on [PrefetchOptions.decodeExecutor].
+ */
+internal class PrefetchingIterable<T : Any>(
+    private val source: MongoIterable<RawBsonDocument>,
+    private val decoder: (RawBsonDocument) -> T,
+    private val options: PrefetchOptions
+) : MongoIterable<T> {
+
+    override fun iterator(): MongoCursor<T> = PrefetchingCursor(source.iterator(), decoder, options)
+
+    override fun cursor(): MongoCursor<T> = iterator()
+
+    override fun first(): T? = source.first()?.let(decoder)
+
+    override fun <U : Any> map(mapper: Function<T, U>): MongoIterable<U> =
+        PrefetchingIterable(source, { mapper.apply(decoder(it)) }, options)
+
+    override fun <A : MutableCollection<in T>> into(target: A): A {
+        iterator().use { cursor ->
+            while (cursor.hasNext()) {
+                target.add(cursor.next())
+            }
+        }
+        return target
+    }
+
+    override fun batchSize(batchSize: Int): MongoIterable<T> =
+        PrefetchingIterable(source.batchSize(batchSize), decoder, options)
+
+    companion object {
+        private val decoderContext: DecoderContext = DecoderContext.builder().build()
+
+        fun <T : Any> rawDecoder(decoder: Decoder<T>): (RawBsonDocument) -> T = { document ->
+            BsonBinaryReader(ByteBufferBsonInput(document.byteBuffer)).use { decoder.decode(it, decoderContext) }
+        }
+    }
+}
+
+/**
+ * [MongoCursor] pipelining network and decode:
+ * a reader task, run on [PrefetchOptions.readExecutor], gets the server batches as [RawBsonDocument]s and submits their decoding,
+ * while the next `getMore` is in flight. Batches are returned in order.
+ */
+internal class PrefetchingCursor<T : Any>(
+    private val cursor: MongoCursor<RawBsonDocument>,
+    private val decoder: (RawBsonDocument) -> T,
+    private val options: PrefetchOptions
+) : MongoCursor<T> {
+
+    private companion object {
+        val END: Future<List<Any?>> = CompletableFuture.completedFuture(emptyList())
+    }
+
+    private val batches = ArrayBlockingQueue<Future<List<T>>>(options.prefetchBatches)
+
+    @Volatile
+    private var closed = false
+    private var finished = false
+    private var current: List<T> = emptyList()
+    private var index = 0
+    //set by the reader when it starts, or by close if the reader has not started - the owner closes the cursor
+    private val started = AtomicBoolean()
+    private val reader = FutureTask { read() }
+
+    init {
+        options.readExecutor.execute(reader)
+    }
+
+    private fun read() {
+        if (!started.compareAndSet(false, true)) {
+            return
+        }
+        try {
+            while (!closed && cursor.hasNext()) {
+                //the cursor batch is what is locally available after the first document
+                val first = cursor.next()
+                val batch = ArrayList<RawBsonDocument>(cursor.available() + 1)
+                batch.add(first)
+                while (cursor.available() > 0) {
+                    batch.add(cursor.next())
+                }
+                val task = FutureTask { batch.map(decoder) }
+                options.decodeExecutor.execute(task)
+                put(task)
+            }
+            @Suppress("UNCHECKED_CAST")
+            put(END as Future<List<T>>)
+        } catch (t: Throwable) {
+            put(CompletableFuture<List<T>>().apply { completeExceptionally(t) })
+        } finally {
+            cursor.close()
+        }
+    }
+
+    private fun put(batch: Future<List<T>>) {
+        while (!closed) {
+            if (batches.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+                return
+            }
+        }
+    }
+
+    private fun nextBatch(block: Boolean): Boolean {
+        val batch = (if (block) batches.take() else batches.poll()) ?: return false
+        if (batch === END) {
+            finished = true
+            return false
+        }
+        current = try {
+            batch.get()
+        } catch (e: ExecutionException) {
+            close()
+            throw e.cause ?: e
+        }
+        index = 0
+        return true
+    }
+
+    override fun hasNext(): Boolean {
+        while (index >= current.size) {
+            if (finished || closed || !nextBatch(true)) {
+                return false
+            }
+        }
+        return true
+    }
+
+    override fun next(): T {
+        if (!hasNext()) {
+            throw NoSuchElementException()
+        }
+        return current[index++]
+    }
+
+    override fun tryNext(): T? {
+        while (index >= current.size) {
+            if (finished || closed || !nextBatch(false)) {
+                return null
+            }
+        }
+        return current[index++]
+    }
+
+    override fun available(): Int = current.size - index
+
+    override fun remove() {
+        throw UnsupportedOperationException("Cursors do not support removal")
+    }
+
+    override fun close() {
+        if (!closed) {
+            closed = true
+            if (started.compareAndSet(false, true)) {
+                //the reader has not started (it may be queued on a bounded executor)
+                cursor.close()
+            }
+            //a started reader is not interrupted, as it would discard the pooled connection:
+            //it closes the cursor after its current read
+            reader.cancel(false)
+            batches.clear()
+            //unblocks a consumer waiting for the next batch
+            @Suppress("UNCHECKED_CAST")
+            batches.offer(END as Future<List<T>>)
+        }
+    }
+
+    override fun getServerCursor(): ServerCursor? = cursor.serverCursor
+
+    override fun getServerAddress(): ServerAddress = cursor.serverAddress
+}
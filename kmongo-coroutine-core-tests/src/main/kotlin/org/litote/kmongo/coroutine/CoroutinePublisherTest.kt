@@ -18,6 +18,7 @@ package org.litote.kmongo.coroutine
 
 import junit.framework.Assert.assertEquals
 import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.reactive.publish
 import kotlinx.coroutines.runBlocking
 import org.junit.Test
 import org.junit.experimental.categories.Category
@@ -43,4 +44,14 @@ class CoroutinePublisherTest {
             assertEquals(listOf(1), coroutine.toFlow().toList())
         }
     }
+
+    @Test
+    fun toListWithMax() {
+        runBlocking {
+            val publisher = publish { (1..100).forEach { send(it) } }
+            assertEquals(listOf(1, 2, 3), publisher.coroutine.toList(3))
+            assertEquals((1..100).toList(), publisher.toList(1000, batchSize = 7))
+            assertEquals(emptyList<Int>(), publisher.toList(0))
+        }
+    }
 }
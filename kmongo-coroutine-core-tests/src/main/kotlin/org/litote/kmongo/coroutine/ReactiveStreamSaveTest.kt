@@ -21,6 +21,7 @@ import org.bson.Document
 import org.junit.Test
 import org.litote.kmongo.model.Friend
 import org.litote.kmongo.util.ObjectMappingConfiguration
+import org.litote.kmongo.util.SaveAllOptions
 import kotlin.test.assertEquals
 import kotlin.test.assertFalse
 import kotlin.test.assertTrue
@@ -63,4 +64,11 @@ class ReactiveStreamSaveTest : KMongoReactiveStreamsCoroutineBaseTest<Friend>()
             }
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    fun `can save all`() = runBlocking {
+        val result = col.saveAll(listOf(newFriend(), newFriend(), newFriend()), SaveAllOptions(maxBatchSize = 2))
+        assertEquals(3, result.insertedCount)
+        assertEquals(3, col.countDocuments())
+    }
+}
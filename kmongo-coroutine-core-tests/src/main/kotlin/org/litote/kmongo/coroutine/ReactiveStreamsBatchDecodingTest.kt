@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.coroutine
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.flow.asFlow
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.runBlocking
+import org.bson.BsonDocument
+import org.bson.RawBsonDocument
+import org.bson.codecs.BsonDocumentCodec
+import org.bson.codecs.Decoder
+import org.junit.Test
+import org.litote.kmongo.model.Friend
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+/**
+ *
+ */
+class ReactiveStreamsBatchDecodingTest : KMongoReactiveStreamsCoroutineBaseTest<Friend>() {
+
+    @Test
+    fun `can find raw batches`() = runBlocking {
+        col.insertMany((1..25).map { Friend("$it") })
+        val batches = col.findRawBatches(batchSize = 10).toList()
+        assertTrue(batches.all { it.size <= 10 })
+        assertEquals(25, batches.sumOf { it.size })
+    }
+
+    @Test
+    fun `can decode on a dispatcher preserving the order`() = runBlocking {
+        col.insertMany((1..25).map { Friend("$it") })
+        val names = col.findDecodingOn(Dispatchers.Default, batchSize = 10, parallelism = 2).map { it.name }.toList()
+        assertEquals(col.find().toList().map { it.name }, names)
+    }
+
+    @Test
+    fun `at most parallelism batches are decoded at the same time`() = runBlocking {
+        val decoding = AtomicInteger()
+        val maxDecoding = AtomicInteger()
+        val decoder = Decoder { reader, context ->
+            val count = decoding.incrementAndGet()
+            maxDecoding.accumulateAndGet(count) { a, b -> maxOf(a, b) }
+            Thread.sleep(10)
+            decoding.decrementAndGet()
+            BsonDocumentCodec().decode(reader, context)
+        }
+        val batches = (1..20).map { listOf(RawBsonDocument(BsonDocument(), BsonDocumentCodec())) }
+        Executors.newFixedThreadPool(8).asCoroutineDispatcher().use { dispatcher ->
+            assertEquals(20, batches.asFlow().decode(decoder, dispatcher, parallelism = 2).toList().size)
+        }
+        assertEquals(2, maxDecoding.get())
+    }
+}
@@ -16,11 +16,20 @@
 
 package org.litote.kmongo.coroutine
 
+import com.mongodb.client.model.UpdateOneModel
+import com.mongodb.client.model.WriteModel
+import kotlinx.coroutines.flow.asFlow
+import kotlinx.coroutines.flow.flowOf
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.flow.toList
 import kotlinx.coroutines.runBlocking
 import org.junit.Test
+import org.litote.kmongo.eq
 import org.litote.kmongo.json
+import org.litote.kmongo.setValue
 import org.litote.kmongo.model.Friend
 import kotlin.test.assertEquals
+import kotlin.test.assertTrue
 
 /**
  *
@@ -51,4 +60,26 @@ class ReactiveStreamsBulkWriteTest : KMongoReactiveStreamsCoroutineBaseTest<Frie
             assertEquals(2, col.countDocuments(it))
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    fun `can insert with bulk writer`() = runBlocking {
+        val results = col
+            .bulkInsertWriter((1..25).asFlow().map { newFriend() }, BulkWriterOptions(maxBatchSize = 10, concurrency = 2))
+            .toList()
+        assertEquals(listOf(10, 10, 5), results.map { it.requests.size })
+        assertTrue(results.all { it.isSuccess })
+        assertEquals(25, results.sumOf { it.result!!.insertedCount })
+        assertEquals(25, col.countDocuments())
+    }
+
+    @Test
+    fun `can update with bulk writer`() = runBlocking {
+        col.insertOne(newFriend())
+        val result = col
+            .bulkWriter(flowOf<WriteModel<Friend>>(UpdateOneModel(Friend::name eq "John", setValue(Friend::name, "Bob"))))
+            .toList()
+            .single()
+        assertEquals(1, result.result!!.modifiedCount)
+        assertEquals("Bob", col.findOne()!!.name)
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.coroutine
+
+import com.mongodb.client.model.changestream.FullDocument
+import com.mongodb.client.model.changestream.OperationType
+import kotlinx.coroutines.async
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.flow.onEach
+import kotlinx.coroutines.runBlocking
+import org.bson.types.ObjectId
+import org.junit.Test
+import org.litote.kmongo.model.Friend
+import org.litote.kmongo.setValue
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+/**
+ *
+ */
+class ReactiveStreamsChangeStreamConflationTest : KMongoReactiveStreamsCoroutineBaseTest<Friend>() {
+
+    @Test
+    fun `updates of a busy collector are conflated`() = runBlocking {
+        val john = Friend(ObjectId(), "John")
+        col.insertOne(john)
+        var received = 0
+        val last = async {
+            col.watch<Friend>()
+                .fullDocument(FullDocument.UPDATE_LOOKUP)
+                .toConflatedFlow()
+                .onEach {
+                    received++
+                    delay(500)
+                }
+                .first { it.operationType == OperationType.UPDATE && it.fullDocument?.address == "9" }
+        }
+        delay(200)
+        repeat(10) {
+            col.updateOneById(john._id!!, setValue(Friend::address, it.toString()))
+        }
+        assertEquals("9", last.await().fullDocument?.address)
+        assertTrue(received < 10)
+    }
+}
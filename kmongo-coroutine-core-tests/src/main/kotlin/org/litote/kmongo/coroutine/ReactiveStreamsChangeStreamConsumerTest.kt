@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.coroutine
+
+import kotlinx.coroutines.cancelAndJoin
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import org.bson.BsonDocument
+import org.junit.Test
+import org.litote.kmongo.model.Friend
+import java.util.Collections
+import kotlin.test.assertEquals
+import kotlin.test.assertNotNull
+
+/**
+ *
+ */
+class ReactiveStreamsChangeStreamConsumerTest : KMongoReactiveStreamsCoroutineBaseTest<Friend>() {
+
+    @Test
+    fun `can consume and resume from the checkpoint`() = runBlocking {
+        val checkpoints = database.getCollection<BsonDocument>("changeStreamCheckpoints")
+        val store = CollectionCheckpointStore(checkpoints, "test")
+        val names = Collections.synchronizedList(mutableListOf<String?>())
+        try {
+            val job = launch {
+                col.watch<Friend>().consume(partitions = 2, checkpointStore = store) { names.add(it.fullDocument?.name) }
+            }
+            delay(200)
+            col.insertMany(listOf(Friend("John"), Friend("Joe")))
+            delay(500)
+            job.cancelAndJoin()
+            assertEquals(setOf("John", "Joe"), names.toSet())
+            assertNotNull(store.load())
+
+            names.clear()
+            col.insertOne(Friend("Bob"))
+            val restarted = launch {
+                col.watch<Friend>().consume(checkpointStore = store) { names.add(it.fullDocument?.name) }
+            }
+            delay(500)
+            restarted.cancelAndJoin()
+            assertEquals(listOf<String?>("Bob"), names)
+        } finally {
+            checkpoints.drop()
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.coroutine
+
+import com.mongodb.client.model.changestream.FullDocument
+import kotlinx.coroutines.async
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.flow.take
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.runBlocking
+import org.junit.Test
+import org.litote.kmongo.model.Friend
+import kotlin.test.assertEquals
+
+/**
+ *
+ */
+class ReactiveStreamsChangeStreamHubTest : KMongoReactiveStreamsCoroutineBaseTest<Friend>() {
+
+    @Test
+    fun `subscribers share one change stream`() = runBlocking {
+        ChangeStreamHub(fullDocument = FullDocument.UPDATE_LOOKUP).use { hub ->
+            val all = async { hub.watch(col).take(2).map { it.fullDocument?.getString("name")?.value }.toList() }
+            val johns = async {
+                hub.watch(col) { it.fullDocument?.getString("name")?.value == "John" }
+                    .take(1)
+                    .map { it.fullDocument?.getString("name")?.value }
+                    .toList()
+            }
+            delay(200)
+            assertEquals(1, hub.changeStreamCount)
+
+            col.insertOne(Friend("Joe"))
+            col.insertOne(Friend("John"))
+            assertEquals(listOf("Joe", "John"), all.await())
+            assertEquals(listOf("John"), johns.await())
+            delay(100)
+            assertEquals(0, hub.changeStreamCount)
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.coroutine
+
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import org.bson.types.ObjectId
+import org.junit.Test
+import org.litote.kmongo.model.Friend
+import org.litote.kmongo.setValue
+import org.litote.kmongo.util.EntityCacheOptions
+import kotlin.test.assertEquals
+
+/**
+ *
+ */
+class ReactiveStreamsEntityCacheTest : KMongoReactiveStreamsCoroutineBaseTest<Friend>() {
+
+    @Test
+    fun `can cache findOneById`() = runBlocking {
+        val john = Friend(ObjectId(), "John")
+        col.insertOne(john)
+        col.entityCache(EntityCacheOptions(watch = false)).use { cache ->
+            assertEquals("John", cache.findOneById(john._id!!)?.name)
+            assertEquals("John", cache.findOneById(john._id!!)?.name)
+            assertEquals(1, cache.metrics.hitCount)
+
+            cache.updateOneById(john._id!!, setValue(Friend::name, "Joe"))
+            assertEquals("Joe", cache.findOneById(john._id!!)?.name)
+        }
+    }
+
+    @Test
+    fun `cache is invalidated by the change stream`() = runBlocking {
+        val john = Friend(ObjectId(), "John")
+        col.insertOne(john)
+        col.entityCache().use { cache ->
+            delay(200)
+            assertEquals("John", cache.findOneById(john._id!!)?.name)
+
+            col.updateOneById(john._id!!, setValue(Friend::name, "Joe"))
+            delay(500)
+            assertEquals("Joe", cache.findOneById(john._id!!)?.name)
+        }
+    }
+}
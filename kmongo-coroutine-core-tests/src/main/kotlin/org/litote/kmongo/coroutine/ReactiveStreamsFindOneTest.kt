@@ -18,12 +18,15 @@ package org.litote.kmongo.coroutine
 
 import com.mongodb.ReadPreference
 import com.mongodb.client.model.Filters
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
 import kotlinx.coroutines.runBlocking
 import org.bson.types.ObjectId
 import org.junit.Test
 import org.litote.kmongo.MongoOperator
 import org.litote.kmongo.json
 import org.litote.kmongo.model.Friend
+import org.litote.kmongo.util.BatchLoaderOptions
 import kotlin.test.assertEquals
 import kotlin.test.assertNull
 
@@ -121,4 +124,18 @@ class ReactiveStreamsFindOneTest : KMongoReactiveStreamsCoroutineBaseTest<Friend
                 ?: throw AssertionError("Value must not null!")
         assertEquals("John", friend.name)
     }
-}
\ No newline at end of file
+
+    @Test
+    fun `can find one by id with an id loader`() = runBlocking {
+        val friends = (1..5).map { Friend(ObjectId(), "John$it") }
+        col.insertMany(friends)
+        col.idLoader(BatchLoaderOptions(windowMillis = 20)).use { loader ->
+            val ids = friends.map { it._id!! } + friends[0]._id!! + ObjectId()
+            val found = ids.map { async { loader.findOneById(it) } }.awaitAll()
+
+            assertEquals(friends.map { it.name } + "John1" + null, found.map { it?.name })
+            assertEquals(1, loader.metrics.batchCount)
+            assertEquals(6, loader.metrics.largestBatchSize)
+        }
+    }
+}
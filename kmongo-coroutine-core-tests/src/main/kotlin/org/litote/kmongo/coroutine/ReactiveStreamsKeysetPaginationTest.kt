@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.coroutine
+
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.runBlocking
+import org.junit.Test
+import org.litote.kmongo.EMPTY_BSON
+import org.litote.kmongo.ascending
+import org.litote.kmongo.model.Friend
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+
+/**
+ *
+ */
+class ReactiveStreamsKeysetPaginationTest : KMongoReactiveStreamsCoroutineBaseTest<Friend>() {
+
+    @Test
+    fun `can paginate`() = runBlocking {
+        col.insertMany((1..15).map { Friend("John${it % 3}", "$it") })
+
+        val first = col.paginate(EMPTY_BSON, Friend::name, Friend::_id, pageSize = 10)
+        val second = col.paginate(EMPTY_BSON, Friend::name, Friend::_id, pageSize = 10, token = first.nextToken)
+
+        assertEquals(listOf(10, 5), listOf(first, second).map { it.items.size })
+        assertNull(second.nextToken)
+        assertEquals(
+            col.find().sort(ascending(Friend::name, Friend::_id)).toList().map { it.address },
+            (first.items + second.items).map { it.address }
+        )
+    }
+
+    @Test
+    fun `can stream pages`() = runBlocking {
+        col.insertMany((1..12).map { Friend("John$it") })
+
+        val pages = col.pages(EMPTY_BSON, Friend::_id, pageSize = 5).toList()
+
+        assertEquals(listOf(5, 5, 2), pages.map { it.items.size })
+        assertEquals(12, pages.flatMap { page -> page.items.map { it.name } }.toSet().size)
+    }
+}
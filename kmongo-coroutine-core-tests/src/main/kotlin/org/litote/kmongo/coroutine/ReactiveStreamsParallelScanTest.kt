@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.coroutine
+
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.runBlocking
+import org.junit.Test
+import org.litote.kmongo.eq
+import org.litote.kmongo.model.Friend
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+/**
+ *
+ */
+class ReactiveStreamsParallelScanTest : KMongoReactiveStreamsCoroutineBaseTest<Friend>() {
+
+    @Test
+    fun `can scan partitions`() = runBlocking {
+        col.insertMany((1..200).map { Friend("John$it") })
+
+        val partitions = col.scanPartitions(4)
+        val names = partitions.flatMap { partition -> partition.toList().map { it.name!! } }
+
+        assertTrue(partitions.size in 2..4)
+        assertEquals(200, names.size)
+        assertEquals(200, names.toSet().size)
+    }
+
+    @Test
+    fun `can merge partitions with parallelScan`() = runBlocking {
+        col.insertMany((1..100).map { Friend("John$it", if (it % 2 == 0) "even" else "odd") })
+
+        val names = col.parallelScan(3, Friend::address eq "even", parallelism = 2).toList().map { it.name!! }
+
+        assertEquals((1..100).filter { it % 2 == 0 }.map { "John$it" }.toSet(), names.toSet())
+        assertEquals(50, names.size)
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.coroutine
+
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Semaphore
+import org.bson.RawBsonDocument
+import org.bson.codecs.Decoder
+import org.bson.conversions.Bson
+import org.litote.kmongo.EMPTY_BSON
+
+/**
+ * Decodes the batches of raw documents on [dispatcher], at most [parallelism] batches at the same time.
+ * The order of the documents is preserved.
+ *
+ * @param decoder the document decoder
+ * @param dispatcher the dispatcher used to decode the documents
+ * @param parallelism the maximum number of batches decoded at the same time
+ * @return the decoded batches
+ */
+fun <T> Flow<List<RawBsonDocument>>.decodeBatches(
+    decoder: Decoder<T>,
+    dispatcher: CoroutineDispatcher = Dispatchers.Default,
+    parallelism: Int = 4
+): Flow<List<T>> {
+    require(parallelism > 0) { "parallelism must be positive" }
+    return flow {
+        coroutineScope {
+            //a permit is held from the decoding start to the batch emission
+            val permits = Semaphore(parallelism)
+            val decoding = Channel<Deferred<List<T>>>(parallelism)
+            launch {
+                try {
+                    collect { batch ->
+                        permits.acquire()
+                        decoding.send(async(dispatcher) { batch.map { it.decode(decoder) } })
+                    }
+                } finally {
+                    decoding.close()
+                }
+            }
+            for (batch in decoding) {
+                val decoded = batch.await()
+                permits.release()
+                emit(decoded)
+            }
+        }
+    }
+}
+
+/**
+ * Decodes the batches of raw documents on [dispatcher], at most [parallelism] batches at the same time,
+ * and flattens them. The order of the documents is preserved.
+ *
+ * @param decoder the document decoder
+ * @param dispatcher the dispatcher used to decode the documents
+ * @param parallelism the maximum number of batches decoded at the same time
+ * @return the decoded documents
+ */
+fun <T> Flow<List<RawBsonDocument>>.decode(
+    decoder: Decoder<T>,
+    dispatcher: CoroutineDispatcher = Dispatchers.Default,
+    parallelism: Int = 4
+): Flow<T> = flow {
+    decodeBatches(decoder, dispatcher, parallelism).collect { batch -> batch.forEach { emit(it) } }
+}
+
+/**
+ * Finds the documents as [RawBsonDocument] batches: the driver does not decode them on its I/O threads.
+ *
+ * @param filter the query filter
+ * @param batchSize the batch size of the cursor, and the maximum size of the lists
+ * @return the raw document batches
+ * @see decodeBatches
+ */
+fun <T : Any> CoroutineCollection<T>.findRawBatches(filter: Bson = EMPTY_BSON, batchSize: Int = 101): Flow<List<RawBsonDocument>> =
+    collection.find(filter, RawBsonDocument::class.java).batchSize(batchSize).toBatchFlow(batchSize)
+
+/**
+ * Finds the documents as raw batches, and decodes them on [dispatcher] instead of the driver I/O threads.
+ * The order of the documents is preserved.
+ *
+ * @param filter the query filter
+ * @param batchSize the batch size of the cursor
+ * @param dispatcher the dispatcher used to decode the documents
+ * @param parallelism the maximum number of batches decoded at the same time
+ * @return the documents
+ */
+fun <T : Any> CoroutineCollection<T>.findDecodingOn(
+    dispatcher: CoroutineDispatcher,
+    filter: Bson = EMPTY_BSON,
+    batchSize: Int = 101,
+    parallelism: Int = 4
+): Flow<T> = findRawBatches(filter, batchSize).decode(codecRegistry.get(documentClass), dispatcher, parallelism)
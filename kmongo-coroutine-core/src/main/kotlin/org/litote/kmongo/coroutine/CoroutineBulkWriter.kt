@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.coroutine
+
+import com.mongodb.bulk.BulkWriteResult
+import com.mongodb.client.model.BulkWriteOptions
+import com.mongodb.client.model.DeleteManyModel
+import com.mongodb.client.model.DeleteOneModel
+import com.mongodb.client.model.InsertOneModel
+import com.mongodb.client.model.ReplaceOneModel
+import com.mongodb.client.model.UpdateManyModel
+import com.mongodb.client.model.UpdateOneModel
+import com.mongodb.client.model.WriteModel
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.async
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.buffer
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.reactive.awaitSingle
+import kotlinx.coroutines.selects.select
+import kotlinx.coroutines.sync.Semaphore
+import org.bson.BsonDocument
+import org.bson.RawBsonDocument
+import org.bson.codecs.Codec
+import org.bson.codecs.CollectibleCodec
+import org.bson.conversions.Bson
+import org.litote.kmongo.util.KMongoUtil
+
+/**
+ * Options of [bulkWriter].
+ *
+ * @param maxBatchSize the maximum number of writes of a bulk write
+ * @param maxBatchBytes the maximum encoded size of the writes of a bulk write
+ * @param lingerMillis the maximum time a write waits for other writes before its batch is sent
+ * @param concurrency the maximum number of bulk writes in flight
+ * @param bulkWriteOptions the bulk write options - unordered by default
+ */
+class BulkWriterOptions(
+    val maxBatchSize: Int = 1000,
+    val maxBatchBytes: Long = 16L * 1024 * 1024,
+    val lingerMillis: Long = 100,
+    val concurrency: Int = 2,
+    val bulkWriteOptions: BulkWriteOptions = BulkWriteOptions().ordered(false)
+) {
+    init {
+        require(maxBatchSize > 0) { "maxBatchSize must be positive" }
+        require(maxBatchBytes > 0) { "maxBatchBytes must be positive" }
+        require(lingerMillis >= 0) { "lingerMillis must be positive or zero" }
+        require(concurrency > 0) { "concurrency must be positive" }
+    }
+}
+
+/**
+ * The result of a bulk write sent by a [bulkWriter].
+ *
+ * @param requests the writes of the batch
+ * @param result the bulk write result, null if the bulk write failed
+ * @param error the bulk write error, null if the bulk write succeeded
+ */
+class BulkWriterResult<T>(
+    val requests: List<WriteModel<T>>,
+    val result: BulkWriteResult?,
+    val error: Throwable?
+) {
+
+    /**
+     * true if the bulk write succeeded.
+     */
+    val isSuccess: Boolean get() = error == null
+
+    override fun toString(): String = "BulkWriterResult(requests=${requests.size}, result=$result, error=$error)"
+}
+
+/**
+ * Writes the [requests] with bulk writes.
+ *
+ * The writes are grouped by count ([BulkWriterOptions.maxBatchSize]), encoded size ([BulkWriterOptions.maxBatchBytes])
+ * and time ([BulkWriterOptions.lingerMillis]). At most [BulkWriterOptions.concurrency] bulk writes are in flight:
+ * the upstream flow is suspended when this limit is reached.
+ *
+ * The returned flow emits one result by bulk write, in the batch order.
+ * A failed bulk write does not stop the flow: its error is emitted in the result.
+ * With ordered bulk writes and a concurrency greater than 1, the batches may be applied in any order.
+ *
+ * @param requests the writes
+ * @param options the batch options
+ * @return the results of the bulk writes
+ */
+fun <T : Any> CoroutineCollection<T>.bulkWriter(
+    requests: Flow<WriteModel<T>>,
+    options: BulkWriterOptions = BulkWriterOptions()
+): Flow<BulkWriterResult<T>> {
+    val rawCollection = collection.withDocumentClass(RawBsonDocument::class.java)
+    val encoder = RawWriteModelEncoder(collection.codecRegistry.get(collection.documentClass)) { bson ->
+        bson.toBsonDocument(collection.documentClass, collection.codecRegistry)
+    }
+    return requests
+        .map { it to encoder.encode(it) }
+        .batched(options) { it.second.second }
+        .let { batches ->
+            channelFlow {
+                val inFlight = Semaphore(options.concurrency)
+                batches
+                    .map { batch ->
+                        inFlight.acquire()
+                        async {
+                            try {
+                                val raw = batch.map { it.second.first }
+                                val result = try {
+                                    rawCollection.bulkWrite(raw, options.bulkWriteOptions).awaitSingle()
+                                } catch (e: CancellationException) {
+                                    throw e
+                                } catch (e: Exception) {
+                                    return@async BulkWriterResult(batch.map { it.first }, null, e)
+                                }
+                                BulkWriterResult(batch.map { it.first }, result, null)
+                            } finally {
+                                inFlight.release()
+                            }
+                        }
+                    }
+                    .buffer(options.concurrency)
+                    .collect { send(it.await()) }
+            }.buffer(Channel.RENDEZVOUS)
+        }
+}
+
+/**
+ * Inserts the [documents] with bulk writes.
+ *
+ * @param documents the documents to insert
+ * @param options the batch options
+ * @return the results of the bulk writes
+ * @see bulkWriter
+ */
+fun <T : Any> CoroutineCollection<T>.bulkInsertWriter(
+    documents: Flow<T>,
+    options: BulkWriterOptions = BulkWriterOptions()
+): Flow<BulkWriterResult<T>> = bulkWriter(documents.map { InsertOneModel(it) }, options)
+
+/**
+ * Groups the elements by count, size and linger time.
+ */
+private fun <R> Flow<R>.batched(options: BulkWriterOptions, sizeOf: (R) -> Int): Flow<List<R>> =
+    channelFlow {
+        val elements = Channel<R>()
+        launch {
+            try {
+                collect { elements.send(it) }
+            } finally {
+                elements.close()
+            }
+        }
+        //a tick flushes the batch of its generation, if it is not already sent
+        val ticks = Channel<Int>(Channel.CONFLATED)
+        var generation = 0
+        var timer: Job? = null
+        var batch = ArrayList<R>()
+        var bytes = 0L
+
+        suspend fun flush() {
+            timer?.cancel()
+            generation++
+            if (batch.isNotEmpty()) {
+                send(batch)
+                batch = ArrayList()
+                bytes = 0
+            }
+        }
+
+        var open = true
+        while (open) {
+            select<Unit> {
+                elements.onReceiveCatching { received ->
+                    if (received.isClosed) {
+                        open = false
+                    } else {
+                        val element = received.getOrThrow()
+                        val size = sizeOf(element)
+                        if (batch.isNotEmpty() && bytes + size > options.maxBatchBytes) {
+                            flush()
+                        }
+                        batch.add(element)
+                        bytes += size
+                        if (batch.size >= options.maxBatchSize) {
+                            flush()
+                        } else if (batch.size == 1) {
+                            val batchGeneration = generation
+                            timer = launch {
+                                delay(options.lingerMillis)
+                                ticks.send(batchGeneration)
+                            }
+                        }
+                    }
+                }
+                ticks.onReceive { tick ->
+                    if (tick == generation) {
+                        flush()
+                    }
+                }
+            }
+        }
+        flush()
+    }.buffer(Channel.RENDEZVOUS)
+
+/**
+ * Encodes the documents of the write models once, to get their size and send them as raw documents.
+ * The filters and updates are converted once to [BsonDocument]s, that are kept in the sent write models,
+ * and their size is computed without encoding them.
+ */
+private class RawWriteModelEncoder<T : Any>(
+    private val codec: Codec<T>,
+    private val toBsonDocument: (Bson) -> BsonDocument
+) {
+
+    private fun raw(document: T): RawBsonDocument {
+        if (codec is CollectibleCodec<T> && !codec.documentHasId(document)) {
+            codec.generateIdIfAbsentFromDocument(document)
+        }
+        return RawBsonDocument(document, codec)
+    }
+
+    private fun size(document: BsonDocument?): Int = document?.let { KMongoUtil.bsonSize(it) } ?: 0
+
+    private fun size(pipeline: List<BsonDocument>?): Int = pipeline?.sumOf { KMongoUtil.bsonSize(it) } ?: 0
+
+    fun encode(model: WriteModel<T>): Pair<WriteModel<RawBsonDocument>, Int> =
+        when (model) {
+            is InsertOneModel -> raw(model.document).let { InsertOneModel(it) to it.byteBuffer.remaining() }
+            is ReplaceOneModel -> {
+                val filter = toBsonDocument(model.filter)
+                val replacement = raw(model.replacement)
+                ReplaceOneModel(filter, replacement, model.replaceOptions) to replacement.byteBuffer.remaining() + size(filter)
+            }
+
+            is UpdateOneModel -> {
+                val filter = toBsonDocument(model.filter)
+                val update = model.update?.let(toBsonDocument)
+                val pipeline = model.updatePipeline?.map(toBsonDocument)
+                (
+                        if (update != null) UpdateOneModel<RawBsonDocument>(filter, update, model.options)
+                        else UpdateOneModel(filter, pipeline!!, model.options)
+                        ) to size(filter) + size(update) + size(pipeline)
+            }
+
+            is UpdateManyModel -> {
+                val filter = toBsonDocument(model.filter)
+                val update = model.update?.let(toBsonDocument)
+                val pipeline = model.updatePipeline?.map(toBsonDocument)
+                (
+                        if (update != null) UpdateManyModel<RawBsonDocument>(filter, update, model.options)
+                        else UpdateManyModel(filter, pipeline!!, model.options)
+                        ) to size(filter) + size(update) + size(pipeline)
+            }
+
+            is DeleteOneModel -> toBsonDocument(model.filter).let { DeleteOneModel<RawBsonDocument>(it, model.options) to size(it) }
+            is DeleteManyModel -> toBsonDocument(model.filter).let { DeleteManyModel<RawBsonDocument>(it, model.options) to size(it) }
+            else -> error("unsupported write model: $model")
+        }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.coroutine
+
+import com.mongodb.client.model.changestream.ChangeStreamDocument
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.launch
+import org.litote.kmongo.util.ChangeStreamConflation
+
+/**
+ * Conflates the change stream events by `documentKey` while the collector is busy:
+ * the pending events of a document are merged into one event for each batch of pending events -
+ * use `FullDocument.UPDATE_LOOKUP` so an update of a pending insert (or replace) is merged into it.
+ *
+ * The upstream flow is collected in a separate coroutine, so it never waits for the collector.
+ *
+ * @see ChangeStreamConflation
+ */
+fun <T> Flow<ChangeStreamDocument<T>>.conflateByDocumentKey(): Flow<ChangeStreamDocument<T>> = flow {
+    coroutineScope {
+        val pending = ChangeStreamConflation<T>()
+        val signal = Channel<Unit>(Channel.CONFLATED)
+        var failure: Throwable? = null
+        launch {
+            try {
+                this@conflateByDocumentKey.collect {
+                    pending.add(it)
+                    signal.trySend(Unit)
+                }
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                failure = e
+            } finally {
+                signal.close()
+            }
+        }
+        for (ignored in signal) {
+            pending.drain().forEach { emit(it) }
+        }
+        pending.drain().forEach { emit(it) }
+        failure?.let { throw it }
+    }
+}
+
+/**
+ * Returns the change stream events conflated by `documentKey` while the collector is busy.
+ *
+ * @see conflateByDocumentKey
+ */
+fun <T : Any> CoroutineChangeStreamPublisher<T>.toConflatedFlow(): Flow<ChangeStreamDocument<T>> =
+    toFlow().conflateByDocumentKey()
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.coroutine
+
+import com.mongodb.client.model.ReplaceOptions
+import com.mongodb.client.model.changestream.ChangeStreamDocument
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.NonCancellable
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.joinAll
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
+import org.bson.BsonDateTime
+import org.bson.BsonDocument
+import org.bson.BsonString
+import org.litote.kmongo.util.KMongoUtil
+
+/**
+ * Stores the resume token of a change stream consumer.
+ */
+interface ChangeStreamCheckpointStore {
+
+    /**
+     * Returns the last saved resume token, null if there is none.
+     */
+    suspend fun load(): BsonDocument?
+
+    /**
+     * Saves the resume token.
+     */
+    suspend fun save(resumeToken: BsonDocument)
+}
+
+/**
+ * A [ChangeStreamCheckpointStore] in memory: the consumer resumes after an error, but not after a restart.
+ */
+class InMemoryCheckpointStore : ChangeStreamCheckpointStore {
+
+    @Volatile
+    private var resumeToken: BsonDocument? = null
+
+    override suspend fun load(): BsonDocument? = resumeToken
+
+    override suspend fun save(resumeToken: BsonDocument) {
+        this.resumeToken = resumeToken
+    }
+}
+
+/**
+ * A [ChangeStreamCheckpointStore] saving the resume token in a collection document.
+ *
+ * @param collection the checkpoint collection
+ * @param consumerId the id of the consumer - the `_id` of its checkpoint document
+ */
+class CollectionCheckpointStore(
+    private val collection: CoroutineCollection<BsonDocument>,
+    private val consumerId: String
+) : ChangeStreamCheckpointStore {
+
+    private val id = BsonDocument("_id", BsonString(consumerId))
+
+    override suspend fun load(): BsonDocument? =
+        collection.findOne(id)?.let { if (it.isDocument(RESUME_TOKEN)) it.getDocument(RESUME_TOKEN) else null }
+
+    override suspend fun save(resumeToken: BsonDocument) {
+        collection.replaceOne(
+            id,
+            id.clone().append(RESUME_TOKEN, resumeToken).append("date", BsonDateTime(System.currentTimeMillis())),
+            ReplaceOptions().upsert(true)
+        )
+    }
+
+    private companion object {
+        const val RESUME_TOKEN = "resumeToken"
+    }
+}
+
+/**
+ * Tracks the dispatched events in order to find the last event such as all the previous events are processed.
+ */
+private class CheckpointTracker {
+
+    private class Entry(val sequence: Long, val resumeToken: BsonDocument) {
+        var done = false
+    }
+
+    private val entries = ArrayDeque<Entry>()
+    private var checkpoint: BsonDocument? = null
+
+    @Synchronized
+    fun dispatched(sequence: Long, resumeToken: BsonDocument) {
+        entries.addLast(Entry(sequence, resumeToken))
+    }
+
+    @Synchronized
+    fun processed(sequence: Long) {
+        entries[(sequence - entries.first().sequence).toInt()].done = true
+        while (entries.firstOrNull()?.done == true) {
+            checkpoint = entries.removeFirst().resumeToken
+        }
+    }
+
+    @Synchronized
+    fun checkpoint(): BsonDocument? = checkpoint
+}
+
+/**
+ * Consumes the change stream: the events are dispatched to [partitions] workers according to their `documentKey`,
+ * so the events of a document are processed in order, and the events of different documents in parallel.
+ *
+ * The resume token of the last event such as all the previous events are processed
+ * is saved to the [checkpointStore] every [checkpointEvery] events, every [checkpointIntervalMillis],
+ * and when the consumer stops. The consumer starts after the saved resume token,
+ * and the change stream is resumed after a resumable error - so an event may be processed more than once
+ * after a restart.
+ *
+ * The consumer stops when the change stream is closed by the server (for example when the collection is dropped),
+ * or when the [handler] throws an exception.
+ *
+ * @param partitions the number of workers
+ * @param checkpointStore the resume token store
+ * @param checkpointEvery the number of events between two checkpoints
+ * @param checkpointIntervalMillis the maximum time between two checkpoints
+ * @param retryMillis the delay before the change stream is resumed after an error
+ * @param handler the event handler
+ */
+suspend fun <T : Any> CoroutineChangeStreamPublisher<T>.consume(
+    partitions: Int = 1,
+    checkpointStore: ChangeStreamCheckpointStore = InMemoryCheckpointStore(),
+    checkpointEvery: Int = 100,
+    checkpointIntervalMillis: Long = 1000,
+    retryMillis: Long = 1000,
+    handler: suspend (ChangeStreamDocument<T>) -> Unit
+) {
+    require(partitions > 0) { "partitions must be positive" }
+    require(checkpointEvery > 0) { "checkpointEvery must be positive" }
+    require(checkpointIntervalMillis > 0) { "checkpointIntervalMillis must be positive" }
+    coroutineScope {
+        val tracker = CheckpointTracker()
+        val checkpointMutex = Mutex()
+        var saved: BsonDocument? = null
+        suspend fun checkpoint() {
+            checkpointMutex.withLock {
+                val resumeToken = tracker.checkpoint()
+                if (resumeToken != null && resumeToken != saved) {
+                    checkpointStore.save(resumeToken)
+                    saved = resumeToken
+                }
+            }
+        }
+
+        val queues = List(partitions) { Channel<Pair<Long, ChangeStreamDocument<T>>>(Channel.BUFFERED) }
+        val workers = queues.map { queue ->
+            launch {
+                for ((sequence, event) in queue) {
+                    handler(event)
+                    tracker.processed(sequence)
+                }
+            }
+        }
+        val ticker = launch {
+            while (true) {
+                delay(checkpointIntervalMillis)
+                checkpoint()
+            }
+        }
+        try {
+            var resumeToken = checkpointStore.load()
+            var sequence = 0L
+            while (true) {
+                try {
+                    (resumeToken?.let { resumeAfter(it) } ?: this@consume).toFlow().collect { event ->
+                        sequence++
+                        tracker.dispatched(sequence, event.resumeToken)
+                        queues[Math.floorMod(event.documentKey?.hashCode() ?: 0, partitions)].send(sequence to event)
+                        resumeToken = event.resumeToken
+                        if (sequence % checkpointEvery == 0L) {
+                            checkpoint()
+                        }
+                    }
+                    break
+                } catch (e: CancellationException) {
+                    throw e
+                } catch (e: Exception) {
+                    if (!KMongoUtil.isResumableChangeStreamError(e)) {
+                        throw e
+                    }
+                    delay(retryMillis)
+                }
+            }
+            queues.forEach { it.close() }
+            workers.joinAll()
+        } finally {
+            ticker.cancel()
+            withContext(NonCancellable) { checkpoint() }
+        }
+    }
+}
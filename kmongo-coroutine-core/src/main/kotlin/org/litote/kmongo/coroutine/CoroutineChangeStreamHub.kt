@@ -0,0 +1,419 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.coroutine
+
+import com.mongodb.client.model.changestream.ChangeStreamDocument
+import com.mongodb.client.model.changestream.FullDocument
+import com.mongodb.reactivestreams.client.ChangeStreamPublisher
+import com.mongodb.reactivestreams.client.MongoDatabase
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.channels.BufferOverflow
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.emitAll
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.onSubscription
+import kotlinx.coroutines.flow.transformWhile
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.reactive.asFlow
+import kotlinx.coroutines.reactive.awaitFirstOrNull
+import org.bson.BsonDocument
+import org.bson.BsonInt32
+import org.bson.BsonTimestamp
+import org.litote.kmongo.util.ChangeStreamConflation
+import org.litote.kmongo.util.KMongoUtil
+import java.io.Closeable
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * What a [ChangeStreamHub] subscriber does when its buffer is full.
+ */
+enum class ChangeStreamOverflow {
+    /**
+     * The shared change stream waits for the subscriber: a slow subscriber slows down all the subscribers
+     * of the same change stream, but no event is lost.
+     */
+    SUSPEND,
+
+    /**
+     * The oldest buffered event is dropped.
+     */
+    DROP_OLDEST,
+
+    /**
+     * The pending events of each `documentKey` are merged - the buffer is roughly bounded by the number of
+     * distinct documents changed while the subscriber is busy.
+     *
+     * @see org.litote.kmongo.util.ChangeStreamConflation
+     */
+    CONFLATE_BY_KEY
+}
+
+/**
+ * Shares one server change stream by namespace between many in-process subscribers.
+ *
+ * The server change stream is opened with the first subscriber of its namespace, resumed after resumable errors,
+ * and closed with the last subscriber. Each subscriber has its own buffer and its own filter, evaluated
+ * in the process before the event is buffered.
+ *
+ * The namespaces are identified by name, so a hub must watch only one cluster.
+ *
+ * @param fullDocument the fullDocument option of the shared change streams
+ * @param retryMillis the delay before a change stream is resumed after an error
+ * @param dispatcher the dispatcher of the shared change streams
+ */
+class ChangeStreamHub(
+    private val fullDocument: FullDocument = FullDocument.DEFAULT,
+    private val retryMillis: Long = 1000,
+    dispatcher: CoroutineDispatcher = Dispatchers.Default
+) : Closeable {
+
+    private class Closed(val error: Throwable?)
+
+    private abstract class Subscriber(private val filter: (ChangeStreamDocument<BsonDocument>) -> Boolean) {
+
+        @Volatile
+        var closed = false
+
+        fun accepts(event: ChangeStreamDocument<BsonDocument>): Boolean =
+            !closed && try {
+                filter(event)
+            } catch (e: Exception) {
+                abort(e)
+                false
+            }
+
+        abstract suspend fun offer(event: ChangeStreamDocument<BsonDocument>)
+
+        /**
+         * Closes the subscriber after its buffered events.
+         */
+        abstract suspend fun close(error: Throwable?)
+
+        /**
+         * Closes the subscriber without waiting for a buffer slot - the buffered events may be lost.
+         */
+        abstract fun abort(error: Throwable?)
+
+        abstract fun events(onStart: () -> Unit): Flow<ChangeStreamDocument<BsonDocument>>
+    }
+
+    private class SharedFlowSubscriber(
+        filter: (ChangeStreamDocument<BsonDocument>) -> Boolean,
+        bufferSize: Int,
+        overflow: BufferOverflow
+    ) : Subscriber(filter) {
+
+        private val shared = MutableSharedFlow<Any>(extraBufferCapacity = bufferSize, onBufferOverflow = overflow)
+
+        @Volatile
+        private var aborted: Closed? = null
+
+        override suspend fun offer(event: ChangeStreamDocument<BsonDocument>) = shared.emit(event)
+
+        override suspend fun close(error: Throwable?) {
+            closed = true
+            shared.emit(Closed(error))
+        }
+
+        override fun abort(error: Throwable?) {
+            closed = true
+            if (!shared.tryEmit(Closed(error))) {
+                aborted = Closed(error)
+            }
+        }
+
+        @Suppress("UNCHECKED_CAST")
+        override fun events(onStart: () -> Unit): Flow<ChangeStreamDocument<BsonDocument>> =
+            shared.onSubscription { onStart() }.transformWhile { item ->
+                val end = item as? Closed ?: aborted
+                if (end == null) {
+                    emit(item as ChangeStreamDocument<BsonDocument>)
+                    true
+                } else {
+                    end.error?.let { throw it }
+                    false
+                }
+            }
+    }
+
+    private class ConflatingSubscriber(filter: (ChangeStreamDocument<BsonDocument>) -> Boolean) : Subscriber(filter) {
+
+        private val pending = ChangeStreamConflation<BsonDocument>()
+        private val signal = Channel<Unit>(Channel.CONFLATED)
+
+        @Volatile
+        private var end: Closed? = null
+
+        override suspend fun offer(event: ChangeStreamDocument<BsonDocument>) {
+            pending.add(event)
+            signal.trySend(Unit)
+        }
+
+        override suspend fun close(error: Throwable?) = abort(error)
+
+        override fun abort(error: Throwable?) {
+            closed = true
+            end = Closed(error)
+            signal.trySend(Unit)
+        }
+
+        override fun events(onStart: () -> Unit): Flow<ChangeStreamDocument<BsonDocument>> = flow {
+            onStart()
+            for (ignored in signal) {
+                pending.drain().forEach { emit(it) }
+                end?.let { end ->
+                    pending.drain().forEach { emit(it) }
+                    end.error?.let { throw it }
+                    return@flow
+                }
+            }
+        }
+    }
+
+    private class Upstream(
+        val key: String,
+        val open: () -> ChangeStreamPublisher<BsonDocument>,
+        val startTime: suspend () -> BsonTimestamp?
+    ) {
+        val subscribers = CopyOnWriteArrayList<Subscriber>()
+        lateinit var job: Job
+    }
+
+    private val scope = CoroutineScope(SupervisorJob() + dispatcher)
+    private val upstreams = mutableMapOf<String, Upstream>()
+
+    /**
+     * The number of opened server change streams.
+     */
+    val changeStreamCount: Int get() = synchronized(upstreams) { upstreams.size }
+
+    private fun subscribe(
+        key: String,
+        open: () -> ChangeStreamPublisher<BsonDocument>,
+        startTime: suspend () -> BsonTimestamp?,
+        subscriber: Subscriber
+    ) {
+        check(scope.isActive) { "the hub is closed" }
+        val upstream = synchronized(upstreams) {
+            upstreams[key]?.apply { subscribers.add(subscriber) }
+                ?: Upstream(key, open, startTime).also { upstream ->
+                    upstream.subscribers.add(subscriber)
+                    upstream.job = scope.launch(start = CoroutineStart.LAZY) { run(upstream) }
+                    upstreams[key] = upstream
+                }
+        }
+        upstream.job.start()
+    }
+
+    private fun unsubscribe(key: String, subscriber: Subscriber) {
+        synchronized(upstreams) {
+            val upstream = upstreams[key] ?: return
+            if (upstream.subscribers.remove(subscriber) && upstream.subscribers.isEmpty()) {
+                upstreams.remove(key)
+                upstream.job.cancel()
+            }
+        }
+    }
+
+    private suspend fun run(upstream: Upstream) {
+        val error = try {
+            watch(upstream)
+        } catch (e: CancellationException) {
+            upstream.subscribers.forEach { it.abort(null) }
+            throw e
+        }
+        synchronized(upstreams) {
+            if (upstreams[upstream.key] === upstream) {
+                upstreams.remove(upstream.key)
+            }
+        }
+        upstream.subscribers.forEach { it.close(error) }
+    }
+
+    /**
+     * Watches until the server closes the change stream, and returns the non resumable error if any.
+     *
+     * The change stream starts at the server time read before it is opened, so it is resumed without losing events
+     * even if no event has been received yet.
+     */
+    private suspend fun watch(upstream: Upstream): Throwable? {
+        var resumeToken: BsonDocument? = null
+        var startTime: BsonTimestamp? = null
+        while (true) {
+            try {
+                if (resumeToken == null && startTime == null) {
+                    startTime = upstream.startTime()
+                }
+                upstream.open()
+                    .fullDocument(fullDocument)
+                    .apply {
+                        val token = resumeToken
+                        val time = startTime
+                        when {
+                            token != null -> resumeAfter(token)
+                            time != null -> startAtOperationTime(time)
+                        }
+                    }
+                    .asFlow()
+                    .collect { event ->
+                        resumeToken = event.resumeToken
+                        for (subscriber in upstream.subscribers) {
+                            if (subscriber.accepts(event)) {
+                                subscriber.offer(event)
+                            }
+                        }
+                    }
+                return null
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                if (!KMongoUtil.isResumableChangeStreamError(e)) {
+                    return e
+                }
+                delay(retryMillis)
+            }
+        }
+    }
+
+    //the operation time of a command reply - not available from a standalone server
+    private suspend fun operationTime(database: MongoDatabase): BsonTimestamp? =
+        database.runCommand(BsonDocument("ping", BsonInt32(1)), BsonDocument::class.java)
+            .awaitFirstOrNull()
+            ?.let { KMongoUtil.operationTime(it) }
+
+    private fun events(
+        key: String,
+        open: () -> ChangeStreamPublisher<BsonDocument>,
+        startTime: suspend () -> BsonTimestamp?,
+        bufferSize: Int,
+        overflow: ChangeStreamOverflow,
+        filter: (ChangeStreamDocument<BsonDocument>) -> Boolean
+    ): Flow<ChangeStreamDocument<BsonDocument>> {
+        require(bufferSize > 0) { "bufferSize must be positive" }
+        return flow {
+            val subscriber = when (overflow) {
+                ChangeStreamOverflow.SUSPEND -> SharedFlowSubscriber(filter, bufferSize, BufferOverflow.SUSPEND)
+                ChangeStreamOverflow.DROP_OLDEST -> SharedFlowSubscriber(filter, bufferSize, BufferOverflow.DROP_OLDEST)
+                ChangeStreamOverflow.CONFLATE_BY_KEY -> ConflatingSubscriber(filter)
+            }
+            try {
+                emitAll(subscriber.events { subscribe(key, open, startTime, subscriber) })
+            } finally {
+                unsubscribe(key, subscriber)
+            }
+        }
+    }
+
+    /**
+     * Watches the collection through the shared change stream of its namespace.
+     *
+     * @param collection the watched collection
+     * @param bufferSize the buffer size of the subscriber - ignored by [ChangeStreamOverflow.CONFLATE_BY_KEY]
+     * @param overflow what to do when the buffer is full
+     * @param filter the events to deliver
+     * @return the events - the flow completes when the server closes the change stream
+     */
+    fun watch(
+        collection: CoroutineCollection<*>,
+        bufferSize: Int = 64,
+        overflow: ChangeStreamOverflow = ChangeStreamOverflow.SUSPEND,
+        filter: (ChangeStreamDocument<BsonDocument>) -> Boolean = { true }
+    ): Flow<ChangeStreamDocument<BsonDocument>> =
+        events(
+            collection.namespace.fullName,
+            { collection.collection.watch(BsonDocument::class.java) },
+            {
+                collection.collection
+                    .aggregate(KMongoUtil.clusterTimePipeline, BsonDocument::class.java)
+                    .awaitFirstOrNull()
+                    ?.let { KMongoUtil.operationTime(it) }
+            },
+            bufferSize,
+            overflow,
+            filter
+        )
+
+    /**
+     * Watches the database through its shared change stream.
+     *
+     * @param database the watched database
+     * @param bufferSize the buffer size of the subscriber - ignored by [ChangeStreamOverflow.CONFLATE_BY_KEY]
+     * @param overflow what to do when the buffer is full
+     * @param filter the events to deliver
+     * @return the events - the flow completes when the server closes the change stream
+     */
+    fun watch(
+        database: CoroutineDatabase,
+        bufferSize: Int = 64,
+        overflow: ChangeStreamOverflow = ChangeStreamOverflow.SUSPEND,
+        filter: (ChangeStreamDocument<BsonDocument>) -> Boolean = { true }
+    ): Flow<ChangeStreamDocument<BsonDocument>> =
+        events(
+            "${database.name}.",
+            { database.database.watch(BsonDocument::class.java) },
+            { operationTime(database.database) },
+            bufferSize,
+            overflow,
+            filter
+        )
+
+    /**
+     * Watches the whole deployment through its shared change stream.
+     *
+     * @param client the watched client
+     * @param bufferSize the buffer size of the subscriber - ignored by [ChangeStreamOverflow.CONFLATE_BY_KEY]
+     * @param overflow what to do when the buffer is full
+     * @param filter the events to deliver
+     * @return the events - the flow completes when the server closes the change stream
+     */
+    fun watch(
+        client: CoroutineClient,
+        bufferSize: Int = 64,
+        overflow: ChangeStreamOverflow = ChangeStreamOverflow.SUSPEND,
+        filter: (ChangeStreamDocument<BsonDocument>) -> Boolean = { true }
+    ): Flow<ChangeStreamDocument<BsonDocument>> =
+        events(
+            "",
+            { client.client.watch(BsonDocument::class.java) },
+            { operationTime(client.client.getDatabase("admin")) },
+            bufferSize,
+            overflow,
+            filter
+        )
+
+    /**
+     * Closes the shared change streams - the subscribers complete.
+     */
+    override fun close() {
+        scope.cancel()
+        synchronized(upstreams) {
+            upstreams.values.forEach { upstream -> upstream.subscribers.forEach { it.abort(null) } }
+            upstreams.clear()
+        }
+    }
+}
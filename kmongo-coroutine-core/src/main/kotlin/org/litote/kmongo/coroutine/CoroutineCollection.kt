@@ -45,9 +45,17 @@ import com.mongodb.client.result.InsertOneResult
 import com.mongodb.client.result.UpdateResult
 import com.mongodb.reactivestreams.client.ClientSession
 import com.mongodb.reactivestreams.client.MongoCollection
+import kotlinx.coroutines.asContextElement
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.reactive.awaitFirstOrNull
 import kotlinx.coroutines.reactive.awaitSingle
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import kotlinx.coroutines.withContext
 import org.bson.BsonDocument
+import org.bson.RawBsonDocument
 import org.bson.codecs.configuration.CodecRegistry
 import org.bson.conversions.Bson
 import org.litote.kmongo.EMPTY_BSON
@@ -60,6 +68,8 @@ import org.litote.kmongo.include
 import org.litote.kmongo.path
 import org.litote.kmongo.reactivestreams.map
 import org.litote.kmongo.set
+import org.litote.kmongo.util.IndexReconciliation
+import org.litote.kmongo.util.IndexReconciliationReport
 import org.litote.kmongo.util.KMongoUtil
 import org.litote.kmongo.util.KMongoUtil.EMPTY_JSON
 import org.litote.kmongo.util.KMongoUtil.extractId
@@ -67,7 +77,12 @@ import org.litote.kmongo.util.KMongoUtil.idFilterQuery
 import org.litote.kmongo.util.KMongoUtil.setModifier
 import org.litote.kmongo.util.KMongoUtil.toBson
 import org.litote.kmongo.util.KMongoUtil.toBsonModifier
+import org.litote.kmongo.util.NPlusOneDetector
+import org.litote.kmongo.util.OperationTracer
 import org.litote.kmongo.util.PairProjection
+import org.litote.kmongo.util.SaveAll
+import org.litote.kmongo.util.SaveAllBatch
+import org.litote.kmongo.util.SaveAllOptions
 import org.litote.kmongo.util.SingleProjection
 import org.litote.kmongo.util.TripleProjection
 import org.litote.kmongo.util.UpdateConfiguration
@@ -214,7 +229,7 @@ class CoroutineCollection<T : Any>(val collection: MongoCollection<T>) {
      * @since 1.9
      */
     suspend fun countDocuments(filter: Bson = EMPTY_BSON, options: CountOptions = CountOptions()): Long =
-        collection.countDocuments(filter, options).awaitSingle()
+        traced("countDocuments", filter) { collection.countDocuments(filter, options).awaitSingle() }
 
     /**
      * Counts the number of documents in the collection according to the given options.
@@ -514,7 +529,7 @@ class CoroutineCollection<T : Any>(val collection: MongoCollection<T>) {
      * @since 1.5
      */
     suspend fun deleteOne(filter: Bson, options: DeleteOptions = DeleteOptions()): DeleteResult =
-        collection.deleteOne(filter, options).awaitSingle()
+        traced("deleteOne", filter) { collection.deleteOne(filter, options).awaitSingle() }
 
     /**
      * Removes at most one document from the collection that matches the given filter.  If no documents match, the collection is not
@@ -544,7 +559,7 @@ class CoroutineCollection<T : Any>(val collection: MongoCollection<T>) {
      * @since 1.5
      */
     suspend fun deleteMany(filter: Bson, options: DeleteOptions = DeleteOptions()): DeleteResult =
-        collection.deleteMany(filter, options).awaitSingle()
+        traced("deleteMany", filter) { collection.deleteMany(filter, options).awaitSingle() }
 
     /**
      * Removes all documents from the collection that match the given query filter.  If no documents match, the collection is not modified.
@@ -574,7 +589,7 @@ class CoroutineCollection<T : Any>(val collection: MongoCollection<T>) {
      * @since 1.8
      */
     suspend fun replaceOne(filter: Bson, replacement: T, options: ReplaceOptions = ReplaceOptions()): UpdateResult =
-        collection.replaceOne(filter, replacement, options).awaitSingle()
+        traced("replaceOne", filter) { collection.replaceOne(filter, replacement, options).awaitSingle() }
 
     /**
      * Replace a document in the collection according to the specified arguments.
@@ -607,7 +622,7 @@ class CoroutineCollection<T : Any>(val collection: MongoCollection<T>) {
      * @mongodb.driver.manual reference/operator/update/ Update Operators
      */
     suspend fun updateOne(filter: Bson, update: Bson, options: UpdateOptions = UpdateOptions()): UpdateResult =
-        collection.updateOne(filter, update, options).awaitSingle()
+        traced("updateOne", filter) { collection.updateOne(filter, update, options).awaitSingle() }
 
     /**
      * Update a single document in the collection according to the specified arguments.
@@ -641,7 +656,7 @@ class CoroutineCollection<T : Any>(val collection: MongoCollection<T>) {
      * @mongodb.driver.manual reference/operator/update/ Update Operators
      */
     suspend fun updateMany(filter: Bson, update: Bson, options: UpdateOptions = UpdateOptions()): UpdateResult =
-        collection.updateMany(filter, update, options).awaitSingle()
+        traced("updateMany", filter) { collection.updateMany(filter, update, options).awaitSingle() }
 
 
     /**
@@ -1086,7 +1101,7 @@ class CoroutineCollection<T : Any>(val collection: MongoCollection<T>) {
      *
      * @param filter the query filter
      */
-    suspend fun findOne(filter: String = KMongoUtil.EMPTY_JSON): T? = find(filter).first()
+    suspend fun findOne(filter: String = KMongoUtil.EMPTY_JSON): T? = findOne(toBson(filter))
 
     /**
      * Finds the first document that match the filter in the collection.
@@ -1104,7 +1119,7 @@ class CoroutineCollection<T : Any>(val collection: MongoCollection<T>) {
      *
      * @param filter the query filter
      */
-    suspend fun findOne(filter: Bson): T? = find(filter).first()
+    suspend fun findOne(filter: Bson): T? = lookup("findOne", filter) { find(filter).first() }
 
     /**
      * Finds the first document that match the filter in the collection.
@@ -1121,14 +1136,14 @@ class CoroutineCollection<T : Any>(val collection: MongoCollection<T>) {
      * @param filters the query filters
      * @return the first item returned or null
      */
-    suspend fun findOne(vararg filters: Bson?): T? = find(*filters).first()
+    suspend fun findOne(vararg filters: Bson?): T? = findOne(and(*filters))
 
     /**
      * Finds the document that match the id parameter.
      *
      * @param id       the object id
      */
-    suspend fun findOneById(id: Any): T? = findOne(idFilterQuery(id))
+    suspend fun findOneById(id: Any): T? = idFilterQuery(id).let { lookup("findOneById", it) { find(it).first() } }
 
     /**
      * Finds the document that match the id parameter.
@@ -1202,7 +1217,7 @@ class CoroutineCollection<T : Any>(val collection: MongoCollection<T>) {
      * @param id   the object id
      */
     suspend fun deleteOneById(id: Any): DeleteResult =
-        deleteOne(idFilterQuery(id))
+        idFilterQuery(id).let { traced("deleteOneById", it) { deleteOne(it) } }
 
     /**
      * Removes at most one document from the id parameter.  If no documents match, the collection is not
@@ -1279,11 +1294,13 @@ class CoroutineCollection<T : Any>(val collection: MongoCollection<T>) {
      */
     suspend fun save(document: T): UpdateResult? {
         val id = KMongoUtil.getIdValue(document)
-        return if (id != null) {
-            replaceOneById(id, document, ReplaceOptions().upsert(true))
-        } else {
-            insertOne(document)
-            null
+        return traced("save", id?.let { idFilterQuery(it) }) {
+            if (id != null) {
+                replaceOneById(id, document, ReplaceOptions().upsert(true))
+            } else {
+                insertOne(document)
+                null
+            }
         }
     }
 
@@ -1305,6 +1322,24 @@ class CoroutineCollection<T : Any>(val collection: MongoCollection<T>) {
         }
     }
 
+    /**
+     * Save the documents with unordered bulk writes, instead of one [save] round trip per document.
+     * Documents without id are inserted, the other ones are upserted by id.
+     * The writes are split in batches according to the [options].
+     *
+     * @param documents the documents to save
+     * @param options the batch options
+     * @return the aggregated result of the bulk writes
+     */
+    suspend fun saveAll(documents: Iterable<T>, options: SaveAllOptions = SaveAllOptions()): BulkWriteResult {
+        val rawCollection = collection.withDocumentClass(RawBsonDocument::class.java)
+        val results = mutableListOf<Pair<SaveAllBatch, BulkWriteResult>>()
+        for (batch in SaveAll.batches(documents, collection.codecRegistry.get(collection.documentClass), options)) {
+            results.add(batch to rawCollection.bulkWrite(batch.requests, options.bulkWriteOptions).awaitSingle())
+        }
+        return SaveAll.aggregate(results)
+    }
+
 
     /**
      * Replace a document in the collection according to the specified arguments.
@@ -1319,7 +1354,8 @@ class CoroutineCollection<T : Any>(val collection: MongoCollection<T>) {
         id: Any,
         replacement: T,
         options: ReplaceOptions = ReplaceOptions()
-    ): UpdateResult = replaceOneWithoutId<T>(idFilterQuery(id), replacement, options)
+    ): UpdateResult =
+        idFilterQuery(id).let { traced("replaceOneById", it) { replaceOneWithoutId<T>(it, replacement, options) } }
 
     /**
      * Replace a document in the collection according to the specified arguments.
@@ -1532,11 +1568,9 @@ class CoroutineCollection<T : Any>(val collection: MongoCollection<T>) {
         options: UpdateOptions = UpdateOptions(),
         updateOnlyNotNullProperties: Boolean = UpdateConfiguration.updateOnlyNotNullProperties
     ): UpdateResult =
-        updateOne(
-            idFilterQuery(id),
-            toBsonModifier(update, updateOnlyNotNullProperties),
-            options
-        )
+        idFilterQuery(id).let {
+            traced("updateOneById", it) { updateOne(it, toBsonModifier(update, updateOnlyNotNullProperties), options) }
+        }
 
     /**
      * Update a single document in the collection according to the specified arguments.
@@ -1829,6 +1863,46 @@ class CoroutineCollection<T : Any>(val collection: MongoCollection<T>) {
         indexOptions: IndexOptions = IndexOptions()
     ): String? = ensureIndex(ascending(*properties), indexOptions.unique(true))
 
+    /**
+     * Reconciles the indexes of the collection with the desired [indexes]:
+     * the existing indexes are listed once, then only the missing or changed indexes are created,
+     * with a single `createIndexes` command.
+     * A changed index (same keys or same name, but different options) is dropped before.
+     *
+     * This is the batch alternative to a list of [ensureIndex] calls.
+     *
+     * @param indexes the desired indexes
+     * @param dropExtraIndexes if true, the existing indexes that are not desired are dropped (except the _id index)
+     * @return the reconciliation report
+     */
+    suspend fun reconcileIndexes(
+        indexes: List<IndexModel>,
+        dropExtraIndexes: Boolean = false
+    ): IndexReconciliationReport {
+        val diff = IndexReconciliation.diff(
+            collection.listIndexes(BsonDocument::class.java).toList(),
+            indexes,
+            codecRegistry,
+            dropExtraIndexes
+        )
+        diff.toDrop.forEach { dropIndex(it) }
+        val created = if (diff.toCreate.isEmpty()) emptyList() else createIndexes(diff.toCreate)
+        return IndexReconciliationReport(namespace, created, diff.toDrop, diff.unchanged, diff.extra)
+    }
+
+    /**
+     * Reconciles the indexes of the collection with the desired [indexes].
+     *
+     * @param indexes the desired indexes
+     * @param dropExtraIndexes if true, the existing indexes that are not desired are dropped (except the _id index)
+     * @return the reconciliation report
+     * @see reconcileIndexes
+     */
+    suspend fun reconcileIndexes(
+        vararg indexes: IndexModel,
+        dropExtraIndexes: Boolean = false
+    ): IndexReconciliationReport = reconcileIndexes(indexes.toList(), dropExtraIndexes)
+
     /**
      * Executes a mix of inserts, updates, replaces, and deletes.
      *
@@ -1842,11 +1916,53 @@ class CoroutineCollection<T : Any>(val collection: MongoCollection<T>) {
         options: BulkWriteOptions = BulkWriteOptions()
     ): BulkWriteResult = bulkWrite(requests.toList(), options)
 
+    /**
+     * Runs a single document lookup, counted by the [NPlusOneDetector] and traced by the [OperationTracer].
+     */
+    private suspend inline fun <R> lookup(operation: String, filter: Bson, crossinline block: suspend () -> R): R {
+        NPlusOneDetector.record(operation, collection.namespace, filter, collection.codecRegistry)
+        return traced(operation, filter, block)
+    }
 
+    /**
+     * Runs the operation, traced by the [OperationTracer] if it is enabled.
+     */
+    private suspend inline fun <R> traced(operation: String, filter: Bson?, crossinline block: suspend () -> R): R {
+        val trace = OperationTracer.start(operation, collection.namespace, filter, collection.codecRegistry)
+            ?: return block()
+        try {
+            return withContext(OperationTracer.current.asContextElement(trace)) { block() }
+        } finally {
+            trace.finish()
+        }
+    }
 }
 
 //extensions
 
+/**
+ * Reconciles the indexes of several collections, concurrently.
+ *
+ * @param indexes the desired indexes by collection
+ * @param dropExtraIndexes if true, the existing indexes that are not desired are dropped (except the _id index)
+ * @param parallelism the maximum number of collections reconciled at the same time
+ * @return the reconciliation reports, in the [indexes] order
+ * @see CoroutineCollection.reconcileIndexes
+ */
+suspend fun reconcileIndexes(
+    indexes: Map<out CoroutineCollection<*>, List<IndexModel>>,
+    dropExtraIndexes: Boolean = false,
+    parallelism: Int = 4
+): List<IndexReconciliationReport> {
+    require(parallelism > 0) { "parallelism must be positive" }
+    val semaphore = Semaphore(parallelism)
+    return coroutineScope {
+        indexes.map { (collection, collectionIndexes) ->
+            async { semaphore.withPermit { collection.reconcileIndexes(collectionIndexes, dropExtraIndexes) } }
+        }.awaitAll()
+    }
+}
+
 
 /**
  * Inserts the provided document. If the document is missing an identifier, the driver should generate one.
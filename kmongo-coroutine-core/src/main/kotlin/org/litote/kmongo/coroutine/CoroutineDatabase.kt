@@ -28,13 +28,17 @@ import kotlinx.coroutines.reactive.awaitFirstOrNull
 import org.bson.Document
 import org.bson.codecs.configuration.CodecRegistry
 import org.bson.conversions.Bson
+import org.litote.kmongo.util.CollectionHandleCache
 import org.litote.kmongo.util.KMongoUtil
+import java.util.concurrent.TimeUnit
 
 /**
  * Gets coroutine version of [MongoCollection].
  */
 val MongoDatabase.coroutine: CoroutineDatabase get() = CoroutineDatabase(this)
 
+private val collectionHandles = CollectionHandleCache<CoroutineCollection<*>>()
+
 /**
  * A wrapper around [MongoDatabase].
  * Provides coroutine methods for [Reactive Streams driver](https://mongodb.github.io/mongo-java-driver-reactivestreams/).
@@ -129,6 +133,43 @@ class CoroutineDatabase(val database: MongoDatabase) {
     ): CoroutineCollection<TDocument> =
         database.getCollection(collectionName, TDocument::class.java).coroutine
 
+    /**
+     * Gets a cached collection: the handle is created once by database (name, codec registry & settings), collection name and document class.
+     * Use it instead of [getCollection] in code paths that get the same collection repeatedly.
+     *
+     * @param collectionName the name of the collection to return - default is [KMongoUtil.defaultCollectionName]
+     * @param <TDocument>    the type of the class to use instead of `Document`.
+     * @return the collection
+     */
+    inline fun <reified TDocument : Any> getCachedCollection(
+        collectionName: String = KMongoUtil.defaultCollectionName(TDocument::class)
+    ): CoroutineCollection<TDocument> = getCachedCollection(collectionName, TDocument::class.java)
+
+    /**
+     * Gets a cached collection: the handle is created once by database (name, codec registry & settings), collection name and document class.
+     *
+     * @param collectionName the name of the collection to return
+     * @param documentClass  the default class to cast any documents returned from the database into.
+     * @return the collection
+     */
+    @Suppress("UNCHECKED_CAST")
+    fun <TDocument : Any> getCachedCollection(
+        collectionName: String,
+        documentClass: Class<TDocument>
+    ): CoroutineCollection<TDocument> =
+        collectionHandles.getOrPut(
+            database.codecRegistry,
+            database.name,
+            database.readPreference,
+            database.writeConcern,
+            database.readConcern,
+            database.getTimeout(TimeUnit.MILLISECONDS),
+            collectionName,
+            documentClass
+        ) {
+            database.getCollection(collectionName, documentClass).coroutine
+        } as CoroutineCollection<TDocument>
+
     /**
      * Executes command in the context of the current database.
      *
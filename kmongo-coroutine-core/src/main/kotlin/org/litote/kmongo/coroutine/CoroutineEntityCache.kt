@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.coroutine
+
+import com.mongodb.client.model.ReplaceOptions
+import com.mongodb.client.model.UpdateOptions
+import com.mongodb.client.result.DeleteResult
+import com.mongodb.client.result.UpdateResult
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.reactive.asFlow
+import kotlinx.coroutines.reactive.awaitFirstOrNull
+import org.bson.BsonDocument
+import org.bson.BsonTimestamp
+import org.bson.BsonValue
+import org.bson.RawBsonDocument
+import org.bson.conversions.Bson
+import org.litote.kmongo.util.EntityCache
+import org.litote.kmongo.util.EntityCacheMetrics
+import org.litote.kmongo.util.EntityCacheOptions
+import org.litote.kmongo.util.IdBatchLoading
+import org.litote.kmongo.util.KMongoUtil
+import org.litote.kmongo.util.UpdateConfiguration
+import java.io.Closeable
+
+/**
+ * An in-process cache of the documents of a collection, by id.
+ *
+ * The cache is invalidated by the writes of this class, and, if [EntityCacheOptions.watch] is true,
+ * by a change stream watched in background - the other writes are seen with the change stream latency.
+ * The change stream starts at the server time read before the documents are cached: after a change stream error,
+ * the whole cache is invalidated and the documents are no longer cached until the change stream is resumed.
+ *
+ * @see entityCache
+ */
+class CoroutineEntityCache<T : Any> internal constructor(
+    val collection: CoroutineCollection<T>,
+    private val options: EntityCacheOptions
+) : Closeable {
+
+    private val cache = EntityCache<Any>(options)
+    private val codec = collection.codecRegistry.get(collection.documentClass)
+    private val rawCollection = collection.withDocumentClass<RawBsonDocument>()
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+
+    init {
+        if (options.watch) {
+            cache.pause()
+            scope.launch { watch() }
+        }
+    }
+
+    /**
+     * The cache counters.
+     */
+    val metrics: EntityCacheMetrics get() = cache.metrics
+
+    private suspend fun CoroutineScope.watch() {
+        var resumeToken: BsonDocument? = null
+        var startTime: BsonTimestamp? = null
+        while (isActive) {
+            try {
+                if (resumeToken == null && startTime == null) {
+                    startTime = collection.collection
+                        .aggregate(KMongoUtil.clusterTimePipeline, BsonDocument::class.java)
+                        .awaitFirstOrNull()
+                        ?.let { KMongoUtil.operationTime(it) }
+                }
+                //the writes done after the start time are seen by the change stream, so the documents can be cached -
+                //without start time, the documents are cached after the first change
+                var caching = resumeToken != null || startTime != null
+                if (caching) {
+                    cache.resume()
+                }
+                collection.collection.watch(BsonDocument::class.java)
+                    .apply {
+                        val token = resumeToken
+                        val time = startTime
+                        when {
+                            token != null -> resumeAfter(token)
+                            time != null -> startAtOperationTime(time)
+                        }
+                    }
+                    .asFlow()
+                    .collect { change ->
+                        cache.onChange(change.operationType, change.documentKey)
+                        resumeToken = change.resumeToken
+                        if (!caching) {
+                            caching = true
+                            cache.resume()
+                        }
+                    }
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                cache.pause()
+                if (!KMongoUtil.isResumableChangeStreamError(e)) {
+                    resumeToken = null
+                    startTime = null
+                }
+                delay(options.watchRetryMillis)
+            }
+        }
+    }
+
+    private fun id(id: Any): BsonValue = IdBatchLoading.idValue(id, collection.codecRegistry)
+
+    @Suppress("UNCHECKED_CAST")
+    private fun decode(document: Any?): T? =
+        if (document is RawBsonDocument && options.storeRawDocuments) document.decode(codec) else document as T?
+
+    private suspend fun findOneById(id: BsonValue): T? =
+        decode(
+            cache.getOrLoad(id) {
+                if (options.storeRawDocuments) rawCollection.findOneById(id) else collection.findOneById(id)
+            }
+        )
+
+    /**
+     * Finds the document that match the id parameter - from the cache if possible.
+     *
+     * @param id the object id
+     */
+    suspend fun findOneById(id: Any): T? = findOneById(id(id))
+
+    /**
+     * Finds the first document that match the filter - from the cache if the filter is an `_id` equality.
+     *
+     * @param filter the query filter
+     */
+    suspend fun findOne(filter: Bson): T? {
+        val id = EntityCache.idOf(filter, collection.codecRegistry)
+        return if (id != null) findOneById(id) else collection.findOne(filter)
+    }
+
+    /**
+     * Save the document and invalidates its cache entry.
+     *
+     * @param document the document to save
+     * @see CoroutineCollection.save
+     */
+    suspend fun save(document: T): UpdateResult? =
+        try {
+            collection.save(document)
+        } finally {
+            KMongoUtil.getIdValue(document)?.let { invalidate(it) }
+        }
+
+    /**
+     * Replaces a document and invalidates its cache entry.
+     *
+     * @param id          the object id
+     * @param replacement the replacement document
+     * @param options     the options to apply to the replace operation
+     * @see CoroutineCollection.replaceOneById
+     */
+    suspend fun replaceOneById(id: Any, replacement: T, options: ReplaceOptions = ReplaceOptions()): UpdateResult =
+        invalidateAfter(id) { collection.replaceOneById(id, replacement, options) }
+
+    /**
+     * Updates a document and invalidates its cache entry.
+     *
+     * @param id        the object id
+     * @param update    the update object
+     * @param options   the options to apply to the update operation
+     * @param updateOnlyNotNullProperties if true do not change null properties
+     * @see CoroutineCollection.updateOneById
+     */
+    suspend fun updateOneById(
+        id: Any,
+        update: Any,
+        options: UpdateOptions = UpdateOptions(),
+        updateOnlyNotNullProperties: Boolean = UpdateConfiguration.updateOnlyNotNullProperties
+    ): UpdateResult =
+        invalidateAfter(id) { collection.updateOneById(id, update, options, updateOnlyNotNullProperties) }
+
+    /**
+     * Deletes a document and invalidates its cache entry.
+     *
+     * @param id the object id
+     * @see CoroutineCollection.deleteOneById
+     */
+    suspend fun deleteOneById(id: Any): DeleteResult = invalidateAfter(id) { collection.deleteOneById(id) }
+
+    private inline fun <R> invalidateAfter(id: Any, write: () -> R): R =
+        try {
+            write()
+        } finally {
+            invalidate(id)
+        }
+
+    /**
+     * Removes a document from the cache.
+     *
+     * @param id the object id
+     */
+    fun invalidate(id: Any) = cache.invalidate(id(id))
+
+    /**
+     * Removes all the documents from the cache.
+     */
+    fun invalidateAll() = cache.invalidateAll()
+
+    /**
+     * Stops the change stream watcher.
+     */
+    override fun close() {
+        scope.cancel()
+    }
+}
+
+/**
+ * Returns an in-process cache of the documents of this collection, by id.
+ * The returned cache should be closed in order to stop its change stream.
+ *
+ * @param options the cache options
+ * @return a new cache
+ */
+fun <T : Any> CoroutineCollection<T>.entityCache(options: EntityCacheOptions = EntityCacheOptions()): CoroutineEntityCache<T> =
+    CoroutineEntityCache(this, options)
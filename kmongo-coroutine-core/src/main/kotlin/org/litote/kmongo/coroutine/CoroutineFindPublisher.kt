@@ -38,8 +38,19 @@ val <T : Any> FindPublisher<T>.coroutine: CoroutineFindPublisher<T>
 /**
  * Coroutine wrapper around [CoroutineFindPublisher].
  */
-class CoroutineFindPublisher<T : Any>(override val publisher: FindPublisher<T>) :
-    CoroutinePublisher<T>(publisher) {
+class CoroutineFindPublisher<T : Any>(
+    override val publisher: FindPublisher<T>,
+    private val limit: Int = 0,
+    private val batchSize: Int = 0
+) : CoroutinePublisher<T>(publisher) {
+
+    //the driver publisher does not expose limit & batch size, so they are kept to size toList results
+    override val sizeHint: Int get() = if (limit == Int.MIN_VALUE) Int.MAX_VALUE else Math.abs(limit)
+
+    override val batchSizeHint: Int get() = batchSize
+
+    private fun FindPublisher<T>.keepHints(): CoroutineFindPublisher<T> =
+        CoroutineFindPublisher(this, limit, batchSize)
 
     /**
      * Helper to return a publisher limited to the first result.
@@ -55,7 +66,7 @@ class CoroutineFindPublisher<T : Any>(override val publisher: FindPublisher<T>)
      * @return this
      * @mongodb.driver.manual reference/method/db.collection.find/ Filter
      */
-    fun filter(filter: Bson): CoroutineFindPublisher<T> = publisher.filter(filter).coroutine
+    fun filter(filter: Bson): CoroutineFindPublisher<T> = publisher.filter(filter).keepHints()
 
     /**
      * Sets the limit to apply.
@@ -64,7 +75,7 @@ class CoroutineFindPublisher<T : Any>(override val publisher: FindPublisher<T>)
      * @return this
      * @mongodb.driver.manual reference/method/cursor.limit/#cursor.limit Limit
      */
-    fun limit(limit: Int): CoroutineFindPublisher<T> = publisher.limit(limit).coroutine
+    fun limit(limit: Int): CoroutineFindPublisher<T> = CoroutineFindPublisher(publisher.limit(limit), limit, batchSize)
 
     /**
      * Sets the number of documents to skip.
@@ -73,7 +84,7 @@ class CoroutineFindPublisher<T : Any>(override val publisher: FindPublisher<T>)
      * @return this
      * @mongodb.driver.manual reference/method/cursor.skip/#cursor.skip Skip
      */
-    fun skip(skip: Int): CoroutineFindPublisher<T> = publisher.skip(skip).coroutine
+    fun skip(skip: Int): CoroutineFindPublisher<T> = publisher.skip(skip).keepHints()
 
     /**
      * Sets the maximum execution time on the server for this operation.
@@ -84,7 +95,7 @@ class CoroutineFindPublisher<T : Any>(override val publisher: FindPublisher<T>)
      * @mongodb.driver.manual reference/method/cursor.maxTimeMS/#cursor.maxTimeMS Max Time
      */
     fun maxTime(maxTime: Long, timeUnit: TimeUnit): CoroutineFindPublisher<T> =
-        publisher.maxTime(maxTime, timeUnit).coroutine
+        publisher.maxTime(maxTime, timeUnit).keepHints()
 
     /**
      * The maximum amount of time for the server to wait on new documents to satisfy a tailable cursor
@@ -105,7 +116,7 @@ class CoroutineFindPublisher<T : Any>(override val publisher: FindPublisher<T>)
      * @since 1.2
      */
     fun maxAwaitTime(maxAwaitTime: Long, timeUnit: TimeUnit): CoroutineFindPublisher<T> =
-        publisher.maxAwaitTime(maxAwaitTime, timeUnit).coroutine
+        publisher.maxAwaitTime(maxAwaitTime, timeUnit).keepHints()
 
     /**
      * Sets a document describing the fields to return for all matching documents.
@@ -114,7 +125,7 @@ class CoroutineFindPublisher<T : Any>(override val publisher: FindPublisher<T>)
      * @return this
      * @mongodb.driver.manual reference/method/db.collection.find/ Projection
      */
-    fun projection(projection: Bson): CoroutineFindPublisher<T> = publisher.projection(projection).coroutine
+    fun projection(projection: Bson): CoroutineFindPublisher<T> = publisher.projection(projection).keepHints()
 
     /**
      * Sets a document describing the fields to return for all matching documents.
@@ -131,7 +142,7 @@ class CoroutineFindPublisher<T : Any>(override val publisher: FindPublisher<T>)
      * @return this
      * @mongodb.driver.manual reference/method/cursor.sort/ Sort
      */
-    fun sort(sort: Bson): CoroutineFindPublisher<T> = publisher.sort(sort).coroutine
+    fun sort(sort: Bson): CoroutineFindPublisher<T> = publisher.sort(sort).keepHints()
 
     /**
      * The server normally times out idle cursors after an inactivity period (10 minutes)
@@ -141,7 +152,7 @@ class CoroutineFindPublisher<T : Any>(override val publisher: FindPublisher<T>)
      * @return this
      */
     fun noCursorTimeout(noCursorTimeout: Boolean): CoroutineFindPublisher<T> =
-        publisher.noCursorTimeout(noCursorTimeout).coroutine
+        publisher.noCursorTimeout(noCursorTimeout).keepHints()
 
     /**
      * Get partial results from a sharded cluster if one or more shards are unreachable (instead of throwing an error).
@@ -150,7 +161,7 @@ class CoroutineFindPublisher<T : Any>(override val publisher: FindPublisher<T>)
      * @return this
      */
     fun partial(partial: Boolean): CoroutineFindPublisher<T> =
-        publisher.partial(partial).coroutine
+        publisher.partial(partial).keepHints()
 
     /**
      * Sets the cursor type.
@@ -159,7 +170,7 @@ class CoroutineFindPublisher<T : Any>(override val publisher: FindPublisher<T>)
      * @return this
      */
     fun cursorType(cursorType: CursorType): CoroutineFindPublisher<T> =
-        publisher.cursorType(cursorType).coroutine
+        publisher.cursorType(cursorType).keepHints()
 
     /**
      * Sets the collation options
@@ -172,7 +183,7 @@ class CoroutineFindPublisher<T : Any>(override val publisher: FindPublisher<T>)
      * @mongodb.server.release 3.4
      */
     fun collation(collation: Collation): CoroutineFindPublisher<T> =
-        publisher.collation(collation).coroutine
+        publisher.collation(collation).keepHints()
 
     /**
      * Sets the comment to the query. A null value means no comment is set.
@@ -182,7 +193,7 @@ class CoroutineFindPublisher<T : Any>(override val publisher: FindPublisher<T>)
      * @since 1.6
      */
     fun comment(comment: String): CoroutineFindPublisher<T> =
-        publisher.comment(comment).coroutine
+        publisher.comment(comment).keepHints()
 
     /**
      * Sets the hint for which index to use. A null value means no hint is set.
@@ -191,7 +202,7 @@ class CoroutineFindPublisher<T : Any>(override val publisher: FindPublisher<T>)
      * @return this
      * @since 1.6
      */
-    fun hint(hint: Bson): CoroutineFindPublisher<T> = publisher.hint(hint).coroutine
+    fun hint(hint: Bson): CoroutineFindPublisher<T> = publisher.hint(hint).keepHints()
 
     /**
      * Sets the exclusive upper bound for a specific index. A null value means no max is set.
@@ -200,7 +211,7 @@ class CoroutineFindPublisher<T : Any>(override val publisher: FindPublisher<T>)
      * @return this
      * @since 1.6
      */
-    fun max(max: Bson): CoroutineFindPublisher<T> = publisher.max(max).coroutine
+    fun max(max: Bson): CoroutineFindPublisher<T> = publisher.max(max).keepHints()
 
     /**
      * Sets the minimum inclusive lower bound for a specific index. A null value means no max is set.
@@ -209,7 +220,7 @@ class CoroutineFindPublisher<T : Any>(override val publisher: FindPublisher<T>)
      * @return this
      * @since 1.6
      */
-    fun min(min: Bson): CoroutineFindPublisher<T> = publisher.min(min).coroutine
+    fun min(min: Bson): CoroutineFindPublisher<T> = publisher.min(min).keepHints()
 
     /**
      * Sets the returnKey. If true the find operation will return only the index keys in the resulting documents.
@@ -218,7 +229,7 @@ class CoroutineFindPublisher<T : Any>(override val publisher: FindPublisher<T>)
      * @return this
      * @since 1.6
      */
-    fun returnKey(returnKey: Boolean): CoroutineFindPublisher<T> = publisher.returnKey(returnKey).coroutine
+    fun returnKey(returnKey: Boolean): CoroutineFindPublisher<T> = publisher.returnKey(returnKey).keepHints()
 
     /**
      * Sets the showRecordId. Set to true to add a field `$recordId` to the returned documents.
@@ -227,7 +238,7 @@ class CoroutineFindPublisher<T : Any>(override val publisher: FindPublisher<T>)
      * @return this
      * @since 1.6
      */
-    fun showRecordId(showRecordId: Boolean): CoroutineFindPublisher<T> = publisher.showRecordId(showRecordId).coroutine
+    fun showRecordId(showRecordId: Boolean): CoroutineFindPublisher<T> = publisher.showRecordId(showRecordId).keepHints()
 
     /**
      * Sets the number of documents to return per batch.
@@ -241,7 +252,8 @@ class CoroutineFindPublisher<T : Any>(override val publisher: FindPublisher<T>)
      * @since 1.8
      * @mongodb.driver.manual reference/method/cursor.batchSize/#cursor.batchSize Batch Size
      */
-    fun batchSize(batchSize: Int): CoroutineFindPublisher<T> = publisher.batchSize(batchSize).coroutine
+    fun batchSize(batchSize: Int): CoroutineFindPublisher<T> =
+        CoroutineFindPublisher(publisher.batchSize(batchSize), limit, batchSize)
 
     /**
      * Sets the sort criteria with specified ascending properties to apply to the query.
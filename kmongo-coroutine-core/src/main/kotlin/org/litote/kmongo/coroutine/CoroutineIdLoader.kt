@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.coroutine
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.future.await
+import kotlinx.coroutines.future.future
+import org.bson.BsonValue
+import org.bson.RawBsonDocument
+import org.litote.kmongo.util.BatchLoader
+import org.litote.kmongo.util.BatchLoaderMetrics
+import org.litote.kmongo.util.BatchLoaderOptions
+import org.litote.kmongo.util.IdBatchLoading
+import java.io.Closeable
+
+/**
+ * Coalesces the concurrent [findOneById] calls in `find({_id: {$in: ids}})` queries.
+ * The batches run in a scope of the loader: [close] the loader when it is no longer used.
+ *
+ * @see idLoader
+ */
+class CoroutineIdLoader<T : Any> internal constructor(
+    private val collection: CoroutineCollection<T>,
+    options: BatchLoaderOptions
+) : Closeable {
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Unconfined)
+    private val codec = collection.codecRegistry.get(collection.documentClass)
+    private val loader = BatchLoader<BsonValue, T>(options) { ids ->
+        scope.future {
+            val documents = collection.collection
+                .find(IdBatchLoading.filter(ids), RawBsonDocument::class.java)
+                .toList(Int.MAX_VALUE, sizeHint = ids.size)
+            IdBatchLoading.byId(documents, codec)
+        }
+    }
+
+    /**
+     * The batch counters.
+     */
+    val metrics: BatchLoaderMetrics get() = loader.metrics
+
+    /**
+     * Finds the document that match the id parameter.
+     *
+     * @param id the object id
+     * @return the document, null if not found
+     */
+    suspend fun findOneById(id: Any): T? = loader.load(IdBatchLoading.idValue(id, collection.codecRegistry)).await()
+
+    /**
+     * Finds the documents that match the ids - the ids are loaded by batches of [BatchLoaderOptions.maxBatchSize].
+     *
+     * @param ids the object ids
+     * @return the documents, in the [ids] order - null if not found
+     */
+    suspend fun findByIds(ids: List<Any>): List<T?> =
+        ids.map { loader.load(IdBatchLoading.idValue(it, collection.codecRegistry)) }.map { it.await() }
+
+    /**
+     * Loads the pending ids now.
+     */
+    fun flush() = loader.flush()
+
+    /**
+     * Cancels the batches of the loader: the pending and next loads fail with a [kotlinx.coroutines.CancellationException].
+     */
+    override fun close() = scope.cancel()
+}
+
+/**
+ * Returns a loader coalescing the concurrent `findOneById` calls - useful for GraphQL like data fetching.
+ * The ids requested during [BatchLoaderOptions.windowMillis] are loaded with one query, and each id is loaded once.
+ *
+ * @param options the batch options
+ * @return a new loader
+ */
+fun <T : Any> CoroutineCollection<T>.idLoader(options: BatchLoaderOptions = BatchLoaderOptions()): CoroutineIdLoader<T> =
+    CoroutineIdLoader(this, options)
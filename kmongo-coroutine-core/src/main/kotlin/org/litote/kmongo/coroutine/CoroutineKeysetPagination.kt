@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.coroutine
+
+import kotlinx.coroutines.async
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.buffer
+import kotlinx.coroutines.flow.channelFlow
+import org.bson.BsonDocumentWrapper
+import org.bson.conversions.Bson
+import org.litote.kmongo.path
+import org.litote.kmongo.util.KeysetPage
+import org.litote.kmongo.util.KeysetPagination
+import kotlin.reflect.KProperty
+
+/**
+ * Returns a page of the documents matching the [filter], sorted by the [properties],
+ * using keyset (seek) pagination: unlike `skip`, the cost of a page does not depend on its position.
+ *
+ * The sort properties must not be null, and the last one must be unique (usually `_id`).
+ *
+ * @param filter the query filter
+ * @param properties the sort properties
+ * @param pageSize the maximum number of documents of the page
+ * @param token the [KeysetPage.nextToken] of the previous page, null for the first page
+ * @param descending true to sort in descending order
+ * @return the page
+ */
+suspend fun <T : Any> CoroutineCollection<T>.paginate(
+    filter: Bson,
+    vararg properties: KProperty<*>,
+    pageSize: Int,
+    token: String? = null,
+    descending: Boolean = false
+): KeysetPage<T> = paginate(filter, properties.map { it.path() }, pageSize, token, descending)
+
+/**
+ * Returns all the pages of the documents matching the [filter], sorted by the [properties].
+ * The next page is queried while the current page is consumed.
+ *
+ * @param filter the query filter
+ * @param properties the sort properties
+ * @param pageSize the maximum number of documents of a page
+ * @param descending true to sort in descending order
+ * @return the pages
+ * @see paginate
+ */
+fun <T : Any> CoroutineCollection<T>.pages(
+    filter: Bson,
+    vararg properties: KProperty<*>,
+    pageSize: Int,
+    descending: Boolean = false
+): Flow<KeysetPage<T>> {
+    val paths = properties.map { it.path() }
+    return channelFlow {
+        var page = paginate(filter, paths, pageSize, null, descending)
+        while (true) {
+            val next = page.nextToken?.let { token ->
+                async { paginate(filter, paths, pageSize, token, descending) }
+            }
+            send(page)
+            page = next?.await() ?: break
+        }
+    }.buffer(Channel.RENDEZVOUS)
+}
+
+private suspend fun <T : Any> CoroutineCollection<T>.paginate(
+    filter: Bson,
+    paths: List<String>,
+    pageSize: Int,
+    token: String?,
+    descending: Boolean
+): KeysetPage<T> {
+    require(pageSize > 0) { "pageSize must be positive" }
+    val results = collection
+        .find(KeysetPagination.filter(filter, paths, token, descending))
+        .sort(KeysetPagination.sort(paths, descending))
+        .limit(pageSize + 1)
+        .toList(pageSize + 1, sizeHint = pageSize + 1)
+    return KeysetPagination.page(results, pageSize, paths) { BsonDocumentWrapper.asBsonDocument(it, codecRegistry) }
+}
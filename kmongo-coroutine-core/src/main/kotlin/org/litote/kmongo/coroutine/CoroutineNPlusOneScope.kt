@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.litote.kmongo.coroutine
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.asContextElement
+import kotlinx.coroutines.withContext
+import org.litote.kmongo.util.NPlusOneDetector
+import org.litote.kmongo.util.NPlusOneScope
+
+/**
+ * Runs the block in the N+1 query detection [scope] - the single document lookups of the block and of its child
+ * coroutines are counted in this scope, whatever their thread.
+ *
+ * @param scope the detection scope
+ * @param block the unit of work
+ */
+suspend fun <T> withNPlusOneScope(scope: NPlusOneScope, block: suspend CoroutineScope.() -> T): T =
+    withContext(NPlusOneDetector.current.asContextElement(scope), block)
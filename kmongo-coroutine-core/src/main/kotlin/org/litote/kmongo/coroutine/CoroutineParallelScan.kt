@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.coroutine
+
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.flow.flowOn
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.reactive.asFlow
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import org.bson.BsonDocument
+import org.bson.RawBsonDocument
+import org.bson.conversions.Bson
+import org.litote.kmongo.EMPTY_BSON
+import org.litote.kmongo.util.ParallelScan
+
+/**
+ * Splits the documents matching the [filter] in (at most) [partitions] `_id` ranges of roughly the same size.
+ * The split points are computed from a `$sample` of the documents matching the [filter].
+ *
+ * Each partition flow opens its own cursor, and decodes the documents on [dispatcher].
+ *
+ * @param partitions the desired number of partitions
+ * @param filter the query filter
+ * @param dispatcher the dispatcher used to decode the documents
+ * @return one flow by partition
+ */
+suspend fun <T : Any> CoroutineCollection<T>.scanPartitions(
+    partitions: Int,
+    filter: Bson = EMPTY_BSON,
+    dispatcher: CoroutineDispatcher = Dispatchers.Default
+): List<Flow<T>> {
+    val splitPoints =
+        if (partitions == 1) {
+            emptyList()
+        } else {
+            val sample = collection.aggregate(ParallelScan.samplePipeline(partitions, filter), BsonDocument::class.java).toList()
+            ParallelScan.splitPoints(ParallelScan.sampledIds(sample), partitions)
+        }
+    val codec = codecRegistry.get(documentClass)
+    return ParallelScan.partitionFilters(splitPoints, filter).map { partitionFilter ->
+        collection.find(partitionFilter, RawBsonDocument::class.java)
+            .asFlow()
+            .map { it.decode(codec) }
+            .flowOn(dispatcher)
+    }
+}
+
+/**
+ * Scans the documents matching the [filter] with one cursor by partition,
+ * and merges the partitions in one flow. The documents are not ordered.
+ *
+ * @param partitions the desired number of partitions
+ * @param filter the query filter
+ * @param parallelism the maximum number of partitions scanned at the same time
+ * @param dispatcher the dispatcher used to decode the documents
+ * @return the documents
+ * @see scanPartitions
+ */
+fun <T : Any> CoroutineCollection<T>.parallelScan(
+    partitions: Int,
+    filter: Bson = EMPTY_BSON,
+    parallelism: Int = partitions,
+    dispatcher: CoroutineDispatcher = Dispatchers.Default
+): Flow<T> {
+    require(parallelism > 0) { "parallelism must be positive" }
+    return channelFlow {
+        val semaphore = Semaphore(parallelism)
+        scanPartitions(partitions, filter, dispatcher).forEach { partition ->
+            launch { semaphore.withPermit { partition.collect { send(it) } } }
+        }
+    }
+}
@@ -16,11 +16,20 @@
 
 package org.litote.kmongo.coroutine
 
+import kotlinx.coroutines.CancellableContinuation
+import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.buffer
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.produceIn
 import kotlinx.coroutines.reactive.asFlow
 import kotlinx.coroutines.reactive.collect
+import kotlinx.coroutines.suspendCancellableCoroutine
 import org.reactivestreams.Publisher
-import java.util.concurrent.ConcurrentLinkedQueue
+import org.reactivestreams.Subscriber
+import org.reactivestreams.Subscription
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
 
 /**
  * Gets coroutine version of [Publisher].
@@ -30,28 +39,173 @@ val <T: Any> Publisher<T>.coroutine: CoroutinePublisher<T> get() = CoroutinePubl
 /**
  * Provides a list of not null elements from the publisher.
  */
-suspend fun <T> Publisher<T>.toList(): List<T> {
-    val r = ConcurrentLinkedQueue<T>()
-    collect { r.add(it) }
-    return r.toList()
+suspend fun <T> Publisher<T>.toList(): List<T> = toList(Int.MAX_VALUE)
+
+/**
+ * Provides a list of the first [max] not null elements from the publisher.
+ * The subscription is cancelled as soon as [max] elements are received.
+ *
+ * @param max the maximum number of elements
+ * @param sizeHint the expected number of elements, used to pre-size the list
+ * @param batchSize the number of elements requested at once - if 0 or negative, all elements are requested at once
+ */
+suspend fun <T> Publisher<T>.toList(max: Int, sizeHint: Int = 0, batchSize: Int = 0): List<T> {
+    require(max >= 0) { "max must be positive or zero" }
+    if (max == 0) {
+        return emptyList()
+    }
+    return suspendCancellableCoroutine { continuation ->
+        val subscriber = ListSubscriber(continuation, max, sizeHint, batchSize)
+        continuation.invokeOnCancellation { subscriber.cancel() }
+        subscribe(subscriber)
+    }
+}
+
+/**
+ * Provides a flow of the elements grouped in lists of at most [batchSize] elements.
+ * The elements are requested by [batchSize], and a list contains the elements received together,
+ * so the lists follow the batches of the cursor.
+ *
+ * @param batchSize the number of elements requested at once, and the maximum size of the lists
+ */
+fun <T : Any> Publisher<T>.toBatchFlow(batchSize: Int = DEFAULT_BATCH_SIZE): Flow<List<T>> {
+    require(batchSize > 0) { "batchSize must be positive" }
+    return flow {
+        coroutineScope {
+            val elements = asFlow().buffer(batchSize).produceIn(this)
+            for (first in elements) {
+                val batch = ArrayList<T>(batchSize)
+                batch.add(first)
+                while (batch.size < batchSize) {
+                    batch.add(elements.tryReceive().getOrNull() ?: break)
+                }
+                emit(batch)
+            }
+        }
+    }
 }
 
+//max initial capacity of the lists returned by toList
+private const val MAX_INITIAL_CAPACITY = 10_000
+
+//the default number of elements requested at once by toBatchFlow - the default size of the first batch of a cursor
+private const val DEFAULT_BATCH_SIZE = 101
+
+/**
+ * Collects the elements in an [ArrayList].
+ * Reactive streams signals are serialized, so there is no need of a concurrent collection.
+ */
+private class ListSubscriber<T>(
+    private val continuation: CancellableContinuation<List<T>>,
+    private val max: Int,
+    sizeHint: Int,
+    private val batchSize: Int
+) : Subscriber<T> {
+
+    private val list = ArrayList<T>(sizeHint.coerceIn(0, minOf(max, MAX_INITIAL_CAPACITY)))
+
+    @Volatile
+    private var subscription: Subscription? = null
+
+    @Volatile
+    private var cancelled = false
+    private var done = false
+    private var pending = 0L
+
+    fun cancel() {
+        cancelled = true
+        subscription?.cancel()
+    }
+
+    private fun request() {
+        val remaining = max.toLong() - list.size
+        pending = if (batchSize > 0) minOf(batchSize.toLong(), remaining)
+        else if (max == Int.MAX_VALUE) Long.MAX_VALUE
+        else remaining
+        subscription?.request(pending)
+    }
+
+    override fun onSubscribe(s: Subscription) {
+        subscription = s
+        if (cancelled) {
+            s.cancel()
+        } else {
+            request()
+        }
+    }
+
+    override fun onNext(t: T) {
+        if (done) {
+            return
+        }
+        list.add(t)
+        if (list.size >= max) {
+            done = true
+            subscription?.cancel()
+            continuation.resume(list)
+        } else if (pending != Long.MAX_VALUE && --pending == 0L) {
+            request()
+        }
+    }
+
+    override fun onError(t: Throwable) {
+        if (!done) {
+            done = true
+            continuation.resumeWithException(t)
+        }
+    }
+
+    override fun onComplete() {
+        if (!done) {
+            done = true
+            continuation.resume(list)
+        }
+    }
+}
 
 /**
  * Coroutine wrapper around [Publisher].
  */
 open class CoroutinePublisher<T: Any>(open val publisher: Publisher<T>) {
 
+    /**
+     * The expected number of elements, if known.
+     */
+    protected open val sizeHint: Int get() = 0
+
+    /**
+     * The number of elements requested at once, if known.
+     */
+    protected open val batchSizeHint: Int get() = 0
+
     /**
      * Provides a list of not null elements from the publisher.
      */
-    suspend fun toList(): List<T> = publisher.toList()
+    suspend fun toList(): List<T> = publisher.toList(Int.MAX_VALUE, sizeHint, batchSizeHint)
+
+    /**
+     * Provides a list of the first [max] not null elements from the publisher.
+     * The cursor is closed as soon as [max] elements are received.
+     *
+     * @param max the maximum number of elements
+     */
+    suspend fun toList(max: Int): List<T> = publisher.toList(max, minOf(max, sizeHint), batchSizeHint)
 
     /**
      * Provides a flow of not null elements from the publisher.
      */
     fun toFlow(): Flow<T> = publisher.asFlow()
 
+    /**
+     * Provides a flow of the elements grouped by batch.
+     *
+     * @param batchSize the number of elements requested at once, and the maximum size of the lists -
+     * default is the batch size of the publisher if set, else the default size of the first batch of a cursor
+     * @see Publisher.toBatchFlow
+     */
+    fun toBatchFlow(batchSize: Int = batchSizeHint.takeIf { it > 0 } ?: DEFAULT_BATCH_SIZE): Flow<List<T>> =
+        publisher.toBatchFlow(batchSize)
+
     /**
      * iterates over all elements from the publisher
      */
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.litote.kmongo
+
+import com.mongodb.MongoCommandException
+import org.bson.BsonBoolean
+import org.bson.BsonDocument
+import org.bson.BsonInt32
+import org.bson.BsonInt64
+import org.bson.BsonString
+import org.bson.BsonValue
+import org.junit.runners.model.Statement
+
+/**
+ * The index usage checks of the operations run by a test on the database of a flapdoodle rule.
+ *
+ * The operations (`find`, `aggregate`, `count`, `distinct`, `findAndModify`, updates and deletes) are captured
+ * by the database profiler, with the plan they were actually run with - so there is no need to explain them again.
+ *
+ * @param failOnCollectionScan an operation without index (a `COLLSCAN` plan) is a violation
+ * @param failOnInMemorySort an operation sorting its documents in memory (a `SORT` stage) is a violation
+ * @param maxExaminedReturnedRatio the maximum ratio of examined keys or documents to returned (or written) documents,
+ * null if there is no maximum
+ * @param failTest true if the test fails on violations, false if the violations are only printed to the standard error
+ */
+data class IndexUsageCheck(
+    val failOnCollectionScan: Boolean = true,
+    val failOnInMemorySort: Boolean = true,
+    val maxExaminedReturnedRatio: Double? = null,
+    val failTest: Boolean = true
+) {
+
+    init {
+        require(maxExaminedReturnedRatio == null || maxExaminedReturnedRatio >= 1) {
+            "maxExaminedReturnedRatio must be greater or equal to 1"
+        }
+    }
+
+    /**
+     * Returns the violations of the profiled operations.
+     *
+     * @param profile the `system.profile` documents of the operations
+     */
+    fun violations(profile: List<BsonDocument>): List<IndexUsageViolation> =
+        profile.filter { it.isCapturedOperation() }.mapNotNull { operation ->
+            val planSummary = (operation["planSummary"] as? BsonString)?.value
+            val examined = maxOf(operation.long("keysExamined"), operation.long("docsExamined"))
+            val returned = operation.long("nreturned") + operation.long("nMatched") + operation.long("ndeleted")
+            val reason = when {
+                failOnCollectionScan && planSummary?.contains("COLLSCAN") == true -> "collection scan"
+                failOnInMemorySort && operation.getBoolean("hasSortStage", null)?.value == true -> "in-memory sort"
+                maxExaminedReturnedRatio != null && examined > maxExaminedReturnedRatio * maxOf(returned, 1) ->
+                    "$examined examined for $returned returned"
+
+                else -> null
+            }
+            reason?.let {
+                IndexUsageViolation(
+                    operation.getString("ns").value,
+                    operation.getString("op").value,
+                    operation.getDocument("command", BsonDocument()).toJson(),
+                    planSummary,
+                    it
+                )
+            }
+        }
+
+    private fun BsonDocument.isCapturedOperation(): Boolean =
+        when (getString("op", BsonString("")).value) {
+            "query", "update", "remove" -> true
+            "command" -> getDocument("command", BsonDocument()).keys.firstOrNull() in capturedCommands
+            else -> false
+        } && !getString("ns", BsonString("")).value.contains(".system.")
+
+    private fun BsonDocument.long(key: String): Long =
+        get(key)?.takeIf(BsonValue::isNumber)?.asNumber()?.longValue() ?: 0
+
+    private companion object {
+        val capturedCommands = setOf("aggregate", "count", "distinct", "findAndModify")
+    }
+}
+
+/**
+ * An operation that does not use the indexes as expected by an [IndexUsageCheck].
+ *
+ * @param namespace the namespace of the operation
+ * @param operation the profiler operation type (`query`, `update`, `remove` or `command`)
+ * @param command the operation command
+ * @param planSummary the plan of the operation, null if unknown
+ * @param reason the violated check
+ */
+data class IndexUsageViolation(
+    val namespace: String,
+    val operation: String,
+    val command: String,
+    val planSummary: String?,
+    val reason: String
+) {
+    override fun toString(): String = "$reason: $operation $namespace plan=$planSummary command=$command"
+}
+
+/**
+ * Evaluates the test with the database profiler enabled, and checks the index usage of its operations.
+ *
+ * The `system.profile` collection is recreated with [PROFILE_SIZE_BYTES] before the test,
+ * and a marker operation is profiled first: if the marker is not in the profile after the test,
+ * the oldest operations have been overwritten and the check fails.
+ *
+ * @param runCommand runs a command on the profiled database, and returns its reply
+ * @param profile returns the `system.profile` documents matching the filter
+ */
+internal class IndexUsageStatement(
+    private val base: Statement,
+    private val check: IndexUsageCheck,
+    private val runCommand: (BsonDocument) -> BsonDocument,
+    private val profile: (BsonDocument) -> List<BsonDocument>
+) : Statement() {
+
+    private companion object {
+        //the default profile collection is a 1MB capped collection
+        const val PROFILE_SIZE_BYTES: Long = 64L * 1024 * 1024
+        const val PROFILE_COLLECTION = "system.profile"
+        const val MARKER_COLLECTION = "kmongo_index_usage_marker"
+    }
+
+    override fun evaluate() {
+        runCommand(BsonDocument("profile", BsonInt32(0)))
+        try {
+            runCommand(BsonDocument("drop", BsonString(PROFILE_COLLECTION)))
+        } catch (e: MongoCommandException) {
+            //the profile collection does not exist yet
+        }
+        runCommand(
+            BsonDocument("create", BsonString(PROFILE_COLLECTION))
+                .append("capped", BsonBoolean.TRUE)
+                .append("size", BsonInt64(PROFILE_SIZE_BYTES))
+        )
+        //the profile timestamps are server times
+        val start = runCommand(BsonDocument("hello", BsonInt32(1))).getDateTime("localTime")
+        runCommand(BsonDocument("profile", BsonInt32(2)))
+        try {
+            runCommand(BsonDocument("find", BsonString(MARKER_COLLECTION)).append("limit", BsonInt32(1)))
+            base.evaluate()
+        } finally {
+            runCommand(BsonDocument("profile", BsonInt32(0)))
+        }
+        val operations = profile(BsonDocument("ts", BsonDocument("\$gte", start)))
+        val (markers, testOperations) = operations.partition {
+            it.getString("ns", BsonString("")).value.endsWith(".$MARKER_COLLECTION")
+        }
+        if (markers.isEmpty()) {
+            report("the profiler has lost operations of the test: $PROFILE_COLLECTION is full")
+        }
+        val violations = check.violations(testOperations)
+        if (violations.isNotEmpty()) {
+            report("index usage violations:\n${violations.joinToString("\n")}")
+        }
+    }
+
+    private fun report(message: String) {
+        if (check.failTest) {
+            throw AssertionError(message)
+        }
+        System.err.println("kmongo index usage $message")
+    }
+}
@@ -20,6 +20,7 @@ import  com.mongodb.client.MongoClient
 import com.mongodb.client.MongoCollection
 import com.mongodb.client.MongoDatabase
 import de.flapdoodle.embed.mongo.distribution.IFeatureAwareVersion
+import org.bson.BsonDocument
 import org.bson.types.ObjectId
 import org.junit.rules.TestRule
 import org.junit.runner.Description
@@ -30,12 +31,20 @@ import kotlin.reflect.KClass
 
 /**
  * A [org.junit.Rule] to help writing tests for KMongo using [Flapdoodle](http://flapdoodle-oss.github.io/de.flapdoodle.embed.mongo/).
+ *
+ * If [nPlusOneThreshold] is set, each test fails when it runs the same single document lookup
+ * (`findOne` or `findOneById` with the same filter shape) at least [nPlusOneThreshold] times.
+ *
+ * If [indexUsageCheck] is set, the operations of each test on the [database] are profiled,
+ * and the test fails (or reports) when they do not use the indexes as expected.
  */
 class KFlapdoodleRule<T : Any>(
     val defaultDocumentClass: KClass<T>,
     val generateRandomCollectionName: Boolean = false,
     val dbName: String = "test",
-    val version: IFeatureAwareVersion = defaultMongoTestVersion
+    val version: IFeatureAwareVersion = defaultMongoTestVersion,
+    val nPlusOneThreshold: Int? = null,
+    val indexUsageCheck: IndexUsageCheck? = null
 ) : TestRule {
 
     companion object {
@@ -85,12 +94,24 @@ class KFlapdoodleRule<T : Any>(
         getCollection(name, defaultDocumentClass)
     }
 
+    private fun statement(base: Statement): Statement {
+        val statement = nPlusOneThreshold?.let { NPlusOneStatement(base, it) } ?: base
+        return indexUsageCheck?.let { check ->
+            IndexUsageStatement(
+                statement,
+                check,
+                { database.runCommand(it, BsonDocument::class.java) },
+                { database.getCollection("system.profile", BsonDocument::class.java).find(it).toList() }
+            )
+        } ?: statement
+    }
+
     override fun apply(base: Statement, description: Description): Statement {
         return object : Statement() {
 
             override fun evaluate() {
                 try {
-                    base.evaluate()
+                    statement(base).evaluate()
                 } finally {
                     col.drop()
                 }
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.litote.kmongo
+
+import org.junit.runners.model.Statement
+import org.litote.kmongo.util.NPlusOneScope
+
+/**
+ * Evaluates the test in a [NPlusOneScope], and fails if a N+1 query is detected.
+ */
+internal class NPlusOneStatement(private val base: Statement, private val threshold: Int) : Statement() {
+
+    override fun evaluate() {
+        val scope = NPlusOneScope(threshold)
+        scope.enter { base.evaluate() }
+        val detections = scope.detections
+        if (detections.isNotEmpty()) {
+            throw AssertionError("N+1 queries detected:\n${detections.joinToString("\n")}")
+        }
+    }
+}
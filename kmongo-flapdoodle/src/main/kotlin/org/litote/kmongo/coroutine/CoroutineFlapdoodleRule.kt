@@ -21,15 +21,22 @@ import com.mongodb.reactivestreams.client.MongoClient
 import com.mongodb.reactivestreams.client.MongoCollection
 import com.mongodb.reactivestreams.client.MongoDatabase
 import de.flapdoodle.embed.mongo.distribution.IFeatureAwareVersion
+import kotlinx.coroutines.asContextElement
 import kotlinx.coroutines.runBlocking
 import org.bson.types.ObjectId
 import org.junit.rules.TestRule
 import org.junit.runner.Description
 import org.junit.runners.model.Statement
+import org.litote.kmongo.IndexUsageCheck
+import org.litote.kmongo.NPlusOneStatement
 import org.litote.kmongo.defaultMongoTestVersion
 import org.litote.kmongo.reactivestreams.KFlapdoodleReactiveStreamsConfiguration
+import org.litote.kmongo.reactivestreams.indexUsageStatement
 import org.litote.kmongo.util.KMongoUtil
+import org.litote.kmongo.util.NPlusOneDetector
 import java.util.concurrent.ConcurrentHashMap
+import kotlin.coroutines.CoroutineContext
+import kotlin.coroutines.EmptyCoroutineContext
 import kotlin.coroutines.resume
 import kotlin.coroutines.resumeWithException
 import kotlin.coroutines.suspendCoroutine
@@ -37,12 +44,22 @@ import kotlin.reflect.KClass
 
 /**
  * A [org.junit.Rule] to help writing tests for KMongo using [Flapdoodle](http://flapdoodle-oss.github.io/de.flapdoodle.embed.mongo/).
+ *
+ * If [nPlusOneThreshold] is set, each test fails when it runs the same single document lookup
+ * (`findOne` or `findOneById` with the same filter shape) at least [nPlusOneThreshold] times.
+ * The scope of the test is bound to the test thread: run the test body with [nPlusOneContext]
+ * (`runBlocking(rule.nPlusOneContext) { ... }`) so the lookups of coroutines switching dispatchers are detected too.
+ *
+ * If [indexUsageCheck] is set, the operations of each test on the [database] are profiled,
+ * and the test fails (or reports) when they do not use the indexes as expected.
  */
 class CoroutineFlapdoodleRule<T : Any>(
     val defaultDocumentClass: KClass<T>,
     val generateRandomCollectionName: Boolean = false,
     val dbName: String = "test",
-    val version: IFeatureAwareVersion = defaultMongoTestVersion
+    val version: IFeatureAwareVersion = defaultMongoTestVersion,
+    val nPlusOneThreshold: Int? = null,
+    val indexUsageCheck: IndexUsageCheck? = null
 ) : TestRule {
 
     companion object {
@@ -101,12 +118,26 @@ class CoroutineFlapdoodleRule<T : Any>(
         getCollection(name, defaultDocumentClass)
     }
 
+    /**
+     * The coroutine context propagating the N+1 scope of the running test to its coroutines -
+     * empty if [nPlusOneThreshold] is not set, or outside the test thread.
+     */
+    val nPlusOneContext: CoroutineContext
+        get() = NPlusOneDetector.current.get()
+            ?.let { NPlusOneDetector.current.asContextElement(it) }
+            ?: EmptyCoroutineContext
+
+    private fun statement(base: Statement): Statement {
+        val statement = nPlusOneThreshold?.let { NPlusOneStatement(base, it) } ?: base
+        return indexUsageCheck?.let { database.indexUsageStatement(statement, it) } ?: statement
+    }
+
     override fun apply(base: Statement, description: Description): Statement {
         return object : Statement() {
 
             override fun evaluate() {
                 try {
-                    base.evaluate()
+                    statement(base).evaluate()
                 } finally {
                     runBlocking { col.drop() }
                 }
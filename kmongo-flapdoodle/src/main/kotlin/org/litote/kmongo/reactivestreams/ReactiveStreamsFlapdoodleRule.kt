@@ -24,6 +24,7 @@ import org.bson.types.ObjectId
 import org.junit.rules.TestRule
 import org.junit.runner.Description
 import org.junit.runners.model.Statement
+import org.litote.kmongo.IndexUsageCheck
 import org.litote.kmongo.defaultMongoTestVersion
 import org.litote.kmongo.util.KMongoUtil
 import java.util.concurrent.ConcurrentHashMap
@@ -33,13 +34,17 @@ import kotlin.reflect.KClass
 
 /**
  * A [org.junit.Rule] to help writing tests for KMongo using [Flapdoodle](http://flapdoodle-oss.github.io/de.flapdoodle.embed.mongo/).
+ *
+ * If [indexUsageCheck] is set, the operations of each test on the [database] are profiled,
+ * and the test fails (or reports) when they do not use the indexes as expected.
  */
 class ReactiveStreamsFlapdoodleRule<T : Any>(
     val defaultDocumentClass: KClass<T>,
     val generateRandomCollectionName: Boolean = false,
     val dbName: String = "test",
     val wait: Boolean = false,
-    val version: IFeatureAwareVersion = defaultMongoTestVersion
+    val version: IFeatureAwareVersion = defaultMongoTestVersion,
+    val indexUsageCheck: IndexUsageCheck? = null
 ) : TestRule {
 
     companion object {
@@ -99,10 +104,15 @@ class ReactiveStreamsFlapdoodleRule<T : Any>(
             override fun evaluate() {
                 try {
                     testContext = ReactiveStreamsTestContext()
-                    base.evaluate()
-                    if (wait) {
-                        testContext.waitToComplete()
+                    val test = object : Statement() {
+                        override fun evaluate() {
+                            base.evaluate()
+                            if (wait) {
+                                testContext.waitToComplete()
+                            }
+                        }
                     }
+                    (indexUsageCheck?.let { database.indexUsageStatement(test, it) } ?: test).evaluate()
                 } finally {
                     col.dropAndWait()
                 }
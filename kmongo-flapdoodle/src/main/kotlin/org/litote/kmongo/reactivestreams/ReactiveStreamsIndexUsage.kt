@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.litote.kmongo.reactivestreams
+
+import com.mongodb.reactivestreams.client.MongoDatabase
+import org.bson.BsonDocument
+import org.junit.runners.model.Statement
+import org.litote.kmongo.IndexUsageCheck
+import org.litote.kmongo.IndexUsageStatement
+import org.reactivestreams.Publisher
+import org.reactivestreams.Subscriber
+import org.reactivestreams.Subscription
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * Returns a statement checking the index usage of the test operations run on this database.
+ */
+internal fun MongoDatabase.indexUsageStatement(base: Statement, check: IndexUsageCheck): Statement =
+    IndexUsageStatement(
+        base,
+        check,
+        { runCommand(it, BsonDocument::class.java).toList().single() },
+        { getCollection("system.profile", BsonDocument::class.java).find(it).toList() }
+    )
+
+/**
+ * Subscribes to the publisher, and waits for all its elements.
+ */
+private fun <T> Publisher<T>.toList(): List<T> {
+    val elements = mutableListOf<T>()
+    val latch = CountDownLatch(1)
+    var error: Throwable? = null
+    subscribe(object : Subscriber<T> {
+        override fun onSubscribe(s: Subscription) {
+            s.request(Long.MAX_VALUE)
+        }
+
+        override fun onNext(t: T) {
+            elements.add(t)
+        }
+
+        override fun onError(t: Throwable) {
+            error = t
+            latch.countDown()
+        }
+
+        override fun onComplete() {
+            latch.countDown()
+        }
+    })
+    check(latch.await(10, TimeUnit.SECONDS)) { "timeout" }
+    error?.let { throw it }
+    return elements
+}
@@ -25,8 +25,10 @@ import org.bson.types.ObjectId
 import org.junit.rules.TestRule
 import org.junit.runner.Description
 import org.junit.runners.model.Statement
+import org.litote.kmongo.IndexUsageCheck
 import org.litote.kmongo.defaultMongoTestVersion
 import org.litote.kmongo.reactivestreams.KFlapdoodleReactiveStreamsConfiguration
+import org.litote.kmongo.reactivestreams.indexUsageStatement
 import org.litote.kmongo.util.KMongoUtil
 import reactor.core.publisher.Mono
 import reactor.kotlin.core.publisher.toMono
@@ -35,12 +37,16 @@ import kotlin.reflect.KClass
 
 /**
  * A [org.junit.Rule] to help writing tests for KMongo using [Flapdoodle](http://flapdoodle-oss.github.io/de.flapdoodle.embed.mongo/).
+ *
+ * If [indexUsageCheck] is set, the operations of each test on the [database] are profiled,
+ * and the test fails (or reports) when they do not use the indexes as expected.
  */
 class ReactorFlapdoodleRule<T : Any>(
     val defaultDocumentClass: KClass<T>,
     val generateRandomCollectionName: Boolean = false,
     val dbName: String = "test",
-    val version: IFeatureAwareVersion = defaultMongoTestVersion
+    val version: IFeatureAwareVersion = defaultMongoTestVersion,
+    val indexUsageCheck: IndexUsageCheck? = null
 ) : TestRule {
 
     companion object {
@@ -93,7 +99,8 @@ class ReactorFlapdoodleRule<T : Any>(
 
             override fun evaluate() {
                 try {
-                    base.evaluate()
+                    (indexUsageCheck?.let { configuration.mongoClient.getDatabase(dbName).indexUsageStatement(base, it) } ?: base)
+                        .evaluate()
                 } finally {
                     col.drop().toMono().block()
                 }
@@ -25,20 +25,26 @@ import org.bson.types.ObjectId
 import org.junit.rules.TestRule
 import org.junit.runner.Description
 import org.junit.runners.model.Statement
+import org.litote.kmongo.IndexUsageCheck
 import org.litote.kmongo.defaultMongoTestVersion
 import org.litote.kmongo.reactivestreams.KFlapdoodleReactiveStreamsConfiguration
+import org.litote.kmongo.reactivestreams.indexUsageStatement
 import org.litote.kmongo.util.KMongoUtil
 import java.util.concurrent.ConcurrentHashMap
 import kotlin.reflect.KClass
 
 /**
  * A [org.junit.Rule] to help writing tests for KMongo using [Flapdoodle](http://flapdoodle-oss.github.io/de.flapdoodle.embed.mongo/).
+ *
+ * If [indexUsageCheck] is set, the operations of each test on the [database] are profiled,
+ * and the test fails (or reports) when they do not use the indexes as expected.
  */
 class RxFlapdoodleRule<T : Any>(
     val defaultDocumentClass: KClass<T>,
     val generateRandomCollectionName: Boolean = false,
     val dbName: String = "test",
-    val version: IFeatureAwareVersion = defaultMongoTestVersion
+    val version: IFeatureAwareVersion = defaultMongoTestVersion,
+    val indexUsageCheck: IndexUsageCheck? = null
 ) : TestRule {
 
     companion object {
@@ -91,7 +97,7 @@ class RxFlapdoodleRule<T : Any>(
 
             override fun evaluate() {
                 try {
-                    base.evaluate()
+                    (indexUsageCheck?.let { database.indexUsageStatement(base, it) } ?: base).evaluate()
                 } finally {
                     Completable.fromPublisher(col.drop()).blockingAwait()
                 }
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.litote.kmongo
+
+import org.bson.BsonDocument
+import org.junit.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+/**
+ *
+ */
+class IndexUsageCheckTest : KMongoRootTest() {
+
+    private fun profile(vararg json: String): List<BsonDocument> = json.map { BsonDocument.parse(it) }
+
+    private val collectionScan =
+        """{"op":"query","ns":"test.friend","command":{"find":"friend","filter":{"name":"Joe"}},"planSummary":"COLLSCAN","docsExamined":100,"nreturned":1}"""
+    private val inMemorySort =
+        """{"op":"query","ns":"test.friend","command":{"find":"friend","sort":{"age":1}},"planSummary":"IXSCAN { name: 1 }","hasSortStage":true,"keysExamined":2,"docsExamined":2,"nreturned":2}"""
+    private val ixScan =
+        """{"op":"update","ns":"test.friend","command":{"q":{"name":"Joe"},"u":{"${'$'}set":{"age":3}}},"planSummary":"IXSCAN { name: 1 }","keysExamined":50,"docsExamined":50,"nMatched":1}"""
+    private val aggregate =
+        """{"op":"command","ns":"test.friend","command":{"aggregate":"friend","pipeline":[]},"planSummary":"COLLSCAN","docsExamined":10,"nreturned":10}"""
+    private val insert = """{"op":"insert","ns":"test.friend","command":{"insert":"friend"},"ninserted":1}"""
+    private val profileQuery =
+        """{"op":"query","ns":"test.system.profile","command":{"find":"system.profile"},"planSummary":"COLLSCAN"}"""
+
+    @Test
+    fun testCollectionScanAndInMemorySortAreViolations() {
+        val violations = IndexUsageCheck().violations(profile(collectionScan, inMemorySort, ixScan, aggregate, insert, profileQuery))
+
+        assertEquals(listOf("collection scan", "in-memory sort", "collection scan"), violations.map { it.reason })
+        assertEquals("test.friend", violations.first().namespace)
+        assertEquals("COLLSCAN", violations.first().planSummary)
+        assertEquals("aggregate", BsonDocument.parse(violations.last().command).firstKey)
+    }
+
+    @Test
+    fun testExaminedReturnedRatio() {
+        val check = IndexUsageCheck(failOnCollectionScan = false, failOnInMemorySort = false, maxExaminedReturnedRatio = 10.0)
+
+        assertEquals(
+            listOf("100 examined for 1 returned", "50 examined for 1 returned"),
+            check.violations(profile(collectionScan, inMemorySort, ixScan, aggregate)).map { it.reason }
+        )
+    }
+
+    @Test
+    fun testDisabledChecksReportNothing() {
+        assertTrue(
+            IndexUsageCheck(failOnCollectionScan = false, failOnInMemorySort = false)
+                .violations(profile(collectionScan, inMemorySort, ixScan, aggregate))
+                .isEmpty()
+        )
+    }
+}
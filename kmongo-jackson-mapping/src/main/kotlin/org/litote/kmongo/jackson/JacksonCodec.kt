@@ -56,6 +56,7 @@ import org.litote.kmongo.util.KMongoUtil
 import org.litote.kmongo.util.KMongoUtil.generateNewIdForIdClass
 import org.litote.kmongo.util.KotlinxDatetimeLoader
 import org.litote.kmongo.util.MongoIdUtil
+import org.litote.kmongo.util.StartupTimeline
 import java.io.IOException
 import java.io.UncheckedIOException
 import java.time.Instant
@@ -178,7 +179,9 @@ internal class JacksonCodec<T : Any>(
         val writer = BsonBinaryWriter(buffer)
         return try {
             writer.pipe(reader)
-            bsonObjectMapper.readValue(buffer.internalBuffer, type)
+            StartupTimeline.recordFirstUse("jackson.firstDecode", type) {
+                bsonObjectMapper.readValue(buffer.internalBuffer, type)
+            }
         } finally {
             writer.close()
             buffer.close()
@@ -19,12 +19,15 @@ import com.fasterxml.jackson.databind.ObjectMapper
 import org.bson.codecs.Codec
 import org.bson.codecs.configuration.CodecProvider
 import org.bson.codecs.configuration.CodecRegistry
+import org.litote.kmongo.util.StartupTimeline
 
 internal class JacksonCodecProvider(
         var bsonObjectMapper: ObjectMapper,
         var notBsonObjectMapper: ObjectMapper) : CodecProvider {
 
     override fun <T : Any> get(type: Class<T>, registry: CodecRegistry): Codec<T> {
-        return JacksonCodec(bsonObjectMapper, notBsonObjectMapper, registry, type)
+        return StartupTimeline.record("jackson.codec", type) {
+            JacksonCodec(bsonObjectMapper, notBsonObjectMapper, registry, type)
+        }
     }
 }
@@ -24,6 +24,7 @@ import com.fasterxml.jackson.module.kotlin.KotlinModule
 import org.bson.UuidRepresentation
 import org.litote.kmongo.jackson.JacksonCodecProvider
 import org.litote.kmongo.jackson.ObjectMapperFactory
+import org.litote.kmongo.util.StartupTimeline.record
 import org.litote.kmongo.util.KotlinModuleConfiguration.kotlinModuleInitializer
 
 /**
@@ -63,18 +64,20 @@ object KMongoConfiguration {
     /**
      * Manage mongo extended json format.
      */
-    var extendedJsonMapper: ObjectMapper = ObjectMapperFactory.createExtendedJsonObjectMapper()
+    var extendedJsonMapper: ObjectMapper =
+        record("jackson.extendedJsonMapper") { ObjectMapperFactory.createExtendedJsonObjectMapper() }
 
     /**
      * Manage bson format.
      */
-    var bsonMapper: ObjectMapper = ObjectMapperFactory.createBsonObjectMapper()
+    var bsonMapper: ObjectMapper = record("jackson.bsonMapper") { ObjectMapperFactory.createBsonObjectMapper() }
 
     /**
      * Basically a copy of [bsonMapper] without [org.litote.kmongo.jackson.KMongoBsonFactory].
      * Used by [org.litote.kmongo.jackson.JacksonCodec] to resolves specific serialization issues.
      */
-    var bsonMapperCopy: ObjectMapper = ObjectMapperFactory.createBsonObjectMapperCopy()
+    var bsonMapperCopy: ObjectMapper =
+        record("jackson.bsonMapperCopy") { ObjectMapperFactory.createBsonObjectMapperCopy() }
 
     @Volatile
     private var currentJacksonCodecProvider: JacksonCodecProvider? = null
@@ -89,7 +92,8 @@ object KMongoConfiguration {
     internal val filterIdBsonMapper: ObjectMapper
         get() {
             if (currentFilterIdBsonMapper == null) {
-                currentFilterIdBsonMapper = ObjectMapperFactory.createFilterIdObjectMapper(bsonMapper)
+                currentFilterIdBsonMapper =
+                    record("jackson.filterIdBsonMapper") { ObjectMapperFactory.createFilterIdObjectMapper(bsonMapper) }
             }
             return currentFilterIdBsonMapper!!
         }
@@ -109,7 +113,9 @@ object KMongoConfiguration {
     internal val bsonMapperWithoutNullSerialization: ObjectMapper
         get() {
             if (currentBsonMapperWithoutNullSerialization == null) {
-                currentBsonMapperWithoutNullSerialization = bsonMapper.copy().setSerializationInclusion(NON_NULL);
+                currentBsonMapperWithoutNullSerialization = record("jackson.bsonMapperWithoutNullSerialization") {
+                    bsonMapper.copy().setSerializationInclusion(NON_NULL)
+                }
             }
             return currentBsonMapperWithoutNullSerialization!!
         }
@@ -118,7 +124,9 @@ object KMongoConfiguration {
         get() {
             if (currentFilterIdBsonMapperWithoutNullSerialization == null) {
                 currentFilterIdBsonMapperWithoutNullSerialization =
-                        filterIdBsonMapper.copy().setSerializationInclusion(NON_NULL);
+                        record("jackson.filterIdBsonMapperWithoutNullSerialization") {
+                            filterIdBsonMapper.copy().setSerializationInclusion(NON_NULL)
+                        }
             }
             return currentFilterIdBsonMapperWithoutNullSerialization!!
         }
@@ -126,7 +134,9 @@ object KMongoConfiguration {
     internal val bsonMapperWithNullSerialization: ObjectMapper
         get() {
             if (currentBsonMapperWithNullSerialization == null) {
-                currentBsonMapperWithNullSerialization = bsonMapper.copy().setSerializationInclusion(ALWAYS);
+                currentBsonMapperWithNullSerialization = record("jackson.bsonMapperWithNullSerialization") {
+                    bsonMapper.copy().setSerializationInclusion(ALWAYS)
+                }
             }
             return currentBsonMapperWithNullSerialization!!
         }
@@ -135,7 +145,9 @@ object KMongoConfiguration {
         get() {
             if (currentFilterIdBsonMapperWithNullSerialization == null) {
                 currentFilterIdBsonMapperWithNullSerialization =
-                        filterIdBsonMapper.copy().setSerializationInclusion(ALWAYS);
+                        record("jackson.filterIdBsonMapperWithNullSerialization") {
+                            filterIdBsonMapper.copy().setSerializationInclusion(ALWAYS)
+                        }
             }
             return currentFilterIdBsonMapperWithNullSerialization!!
         }
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.micrometer
+
+import io.micrometer.core.instrument.DistributionSummary
+import io.micrometer.core.instrument.MeterRegistry
+import io.micrometer.core.instrument.Timer
+import org.litote.kmongo.util.CodecDirection
+import org.litote.kmongo.util.CodecMetrics
+import org.litote.kmongo.util.CodecMetricsListener
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+
+/**
+ * Publishes the codec operations to Micrometer: a `<prefix>.duration` timer
+ * and a `<prefix>.size` distribution summary (in bytes), tagged with the `class` and the `direction`.
+ *
+ * @param registry the meter registry
+ * @param prefix the prefix of the meter names
+ * @param percentileHistogram true if the meters publish a percentile histogram
+ */
+class MicrometerCodecMetricsListener(
+    private val registry: MeterRegistry,
+    private val prefix: String = "kmongo.codec",
+    private val percentileHistogram: Boolean = false
+) : CodecMetricsListener {
+
+    private class Meters(val timer: Timer, val size: DistributionSummary)
+
+    private val meters = CodecDirection.values().map { ConcurrentHashMap<Class<*>, Meters>() }
+
+    private fun meters(type: Class<*>, direction: CodecDirection): Meters =
+        meters[direction.ordinal].computeIfAbsent(type) {
+            val className = type.name
+            val directionName = direction.name.lowercase()
+            Meters(
+                Timer.builder("$prefix.duration")
+                    .description("The duration of the KMongo codec operations")
+                    .tag("class", className)
+                    .tag("direction", directionName)
+                    .publishPercentileHistogram(percentileHistogram)
+                    .register(registry),
+                DistributionSummary.builder("$prefix.size")
+                    .description("The size of the documents encoded or decoded by the KMongo codecs")
+                    .baseUnit("bytes")
+                    .tag("class", className)
+                    .tag("direction", directionName)
+                    .publishPercentileHistogram(percentileHistogram)
+                    .register(registry)
+            )
+        }
+
+    override fun onCodecOperation(type: Class<*>, direction: CodecDirection, durationNanos: Long, bytes: Long) {
+        val meters = meters(type, direction)
+        meters.timer.record(durationNanos, TimeUnit.NANOSECONDS)
+        if (bytes >= 0) {
+            meters.size.record(bytes.toDouble())
+        }
+    }
+}
+
+/**
+ * Enables the codec metrics and publishes them to the [registry] - call it before KMongo initialization.
+ *
+ * @param registry the meter registry
+ * @param prefix the prefix of the meter names
+ * @param percentileHistogram true if the meters publish a percentile histogram
+ */
+fun CodecMetrics.publishTo(
+    registry: MeterRegistry,
+    prefix: String = "kmongo.codec",
+    percentileHistogram: Boolean = false
+) {
+    listener = MicrometerCodecMetricsListener(registry, prefix, percentileHistogram)
+    enabled = true
+}
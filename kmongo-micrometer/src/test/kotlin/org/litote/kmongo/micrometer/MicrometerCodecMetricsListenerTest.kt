@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.micrometer
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import org.junit.After
+import org.junit.Test
+import org.litote.kmongo.KMongoRootTest
+import org.litote.kmongo.util.CodecDirection
+import org.litote.kmongo.util.CodecMetrics
+import java.util.concurrent.TimeUnit
+import kotlin.test.assertEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+/**
+ *
+ */
+class MicrometerCodecMetricsListenerTest : KMongoRootTest() {
+
+    private val registry = SimpleMeterRegistry()
+    private val enabled = CodecMetrics.enabled
+
+    @After
+    fun after() {
+        CodecMetrics.listener = null
+        CodecMetrics.enabled = enabled
+    }
+
+    @Test
+    fun testRecordsTheDurationAndTheSizeByClassAndDirection() {
+        val listener = MicrometerCodecMetricsListener(registry)
+        listener.onCodecOperation(String::class.java, CodecDirection.ENCODE, 1000, 10)
+        listener.onCodecOperation(String::class.java, CodecDirection.ENCODE, 3000, 30)
+        listener.onCodecOperation(String::class.java, CodecDirection.DECODE, 2000, 20)
+
+        val encodeTimer = registry.get("kmongo.codec.duration")
+            .tags("class", "java.lang.String", "direction", "encode")
+            .timer()
+        assertEquals(2L, encodeTimer.count())
+        assertEquals(4000.0, encodeTimer.totalTime(TimeUnit.NANOSECONDS))
+        val encodeSize = registry.get("kmongo.codec.size")
+            .tags("class", "java.lang.String", "direction", "encode")
+            .summary()
+        assertEquals(2L, encodeSize.count())
+        assertEquals(40.0, encodeSize.totalAmount())
+        assertEquals("bytes", encodeSize.id.baseUnit)
+        val decodeTimer = registry.get("kmongo.codec.duration")
+            .tags("class", "java.lang.String", "direction", "decode")
+            .timer()
+        assertEquals(1L, decodeTimer.count())
+    }
+
+    @Test
+    fun testDoesNotRecordTheUnknownSizes() {
+        val listener = MicrometerCodecMetricsListener(registry)
+        listener.onCodecOperation(String::class.java, CodecDirection.DECODE, 1000, -1)
+
+        assertEquals(1L, registry.get("kmongo.codec.duration").timer().count())
+        assertEquals(0L, registry.get("kmongo.codec.size").summary().count())
+    }
+
+    @Test
+    fun testPublishToEnablesTheMetricsWithThePrefix() {
+        CodecMetrics.publishTo(registry, "custom")
+        assertTrue(CodecMetrics.enabled)
+
+        assertNotNull(CodecMetrics.listener).onCodecOperation(String::class.java, CodecDirection.ENCODE, 1000, 10)
+
+        assertEquals(1L, registry.get("custom.duration").tag("class", "java.lang.String").timer().count())
+        assertNull(registry.find("kmongo.codec.duration").timer())
+    }
+}
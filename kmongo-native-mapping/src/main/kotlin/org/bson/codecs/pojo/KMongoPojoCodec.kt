@@ -24,6 +24,7 @@ import org.bson.codecs.DecoderContext
 import org.bson.codecs.EncoderContext
 import org.litote.kmongo.util.KMongoUtil.generateNewIdForIdClass
 import org.litote.kmongo.util.KMongoUtil.getIdBsonValue
+import org.litote.kmongo.util.StartupTimeline
 
 /**
  *
@@ -42,7 +43,9 @@ internal class KMongoPojoCodec<T>(originalCodec: PojoCodec<T>) : PojoCodec<T>(),
     }
 
     override fun decode(reader: BsonReader, decoderContext: DecoderContext): T {
-        return pojoCodec.decode(reader, decoderContext)
+        return StartupTimeline.recordFirstUse("pojo.firstDecode", pojoCodec.encoderClass) {
+            pojoCodec.decode(reader, decoderContext)
+        }
     }
 
     override fun getEncoderClass(): Class<T> {
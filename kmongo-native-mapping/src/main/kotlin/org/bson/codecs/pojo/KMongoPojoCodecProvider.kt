@@ -29,6 +29,7 @@ import org.bson.codecs.ValueCodecProvider
 import org.bson.codecs.configuration.CodecProvider
 import org.bson.codecs.configuration.CodecRegistries
 import org.bson.codecs.configuration.CodecRegistry
+import org.litote.kmongo.util.StartupTimeline
 import kotlin.reflect.KClass
 
 /**
@@ -87,8 +88,10 @@ internal class KMongoPojoCodecProvider(serialization: PropertySerialization<Any>
             @Suppress("UPPER_BOUND_VIOLATED", "UNCHECKED_CAST")
             EnumCodec.newCodec(clazz as Class<Any>) as Codec<T>
         } else {
-            pojoCodecProvider.get(clazz, registry)?.let {
-                KMongoPojoCodec(it as PojoCodec<T>)
+            StartupTimeline.record("pojo.classModel", clazz) {
+                pojoCodecProvider.get(clazz, registry)?.let {
+                    KMongoPojoCodec(it as PojoCodec<T>)
+                }
             }
         }
     }
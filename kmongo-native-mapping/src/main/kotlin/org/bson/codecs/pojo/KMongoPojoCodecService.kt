@@ -19,6 +19,7 @@ package org.bson.codecs.pojo
 import org.bson.codecs.Codec
 import org.bson.codecs.configuration.CodecRegistry
 import org.litote.kmongo.util.ObjectMappingConfiguration
+import org.litote.kmongo.util.StartupTimeline
 import kotlin.LazyThreadSafetyMode.PUBLICATION
 
 /**
@@ -26,11 +27,13 @@ import kotlin.LazyThreadSafetyMode.PUBLICATION
  */
 internal object KMongoPojoCodecService {
 
-    val codecProvider: KMongoPojoCodecProvider by lazy(PUBLICATION) { KMongoPojoCodecProvider() }
+    val codecProvider: KMongoPojoCodecProvider by lazy(PUBLICATION) {
+        StartupTimeline.record("pojo.codecProvider") { KMongoPojoCodecProvider() }
+    }
     val codecRegistry: CodecRegistry by lazy(PUBLICATION) { codecProvider.codecRegistry }
 
     val codecProviderWithNullSerialization: KMongoPojoCodecProvider by lazy(PUBLICATION) {
-        KMongoPojoCodecProvider { true }
+        StartupTimeline.record("pojo.codecProviderWithNullSerialization") { KMongoPojoCodecProvider { true } }
     }
     val codecRegistryWithNullSerialization: CodecRegistry by lazy(PUBLICATION) { codecProviderWithNullSerialization.codecRegistry }
 
@@ -22,6 +22,8 @@ import org.junit.Test
 import org.litote.kmongo.MongoOperator.oid
 import org.litote.kmongo.json
 import org.litote.kmongo.model.Friend
+import org.litote.kmongo.util.BatchLoaderOptions
+import reactor.core.publisher.Flux
 import kotlin.test.assertEquals
 import kotlin.test.assertNull
 
@@ -90,4 +92,17 @@ class FindOneTest : KMongoReactorBaseTest<Friend>() {
                 ?: throw AssertionError("Value must not null!")
         assertEquals("John", friend.name)
     }
+
+    @Test
+    fun canFindOneByIdWithAnIdLoader() {
+        val friends = (1..5).map { Friend(ObjectId(), "John$it") }
+        col.insertMany(friends).blockLast()
+        val loader = col.idLoader(BatchLoaderOptions(windowMillis = 20))
+
+        val found = Flux.merge(friends.map { loader.findOneById(it._id!!) }).collectList().block()!!
+
+        assertEquals(friends.map { it.name }.toSet(), found.map { it.name }.toSet())
+        assertNull(loader.findOneById(ObjectId()).block())
+        assertEquals(2, loader.metrics.batchCount)
+    }
 }
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.reactor
+
+import com.mongodb.client.model.changestream.ChangeStreamDocument
+import org.litote.kmongo.util.ChangeStreamConflation
+import org.reactivestreams.Publisher
+import reactor.core.publisher.Flux
+import reactor.core.publisher.FluxSink
+import reactor.kotlin.core.publisher.toFlux
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Emits the pending events when the subscriber requests them.
+ */
+private class ConflatingEmitter<T>(private val sink: FluxSink<ChangeStreamDocument<T>>) {
+
+    private val pending = ChangeStreamConflation<T>()
+    private val work = AtomicInteger()
+
+    @Volatile
+    private var terminated = false
+
+    @Volatile
+    private var error: Throwable? = null
+
+    fun next(event: ChangeStreamDocument<T>) {
+        pending.add(event)
+        drain()
+    }
+
+    fun terminate(error: Throwable?) {
+        this.error = error
+        terminated = true
+        drain()
+    }
+
+    fun drain() {
+        if (work.getAndIncrement() != 0) {
+            return
+        }
+        do {
+            while (sink.requestedFromDownstream() > 0) {
+                sink.next(pending.poll() ?: break)
+            }
+            if (terminated && pending.size == 0) {
+                error?.let { sink.error(it) } ?: sink.complete()
+                return
+            }
+        } while (work.decrementAndGet() != 0)
+    }
+}
+
+/**
+ * Conflates the change stream events by `documentKey` while the subscriber does not request them:
+ * the pending events of a document are merged into one event -
+ * use `FullDocument.UPDATE_LOOKUP` so an update of a pending insert (or replace) is merged into it.
+ *
+ * The upstream publisher is requested without bound, so it never waits for the subscriber.
+ *
+ * @see ChangeStreamConflation
+ */
+fun <T> Publisher<ChangeStreamDocument<T>>.conflateByDocumentKey(): Flux<ChangeStreamDocument<T>> =
+    Flux.create { sink ->
+        val emitter = ConflatingEmitter(sink)
+        val subscription = toFlux().subscribe(
+            { emitter.next(it) },
+            { emitter.terminate(it) },
+            { emitter.terminate(null) }
+        )
+        sink.onRequest { emitter.drain() }
+        sink.onDispose(subscription)
+    }
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.reactor
+
+import com.mongodb.reactor.client.ReactorMongoCollection
+import org.bson.BsonValue
+import org.bson.RawBsonDocument
+import org.litote.kmongo.util.BatchLoader
+import org.litote.kmongo.util.BatchLoaderMetrics
+import org.litote.kmongo.util.BatchLoaderOptions
+import org.litote.kmongo.util.IdBatchLoading
+import reactor.core.publisher.Mono
+
+/**
+ * Coalesces the concurrent [findOneById] calls in `find({_id: {$in: ids}})` queries.
+ *
+ * @see idLoader
+ */
+class ReactorIdLoader<T : Any> internal constructor(
+    private val collection: ReactorMongoCollection<T>,
+    options: BatchLoaderOptions
+) {
+
+    private val codec = collection.codecRegistry.get(collection.documentClass)
+    private val rawCollection = collection.withDocumentClass<RawBsonDocument>()
+    private val loader = BatchLoader<BsonValue, T>(options) { ids ->
+        rawCollection
+            .find(IdBatchLoading.filter(ids))
+            .collectList()
+            .map { IdBatchLoading.byId(it, codec) }
+            .toFuture()
+    }
+
+    /**
+     * The batch counters.
+     */
+    val metrics: BatchLoaderMetrics get() = loader.metrics
+
+    /**
+     * Finds the document that match the id parameter.
+     *
+     * @param id the object id
+     * @return the document, empty if not found
+     */
+    fun findOneById(id: Any): Mono<T> =
+        Mono.create { sink ->
+            val result = loader.load(IdBatchLoading.idValue(id, collection.codecRegistry))
+            sink.onCancel { result.cancel(false) }
+            result.whenComplete { document, throwable ->
+                when {
+                    throwable != null -> sink.error(throwable)
+                    document != null -> sink.success(document)
+                    else -> sink.success()
+                }
+            }
+        }
+
+    /**
+     * Loads the pending ids now.
+     */
+    fun flush() = loader.flush()
+}
+
+/**
+ * Returns a loader coalescing the concurrent `findOneById` calls - useful for GraphQL like data fetching.
+ * The ids requested during [BatchLoaderOptions.windowMillis] are loaded with one query, and each id is loaded once.
+ *
+ * @param options the batch options
+ * @return a new loader
+ */
+fun <T : Any> ReactorMongoCollection<T>.idLoader(options: BatchLoaderOptions = BatchLoaderOptions()): ReactorIdLoader<T> =
+    ReactorIdLoader(this, options)
@@ -38,6 +38,7 @@ import com.mongodb.reactor.client.ListIndexesFlux
 import com.mongodb.reactor.client.MapReduceFlux
 import com.mongodb.reactor.client.ReactorMongoCollection
 import org.bson.BsonDocument
+import org.bson.RawBsonDocument
 import org.bson.conversions.Bson
 import org.litote.kmongo.EMPTY_BSON
 import org.litote.kmongo.SetTo
@@ -49,6 +50,9 @@ import org.litote.kmongo.util.KMongoUtil
 import org.litote.kmongo.util.KMongoUtil.filterIdToBson
 import org.litote.kmongo.util.KMongoUtil.idFilterQuery
 import org.litote.kmongo.util.KMongoUtil.toBson
+import org.litote.kmongo.util.SaveAll
+import org.litote.kmongo.util.SaveAllOptions
+import reactor.core.publisher.Flux
 import reactor.core.publisher.Mono
 import reactor.kotlin.core.publisher.toMono
 import kotlin.reflect.KProperty
@@ -578,6 +582,26 @@ fun <T : Any> ReactorMongoCollection<T>.save(clientSession: ClientSession, docum
     }
 }
 
+/**
+ * Save the documents with unordered bulk writes, instead of one [save] round trip per document.
+ * Documents without id are inserted, the other ones are upserted by id.
+ * The writes are split in batches according to the [options].
+ *
+ * @param documents the documents to save
+ * @param options the batch options
+ * @return the aggregated result of the bulk writes
+ */
+fun <T : Any> ReactorMongoCollection<T>.saveAll(
+    documents: Iterable<T>,
+    options: SaveAllOptions = SaveAllOptions()
+): Mono<BulkWriteResult> {
+    val rawCollection = withDocumentClass<RawBsonDocument>()
+    return Flux.fromIterable(SaveAll.batches(documents, codecRegistry.get(documentClass), options).asIterable())
+        .concatMap { batch -> rawCollection.bulkWrite(batch.requests, options.bulkWriteOptions).toMono().map { batch to it } }
+        .collectList()
+        .map { SaveAll.aggregate(it) }
+}
+
 /**
  * Replace a document in the collection according to the specified arguments.
  *
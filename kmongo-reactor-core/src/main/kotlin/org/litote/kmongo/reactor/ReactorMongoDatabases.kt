@@ -17,7 +17,9 @@
 package org.litote.kmongo.reactor
 
 import com.mongodb.ReadPreference
+import com.mongodb.reactor.client.ReactorMongoCollection
 import com.mongodb.reactor.client.ReactorMongoDatabase
+import org.litote.kmongo.util.CollectionHandleCache
 import org.litote.kmongo.util.KMongoUtil
 import org.litote.kmongo.util.KMongoUtil.defaultCollectionName
 import reactor.core.publisher.Mono
@@ -60,3 +62,39 @@ inline fun <reified T : Any> ReactorMongoDatabase.dropCollection(): Mono<Void> =
  * @mongodb.driver.manual reference/command/drop/ Drop Collection
  */
 fun ReactorMongoDatabase.dropCollection(collectionName: String): Mono<Void> = emptyResult { getCollection(collectionName).drop() }
+
+private val collectionHandles = CollectionHandleCache<ReactorMongoCollection<*>>()
+
+/**
+ * Gets a cached collection: the handle is created once by database (name, codec registry & settings), collection name and document class.
+ * Use it instead of [getCollection] in code paths that get the same collection repeatedly.
+ *
+ * @param collectionName the name of the collection to return - default is [defaultCollectionName]
+ * @param <T>            the default target type of the collection to return
+ * @return the collection
+ */
+inline fun <reified T : Any> ReactorMongoDatabase.getCachedCollection(
+    collectionName: String = defaultCollectionName(T::class)
+): ReactorMongoCollection<T> = getCachedCollection(collectionName, T::class.java)
+
+/**
+ * Gets a cached collection: the handle is created once by database (name, codec registry & settings), collection name and document class.
+ *
+ * @param collectionName the name of the collection to return
+ * @param documentClass  the default target type of the collection to return
+ * @return the collection
+ */
+@Suppress("UNCHECKED_CAST")
+fun <T : Any> ReactorMongoDatabase.getCachedCollection(collectionName: String, documentClass: Class<T>): ReactorMongoCollection<T> =
+    collectionHandles.getOrPut(
+        codecRegistry,
+        name,
+        readPreference,
+        writeConcern,
+        readConcern,
+        null,
+        collectionName,
+        documentClass
+    ) {
+        getCollection(collectionName, documentClass)
+    } as ReactorMongoCollection<T>
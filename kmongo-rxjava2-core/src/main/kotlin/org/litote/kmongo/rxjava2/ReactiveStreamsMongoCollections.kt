@@ -39,9 +39,11 @@ import com.mongodb.reactivestreams.client.MapReducePublisher
 import com.mongodb.reactivestreams.client.MongoCollection
 import io.reactivex.Completable
 import io.reactivex.CompletableSource
+import io.reactivex.Flowable
 import io.reactivex.Maybe
 import io.reactivex.Single
 import org.bson.BsonDocument
+import org.bson.RawBsonDocument
 import org.bson.conversions.Bson
 import org.litote.kmongo.EMPTY_BSON
 import org.litote.kmongo.SetTo
@@ -53,6 +55,8 @@ import org.litote.kmongo.util.KMongoUtil
 import org.litote.kmongo.util.KMongoUtil.filterIdToBson
 import org.litote.kmongo.util.KMongoUtil.idFilterQuery
 import org.litote.kmongo.util.KMongoUtil.toBson
+import org.litote.kmongo.util.SaveAll
+import org.litote.kmongo.util.SaveAllOptions
 import kotlin.reflect.KProperty
 import kotlin.reflect.KProperty1
 
@@ -564,6 +568,26 @@ fun <T : Any> MongoCollection<T>.save(clientSession: ClientSession, document: T)
     }
 }
 
+/**
+ * Save the documents with unordered bulk writes, instead of one [save] round trip per document.
+ * Documents without id are inserted, the other ones are upserted by id.
+ * The writes are split in batches according to the [options].
+ *
+ * @param documents the documents to save
+ * @param options the batch options
+ * @return the aggregated result of the bulk writes
+ */
+fun <T : Any> MongoCollection<T>.saveAll(
+    documents: Iterable<T>,
+    options: SaveAllOptions = SaveAllOptions()
+): Single<BulkWriteResult> {
+    val rawCollection = withDocumentClass<RawBsonDocument>()
+    return Flowable.fromIterable(SaveAll.batches(documents, codecRegistry.get(documentClass), options).asIterable())
+        .concatMapSingle { batch -> rawCollection.bulkWrite(batch.requests, options.bulkWriteOptions).single().map { batch to it } }
+        .toList()
+        .map { SaveAll.aggregate(it) }
+}
+
 /**
  * Replace a document in the collection according to the specified arguments.
  *
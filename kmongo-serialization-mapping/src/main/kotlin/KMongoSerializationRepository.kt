@@ -43,6 +43,7 @@ import org.litote.kmongo.id.StringId
 import org.litote.kmongo.id.WrappedObjectId
 import org.litote.kmongo.util.KotlinxDatetimeLoader
 import org.litote.kmongo.util.ObjectMappingConfiguration
+import org.litote.kmongo.util.StartupTimeline
 import java.math.BigDecimal
 import java.time.Instant
 import java.time.LocalDate
@@ -236,7 +237,7 @@ internal object KMongoSerializationRepository {
             ?: error("no serializer for $kClass of class $kClass")
 
     @Volatile
-    private var baseModule: SerializersModule = initBaseModule()
+    private var baseModule: SerializersModule = StartupTimeline.record("serialization.module") { initBaseModule() }
 
     @Suppress("UNCHECKED_CAST")
     private fun initBaseModule(): SerializersModule =
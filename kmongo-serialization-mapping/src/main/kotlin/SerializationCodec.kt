@@ -32,6 +32,7 @@ import org.bson.codecs.EncoderContext
 import org.litote.kmongo.serialization.KMongoSerializationRepository.module
 import org.litote.kmongo.service.ClassMappingType
 import org.litote.kmongo.util.KMongoUtil.getIdBsonValue
+import org.litote.kmongo.util.StartupTimeline
 import kotlin.reflect.KClass
 import kotlin.reflect.KProperty1
 
@@ -63,9 +64,11 @@ internal class SerializationCodec<T : Any>(
     }
 
     override fun decode(reader: BsonReader, decoderContext: DecoderContext): T {
-        return BsonFlexibleDecoder(reader as AbstractBsonReader, module, configuration).decodeSerializableValue(
-            decoderSerializer
-        )
+        return StartupTimeline.recordFirstUse("serialization.firstDecode", clazz.java) {
+            BsonFlexibleDecoder(reader as AbstractBsonReader, module, configuration).decodeSerializableValue(
+                decoderSerializer
+            )
+        }
     }
 
     override fun getDocumentId(document: T): BsonValue =
@@ -16,6 +16,7 @@
 
 package org.litote.kmongo.service
 
+import org.litote.kmongo.util.StartupTimeline
 import java.util.ServiceLoader
 
 private val mappingTypeProvider
@@ -24,6 +25,10 @@ private val mappingTypeProvider
         }
 
 private val defaultService by lazy {
+    StartupTimeline.record("ClassMappingTypeService") { loadDefaultService() }
+}
+
+private fun loadDefaultService(): ClassMappingTypeService {
     var priority = Integer.MIN_VALUE
     var current: ClassMappingTypeService? = null
     mappingTypeProvider.iterator().apply {
@@ -35,7 +40,7 @@ private val defaultService by lazy {
             }
         }
     }
-    current ?: error("Service ClassMappingTypeService not found")
+    return current ?: error("Service ClassMappingTypeService not found")
 }
 
 @Volatile
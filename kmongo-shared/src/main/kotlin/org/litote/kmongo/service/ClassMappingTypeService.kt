@@ -21,6 +21,7 @@ import org.bson.codecs.Codec
 import org.bson.codecs.configuration.CodecProvider
 import org.bson.codecs.configuration.CodecRegistries
 import org.bson.codecs.configuration.CodecRegistry
+import org.litote.kmongo.util.CodecMetrics
 import org.litote.kmongo.util.KMongoUtil
 import java.util.concurrent.ConcurrentHashMap
 import kotlin.reflect.KClass
@@ -72,11 +73,12 @@ interface ClassMappingTypeService {
     fun <T, R> getIdValue(idProperty: KProperty1<T, R>, instance: T): R?
 
     /**
-     * Returns a codec registry built with [baseCodecRegistry].
+     * Returns a codec registry built with [baseCodecRegistry] - its codecs are metered if [CodecMetrics.enabled] is true.
      */
     fun codecRegistry(
         baseCodecRegistry: CodecRegistry
     ): CodecRegistry = codecRegistryWithCustomCodecs(baseCodecRegistry, coreCodecRegistry(baseCodecRegistry))
+        .let { if (CodecMetrics.enabled) CodecMetrics.metered(it) else it }
 
     fun codecRegistryWithCustomCodecs(
         baseCodecRegistry: CodecRegistry,
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.util
+
+import org.bson.BsonArray
+import org.bson.BsonDocument
+import org.bson.BsonValue
+import org.bson.RawBsonDocument
+import org.bson.codecs.Codec
+import org.bson.codecs.configuration.CodecRegistry
+import org.bson.conversions.Bson
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionStage
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Options of the batch loaders.
+ *
+ * @param maxBatchSize the maximum number of distinct keys loaded by one query - larger requests are chunked
+ * @param windowMillis the maximum time a key waits for other keys before its batch is loaded
+ * @param scheduler the scheduler of the batch windows - default is a shared daemon thread
+ * @param batchListener called with the size of each batch, for instance to publish metrics
+ */
+class BatchLoaderOptions(
+    val maxBatchSize: Int = 100,
+    val windowMillis: Long = 2,
+    val scheduler: ScheduledExecutorService = defaultScheduler,
+    val batchListener: ((Int) -> Unit)? = null
+) {
+
+    companion object {
+        /**
+         * The default scheduler.
+         */
+        val defaultScheduler: ScheduledExecutorService by lazy {
+            Executors.newSingleThreadScheduledExecutor { r ->
+                Thread(r, "kmongo-batch-loader").apply { isDaemon = true }
+            }
+        }
+    }
+
+    init {
+        require(maxBatchSize > 0) { "maxBatchSize must be positive" }
+        require(windowMillis >= 0) { "windowMillis must be positive or zero" }
+    }
+}
+
+/**
+ * Counters of a [BatchLoader].
+ */
+class BatchLoaderMetrics {
+
+    private val requests = AtomicLong()
+    private val batches = AtomicLong()
+    private val keys = AtomicLong()
+    private val largestBatch = AtomicInteger()
+
+    /**
+     * The number of loaded keys, including duplicates.
+     */
+    val requestCount: Long get() = requests.get()
+
+    /**
+     * The number of batches (ie queries).
+     */
+    val batchCount: Long get() = batches.get()
+
+    /**
+     * The number of distinct keys by batch, summed.
+     */
+    val keyCount: Long get() = keys.get()
+
+    /**
+     * The size of the largest batch.
+     */
+    val largestBatchSize: Int get() = largestBatch.get()
+
+    /**
+     * The average size of a batch.
+     */
+    val averageBatchSize: Double get() = batchCount.let { if (it == 0L) 0.0 else keyCount.toDouble() / it }
+
+    internal fun request() {
+        requests.incrementAndGet()
+    }
+
+    internal fun batch(size: Int) {
+        batches.incrementAndGet()
+        keys.addAndGet(size.toLong())
+        largestBatch.accumulateAndGet(size) { a, b -> maxOf(a, b) }
+    }
+
+    override fun toString(): String =
+        "BatchLoaderMetrics(requestCount=$requestCount, batchCount=$batchCount, keyCount=$keyCount, largestBatchSize=$largestBatchSize)"
+}
+
+/**
+ * Coalesces the keys requested during a short window (or until [BatchLoaderOptions.maxBatchSize] distinct keys)
+ * in one call of [batchFunction]. Duplicated keys are loaded once.
+ *
+ * @param options the batch options
+ * @param batchFunction loads the values of the keys - a missing key has no value
+ */
+class BatchLoader<K : Any, V : Any>(
+    private val options: BatchLoaderOptions = BatchLoaderOptions(),
+    private val batchFunction: (List<K>) -> CompletionStage<Map<K, V>>
+) {
+
+    /**
+     * The counters of the loader.
+     */
+    val metrics: BatchLoaderMetrics = BatchLoaderMetrics()
+
+    private val lock = Any()
+    private var pending = LinkedHashMap<K, MutableList<CompletableFuture<V?>>>()
+    private var timer: ScheduledFuture<*>? = null
+
+    /**
+     * Loads the value of the [key] - null if there is no value.
+     *
+     * Each call returns a new future: cancelling it does not cancel the other requests of the same key.
+     */
+    fun load(key: K): CompletableFuture<V?> {
+        val future = CompletableFuture<V?>()
+        val batch = synchronized(lock) {
+            metrics.request()
+            pending.getOrPut(key) { mutableListOf() }.add(future)
+            if (pending.size >= options.maxBatchSize) {
+                takeBatch()
+            } else {
+                if (timer == null) {
+                    timer = options.scheduler.schedule({ flush() }, options.windowMillis, TimeUnit.MILLISECONDS)
+                }
+                null
+            }
+        }
+        batch?.let { dispatch(it) }
+        return future
+    }
+
+    /**
+     * Loads the pending keys now.
+     */
+    fun flush() {
+        synchronized(lock) { takeBatch() }?.let { dispatch(it) }
+    }
+
+    private fun takeBatch(): Map<K, List<CompletableFuture<V?>>>? {
+        timer?.cancel(false)
+        timer = null
+        if (pending.isEmpty()) {
+            return null
+        }
+        return pending.also { pending = LinkedHashMap() }
+    }
+
+    private fun dispatch(batch: Map<K, List<CompletableFuture<V?>>>) {
+        metrics.batch(batch.size)
+        options.batchListener?.invoke(batch.size)
+        val result = try {
+            batchFunction(batch.keys.toList())
+        } catch (e: Exception) {
+            CompletableFuture<Map<K, V>>().apply { completeExceptionally(e) }
+        }
+        result.whenComplete { values, error ->
+            batch.forEach { (key, futures) ->
+                futures.forEach {
+                    if (error != null) it.completeExceptionally(error) else it.complete(values[key])
+                }
+            }
+        }
+    }
+}
+
+/**
+ * Utility methods used by the `findOneById` batch loaders: the ids are compared as bson values.
+ */
+object IdBatchLoading {
+
+    private const val ID = "_id"
+
+    /**
+     * Returns the bson value of the [id].
+     */
+    fun idValue(id: Any, codecRegistry: CodecRegistry): BsonValue =
+        KMongoUtil.idFilterQuery(id).toBsonDocument(BsonDocument::class.java, codecRegistry)[ID]!!
+
+    /**
+     * Returns the filter of the documents with the given [ids].
+     */
+    fun filter(ids: List<BsonValue>): Bson = BsonDocument(ID, BsonDocument("\$in", BsonArray(ids)))
+
+    /**
+     * Decodes the [documents], by id.
+     */
+    fun <T> byId(documents: List<RawBsonDocument>, codec: Codec<T>): Map<BsonValue, T> =
+        documents.associate { it[ID]!! to it.decode(codec) }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.util
+
+import com.mongodb.client.model.changestream.ChangeStreamDocument
+import com.mongodb.client.model.changestream.OperationType
+import com.mongodb.client.model.changestream.OperationType.DELETE
+import com.mongodb.client.model.changestream.OperationType.INSERT
+import com.mongodb.client.model.changestream.OperationType.REPLACE
+import com.mongodb.client.model.changestream.OperationType.UPDATE
+import com.mongodb.client.model.changestream.UpdateDescription
+import org.bson.BsonDocument
+
+/**
+ * The pending events of a slow change stream consumer, conflated by `documentKey`:
+ * a pending event is merged with the next event of the same document, keeping the resume token of the latest one.
+ *
+ * - two updates are merged into one update with the combined `updatedFields` and `removedFields`
+ * - an update of an inserted (or replaced) document is merged into the insert (or the replace)
+ * when it carries the full document (ie when the change stream looks it up with `FullDocument.UPDATE_LOOKUP`)
+ * - a replace replaces a pending update, and is merged into a pending insert
+ * - an insert after a delete becomes a replace
+ * - a delete replaces all the previous events
+ *
+ * The events that can not be merged (an update without full document after an insert, truncated arrays...)
+ * are kept in order, and the next events of the document are merged with the latest one.
+ *
+ * The events without `documentKey` (drop, rename, invalidate...) are never conflated,
+ * and the events that follow them are not merged with the events that precede them.
+ *
+ * This class is thread safe.
+ */
+class ChangeStreamConflation<T> {
+
+    private class Slot(val documentKey: BsonDocument?)
+
+    private val pending = LinkedHashMap<Slot, ChangeStreamDocument<T>>()
+    private val latest = HashMap<BsonDocument, Slot>()
+    private var conflated = 0L
+
+    /**
+     * The number of pending events.
+     */
+    val size: Int get() = synchronized(pending) { pending.size }
+
+    /**
+     * The number of events merged with a later event of the same document.
+     */
+    val conflatedCount: Long get() = synchronized(pending) { conflated }
+
+    /**
+     * Adds an event, merging it with the pending event of the same document if possible.
+     */
+    fun add(event: ChangeStreamDocument<T>) {
+        synchronized(pending) {
+            val documentKey = event.documentKey
+            if (documentKey == null) {
+                latest.clear()
+                pending[Slot(null)] = event
+            } else {
+                val slot = Slot(documentKey)
+                val previousSlot = latest[documentKey]
+                val merged = previousSlot?.let { pending[it] }?.let { merge(it, event) }
+                if (previousSlot != null && merged != null) {
+                    pending.remove(previousSlot)
+                    conflated++
+                }
+                pending[slot] = merged ?: event
+                latest[documentKey] = slot
+            }
+        }
+    }
+
+    /**
+     * Removes and returns the oldest pending event, null if there is none.
+     */
+    fun poll(): ChangeStreamDocument<T>? =
+        synchronized(pending) {
+            val iterator = pending.entries.iterator()
+            if (iterator.hasNext()) {
+                val (slot, event) = iterator.next()
+                iterator.remove()
+                if (slot.documentKey != null && latest[slot.documentKey] === slot) {
+                    latest.remove(slot.documentKey)
+                }
+                event
+            } else {
+                null
+            }
+        }
+
+    /**
+     * Removes and returns all the pending events, in order.
+     */
+    fun drain(): List<ChangeStreamDocument<T>> =
+        synchronized(pending) {
+            pending.values.toList().also {
+                pending.clear()
+                latest.clear()
+            }
+        }
+
+    /**
+     * Returns the event equivalent to [previous] followed by [next], null if there is none.
+     */
+    private fun merge(previous: ChangeStreamDocument<T>, next: ChangeStreamDocument<T>): ChangeStreamDocument<T>? {
+        val previousType = previous.operationType
+        val nextType = next.operationType
+        val operationType = when {
+            nextType == DELETE -> DELETE
+            previousType == DELETE -> if (nextType == INSERT || nextType == REPLACE) REPLACE else null
+            previousType == INSERT || previousType == REPLACE ->
+                if (nextType == REPLACE || (nextType == UPDATE && next.fullDocument != null)) previousType else null
+            previousType == UPDATE -> if (nextType == REPLACE || nextType == UPDATE) nextType else null
+            else -> null
+        } ?: return null
+        val updateDescription = if (operationType == UPDATE) {
+            merge(previous.updateDescription, next.updateDescription) ?: return null
+        } else {
+            null
+        }
+        //the document before the change is the one before the previous event
+        return next.copy(operationType, updateDescription, previous.fullDocumentBeforeChange)
+    }
+
+    /**
+     * Returns the update description equivalent to [previous] followed by [next],
+     * null if it can not be expressed by one description.
+     */
+    private fun merge(previous: UpdateDescription?, next: UpdateDescription?): UpdateDescription? {
+        if (previous == null || next == null
+            || !previous.truncatedArrays.isNullOrEmpty() || !next.truncatedArrays.isNullOrEmpty()
+            || previous.disambiguatedPaths?.isEmpty() == false || next.disambiguatedPaths?.isEmpty() == false
+        ) {
+            return null
+        }
+        val previousPaths = previous.updatedFields.orEmpty().keys + previous.removedFields.orEmpty()
+        val nextPaths = next.updatedFields.orEmpty().keys + next.removedFields.orEmpty()
+        //a change inside a previously changed field can not be merged without the previous value
+        if (nextPaths.any { path -> previousPaths.any { path.startsWith("$it.") } }) {
+            return null
+        }
+        fun String.isOverridden(): Boolean = nextPaths.any { this == it || startsWith("$it.") }
+
+        val updatedFields = BsonDocument()
+        previous.updatedFields.orEmpty().forEach { (path, value) ->
+            if (!path.isOverridden()) updatedFields[path] = value
+        }
+        next.updatedFields.orEmpty().forEach { (path, value) -> updatedFields[path] = value }
+        val removedFields =
+            previous.removedFields.orEmpty().filterNot { it.isOverridden() } + next.removedFields.orEmpty()
+        return UpdateDescription(removedFields, updatedFields)
+    }
+
+    private fun ChangeStreamDocument<T>.copy(
+        operationType: OperationType,
+        updateDescription: UpdateDescription?,
+        fullDocumentBeforeChange: T?
+    ): ChangeStreamDocument<T> =
+        ChangeStreamDocument(
+            operationType.value,
+            resumeToken,
+            namespaceDocument,
+            namespaceTypeString,
+            destinationNamespaceDocument,
+            if (operationType == DELETE) null else fullDocument,
+            fullDocumentBeforeChange,
+            documentKey,
+            clusterTime,
+            updateDescription,
+            txnNumber,
+            lsid,
+            wallTime,
+            splitEvent,
+            extraElements
+        )
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.util
+
+import org.bson.BsonBinaryReader
+import org.bson.BsonBinaryWriter
+import org.bson.BsonReader
+import org.bson.BsonValue
+import org.bson.BsonWriter
+import org.bson.UuidRepresentation
+import org.bson.codecs.Codec
+import org.bson.codecs.CollectibleCodec
+import org.bson.codecs.DecoderContext
+import org.bson.codecs.EncoderContext
+import org.bson.codecs.OverridableUuidRepresentationCodec
+import org.bson.codecs.configuration.CodecRegistry
+import java.lang.reflect.Type
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * The direction of a codec operation.
+ */
+enum class CodecDirection {
+    ENCODE, DECODE
+}
+
+/**
+ * Receives the operations of the metered codecs - for example to publish them to a metrics library.
+ */
+interface CodecMetricsListener {
+
+    /**
+     * Called after each successful encode or decode of a metered codec.
+     *
+     * @param type the encoded or decoded class
+     * @param direction encode or decode
+     * @param durationNanos the duration of the operation
+     * @param bytes the size of the encoded value, -1 if the writer or the reader is not a binary one
+     */
+    fun onCodecOperation(type: Class<*>, direction: CodecDirection, durationNanos: Long, bytes: Long)
+}
+
+/**
+ * The counters of the operations of a class in a direction.
+ */
+class CodecStats internal constructor(
+    /**
+     * The encoded or decoded class.
+     */
+    val type: Class<*>,
+    /**
+     * Encode or decode.
+     */
+    val direction: CodecDirection
+) {
+
+    private val count = LongAdder()
+    private val nanos = LongAdder()
+    private val bytes = LongAdder()
+    private val latencies = LatencyHistogram()
+
+    /**
+     * The number of operations.
+     */
+    val operationCount: Long get() = count.sum()
+
+    /**
+     * The cumulative duration of the operations.
+     */
+    val totalNanos: Long get() = nanos.sum()
+
+    /**
+     * The cumulative size of the values encoded to or decoded from a binary writer or reader.
+     */
+    val totalBytes: Long get() = bytes.sum()
+
+    /**
+     * Returns an upper bound of the latency percentile, 0 if there is no operation - the precision is 25%.
+     *
+     * @param percentile the percentile, between 0 and 100
+     */
+    fun latencyPercentileNanos(percentile: Double): Long = latencies.percentile(percentile)
+
+    internal fun record(durationNanos: Long, bytes: Long) {
+        count.increment()
+        nanos.add(durationNanos)
+        if (bytes > 0) {
+            this.bytes.add(bytes)
+        }
+        latencies.record(durationNanos)
+    }
+
+    internal fun reset() {
+        count.reset()
+        nanos.reset()
+        bytes.reset()
+        latencies.reset()
+    }
+
+    override fun toString(): String =
+        "CodecStats(type=${type.name}, direction=$direction, operationCount=$operationCount, totalNanos=$totalNanos, " +
+                "totalBytes=$totalBytes, p50=${latencyPercentileNanos(50.0)}, p99=${latencyPercentileNanos(99.0)})"
+}
+
+/**
+ * A log-linear latency histogram: four buckets by power of two, striped by thread.
+ */
+internal class LatencyHistogram {
+
+    private val buckets = AtomicLongArray(STRIPES * BUCKETS)
+
+    fun record(nanos: Long) {
+        buckets.incrementAndGet((Thread.currentThread().id.toInt() and (STRIPES - 1)) * BUCKETS + bucket(nanos))
+    }
+
+    fun percentile(percentile: Double): Long {
+        require(percentile in 0.0..100.0) { "percentile must be between 0 and 100" }
+        val counts = LongArray(BUCKETS)
+        for (i in 0 until buckets.length()) {
+            counts[i % BUCKETS] += buckets.get(i)
+        }
+        val total = counts.sum()
+        if (total == 0L) {
+            return 0
+        }
+        val rank = maxOf(1L, Math.ceil(percentile / 100 * total).toLong())
+        var cumulative = 0L
+        counts.forEachIndexed { bucket, count ->
+            cumulative += count
+            if (cumulative >= rank) {
+                return upperBound(bucket)
+            }
+        }
+        return upperBound(BUCKETS - 1)
+    }
+
+    fun reset() {
+        for (i in 0 until buckets.length()) {
+            buckets.set(i, 0)
+        }
+    }
+
+    companion object {
+        private const val BUCKETS = 256
+        private val STRIPES = Integer.highestOneBit(minOf(8, Runtime.getRuntime().availableProcessors()))
+
+        fun bucket(nanos: Long): Int =
+            if (nanos < 4) {
+                maxOf(0L, nanos).toInt()
+            } else {
+                val magnitude = 63 - java.lang.Long.numberOfLeadingZeros(nanos)
+                magnitude * 4 + ((nanos shr (magnitude - 2)).toInt() and 3)
+            }
+
+        fun upperBound(bucket: Int): Long =
+            if (bucket < 4) {
+                bucket.toLong()
+            } else {
+                val magnitude = bucket / 4
+                if (magnitude >= 61) Long.MAX_VALUE else ((4L + bucket % 4 + 1) shl (magnitude - 2)) - 1
+            }
+    }
+}
+
+/**
+ * Per class encode and decode metrics of the codecs returned by the KMongo codec registries.
+ *
+ * The codecs are metered only if the metrics are enabled when the registry is created -
+ * set [enabled] (or the `org.litote.kmongo.codecMetrics` system property) before KMongo initialization.
+ * The codecs of the registries created while the metrics are disabled are not wrapped, and have no overhead.
+ */
+object CodecMetrics {
+
+    /**
+     * true if the codec registries created from now on are metered.
+     */
+    @Volatile
+    var enabled: Boolean = System.getProperty("org.litote.kmongo.codecMetrics") == "true"
+
+    /**
+     * The listener of the codec operations, if any.
+     */
+    @Volatile
+    var listener: CodecMetricsListener? = null
+
+    /**
+     * The classes to meter - by default all the classes.
+     */
+    @Volatile
+    var include: (Class<*>) -> Boolean = { true }
+
+    private val stats = CodecDirection.values().map { ConcurrentHashMap<Class<*>, CodecStats>() }
+
+    /**
+     * Returns the counters of all the metered classes, by direction.
+     */
+    fun stats(): List<CodecStats> = stats.flatMap { it.values }
+
+    /**
+     * Returns the counters of the class in this direction, null if the class is not metered.
+     */
+    fun stats(type: Class<*>, direction: CodecDirection): CodecStats? = stats[direction.ordinal][type]
+
+    /**
+     * Resets all the counters.
+     */
+    fun reset() {
+        stats.forEach { s -> s.values.forEach { it.reset() } }
+    }
+
+    private fun statsOf(type: Class<*>, direction: CodecDirection): CodecStats =
+        stats[direction.ordinal].computeIfAbsent(type) { CodecStats(type, direction) }
+
+    /**
+     * Returns a registry metering the codecs of [registry].
+     */
+    fun metered(registry: CodecRegistry): CodecRegistry =
+        if (registry is MeteredCodecRegistry) registry else MeteredCodecRegistry(registry)
+
+    /**
+     * Returns a metered version of the codec, or the codec if its class is not included.
+     */
+    fun <T> metered(codec: Codec<T>): Codec<T> =
+        if (codec is MeteredCodec || codec.encoderClass?.let(include) != true) {
+            codec
+        } else {
+            val encode = statsOf(codec.encoderClass, CodecDirection.ENCODE)
+            val decode = statsOf(codec.encoderClass, CodecDirection.DECODE)
+            if (codec is CollectibleCodec) {
+                MeteredCollectibleCodec(codec, encode, decode)
+            } else {
+                MeteredCodec(codec, encode, decode)
+            }
+        }
+
+    internal fun record(stats: CodecStats, start: Long, bytes: Long) {
+        val duration = System.nanoTime() - start
+        stats.record(duration, bytes)
+        listener?.onCodecOperation(stats.type, stats.direction, duration, bytes)
+    }
+}
+
+/**
+ * The metered codecs are cached by class, so a lookup does not allocate a new wrapper -
+ * not with computeIfAbsent, as the codec of a class may look up the codecs of its properties.
+ */
+private class MeteredCodecRegistry(private val registry: CodecRegistry) : CodecRegistry {
+
+    private val codecs = ConcurrentHashMap<Class<*>, Codec<*>>()
+
+    @Suppress("UNCHECKED_CAST")
+    override fun <T : Any?> get(clazz: Class<T>): Codec<T> =
+        (codecs[clazz] ?: CodecMetrics.metered(registry.get(clazz)).let { codecs.putIfAbsent(clazz, it) ?: it }) as Codec<T>
+
+    override fun <T : Any?> get(clazz: Class<T>, registry: CodecRegistry): Codec<T>? =
+        this.registry.get(clazz, registry)?.let { CodecMetrics.metered(it) }
+
+    override fun <T : Any?> get(clazz: Class<T>, typeArguments: List<Type>): Codec<T> =
+        CodecMetrics.metered(registry.get(clazz, typeArguments))
+
+    override fun <T : Any?> get(clazz: Class<T>, typeArguments: List<Type>, registry: CodecRegistry): Codec<T>? =
+        this.registry.get(clazz, typeArguments, registry)?.let { CodecMetrics.metered(it) }
+}
+
+/**
+ * Implements [OverridableUuidRepresentationCodec] so the uuid representation of the client is applied to the metered codec.
+ */
+private open class MeteredCodec<T>(
+    private val codec: Codec<T>,
+    private val encodeStats: CodecStats,
+    private val decodeStats: CodecStats
+) : Codec<T>, OverridableUuidRepresentationCodec<T> {
+
+    override fun getEncoderClass(): Class<T> = codec.encoderClass
+
+    override fun encode(writer: BsonWriter, value: T, encoderContext: EncoderContext) {
+        val output = (writer as? BsonBinaryWriter)?.bsonOutput
+        val position = output?.position ?: 0
+        val start = System.nanoTime()
+        codec.encode(writer, value, encoderContext)
+        CodecMetrics.record(encodeStats, start, output?.let { it.position - position.toLong() } ?: -1)
+    }
+
+    override fun decode(reader: BsonReader, decoderContext: DecoderContext): T {
+        val input = (reader as? BsonBinaryReader)?.bsonInput
+        val position = input?.position ?: 0
+        val start = System.nanoTime()
+        val value = codec.decode(reader, decoderContext)
+        CodecMetrics.record(decodeStats, start, input?.let { it.position - position.toLong() } ?: -1)
+        return value
+    }
+
+    override fun withUuidRepresentation(uuidRepresentation: UuidRepresentation): Codec<T> =
+        if (codec is OverridableUuidRepresentationCodec<*>) {
+            @Suppress("UNCHECKED_CAST")
+            CodecMetrics.metered((codec as OverridableUuidRepresentationCodec<T>).withUuidRepresentation(uuidRepresentation))
+        } else {
+            this
+        }
+}
+
+private class MeteredCollectibleCodec<T>(
+    private val codec: CollectibleCodec<T>,
+    encodeStats: CodecStats,
+    decodeStats: CodecStats
+) : MeteredCodec<T>(codec, encodeStats, decodeStats), CollectibleCodec<T> {
+
+    override fun generateIdIfAbsentFromDocument(document: T): T = codec.generateIdIfAbsentFromDocument(document)
+
+    override fun documentHasId(document: T): Boolean = codec.documentHasId(document)
+
+    override fun getDocumentId(document: T): BsonValue = codec.getDocumentId(document)
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.util
+
+import com.mongodb.ReadConcern
+import com.mongodb.ReadPreference
+import com.mongodb.WriteConcern
+import org.bson.codecs.configuration.CodecRegistry
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Cache of typed collection handles, by database, collection name and document class.
+ *
+ * A database is identified by its name, its codec registry instance and its read & write settings,
+ * as `getDatabase` returns a new instance on each call:
+ * a database derived with `withReadPreference`, `withWriteConcern`, ... has its own handles.
+ * Clients created with KMongo have their own codec registry, so their handles are never shared.
+ *
+ * @param maxSize the maximum number of cached handles - when reached, the cache is cleared
+ * @param C the collection handle type
+ */
+class CollectionHandleCache<C : Any>(private val maxSize: Int = DEFAULT_MAX_SIZE) {
+
+    companion object {
+        /**
+         * Default maximum number of cached handles.
+         */
+        const val DEFAULT_MAX_SIZE: Int = 1024
+    }
+
+    init {
+        require(maxSize > 0) { "maxSize must be positive" }
+    }
+
+    private class HandleKey(
+        val codecRegistry: CodecRegistry,
+        val databaseName: String,
+        val readPreference: ReadPreference,
+        val writeConcern: WriteConcern,
+        val readConcern: ReadConcern,
+        val timeoutMillis: Long?,
+        val collectionName: String,
+        val documentClass: Class<*>
+    ) {
+        //the codec registry is compared by identity, as registries built from the same providers are equal
+        override fun equals(other: Any?): Boolean =
+            other is HandleKey
+                    && codecRegistry === other.codecRegistry
+                    && databaseName == other.databaseName
+                    && readPreference == other.readPreference
+                    && writeConcern == other.writeConcern
+                    && readConcern == other.readConcern
+                    && timeoutMillis == other.timeoutMillis
+                    && collectionName == other.collectionName
+                    && documentClass == other.documentClass
+
+        override fun hashCode(): Int =
+            ((System.identityHashCode(codecRegistry) * 31 + databaseName.hashCode()) * 31
+                    + collectionName.hashCode()) * 31 + documentClass.hashCode()
+    }
+
+    private val handles = ConcurrentHashMap<HandleKey, C>()
+
+    /**
+     * Returns the cached handle, or creates it with [factory].
+     *
+     * @param codecRegistry the codec registry of the database
+     * @param databaseName the name of the database
+     * @param readPreference the read preference of the database
+     * @param writeConcern the write concern of the database
+     * @param readConcern the read concern of the database
+     * @param timeoutMillis the timeout of the database, if any
+     * @param collectionName the name of the collection
+     * @param documentClass the document class of the collection
+     * @param factory creates the handle
+     */
+    fun getOrPut(
+        codecRegistry: CodecRegistry,
+        databaseName: String,
+        readPreference: ReadPreference,
+        writeConcern: WriteConcern,
+        readConcern: ReadConcern,
+        timeoutMillis: Long?,
+        collectionName: String,
+        documentClass: Class<*>,
+        factory: () -> C
+    ): C {
+        val key = HandleKey(
+            codecRegistry,
+            databaseName,
+            readPreference,
+            writeConcern,
+            readConcern,
+            timeoutMillis,
+            collectionName,
+            documentClass
+        )
+        return handles[key] ?: factory().let { handle ->
+            if (handles.size >= maxSize) {
+                handles.clear()
+            }
+            handles.putIfAbsent(key, handle) ?: handle
+        }
+    }
+
+    /**
+     * Removes all the cached handles.
+     */
+    fun clear() = handles.clear()
+}
@@ -16,6 +16,7 @@
 
 package org.litote.kmongo.util
 
+import java.util.concurrent.ConcurrentHashMap
 import kotlin.reflect.KClass
 
 /**
@@ -24,15 +25,33 @@ import kotlin.reflect.KClass
  */
 object CollectionNameFormatter {
 
+    //a builder and its memoized collection names, swapped together
+    private class NameBuilder(val builder: (KClass<*>) -> String) {
+        val collectionNames = ConcurrentHashMap<KClass<*>, String>()
+    }
+
+    @Volatile
+    private var nameBuilder = NameBuilder { it.simpleName!! }
+
     /**
      * To change the default collection name strategy - default is camel case.
      */
-    lateinit var defaultCollectionNameBuilder: (KClass<*>) -> String
+    var defaultCollectionNameBuilder: (KClass<*>) -> String
+        get() = nameBuilder.builder
+        set(value) {
+            nameBuilder = NameBuilder(value)
+        }
 
     init {
         useCamelCaseCollectionNameBuilder()
     }
 
+    /**
+     * Returns the default collection name of the class, computed once by class with [defaultCollectionNameBuilder].
+     */
+    fun defaultCollectionName(clazz: KClass<*>): String =
+        nameBuilder.let { current -> current.collectionNames.getOrPut(clazz) { current.builder.invoke(clazz) } }
+
     /**
      * Use Camel Case default collection name builder.
      *
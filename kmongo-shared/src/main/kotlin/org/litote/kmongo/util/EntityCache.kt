@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.util
+
+import com.mongodb.client.model.changestream.OperationType
+import org.bson.BsonDocument
+import org.bson.BsonValue
+import org.bson.codecs.configuration.CodecRegistry
+import org.bson.conversions.Bson
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Options of the entity caches.
+ *
+ * @param maximumSize the maximum number of cached documents - the least recently used document is evicted first
+ * @param ttlMillis the time to live of a cached document
+ * @param storeRawDocuments if true, the documents are cached as [org.bson.RawBsonDocument] and decoded on each hit,
+ * so the returned objects can be modified; else the decoded objects are cached and shared
+ * @param watch if true, the cache is invalidated by a change stream on the collection - documents are cached only
+ * while the change stream is open, so nothing is cached by a deployment without change streams (standalone server)
+ * @param watchRetryMillis the delay before the change stream is reopened after an error
+ * @param cacheMissingDocuments if true, a missing document is cached too (negative caching) -
+ * its insert invalidates it like any other change
+ */
+class EntityCacheOptions(
+    val maximumSize: Int = 10_000,
+    val ttlMillis: Long = 60_000,
+    val storeRawDocuments: Boolean = false,
+    val watch: Boolean = true,
+    val watchRetryMillis: Long = 1000,
+    val cacheMissingDocuments: Boolean = false
+) {
+    init {
+        require(maximumSize > 0) { "maximumSize must be positive" }
+        require(ttlMillis > 0) { "ttlMillis must be positive" }
+        require(watchRetryMillis >= 0) { "watchRetryMillis must be positive or zero" }
+    }
+}
+
+/**
+ * Counters of an [EntityCache].
+ */
+class EntityCacheMetrics {
+
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+    private val evictions = AtomicLong()
+    private val invalidations = AtomicLong()
+
+    /**
+     * The number of cache hits.
+     */
+    val hitCount: Long get() = hits.get()
+
+    /**
+     * The number of cache misses.
+     */
+    val missCount: Long get() = misses.get()
+
+    /**
+     * The number of documents evicted by size or expiration.
+     */
+    val evictionCount: Long get() = evictions.get()
+
+    /**
+     * The number of invalidations - an invalidation of all the documents counts for one.
+     */
+    val invalidationCount: Long get() = invalidations.get()
+
+    internal fun hit() {
+        hits.incrementAndGet()
+    }
+
+    internal fun miss() {
+        misses.incrementAndGet()
+    }
+
+    internal fun eviction() {
+        evictions.incrementAndGet()
+    }
+
+    internal fun invalidation() {
+        invalidations.incrementAndGet()
+    }
+
+    override fun toString(): String =
+        "EntityCacheMetrics(hitCount=$hitCount, missCount=$missCount, evictionCount=$evictionCount, invalidationCount=$invalidationCount)"
+}
+
+/**
+ * A bounded LRU cache of documents by id, with a time to live.
+ * Missing documents are cached only if [EntityCacheOptions.cacheMissingDocuments] is true.
+ *
+ * A document loaded while its id (or the whole cache) is invalidated is not cached, so a stale document
+ * can not be cached after the invalidation of its change. The invalidations of the other ids have no effect.
+ *
+ * A [pause]d cache does not cache the documents it loads - to be used while the invalidations can be missed.
+ *
+ * @param options the cache options
+ * @param clock the time source, in milliseconds
+ */
+class EntityCache<V : Any>(
+    private val options: EntityCacheOptions = EntityCacheOptions(),
+    private val clock: () -> Long = System::currentTimeMillis
+) {
+
+    private class Entry<V>(val value: V?, val expiresAt: Long)
+
+    /**
+     * Marks a document that is not cached.
+     */
+    @PublishedApi
+    internal object NotCached
+
+    /**
+     * The counters of the cache.
+     */
+    val metrics: EntityCacheMetrics = EntityCacheMetrics()
+
+    private val entries = object : LinkedHashMap<BsonValue, Entry<V>>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<BsonValue, Entry<V>>): Boolean =
+            (size > options.maximumSize).also { if (it) metrics.eviction() }
+    }
+
+    //the token of the load in progress of each id - removed by the invalidations
+    private val loads = HashMap<BsonValue, Any>()
+    private var paused = false
+
+    /**
+     * The number of cached documents.
+     */
+    val size: Int get() = synchronized(entries) { entries.size }
+
+    /**
+     * Returns the cached document, null if it is not cached (or cached as missing).
+     */
+    @Suppress("UNCHECKED_CAST")
+    fun get(id: BsonValue): V? = cached(id).let { if (it === NotCached) null else it as V? }
+
+    /**
+     * Returns the cached document (null if cached as missing), or [NotCached].
+     */
+    @PublishedApi
+    internal fun cached(id: BsonValue): Any? =
+        synchronized(entries) {
+            val entry = entries[id]
+            when {
+                entry == null -> NotCached
+                entry.expiresAt <= clock() -> {
+                    entries.remove(id)
+                    metrics.eviction()
+                    NotCached
+                }
+
+                else -> entry.value
+            }
+        }.also { if (it === NotCached) metrics.miss() else metrics.hit() }
+
+    /**
+     * Returns the cached document, or loads and caches it.
+     */
+    inline fun getOrLoad(id: BsonValue, load: () -> V?): V? {
+        val cached = cached(id)
+        if (cached !== NotCached) {
+            @Suppress("UNCHECKED_CAST")
+            return cached as V?
+        }
+        val token = startLoad(id)
+        val value = try {
+            load()
+        } catch (e: Throwable) {
+            endLoad(id, token, null, false)
+            throw e
+        }
+        endLoad(id, token, value, true)
+        return value
+    }
+
+    /**
+     * Registers a load of the id, and returns its token - null if the cache is paused.
+     */
+    @PublishedApi
+    internal fun startLoad(id: BsonValue): Any? =
+        synchronized(entries) {
+            if (paused) null else Any().also { loads[id] = it }
+        }
+
+    /**
+     * Caches the loaded document if the load was not invalidated.
+     */
+    @PublishedApi
+    internal fun endLoad(id: BsonValue, token: Any?, value: V?, store: Boolean) {
+        synchronized(entries) {
+            if (token != null && loads[id] === token) {
+                loads.remove(id)
+                if (store && (value != null || options.cacheMissingDocuments)) {
+                    entries[id] = Entry(value, clock() + options.ttlMillis)
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the document from the cache.
+     */
+    fun invalidate(id: BsonValue) {
+        synchronized(entries) {
+            entries.remove(id)
+            loads.remove(id)
+        }
+        metrics.invalidation()
+    }
+
+    /**
+     * Removes all the documents from the cache.
+     */
+    fun invalidateAll() {
+        synchronized(entries) {
+            entries.clear()
+            loads.clear()
+        }
+        metrics.invalidation()
+    }
+
+    /**
+     * Removes all the documents from the cache, and stops caching the loaded documents until [resume].
+     */
+    fun pause() {
+        synchronized(entries) {
+            paused = true
+            entries.clear()
+            loads.clear()
+        }
+        metrics.invalidation()
+    }
+
+    /**
+     * Caches the documents loaded from now on.
+     */
+    fun resume() {
+        synchronized(entries) {
+            paused = false
+        }
+    }
+
+    /**
+     * Invalidates the cache according to a change stream event.
+     *
+     * @param operationType the type of the change - null (unknown type) invalidates the whole cache
+     * @param documentKey the key of the changed document, if any
+     */
+    fun onChange(operationType: OperationType?, documentKey: BsonDocument?) {
+        when (operationType) {
+            OperationType.INSERT, OperationType.UPDATE, OperationType.REPLACE, OperationType.DELETE ->
+                documentKey?.get(ID)?.let { invalidate(it) } ?: invalidateAll()
+
+            OperationType.OTHER -> Unit
+            null -> invalidateAll()
+            else -> invalidateAll()
+        }
+    }
+
+    companion object {
+
+        private const val ID = "_id"
+
+        /**
+         * Returns the id of a `{_id: value}` or `{_id: {$eq: value}}` filter, null for another filter.
+         */
+        fun idOf(filter: Bson, codecRegistry: CodecRegistry): BsonValue? {
+            val document = filter.toBsonDocument(BsonDocument::class.java, codecRegistry)
+            val value = document.takeIf { it.size == 1 }?.get(ID) ?: return null
+            return when {
+                value !is BsonDocument -> value
+                value.size == 1 && value.containsKey("\$eq") -> value["\$eq"]
+                value.keys.any { it.startsWith("$") } -> null
+                else -> value
+            }
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.util
+
+import com.mongodb.MongoNamespace
+import com.mongodb.client.model.IndexModel
+import com.mongodb.client.model.IndexOptions
+import org.bson.BsonBoolean
+import org.bson.BsonDocument
+import org.bson.BsonDouble
+import org.bson.BsonInt32
+import org.bson.BsonInt64
+import org.bson.BsonNumber
+import org.bson.BsonString
+import org.bson.BsonValue
+import org.bson.codecs.configuration.CodecRegistry
+import org.bson.conversions.Bson
+import java.util.concurrent.TimeUnit
+
+/**
+ * The result of an index reconciliation of a collection.
+ *
+ * @param namespace the collection namespace
+ * @param created the names of the created (or recreated) indexes
+ * @param dropped the names of the dropped indexes - changed indexes are dropped then created
+ * @param unchanged the names of the desired indexes that already exist with the same options
+ * @param extra the names of the existing indexes that are not desired (and not dropped)
+ */
+class IndexReconciliationReport(
+    val namespace: MongoNamespace,
+    val created: List<String>,
+    val dropped: List<String>,
+    val unchanged: List<String>,
+    val extra: List<String>
+) {
+
+    /**
+     * true if at least one index has been created or dropped.
+     */
+    val changed: Boolean get() = created.isNotEmpty() || dropped.isNotEmpty()
+
+    override fun toString(): String =
+        "IndexReconciliationReport(namespace=$namespace, created=$created, dropped=$dropped, unchanged=$unchanged, extra=$extra)"
+}
+
+/**
+ * The difference between the existing indexes of a collection and the desired ones.
+ *
+ * @param toCreate the indexes to create
+ * @param toDrop the names of the indexes to drop before creation
+ * @param unchanged the names of the desired indexes that already exist
+ * @param extra the names of the existing indexes that are not desired and not dropped
+ */
+class IndexDiff(
+    val toCreate: List<IndexModel>,
+    val toDrop: List<String>,
+    val unchanged: List<String>,
+    val extra: List<String>
+)
+
+/**
+ * Computes index differences from a `listIndexes` result.
+ */
+object IndexReconciliation {
+
+    private const val ID_INDEX = "_id_"
+    private const val TEXT = "text"
+
+    //options that change the index semantic when they are set on an existing index but not on the desired one
+    private val semanticOptions = listOf("unique", "sparse", "expireAfterSeconds", "partialFilterExpression", "collation", "hidden")
+
+    /**
+     * Diffs the existing indexes (as returned by `listIndexes`) against the desired ones.
+     *
+     * An existing index with the same keys but different options, or with the same name but different keys,
+     * is dropped then created.
+     *
+     * @param existing the existing indexes
+     * @param desired the desired indexes
+     * @param codecRegistry the registry used to convert the keys and options to bson
+     * @param dropExtraIndexes if true, existing indexes that are not desired are dropped (except the _id index)
+     */
+    fun diff(
+        existing: List<BsonDocument>,
+        desired: List<IndexModel>,
+        codecRegistry: CodecRegistry,
+        dropExtraIndexes: Boolean = false
+    ): IndexDiff {
+        val toCreate = mutableListOf<IndexModel>()
+        val toDrop = mutableListOf<String>()
+        val unchanged = mutableListOf<String>()
+        val matched = mutableSetOf<String>()
+        for (index in desired) {
+            val keys = normalizeKeys(index.keys.toBsonDocument(BsonDocument::class.java, codecRegistry))
+            val options = optionsToBson(index.options, codecRegistry)
+            val name = index.options.name
+            val sameKeys = existing.firstOrNull { sameKeys(it.getDocument("key", BsonDocument()), keys) }
+            val sameName = name?.let { n -> existing.firstOrNull { n == it.name() } }
+            when {
+                sameKeys != null && (name == null || name == sameKeys.name()) && sameOptions(sameKeys, options, index.keys, codecRegistry) -> {
+                    unchanged.add(sameKeys.name())
+                    matched.add(sameKeys.name())
+                }
+
+                else -> {
+                    listOfNotNull(sameKeys, sameName).map { it.name() }.distinct().forEach {
+                        toDrop.add(it)
+                        matched.add(it)
+                    }
+                    toCreate.add(index)
+                }
+            }
+        }
+        val extra = existing.map { it.name() }.filter { it != ID_INDEX && it !in matched }
+        return if (dropExtraIndexes) {
+            IndexDiff(toCreate, toDrop + extra, unchanged, emptyList())
+        } else {
+            IndexDiff(toCreate, toDrop, unchanged, extra)
+        }
+    }
+
+    private fun BsonDocument.name(): String = getString("name").value
+
+    //the key order matters, and the directions may be stored as double or long ({a: 1.0})
+    private fun sameKeys(existing: BsonDocument, desired: BsonDocument): Boolean =
+        existing.keys.toList() == desired.keys.toList() && desired.all { (key, value) -> sameValue(existing[key], value) }
+
+    /**
+     * Text indexes are stored with the `_fts` & `_ftsx` keys.
+     */
+    private fun normalizeKeys(keys: BsonDocument): BsonDocument =
+        if (keys.values.none { it == BsonString(TEXT) }) {
+            keys
+        } else {
+            BsonDocument().also { normalized ->
+                keys.forEach { (key, value) ->
+                    if (value == BsonString(TEXT)) {
+                        if (!normalized.containsKey("_fts")) {
+                            normalized["_fts"] = BsonString(TEXT)
+                            normalized["_ftsx"] = BsonInt32(1)
+                        }
+                    } else {
+                        normalized[key] = value
+                    }
+                }
+            }
+        }
+
+    private fun sameOptions(existing: BsonDocument, desired: BsonDocument, keys: Bson, codecRegistry: CodecRegistry): Boolean {
+        val desiredWithWeights =
+            if (desired.containsKey("weights")) {
+                desired
+            } else {
+                //default weights of text indexes
+                val textFields = keys.toBsonDocument(BsonDocument::class.java, codecRegistry)
+                    .filter { it.value == BsonString(TEXT) }
+                    .keys
+                if (textFields.isEmpty()) desired
+                else desired.clone().append("weights", BsonDocument().apply { textFields.forEach { put(it, BsonInt32(1)) } })
+            }
+        //the server adds default values to the collation
+        return desiredWithWeights.all { (key, value) -> sameValue(existing[key], value, key == "collation") }
+                && semanticOptions.none { existing.isSet(it) && !desired.isSet(it) }
+    }
+
+    private fun BsonDocument.isSet(key: String): Boolean =
+        get(key).let { it != null && it != BsonBoolean.FALSE }
+
+    private fun sameValue(existing: BsonValue?, desired: BsonValue, subset: Boolean = false): Boolean =
+        when {
+            existing == null -> false
+            existing is BsonNumber && desired is BsonNumber -> existing.doubleValue() == desired.doubleValue()
+            existing is BsonDocument && desired is BsonDocument ->
+                (subset || existing.keys == desired.keys) && desired.all { (k, v) -> sameValue(existing[k], v, subset) }
+
+            else -> existing == desired
+        }
+
+    /**
+     * Converts the options to their `listIndexes` representation.
+     */
+    fun optionsToBson(options: IndexOptions, codecRegistry: CodecRegistry): BsonDocument =
+        BsonDocument().apply {
+            fun Bson?.set(key: String) {
+                if (this != null) put(key, toBsonDocument(BsonDocument::class.java, codecRegistry))
+            }
+            if (options.isUnique) put("unique", BsonBoolean.TRUE)
+            if (options.isSparse) put("sparse", BsonBoolean.TRUE)
+            if (options.isHidden) put("hidden", BsonBoolean.TRUE)
+            options.getExpireAfter(TimeUnit.SECONDS)?.let { put("expireAfterSeconds", BsonInt64(it)) }
+            options.weights.set("weights")
+            options.defaultLanguage?.let { put("default_language", BsonString(it)) }
+            options.languageOverride?.let { put("language_override", BsonString(it)) }
+            options.textVersion?.let { put("textIndexVersion", BsonInt32(it)) }
+            options.sphereVersion?.let { put("2dsphereIndexVersion", BsonInt32(it)) }
+            options.bits?.let { put("bits", BsonInt32(it)) }
+            options.min?.let { put("min", BsonDouble(it)) }
+            options.max?.let { put("max", BsonDouble(it)) }
+            options.partialFilterExpression.set("partialFilterExpression")
+            options.wildcardProjection.set("wildcardProjection")
+            options.collation?.let { put("collation", it.asDocument()) }
+        }
+}
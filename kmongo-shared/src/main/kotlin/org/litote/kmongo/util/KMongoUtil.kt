@@ -19,12 +19,22 @@ package org.litote.kmongo.util
 import com.mongodb.DBObjectCodecProvider
 import com.mongodb.DBRefCodecProvider
 import com.mongodb.DocumentToDBRefTransformer
+import com.mongodb.MongoChangeStreamException
+import com.mongodb.MongoCursorNotFoundException
+import com.mongodb.MongoException
+import com.mongodb.MongoInterruptedException
+import com.mongodb.MongoNodeIsRecoveringException
+import com.mongodb.MongoNotPrimaryException
+import com.mongodb.MongoSocketException
 import com.mongodb.client.gridfs.codecs.GridFSFileCodecProvider
+import com.mongodb.client.model.Aggregates
 import com.mongodb.client.model.BsonField
 import com.mongodb.client.model.DeleteManyModel
 import com.mongodb.client.model.DeleteOneModel
+import com.mongodb.client.model.Facet
 import com.mongodb.client.model.Filters
 import com.mongodb.client.model.InsertOneModel
+import com.mongodb.client.model.Projections
 import com.mongodb.client.model.ReplaceOneModel
 import com.mongodb.client.model.ReplaceOptions
 import com.mongodb.client.model.UpdateManyModel
@@ -32,6 +42,7 @@ import com.mongodb.client.model.UpdateOneModel
 import com.mongodb.client.model.UpdateOptions
 import com.mongodb.client.model.WriteModel
 import com.mongodb.client.model.geojson.codecs.GeoJsonCodecProvider
+import org.bson.BsonBinarySubType
 import org.bson.BsonBoolean
 import org.bson.BsonDocument
 import org.bson.BsonDocumentWriter
@@ -40,8 +51,11 @@ import org.bson.BsonInt32
 import org.bson.BsonInt64
 import org.bson.BsonObjectId
 import org.bson.BsonString
+import org.bson.BsonTimestamp
+import org.bson.BsonType
 import org.bson.BsonValue
 import org.bson.Document
+import org.bson.RawBsonDocument
 import org.bson.codecs.BsonArrayCodec
 import org.bson.codecs.BsonCodecProvider
 import org.bson.codecs.BsonValueCodecProvider
@@ -94,6 +108,8 @@ object KMongoUtil {
 
     const val EMPTY_JSON: String = "{}"
 
+    private const val RESUMABLE_CHANGE_STREAM_ERROR = "ResumableChangeStreamError"
+
     private val SPACE_REPLACE_PATTERN = Pattern.compile("\\\$\\s+")
     private val QUOTE_REPLACE_MATCHER = Matcher.quoteReplacement("\$")
     private val UPDATE_OPERATORS =
@@ -201,6 +217,94 @@ object KMongoUtil {
 
     fun idFilterQuery(id: Any): Bson = Filters.eq("_id", id)
 
+    /**
+     * Returns true if a change stream can be resumed with its last resume token after the [error],
+     * following the rule of the driver: network errors, not primary or recovering node errors,
+     * and server errors with the `ResumableChangeStreamError` label.
+     */
+    fun isResumableChangeStreamError(error: Throwable): Boolean =
+        when (error) {
+            is MongoInterruptedException, is MongoChangeStreamException -> false
+            is MongoSocketException, is MongoNotPrimaryException, is MongoNodeIsRecoveringException,
+            is MongoCursorNotFoundException -> true
+            is MongoException -> error.hasErrorLabel(RESUMABLE_CHANGE_STREAM_ERROR)
+            else -> false
+        }
+
+    /**
+     * An aggregation pipeline returning one `{clusterTime: <timestamp>}` document, even for an empty collection.
+     * A change stream started at this operation time sees all the writes done after the aggregation.
+     */
+    val clusterTimePipeline: List<Bson> = listOf(
+        Aggregates.limit(1),
+        //$facet outputs one document, even without input
+        Aggregates.facet(Facet("first", Aggregates.limit(1))),
+        Aggregates.project(Projections.fields(Projections.excludeId(), Projections.computed("clusterTime", "\$\$CLUSTER_TIME")))
+    )
+
+    /**
+     * Returns the cluster time of a [clusterTimePipeline] result, or the operation time of a command reply.
+     */
+    fun operationTime(document: BsonDocument): BsonTimestamp? =
+        (document["clusterTime"] ?: document["operationTime"]) as? BsonTimestamp
+
+    /**
+     * Returns the size of the BSON encoding of the document, computed without encoding it.
+     */
+    fun bsonSize(document: BsonDocument): Int =
+        if (document is RawBsonDocument) {
+            document.byteBuffer.remaining()
+        } else {
+            document.entries.fold(5) { size, (name, value) -> size + 1 + cStringSize(name) + bsonSize(value) }
+        }
+
+    private fun bsonSize(value: BsonValue): Int =
+        when (value.bsonType) {
+            BsonType.DOUBLE, BsonType.DATE_TIME, BsonType.TIMESTAMP, BsonType.INT64 -> 8
+            BsonType.INT32 -> 4
+            BsonType.BOOLEAN -> 1
+            BsonType.OBJECT_ID -> 12
+            BsonType.DECIMAL128 -> 16
+            BsonType.STRING -> stringSize(value.asString().value)
+            BsonType.SYMBOL -> stringSize(value.asSymbol().symbol)
+            BsonType.JAVASCRIPT -> stringSize(value.asJavaScript().code)
+            BsonType.JAVASCRIPT_WITH_SCOPE ->
+                value.asJavaScriptWithScope().let { 4 + stringSize(it.code) + bsonSize(it.scope) }
+            BsonType.DOCUMENT -> bsonSize(value.asDocument())
+            BsonType.ARRAY ->
+                value.asArray().foldIndexed(5) { index, size, element ->
+                    size + 1 + cStringSize(index.toString()) + bsonSize(element)
+                }
+            //the old binary subtype repeats the data size
+            BsonType.BINARY ->
+                value.asBinary().let { 5 + it.data.size + if (it.type == BsonBinarySubType.OLD_BINARY.value) 4 else 0 }
+            BsonType.REGULAR_EXPRESSION -> value.asRegularExpression().let { cStringSize(it.pattern) + cStringSize(it.options) }
+            BsonType.DB_POINTER -> stringSize(value.asDBPointer().namespace) + 12
+            //null, undefined, min key & max key
+            else -> 0
+        }
+
+    private fun stringSize(value: String): Int = 4 + cStringSize(value)
+
+    private fun cStringSize(value: String): Int {
+        var size = 1
+        var i = 0
+        while (i < value.length) {
+            val c = value[i]
+            size += when {
+                c.code < 0x80 -> 1
+                c.code < 0x800 -> 2
+                Character.isHighSurrogate(c) && i + 1 < value.length && Character.isLowSurrogate(value[i + 1]) -> {
+                    i++
+                    4
+                }
+                else -> 3
+            }
+            i++
+        }
+        return size
+    }
+
     private fun containsUpdateOperator(map: Map<*, *>): Boolean = UPDATE_OPERATORS.any { map.contains(it) }
 
     fun toBsonModifier(obj: Any, updateOnlyNotNullProperties: Boolean = false): Bson =
@@ -285,7 +389,7 @@ object KMongoUtil {
     }
 
     fun defaultCollectionName(clazz: KClass<*>): String =
-        CollectionNameFormatter.defaultCollectionNameBuilder.invoke(clazz)
+        CollectionNameFormatter.defaultCollectionName(clazz)
 
     fun getIdValue(value: Any): Any? {
         //check map
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.util
+
+import com.mongodb.client.model.Filters
+import org.bson.BsonArray
+import org.bson.BsonDocument
+import org.bson.BsonInt32
+import org.bson.BsonNull
+import org.bson.BsonString
+import org.bson.BsonValue
+import org.bson.RawBsonDocument
+import org.bson.codecs.BsonDocumentCodec
+import org.bson.conversions.Bson
+import java.util.Base64
+
+/**
+ * A page of a keyset pagination.
+ *
+ * @param items the documents of the page
+ * @param nextToken the opaque token of the next page, null if this is the last page
+ */
+class KeysetPage<T>(val items: List<T>, val nextToken: String?) {
+
+    /**
+     * true if there is a next page.
+     */
+    val hasNext: Boolean get() = nextToken != null
+
+    override fun toString(): String = "KeysetPage(items=$items, nextToken=$nextToken)"
+}
+
+/**
+ * Utility methods used by the keyset (seek) pagination implementations.
+ *
+ * Instead of skipping the documents of the previous pages, the next page is queried with a filter
+ * on the sort values of the last document: `{$or: [{a: {$gt: va}}, {a: va, b: {$gt: vb}}]}`.
+ * The sort keys must not be null, and the last one must be unique (usually `_id`).
+ */
+object KeysetPagination {
+
+    private const val PATHS = "p"
+    private const val VALUES = "v"
+    private val bsonDocumentCodec = BsonDocumentCodec()
+
+    /**
+     * The sort of the pages.
+     */
+    fun sort(paths: List<String>, descending: Boolean = false): Bson =
+        BsonDocument().apply { paths.forEach { put(it, BsonInt32(if (descending) -1 else 1)) } }
+
+    /**
+     * The filter of the page with the given [token] - the [filter] itself for the first page.
+     */
+    fun filter(filter: Bson, paths: List<String>, token: String?, descending: Boolean = false): Bson {
+        if (token == null) {
+            return filter
+        }
+        val continuation = continuationFilter(paths, decodeToken(token, paths), descending)
+        return if (filter is BsonDocument && filter.isEmpty()) continuation
+        else Filters.and(filter, continuation)
+    }
+
+    /**
+     * The filter of the documents after the sort [values].
+     */
+    fun continuationFilter(paths: List<String>, values: List<BsonValue>, descending: Boolean = false): BsonDocument {
+        require(paths.isNotEmpty()) { "at least one sort property is required" }
+        require(paths.size == values.size) { "sort values do not match the sort properties" }
+        val operator = if (descending) "\$lt" else "\$gt"
+        val clauses = paths.indices.map { i ->
+            BsonDocument().apply {
+                (0 until i).forEach { put(paths[it], values[it]) }
+                put(paths[i], BsonDocument(operator, values[i]))
+            }
+        }
+        return clauses.singleOrNull() ?: BsonDocument("\$or", BsonArray(clauses))
+    }
+
+    /**
+     * Extracts the values of the (dotted) [paths] from the [document] - a missing value is null.
+     */
+    fun values(document: BsonDocument, paths: List<String>): List<BsonValue> =
+        paths.map { path ->
+            path.split('.').fold<String, BsonValue?>(document) { value, key ->
+                (value as? BsonDocument)?.get(key)
+            } ?: BsonNull.VALUE
+        }
+
+    /**
+     * Creates the page from the query results: [results] are the first `pageSize + 1` documents.
+     *
+     * @param toBsonDocument converts a result to bson, in order to extract its sort values
+     */
+    fun <T> page(results: List<T>, pageSize: Int, paths: List<String>, toBsonDocument: (T) -> BsonDocument): KeysetPage<T> =
+        if (results.size <= pageSize) {
+            KeysetPage(results, null)
+        } else {
+            val items = results.subList(0, pageSize)
+            KeysetPage(items, encodeToken(paths, values(toBsonDocument(items.last()), paths)))
+        }
+
+    /**
+     * Encodes the sort values in an opaque (url safe) token.
+     */
+    fun encodeToken(paths: List<String>, values: List<BsonValue>): String {
+        val document = BsonDocument(PATHS, BsonArray(paths.map { BsonString(it) })).append(VALUES, BsonArray(values))
+        val buffer = RawBsonDocument(document, bsonDocumentCodec).byteBuffer.asNIO()
+        val bytes = ByteArray(buffer.remaining()).also { buffer.get(it) }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes)
+    }
+
+    /**
+     * Decodes the sort values of a token created by [encodeToken].
+     */
+    fun decodeToken(token: String, paths: List<String>): List<BsonValue> {
+        val document = try {
+            RawBsonDocument(Base64.getUrlDecoder().decode(token)).also { it.size }
+        } catch (e: Exception) {
+            throw IllegalArgumentException("invalid pagination token", e)
+        }
+        require(document.getArray(PATHS, BsonArray()).map { it.asString().value } == paths) {
+            "the pagination token does not match the sort properties $paths"
+        }
+        return document.getArray(VALUES).values.toList()
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.litote.kmongo.util
+
+import com.mongodb.MongoNamespace
+import org.bson.BsonDocument
+import org.bson.codecs.configuration.CodecRegistry
+import org.bson.conversions.Bson
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * A single document lookup repeated with the same filter shape in a [NPlusOneScope] -
+ * usually a `findOneById` or a `findOne` called for each element of a loop.
+ *
+ * @param operation the KMongo operation
+ * @param namespace the namespace of the collection
+ * @param filterShape the filter, with its values replaced by `"?"`
+ * @param count the number of lookups
+ * @param callSite the first caller stack frame outside KMongo of the lookup reaching the threshold
+ */
+data class NPlusOneDetection(
+    val operation: String,
+    val namespace: String,
+    val filterShape: String,
+    val count: Int,
+    val callSite: StackTraceElement?
+) {
+    override fun toString(): String =
+        "kmongo N+1 query: $count $operation $namespace filter=$filterShape at $callSite"
+}
+
+/**
+ * A logical unit of work (a request, a job, a test) in which the single document lookups are counted by filter shape.
+ *
+ * A scope is entered by a thread with [enter], or by a coroutine with the `withNPlusOneScope` function
+ * of kmongo-coroutine-core. This class is thread safe.
+ *
+ * @param threshold the number of lookups with the same filter shape reported as a N+1 query
+ */
+class NPlusOneScope(val threshold: Int = NPlusOneDetector.threshold) {
+
+    private class Lookups {
+        val count = AtomicInteger()
+
+        @Volatile
+        var callSite: StackTraceElement? = null
+    }
+
+    private data class Key(val operation: String, val namespace: String, val filterShape: String)
+
+    private val lookups = ConcurrentHashMap<Key, Lookups>()
+
+    init {
+        require(threshold > 1) { "threshold must be greater than 1" }
+    }
+
+    /**
+     * The lookups repeated at least [threshold] times, with their final count.
+     */
+    val detections: List<NPlusOneDetection>
+        get() = lookups.entries
+            .filter { it.value.count.get() >= threshold }
+            .map { (key, value) ->
+                NPlusOneDetection(key.operation, key.namespace, key.filterShape, value.count.get(), value.callSite)
+            }
+
+    /**
+     * Runs the block in this scope - the lookups of the current thread are counted in this scope.
+     */
+    inline fun <T> enter(block: () -> T): T {
+        val previous = NPlusOneDetector.current.get()
+        NPlusOneDetector.current.set(this)
+        try {
+            return block()
+        } finally {
+            NPlusOneDetector.current.set(previous)
+        }
+    }
+
+    internal fun record(operation: String, namespace: String, filterShape: String) {
+        val entry = lookups.getOrPut(Key(operation, namespace, filterShape)) { Lookups() }
+        if (entry.count.incrementAndGet() == threshold) {
+            entry.callSite = OperationTracer.callSite(Throwable())
+            NPlusOneDetector.listener(NPlusOneDetection(operation, namespace, filterShape, threshold, entry.callSite))
+        }
+    }
+}
+
+/**
+ * Detects the N+1 queries - the single document lookups repeated with the same filter shape
+ * in a [NPlusOneScope] - a development and test tool.
+ *
+ * The lookups are only counted in a scope, so the detection costs a thread local read outside of a scope.
+ * The default threshold is set by the `org.litote.kmongo.nPlusOneThreshold` system property (10 by default).
+ */
+object NPlusOneDetector {
+
+    /**
+     * The default threshold of the new scopes.
+     */
+    @Volatile
+    var threshold: Int = System.getProperty("org.litote.kmongo.nPlusOneThreshold")?.toInt() ?: 10
+
+    /**
+     * Called when a lookup reaches the threshold of its scope - prints the detection to the standard error by default.
+     */
+    @Volatile
+    var listener: (NPlusOneDetection) -> Unit = { System.err.println(it) }
+
+    /**
+     * The scope of the current thread. Coroutines should propagate it with `asContextElement`.
+     */
+    val current: ThreadLocal<NPlusOneScope?> = ThreadLocal()
+
+    /**
+     * Counts a single document lookup in the current scope, if any.
+     *
+     * @param operation the lookup operation
+     * @param namespace the namespace of the collection
+     * @param filter the lookup filter
+     * @param codecRegistry the registry used to render the filter
+     */
+    fun record(operation: String, namespace: MongoNamespace, filter: Bson, codecRegistry: CodecRegistry) {
+        val scope = current.get() ?: return
+        val shape = OperationTracer.filterShape(filter.toBsonDocument(BsonDocument::class.java, codecRegistry))
+        scope.record(operation, namespace.fullName, shape.toJson())
+    }
+}
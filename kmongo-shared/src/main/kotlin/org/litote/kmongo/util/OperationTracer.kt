@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.litote.kmongo.util
+
+import com.mongodb.MongoNamespace
+import com.mongodb.RequestContext
+import com.mongodb.event.CommandEvent
+import com.mongodb.event.CommandFailedEvent
+import com.mongodb.event.CommandListener
+import com.mongodb.event.CommandSucceededEvent
+import org.bson.BsonArray
+import org.bson.BsonBinaryReader
+import org.bson.BsonDocument
+import org.bson.BsonString
+import org.bson.BsonValue
+import org.bson.RawBsonDocument
+import org.bson.codecs.configuration.CodecRegistry
+import org.bson.conversions.Bson
+import java.util.Locale
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit.MILLISECONDS
+import java.util.concurrent.TimeUnit.NANOSECONDS
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.stream.Stream
+
+/**
+ * A KMongo operation slower than [OperationTracer.slowThresholdMillis].
+ *
+ * @param operation the KMongo operation, for example `findOneById`
+ * @param namespace the namespace of the collection
+ * @param filterShape the filter, with its values replaced by `"?"` - null if the operation has no filter
+ * @param documentCount the number of documents returned or written, as reported by the server
+ * @param bytesDecoded the size of the server replies
+ * @param commandCount the number of commands sent to the server
+ * @param callSite the first caller stack frame outside KMongo, the driver and the Kotlin library
+ * @param totalNanos the duration of the operation
+ * @param serverNanos the duration of the commands, as measured by the driver - network included
+ */
+data class SlowOperation(
+    val operation: String,
+    val namespace: String,
+    val filterShape: String?,
+    val documentCount: Long,
+    val bytesDecoded: Long,
+    val commandCount: Int,
+    val callSite: StackTraceElement?,
+    val totalNanos: Long,
+    val serverNanos: Long
+) {
+
+    /**
+     * The time spent in the client - encoding, decoding and mapping.
+     */
+    val clientNanos: Long get() = maxOf(0, totalNanos - serverNanos)
+
+    override fun toString(): String =
+        "kmongo slow operation $operation $namespace ${millis(totalNanos)} ms " +
+                "(server ${millis(serverNanos)} ms, client ${millis(clientNanos)} ms, $commandCount commands) " +
+                "filter=$filterShape documents=$documentCount bytes=$bytesDecoded at $callSite"
+
+    private fun millis(nanos: Long): String = String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0)
+}
+
+/**
+ * Receives the slow operations of the [OperationTracer].
+ */
+interface SlowOperationListener {
+
+    /**
+     * Called at the end of each operation slower than [OperationTracer.slowThresholdMillis].
+     */
+    fun onSlowOperation(operation: SlowOperation)
+}
+
+/**
+ * A KMongo operation in progress - the server commands of the operation are added to its trace
+ * by [OperationTracer.commandListener].
+ */
+class OperationTrace internal constructor(
+    private val operation: String,
+    private val namespace: MongoNamespace,
+    private val filter: Bson?,
+    private val codecRegistry: CodecRegistry
+) {
+
+    private val start = System.nanoTime()
+    private val caller = Throwable()
+    private val serverNanos = AtomicLong()
+    private val commands = AtomicInteger()
+    private val documents = AtomicLong()
+    private val bytes = AtomicLong()
+
+    internal fun commandSucceeded(event: CommandSucceededEvent) {
+        commandEnded(event.getElapsedTime(NANOSECONDS))
+        val response = event.response ?: return
+        bytes.addAndGet(size(response))
+        val cursor = response["cursor"]
+        val count = if (cursor is BsonDocument) {
+            (cursor["firstBatch"] ?: cursor["nextBatch"]) as? BsonArray
+        } else {
+            response["n"]
+        }
+        when (count) {
+            is BsonArray -> documents.addAndGet(count.size.toLong())
+            is BsonValue -> if (count.isNumber) documents.addAndGet(count.asNumber().longValue())
+        }
+    }
+
+    //the driver replies are binary documents, their size is read without decoding them
+    private fun size(document: BsonDocument): Long =
+        if (document is RawBsonDocument) {
+            document.byteBuffer.remaining().toLong()
+        } else {
+            (document.asBsonReader() as? BsonBinaryReader)?.use { it.bsonInput.readInt32().toLong() } ?: 0
+        }
+
+    internal fun commandEnded(elapsedNanos: Long) {
+        serverNanos.addAndGet(elapsedNanos)
+        commands.incrementAndGet()
+    }
+
+    /**
+     * Ends the operation, and notifies the [OperationTracer.listener] if the operation is slow.
+     */
+    fun finish() {
+        val totalNanos = System.nanoTime() - start
+        if (totalNanos >= MILLISECONDS.toNanos(OperationTracer.slowThresholdMillis)) {
+            OperationTracer.listener.onSlowOperation(
+                SlowOperation(
+                    operation,
+                    namespace.fullName,
+                    filter?.let { OperationTracer.filterShape(it.toBsonDocument(BsonDocument::class.java, codecRegistry)).toJson() },
+                    documents.get(),
+                    bytes.get(),
+                    commands.get(),
+                    OperationTracer.callSite(caller),
+                    totalNanos,
+                    serverNanos.get()
+                )
+            )
+        }
+    }
+}
+
+/**
+ * Traces the KMongo operations, and reports the operations slower than [slowThresholdMillis] to the [listener]:
+ * operation, namespace, filter shape, returned documents, decoded bytes and caller stack frame,
+ * with the server time (from the driver command events) separated from the client time.
+ *
+ * The tracer is enabled by the `org.litote.kmongo.operationTracer` system property,
+ * and the slow threshold is set by the `org.litote.kmongo.operationTracer.slowThresholdMillis` property (100 ms by default).
+ * The server time is only known if [commandListener] is registered -
+ * `KMongo.createClient` does it if the tracer is enabled when the client is created.
+ * A reactive client also needs the trace as request context: `KMongo.createClient` registers a context provider
+ * for that, unless the settings already have one.
+ *
+ * When the tracer is disabled, the tracing costs a field read.
+ * When it is enabled, each operation captures a stack trace - it is a diagnostic tool, not a production default.
+ */
+object OperationTracer {
+
+    /**
+     * true if the operations are traced.
+     */
+    @Volatile
+    var enabled: Boolean = System.getProperty("org.litote.kmongo.operationTracer") == "true"
+
+    /**
+     * The minimum duration of a reported operation.
+     */
+    @Volatile
+    var slowThresholdMillis: Long =
+        System.getProperty("org.litote.kmongo.operationTracer.slowThresholdMillis")?.toLong() ?: 100
+
+    /**
+     * The slow operation listener - prints the slow operations to the standard error by default.
+     */
+    @Volatile
+    var listener: SlowOperationListener = object : SlowOperationListener {
+        override fun onSlowOperation(operation: SlowOperation) {
+            System.err.println(operation)
+        }
+    }
+
+    private val ignoredPackages = listOf("org.litote.kmongo.", "com.mongodb.", "kotlin.", "kotlinx.", "java.", "sun.", "jdk.")
+
+    /**
+     * Returns the first frame of the throwable outside KMongo, the driver and the Kotlin and Java libraries.
+     */
+    internal fun callSite(throwable: Throwable): StackTraceElement? =
+        throwable.stackTrace.firstOrNull { frame -> ignoredPackages.none { frame.className.startsWith(it) } }
+
+    /**
+     * The trace of the current thread. Coroutines should propagate it with `asContextElement`.
+     */
+    val current: ThreadLocal<OperationTrace?> = ThreadLocal()
+
+    /**
+     * Adds the server time of the commands to the trace of their operation.
+     */
+    val commandListener: CommandListener = object : CommandListener {
+        override fun commandSucceeded(event: CommandSucceededEvent) {
+            trace(event)?.commandSucceeded(event)
+        }
+
+        override fun commandFailed(event: CommandFailedEvent) {
+            trace(event)?.commandEnded(event.getElapsedTime(NANOSECONDS))
+        }
+    }
+
+    private fun trace(event: CommandEvent): OperationTrace? =
+        event.requestContext?.takeIf { it.hasKey(OperationTrace::class.java) }?.get<OperationTrace>(OperationTrace::class.java)
+            ?: current.get()
+
+    /**
+     * Starts the trace of an operation - returns null if the tracer is disabled, or if an operation is already traced
+     * by the current thread (the operations called by an operation are part of its trace).
+     * The caller sets the [current] trace, and calls [OperationTrace.finish] at the end of the operation.
+     *
+     * @param operation the operation name
+     * @param namespace the namespace of the collection
+     * @param filter the operation filter
+     * @param codecRegistry the registry used to render the filter
+     */
+    fun start(operation: String, namespace: MongoNamespace, filter: Bson?, codecRegistry: CodecRegistry): OperationTrace? =
+        if (enabled && current.get() == null) OperationTrace(operation, namespace, filter, codecRegistry) else null
+
+    /**
+     * Runs a synchronous operation, and traces it if the tracer is enabled.
+     *
+     * @param operation the operation name
+     * @param namespace the namespace of the collection
+     * @param filter the operation filter
+     * @param codecRegistry the registry used to render the filter
+     */
+    inline fun <T> trace(
+        operation: String,
+        namespace: MongoNamespace,
+        filter: Bson?,
+        codecRegistry: CodecRegistry,
+        block: () -> T
+    ): T {
+        val trace = start(operation, namespace, filter, codecRegistry) ?: return block()
+        current.set(trace)
+        try {
+            return block()
+        } finally {
+            current.remove()
+            trace.finish()
+        }
+    }
+
+    /**
+     * Returns a new request context holding the current trace, if any -
+     * so a reactive operation can be correlated with its commands run by the driver threads.
+     */
+    fun requestContext(): RequestContext = TraceRequestContext(current.get())
+
+    private class TraceRequestContext(trace: OperationTrace?) : RequestContext {
+
+        private val map = ConcurrentHashMap<Any, Any>().apply { trace?.let { put(OperationTrace::class.java, it) } }
+
+        @Suppress("UNCHECKED_CAST")
+        override fun <T : Any> get(key: Any): T = (map[key] ?: throw NoSuchElementException(key.toString())) as T
+
+        override fun hasKey(key: Any): Boolean = map.containsKey(key)
+
+        override fun isEmpty(): Boolean = map.isEmpty()
+
+        override fun put(key: Any, value: Any) {
+            map[key] = value
+        }
+
+        override fun delete(key: Any) {
+            map.remove(key)
+        }
+
+        override fun size(): Int = map.size
+
+        override fun stream(): Stream<Map.Entry<Any, Any>> = map.entries.stream().map { it }
+    }
+
+    /**
+     * Returns a copy of the filter with all its values replaced by `"?"` - field names and operators are kept.
+     */
+    fun filterShape(filter: BsonDocument): BsonDocument =
+        BsonDocument().also { shape ->
+            filter.forEach { (key, value) -> shape[key] = shape(value) }
+        }
+
+    private fun shape(value: BsonValue): BsonValue =
+        when {
+            value.isDocument -> filterShape(value.asDocument())
+            value.isArray && value.asArray().any { it.isDocument } -> BsonArray(value.asArray().map { shape(it) })
+            else -> REDACTED
+        }
+
+    private val REDACTED = BsonString("?")
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.util
+
+import com.mongodb.client.model.Aggregates
+import com.mongodb.client.model.Filters
+import com.mongodb.client.model.Projections
+import com.mongodb.client.model.Sorts
+import org.bson.BsonDocument
+import org.bson.BsonValue
+import org.bson.conversions.Bson
+
+/**
+ * Splits a collection in `_id` ranges, used by the `parallelScan` implementations.
+ *
+ * The split points are sampled (`$sample`) from the scanned documents then sorted by the server,
+ * so the partitions have roughly the same number of documents, without scanning the collection.
+ */
+object ParallelScan {
+
+    private const val ID = "_id"
+
+    /**
+     * Number of sampled ids by partition.
+     */
+    const val SAMPLES_BY_PARTITION: Int = 32
+
+    /**
+     * The aggregation pipeline returning the sorted sampled ids of the documents matching the [filter].
+     *
+     * An empty filter keeps `$sample` first in the pipeline, so the server uses a pseudo-random cursor.
+     */
+    fun samplePipeline(partitions: Int, filter: Bson): List<Bson> {
+        require(partitions > 0) { "partitions must be positive" }
+        val match = if (filter is BsonDocument && filter.isEmpty()) emptyList() else listOf(Aggregates.match(filter))
+        return match + listOf(
+            Aggregates.sample(partitions * SAMPLES_BY_PARTITION),
+            Aggregates.project(Projections.include(ID)),
+            Aggregates.sort(Sorts.ascending(ID))
+        )
+    }
+
+    /**
+     * Selects at most `partitions - 1` split points from the sorted sampled ids.
+     *
+     * As range queries only match values of the same BSON type, an empty list (ie one partition)
+     * is returned if the split points do not share the same type.
+     */
+    fun splitPoints(sortedIds: List<BsonValue>, partitions: Int): List<BsonValue> {
+        require(partitions > 0) { "partitions must be positive" }
+        if (sortedIds.isEmpty()) {
+            return emptyList()
+        }
+        val points = (1 until partitions)
+            .map { it * sortedIds.size / partitions }
+            .filter { it > 0 }
+            .map { sortedIds[it] }
+            .distinct()
+        return if (points.map { it.bsonType }.distinct().size > 1) emptyList() else points
+    }
+
+    /**
+     * Returns one filter by partition: the [filter] restricted to an `_id` range.
+     *
+     * The first partition also matches the ids of a different BSON type than the split points.
+     */
+    fun partitionFilters(splitPoints: List<BsonValue>, filter: Bson): List<Bson> {
+        if (splitPoints.isEmpty()) {
+            return listOf(filter)
+        }
+        val ranges = listOf(Filters.not(Filters.gte(ID, splitPoints.first()))) +
+                splitPoints.zipWithNext { min, max -> Filters.and(Filters.gte(ID, min), Filters.lt(ID, max)) } +
+                Filters.gte(ID, splitPoints.last())
+        return if (filter is BsonDocument && filter.isEmpty()) ranges else ranges.map { Filters.and(filter, it) }
+    }
+
+    /**
+     * Returns the `_id` of the sampled documents.
+     */
+    fun sampledIds(documents: List<BsonDocument>): List<BsonValue> = documents.mapNotNull { it[ID] }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.util
+
+import com.mongodb.bulk.BulkWriteInsert
+import com.mongodb.bulk.BulkWriteResult
+import com.mongodb.bulk.BulkWriteUpsert
+import com.mongodb.client.model.BulkWriteOptions
+import com.mongodb.client.model.InsertOneModel
+import com.mongodb.client.model.ReplaceOneModel
+import com.mongodb.client.model.ReplaceOptions
+import com.mongodb.client.model.WriteModel
+import org.bson.RawBsonDocument
+import org.bson.codecs.Codec
+import org.bson.codecs.CollectibleCodec
+
+/**
+ * Options of the `saveAll` operations.
+ *
+ * @param maxBatchSize the maximum number of documents sent in one bulk write
+ * @param maxBatchBytes the maximum encoded size of the documents sent in one bulk write - default is the server `maxMessageSizeBytes`
+ * @param bypassDocumentValidation if true, allows the write to opt-out of document level validation
+ */
+class SaveAllOptions(
+    val maxBatchSize: Int = DEFAULT_MAX_BATCH_SIZE,
+    val maxBatchBytes: Int = DEFAULT_MAX_BATCH_BYTES,
+    val bypassDocumentValidation: Boolean? = null
+) {
+
+    companion object {
+        /**
+         * Default batch size - the server `maxWriteBatchSize`.
+         */
+        const val DEFAULT_MAX_BATCH_SIZE: Int = 100_000
+
+        /**
+         * Default batch encoded size - the server `maxMessageSizeBytes`.
+         */
+        const val DEFAULT_MAX_BATCH_BYTES: Int = 48_000_000
+    }
+
+    init {
+        require(maxBatchSize > 0) { "maxBatchSize must be positive" }
+        require(maxBatchBytes > 0) { "maxBatchBytes must be positive" }
+    }
+
+    /**
+     * The options of each bulk write: the writes are unordered.
+     */
+    val bulkWriteOptions: BulkWriteOptions
+        get() = BulkWriteOptions().ordered(false).bypassDocumentValidation(bypassDocumentValidation)
+}
+
+/**
+ * A chunk of `saveAll` writes.
+ *
+ * @param offset the index of the first document of the batch in the saved documents
+ * @param requests the writes - an insert for documents without id, an upsert replacement otherwise
+ */
+class SaveAllBatch(val offset: Int, val requests: List<WriteModel<RawBsonDocument>>)
+
+/**
+ * Utility methods used by the `saveAll` implementations.
+ */
+object SaveAll {
+
+    private val upsert: ReplaceOptions = ReplaceOptions().upsert(true)
+
+    /**
+     * Encodes the documents once, and splits them in batches according to the [options].
+     *
+     * If a document has no id, an id is generated (when the codec is a [CollectibleCodec]) and an insert is used,
+     * else the document is upserted by id.
+     */
+    fun <T : Any> batches(documents: Iterable<T>, codec: Codec<T>, options: SaveAllOptions): Sequence<SaveAllBatch> =
+        sequence {
+            var offset = 0
+            var requests = mutableListOf<WriteModel<RawBsonDocument>>()
+            var bytes = 0L
+            for (document in documents) {
+                val id = KMongoUtil.getIdValue(document)
+                if (id == null && codec is CollectibleCodec<T>) {
+                    codec.generateIdIfAbsentFromDocument(document)
+                }
+                val raw = RawBsonDocument(document, codec)
+                val size = raw.byteBuffer.remaining()
+                if (requests.isNotEmpty() && (requests.size == options.maxBatchSize || bytes + size > options.maxBatchBytes)) {
+                    yield(SaveAllBatch(offset, requests))
+                    offset += requests.size
+                    requests = mutableListOf()
+                    bytes = 0
+                }
+                requests.add(
+                    if (id == null) InsertOneModel(raw)
+                    else ReplaceOneModel(KMongoUtil.idFilterQuery(id), raw, upsert)
+                )
+                bytes += size
+            }
+            if (requests.isNotEmpty()) {
+                yield(SaveAllBatch(offset, requests))
+            }
+        }
+
+    /**
+     * Aggregates the results of the batches - upserts and inserts indexes are relative to the saved documents.
+     */
+    fun aggregate(results: List<Pair<SaveAllBatch, BulkWriteResult>>): BulkWriteResult {
+        if (results.any { !it.second.wasAcknowledged() }) {
+            return BulkWriteResult.unacknowledged()
+        }
+        return BulkWriteResult.acknowledged(
+            results.sumOf { it.second.insertedCount },
+            results.sumOf { it.second.matchedCount },
+            results.sumOf { it.second.deletedCount },
+            results.sumOf { it.second.modifiedCount },
+            results.flatMap { (batch, result) ->
+                result.upserts.map { BulkWriteUpsert(it.index + batch.offset, it.id) }
+            },
+            results.flatMap { (batch, result) ->
+                result.inserts.map { BulkWriteInsert(it.index + batch.offset, it.id) }
+            }
+        )
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.util
+
+import java.util.Locale
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.TimeUnit
+
+/**
+ * A step of the KMongo startup: the creation of a mapping component, or the first use of a model class.
+ *
+ * @param component the mapping component, for example `jackson.bsonMapper` or `pojo.classModel`
+ * @param type the model class, null if the step is not specific to a class
+ * @param startNanos the start of the step, from the first recorded step
+ * @param durationNanos the duration of the step - nested steps included
+ */
+data class StartupTimelineEntry(
+    val component: String,
+    val type: Class<*>?,
+    val startNanos: Long,
+    val durationNanos: Long
+) {
+    override fun toString(): String =
+        "kmongo startup +${millis(startNanos)} ms ${millis(durationNanos)} ms $component${type?.let { " ${it.name}" } ?: ""}"
+
+    private fun millis(nanos: Long): String = String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0)
+}
+
+/**
+ * Records where the KMongo cold start time goes, by mapping component and by model class.
+ *
+ * The timeline is enabled by the `org.litote.kmongo.startupTimeline` system property:
+ * `true` records the steps, `log` records and prints them to the standard error as they end.
+ * When the timeline is disabled, the recording costs a field read.
+ */
+object StartupTimeline {
+
+    private val mode = System.getProperty("org.litote.kmongo.startupTimeline")
+
+    /**
+     * true if the timeline is enabled - set by the tests only.
+     */
+    @Volatile
+    var enabled: Boolean = mode == "true" || mode == "log"
+        internal set
+
+    private val log = mode == "log"
+    private val origin = System.nanoTime()
+    private val timeline = CopyOnWriteArrayList<StartupTimelineEntry>()
+    private val firstUses = ConcurrentHashMap.newKeySet<Pair<String, Class<*>?>>()
+
+    /**
+     * Runs the block, and records its duration if the timeline is enabled.
+     *
+     * @param component the mapping component
+     * @param type the model class
+     */
+    inline fun <T> record(component: String, type: Class<*>? = null, block: () -> T): T =
+        if (enabled) {
+            val start = System.nanoTime()
+            try {
+                block()
+            } finally {
+                add(component, type, start)
+            }
+        } else {
+            block()
+        }
+
+    /**
+     * Runs the block, and records its duration the first time it is called for this component and class.
+     *
+     * @param component the mapping component
+     * @param type the model class
+     */
+    inline fun <T> recordFirstUse(component: String, type: Class<*>?, block: () -> T): T =
+        if (enabled && firstUse(component, type)) record(component, type, block) else block()
+
+    @PublishedApi
+    internal fun firstUse(component: String, type: Class<*>?): Boolean = firstUses.add(component to type)
+
+    @PublishedApi
+    internal fun add(component: String, type: Class<*>?, start: Long) {
+        val entry = StartupTimelineEntry(component, type, start - origin, System.nanoTime() - start)
+        timeline.add(entry)
+        if (log) {
+            System.err.println(entry)
+        }
+    }
+
+    /**
+     * The recorded steps, by end time.
+     */
+    val entries: List<StartupTimelineEntry> get() = timeline.toList()
+
+    /**
+     * Returns the total duration of the recorded steps by component, then by model class -
+     * a nested step is counted in its parent step too.
+     */
+    fun report(): String =
+        buildString {
+            fun append(title: String, durations: Map<String, Long>) {
+                append(title).append('\n')
+                durations.entries.sortedByDescending { it.value }.forEach { (key, nanos) ->
+                    append(String.format(Locale.ROOT, "%12.3f ms %s%n", nanos / 1_000_000.0, key))
+                }
+            }
+            val entries = entries
+            append("by component", entries.groupBy { it.component }.mapValues { (_, e) -> e.sumOf { it.durationNanos } })
+            append(
+                "by model class",
+                entries.filter { it.type != null }
+                    .groupBy { it.type!!.name }
+                    .mapValues { (_, e) -> e.sumOf { it.durationNanos } }
+            )
+            append("total ${TimeUnit.NANOSECONDS.toMillis(entries.maxOfOrNull { it.startNanos + it.durationNanos } ?: 0)} ms")
+        }
+
+    /**
+     * Clears the recorded steps.
+     */
+    fun clear() {
+        timeline.clear()
+        firstUses.clear()
+    }
+}
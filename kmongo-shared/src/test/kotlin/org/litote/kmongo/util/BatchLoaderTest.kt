@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.util
+
+import org.junit.Test
+import org.litote.kmongo.KMongoRootTest
+import java.util.Collections
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertNull
+
+/**
+ *
+ */
+class BatchLoaderTest : KMongoRootTest() {
+
+    private val batches: MutableList<List<Int>> = Collections.synchronizedList(mutableListOf())
+
+    private fun loader(options: BatchLoaderOptions) = BatchLoader<Int, String>(options) { keys ->
+        batches.add(keys)
+        CompletableFuture.completedFuture(keys.filter { it % 2 == 0 }.associateWith { "v$it" })
+    }
+
+    @Test
+    fun testLoadsTheKeysOfTheWindowInOneBatch() {
+        val loader = loader(BatchLoaderOptions(windowMillis = 50))
+        val futures = listOf(1, 2, 2, 4).map { loader.load(it) }
+
+        assertEquals(listOf(null, "v2", "v2", "v4"), futures.map { it.get() })
+        assertEquals(listOf(listOf(1, 2, 4)), batches)
+        assertEquals(4, loader.metrics.requestCount)
+        assertEquals(1, loader.metrics.batchCount)
+        assertEquals(3, loader.metrics.largestBatchSize)
+    }
+
+    @Test
+    fun testChunksLargeBatches() {
+        val sizes = Collections.synchronizedList(mutableListOf<Int>())
+        val loader = loader(BatchLoaderOptions(maxBatchSize = 10, windowMillis = 50, batchListener = { sizes.add(it) }))
+        val futures = (0 until 25).map { loader.load(it) }
+
+        assertEquals("v24", futures.last().get())
+        assertEquals(listOf(10, 10, 5), batches.map { it.size })
+        assertEquals(listOf(10, 10, 5), sizes)
+        assertEquals(25.0 / 3, loader.metrics.averageBatchSize)
+    }
+
+    @Test
+    fun testFlush() {
+        val loader = loader(BatchLoaderOptions(windowMillis = 60_000))
+        val future = loader.load(2)
+        loader.flush()
+
+        assertEquals("v2", future.get())
+    }
+
+    @Test
+    fun testPropagatesErrors() {
+        val loader = BatchLoader<Int, String>(BatchLoaderOptions(windowMillis = 0)) { error("boom") }
+
+        val e = assertFailsWith<ExecutionException> { loader.load(1).get() }
+        assertEquals("boom", e.cause?.message)
+    }
+
+    @Test
+    fun testCancelledRequestDoesNotCancelOtherRequests() {
+        val loader = loader(BatchLoaderOptions(windowMillis = 50))
+        val cancelled = loader.load(2)
+        val other = loader.load(2)
+        cancelled.cancel(false)
+
+        assertEquals("v2", other.get())
+        assertNull(loader.load(3).get())
+    }
+}
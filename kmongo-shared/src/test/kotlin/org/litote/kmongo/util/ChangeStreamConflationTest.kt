@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.util
+
+import com.mongodb.client.model.changestream.ChangeStreamDocument
+import com.mongodb.client.model.changestream.OperationType
+import com.mongodb.client.model.changestream.UpdateDescription
+import org.bson.BsonDocument
+import org.bson.BsonInt32
+import org.junit.Test
+import org.litote.kmongo.KMongoRootTest
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+
+/**
+ *
+ */
+class ChangeStreamConflationTest : KMongoRootTest() {
+
+    private var sequence = 0
+
+    private fun event(
+        operationType: OperationType,
+        id: Int?,
+        fullDocument: Boolean = true,
+        updateDescription: UpdateDescription? =
+            if (operationType == OperationType.UPDATE) UpdateDescription(emptyList(), BsonDocument()) else null
+    ): ChangeStreamDocument<BsonDocument> =
+        ChangeStreamDocument(
+            operationType.value,
+            BsonDocument("i", BsonInt32(sequence++)),
+            null,
+            null,
+            null,
+            id?.takeIf { fullDocument }?.let { BsonDocument("v", BsonInt32(sequence)) },
+            null,
+            id?.let { BsonDocument("_id", BsonInt32(it)) },
+            null,
+            updateDescription,
+            null,
+            null,
+            null,
+            null,
+            null
+        )
+
+    private fun update(id: Int, updatedFields: String, vararg removedFields: String): ChangeStreamDocument<BsonDocument> =
+        event(
+            OperationType.UPDATE,
+            id,
+            false,
+            UpdateDescription(removedFields.toList(), BsonDocument.parse(updatedFields))
+        )
+
+    private fun ChangeStreamDocument<BsonDocument>.summary(): String =
+        "${operationType?.value}:${documentKey?.getInt32("_id")?.value}:${resumeToken.getInt32("i").value}"
+
+    @Test
+    fun testKeepsLatestEventByDocument() {
+        val conflation = ChangeStreamConflation<BsonDocument>()
+        conflation.add(event(OperationType.INSERT, 1))
+        conflation.add(event(OperationType.UPDATE, 2))
+        conflation.add(event(OperationType.UPDATE, 1))
+        conflation.add(event(OperationType.UPDATE, 2))
+        conflation.add(event(OperationType.DELETE, 2))
+
+        val events = conflation.drain()
+        assertEquals(listOf("insert:1:2", "delete:2:4"), events.map { it.summary() })
+        assertEquals(BsonDocument("v", BsonInt32(3)), events.first().fullDocument)
+        assertEquals(3, conflation.conflatedCount)
+        assertEquals(0, conflation.size)
+    }
+
+    @Test
+    fun testDoesNotConflateAcrossEventsWithoutDocumentKey() {
+        val conflation = ChangeStreamConflation<BsonDocument>()
+        conflation.add(event(OperationType.UPDATE, 1))
+        conflation.add(event(OperationType.DROP, null))
+        conflation.add(event(OperationType.INSERT, 1))
+        conflation.add(event(OperationType.UPDATE, 1))
+
+        assertEquals("update:1:0", conflation.poll()?.summary())
+        assertEquals("drop:null:1", conflation.poll()?.summary())
+        assertEquals("insert:1:3", conflation.poll()?.summary())
+        assertNull(conflation.poll())
+    }
+
+    @Test
+    fun testMergesUpdateDescriptions() {
+        val conflation = ChangeStreamConflation<BsonDocument>()
+        conflation.add(update(1, """{"a": 1, "b.c": 1, "d": 1}""", "e", "f"))
+        conflation.add(update(1, """{"b": 2, "e": 2}""", "d"))
+
+        val event = conflation.drain().single()
+        assertEquals("update:1:1", event.summary())
+        assertEquals(BsonDocument.parse("""{"a": 1, "b": 2, "e": 2}"""), event.updateDescription?.updatedFields)
+        assertEquals(listOf("f", "d"), event.updateDescription?.removedFields)
+    }
+
+    @Test
+    fun testKeepsUpdatesThatCanNotBeMerged() {
+        val conflation = ChangeStreamConflation<BsonDocument>()
+        conflation.add(event(OperationType.INSERT, 1))
+        conflation.add(update(1, """{"a": {"b": 1}}"""))
+        conflation.add(update(1, """{"a.b": 2}"""))
+        conflation.add(update(1, """{"c": 3}"""))
+
+        val events = conflation.drain()
+        assertEquals(listOf("insert:1:0", "update:1:1", "update:1:3"), events.map { it.summary() })
+        assertEquals(BsonDocument.parse("""{"a.b": 2, "c": 3}"""), events.last().updateDescription?.updatedFields)
+        assertEquals(1, conflation.conflatedCount)
+    }
+
+    @Test
+    fun testInsertAfterDeleteIsAReplace() {
+        val conflation = ChangeStreamConflation<BsonDocument>()
+        conflation.add(event(OperationType.DELETE, 1))
+        conflation.add(event(OperationType.INSERT, 1))
+        conflation.add(event(OperationType.UPDATE, 1))
+
+        val event = conflation.drain().single()
+        assertEquals("replace:1:2", event.summary())
+        assertEquals(BsonDocument("v", BsonInt32(3)), event.fullDocument)
+        assertNull(event.updateDescription)
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.util
+
+import org.bson.BsonBinaryReader
+import org.bson.BsonBinaryWriter
+import org.bson.BsonDocument
+import org.bson.BsonDocumentWriter
+import org.bson.Document
+import org.bson.UuidRepresentation
+import org.bson.codecs.BsonDocumentCodec
+import org.bson.codecs.CollectibleCodec
+import org.bson.codecs.CollectionCodecProvider
+import org.bson.codecs.DecoderContext
+import org.bson.codecs.DocumentCodec
+import org.bson.codecs.DocumentCodecProvider
+import org.bson.codecs.EncoderContext
+import org.bson.codecs.StringCodec
+import org.bson.codecs.ValueCodecProvider
+import org.bson.codecs.configuration.CodecRegistries
+import org.bson.io.BasicOutputBuffer
+import org.junit.After
+import org.junit.Test
+import org.litote.kmongo.KMongoRootTest
+import java.nio.ByteBuffer
+import java.util.UUID
+import kotlin.test.assertEquals
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+/**
+ *
+ */
+class CodecMetricsTest : KMongoRootTest() {
+
+    private val registry = CodecMetrics.metered(CodecRegistries.fromCodecs(DocumentCodec(), BsonDocumentCodec(), StringCodec()))
+
+    @After
+    fun after() {
+        CodecMetrics.listener = null
+        CodecMetrics.include = { true }
+        CodecMetrics.reset()
+    }
+
+    @Test
+    fun testCountsTheOperationsAndTheBytesByClassAndDirection() {
+        val codec = registry.get(Document::class.java)
+        val buffer = BasicOutputBuffer()
+        codec.encode(BsonBinaryWriter(buffer), Document("a", "b"), EncoderContext.builder().build())
+        codec.encode(BsonBinaryWriter(buffer), Document("a", "b"), EncoderContext.builder().build())
+        val decoded = codec.decode(BsonBinaryReader(ByteBuffer.wrap(buffer.toByteArray())), DecoderContext.builder().build())
+
+        assertEquals(Document("a", "b"), decoded)
+        val encode = CodecMetrics.stats(Document::class.java, CodecDirection.ENCODE)!!
+        val decode = CodecMetrics.stats(Document::class.java, CodecDirection.DECODE)!!
+        assertEquals(2, encode.operationCount)
+        assertEquals(buffer.size.toLong(), encode.totalBytes)
+        assertEquals(1, decode.operationCount)
+        assertEquals(buffer.size / 2L, decode.totalBytes)
+        assertTrue(encode.latencyPercentileNanos(100.0) > 0)
+    }
+
+    @Test
+    fun testKeepsTheCollectibleCodecs() {
+        assertTrue(registry.get(Document::class.java) is CollectibleCodec<*>)
+        assertTrue(registry.get(String::class.java) !is CollectibleCodec<*>)
+    }
+
+    @Test
+    fun testKeepsTheUuidRepresentationOfTheClient() {
+        val uuidRegistry = CodecRegistries.withUuidRepresentation(
+            CodecMetrics.metered(
+                CodecRegistries.fromProviders(DocumentCodecProvider(), ValueCodecProvider())
+            ),
+            UuidRepresentation.STANDARD
+        )
+        val codec = uuidRegistry.get(Document::class.java)
+        val document = Document("uuid", UUID.randomUUID())
+        val buffer = BasicOutputBuffer()
+        codec.encode(BsonBinaryWriter(buffer), document, EncoderContext.builder().build())
+        val decoded = codec.decode(BsonBinaryReader(ByteBuffer.wrap(buffer.toByteArray())), DecoderContext.builder().build())
+
+        assertEquals(document, decoded)
+        assertEquals(1, CodecMetrics.stats(Document::class.java, CodecDirection.ENCODE)?.operationCount)
+    }
+
+    @Test
+    fun testMetersTheCodecsWithTypeArguments() {
+        val codec = CodecMetrics.metered(CodecRegistries.fromProviders(CollectionCodecProvider(), ValueCodecProvider()))
+            .get(List::class.java, listOf(String::class.java))
+
+        assertTrue(codec.javaClass.name.contains("Metered"))
+    }
+
+    @Test
+    fun testCachesTheMeteredCodecs() {
+        assertSame(registry.get(Document::class.java), registry.get(Document::class.java))
+    }
+
+    @Test
+    fun testNotifiesTheListener() {
+        val operations = mutableListOf<String>()
+        CodecMetrics.listener = object : CodecMetricsListener {
+            override fun onCodecOperation(type: Class<*>, direction: CodecDirection, durationNanos: Long, bytes: Long) {
+                operations.add("${type.simpleName} $direction $bytes")
+            }
+        }
+        registry.get(BsonDocument::class.java)
+            .encode(BsonDocumentWriter(BsonDocument()), BsonDocument(), EncoderContext.builder().build())
+
+        assertEquals(listOf("BsonDocument ENCODE -1"), operations)
+    }
+
+    @Test
+    fun testDoesNotMeterTheExcludedClasses() {
+        val codec = DocumentCodec()
+        CodecMetrics.include = { it != Document::class.java }
+
+        assertSame(codec, CodecMetrics.metered(codec))
+    }
+
+    @Test
+    fun testLatencyPercentiles() {
+        val histogram = LatencyHistogram()
+        repeat(90) { histogram.record(1_000) }
+        repeat(10) { histogram.record(1_000_000) }
+
+        assertTrue(histogram.percentile(50.0) in 1_000..1_250)
+        assertTrue(histogram.percentile(95.0) in 1_000_000..1_250_000)
+        assertEquals(0, LatencyHistogram().percentile(99.0))
+        (0L..10_000L).forEach { assertTrue(LatencyHistogram.upperBound(LatencyHistogram.bucket(it)) >= it) }
+    }
+}
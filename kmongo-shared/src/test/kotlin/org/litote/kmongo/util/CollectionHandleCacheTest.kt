@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.util
+
+import com.mongodb.MongoClientSettings
+import com.mongodb.ReadConcern
+import com.mongodb.ReadPreference
+import com.mongodb.WriteConcern
+import org.bson.codecs.configuration.CodecRegistries
+import org.bson.codecs.configuration.CodecRegistry
+import org.junit.Test
+import org.litote.kmongo.KMongoRootTest
+import kotlin.test.assertNotSame
+import kotlin.test.assertSame
+
+/**
+ *
+ */
+class CollectionHandleCacheTest : KMongoRootTest() {
+
+    private val registry = MongoClientSettings.getDefaultCodecRegistry()
+
+    private fun CollectionHandleCache<Any>.get(
+        codecRegistry: CodecRegistry = registry,
+        databaseName: String = "test",
+        readPreference: ReadPreference = ReadPreference.primary(),
+        collectionName: String = "friend"
+    ): Any = getOrPut(
+        codecRegistry,
+        databaseName,
+        readPreference,
+        WriteConcern.ACKNOWLEDGED,
+        ReadConcern.DEFAULT,
+        null,
+        collectionName,
+        String::class.java
+    ) { Any() }
+
+    @Test
+    fun `handle is shared by databases of same name, registry and settings`() {
+        val cache = CollectionHandleCache<Any>()
+        assertSame(cache.get(), cache.get())
+        assertNotSame(cache.get(), cache.get(databaseName = "other"))
+        assertNotSame(cache.get(), cache.get(readPreference = ReadPreference.secondary()))
+        assertNotSame(cache.get(), cache.get(codecRegistry = CodecRegistries.fromRegistries(registry)))
+    }
+
+    @Test
+    fun `cache is cleared when max size is reached`() {
+        val cache = CollectionHandleCache<Any>(maxSize = 2)
+        val handle = cache.get()
+        cache.get(collectionName = "a")
+        cache.get(collectionName = "b")
+        assertNotSame(handle, cache.get())
+    }
+}
@@ -58,4 +58,14 @@ class CollectionNameFormatterTest : KMongoRootTest() {
         assertEquals("collectionNameFormatter", CollectionNameFormatter.defaultCollectionNameBuilder.invoke(this::class))
     }
 
-}
\ No newline at end of file
+
+    @Test
+    fun testDefaultCollectionNameIsRecomputedWhenBuilderChanges() {
+        CollectionNameFormatter.useSnakeCaseCollectionNameBuilder()
+        assertEquals("collection_name_formatter_test", CollectionNameFormatter.defaultCollectionName(this::class))
+        CollectionNameFormatter.useLowerCaseCollectionNameBuilder()
+        assertEquals("collectionnameformattertest", CollectionNameFormatter.defaultCollectionName(this::class))
+        CollectionNameFormatter.useCamelCaseCollectionNameBuilder()
+        assertEquals("collectionNameFormatterTest", CollectionNameFormatter.defaultCollectionName(this::class))
+    }
+}
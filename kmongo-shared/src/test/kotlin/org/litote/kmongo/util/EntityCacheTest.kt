@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.util
+
+import com.mongodb.MongoClientSettings
+import com.mongodb.client.model.Filters
+import com.mongodb.client.model.changestream.OperationType
+import org.bson.BsonDocument
+import org.bson.BsonInt32
+import org.junit.Test
+import org.litote.kmongo.KMongoRootTest
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+
+/**
+ *
+ */
+class EntityCacheTest : KMongoRootTest() {
+
+    private var now = 0L
+    private val registry = MongoClientSettings.getDefaultCodecRegistry()
+
+    private fun cache(maximumSize: Int = 10) = EntityCache<String>(EntityCacheOptions(maximumSize, ttlMillis = 100)) { now }
+
+    @Test
+    fun testHitsAndMisses() {
+        val cache = cache()
+        var loads = 0
+
+        assertEquals("a", cache.getOrLoad(BsonInt32(1)) { loads++; "a" })
+        assertEquals("a", cache.getOrLoad(BsonInt32(1)) { loads++; "b" })
+        assertNull(cache.getOrLoad(BsonInt32(2)) { null })
+
+        assertEquals(1, loads)
+        assertEquals(1, cache.metrics.hitCount)
+        assertEquals(2, cache.metrics.missCount)
+    }
+
+    @Test
+    fun testEvictsLeastRecentlyUsedAndExpired() {
+        val cache = cache(maximumSize = 2)
+        cache.getOrLoad(BsonInt32(1)) { "a" }
+        cache.getOrLoad(BsonInt32(2)) { "b" }
+        cache.get(BsonInt32(1))
+        cache.getOrLoad(BsonInt32(3)) { "c" }
+
+        assertNull(cache.get(BsonInt32(2)))
+        assertEquals("a", cache.get(BsonInt32(1)))
+        now = 100
+        assertNull(cache.get(BsonInt32(1)))
+        assertEquals(2, cache.metrics.evictionCount)
+    }
+
+    @Test
+    fun testDoesNotCacheDocumentLoadedDuringInvalidation() {
+        val cache = cache()
+        cache.getOrLoad(BsonInt32(1)) {
+            cache.onChange(OperationType.UPDATE, BsonDocument("_id", BsonInt32(1)))
+            "stale"
+        }
+
+        assertNull(cache.get(BsonInt32(1)))
+        assertEquals(1, cache.metrics.invalidationCount)
+    }
+
+    @Test
+    fun testCachesDocumentLoadedDuringInvalidationOfAnotherId() {
+        val cache = cache()
+        cache.getOrLoad(BsonInt32(1)) {
+            cache.onChange(OperationType.UPDATE, BsonDocument("_id", BsonInt32(2)))
+            "a"
+        }
+
+        assertEquals("a", cache.get(BsonInt32(1)))
+    }
+
+    @Test
+    fun testCachesMissingDocuments() {
+        val cache = EntityCache<String>(EntityCacheOptions(ttlMillis = 100, cacheMissingDocuments = true)) { now }
+        var loads = 0
+
+        assertNull(cache.getOrLoad(BsonInt32(1)) { loads++; null })
+        assertNull(cache.getOrLoad(BsonInt32(1)) { loads++; "a" })
+        assertEquals(1, loads)
+        cache.onChange(OperationType.INSERT, BsonDocument("_id", BsonInt32(1)))
+        assertEquals("a", cache.getOrLoad(BsonInt32(1)) { loads++; "a" })
+        assertEquals(2, loads)
+    }
+
+    @Test
+    fun testDoesNotCacheWhilePaused() {
+        val cache = cache()
+        cache.getOrLoad(BsonInt32(1)) { "a" }
+        cache.pause()
+        assertEquals(0, cache.size)
+
+        cache.getOrLoad(BsonInt32(1)) { "a" }
+        assertEquals(0, cache.size)
+        cache.getOrLoad(BsonInt32(1)) {
+            cache.resume()
+            "a"
+        }
+        assertEquals(0, cache.size)
+        cache.getOrLoad(BsonInt32(1)) { "a" }
+        assertEquals(1, cache.size)
+    }
+
+    @Test
+    fun testUnknownChangeInvalidatesAll() {
+        val cache = cache()
+        cache.getOrLoad(BsonInt32(1)) { "a" }
+        cache.onChange(null, BsonDocument("_id", BsonInt32(2)))
+        assertEquals(0, cache.size)
+    }
+
+    @Test
+    fun testOnChange() {
+        val cache = cache()
+        cache.getOrLoad(BsonInt32(1)) { "a" }
+        cache.getOrLoad(BsonInt32(2)) { "b" }
+
+        cache.onChange(OperationType.DELETE, BsonDocument("_id", BsonInt32(1)))
+        assertEquals(1, cache.size)
+        cache.onChange(OperationType.OTHER, null)
+        assertEquals(1, cache.size)
+        cache.onChange(OperationType.DROP, null)
+        assertEquals(0, cache.size)
+    }
+
+    @Test
+    fun testIdOf() {
+        assertEquals(BsonInt32(1), EntityCache.idOf(Filters.eq("_id", 1), registry))
+        assertEquals(BsonInt32(1), EntityCache.idOf(BsonDocument.parse("{_id: {\$eq: 1}}"), registry))
+        assertNull(EntityCache.idOf(Filters.gt("_id", 1), registry))
+        assertNull(EntityCache.idOf(Filters.and(Filters.eq("_id", 1), Filters.eq("a", 1)), registry))
+    }
+}
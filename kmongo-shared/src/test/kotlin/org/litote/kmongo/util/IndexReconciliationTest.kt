@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.util
+
+import com.mongodb.MongoClientSettings
+import com.mongodb.client.model.Collation
+import com.mongodb.client.model.CollationStrength
+import com.mongodb.client.model.IndexModel
+import com.mongodb.client.model.IndexOptions
+import com.mongodb.client.model.Indexes
+import org.bson.BsonDocument
+import org.junit.Test
+import org.litote.kmongo.KMongoRootTest
+import java.util.concurrent.TimeUnit
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+/**
+ *
+ */
+class IndexReconciliationTest : KMongoRootTest() {
+
+    private val registry = MongoClientSettings.getDefaultCodecRegistry()
+
+    private val existing = listOf(
+        "{v: 2, key: {_id: 1}, name: '_id_'}",
+        "{v: 2, key: {a: 1}, name: 'a_1', unique: true}",
+        "{v: 2, key: {b: -1}, name: 'b_1', expireAfterSeconds: 60}",
+        "{v: 2, key: {_fts: 'text', _ftsx: 1}, name: 'c_text', weights: {c: 1}, default_language: 'english', language_override: 'language', textIndexVersion: 3}",
+        "{v: 2, key: {d: 1}, name: 'd_1', collation: {locale: 'fr', caseLevel: false, strength: 2, numericOrdering: false}}",
+        "{v: 2, key: {e: 1}, name: 'e_1'}"
+    ).map { BsonDocument.parse(it) }
+
+    @Test
+    fun `unchanged indexes are detected`() {
+        val diff = IndexReconciliation.diff(
+            existing,
+            listOf(
+                IndexModel(Indexes.ascending("a"), IndexOptions().unique(true)),
+                IndexModel(Indexes.descending("b"), IndexOptions().expireAfter(1, TimeUnit.MINUTES)),
+                IndexModel(Indexes.text("c")),
+                IndexModel(Indexes.ascending("d"), IndexOptions().collation(Collation.builder().locale("fr").collationStrength(CollationStrength.SECONDARY).build()))
+            ),
+            registry
+        )
+        assertTrue(diff.toCreate.isEmpty())
+        assertTrue(diff.toDrop.isEmpty())
+        assertEquals(listOf("a_1", "b_1", "c_text", "d_1"), diff.unchanged)
+        assertEquals(listOf("e_1"), diff.extra)
+    }
+
+    @Test
+    fun `changed and missing indexes are detected`() {
+        val diff = IndexReconciliation.diff(
+            existing,
+            listOf(
+                IndexModel(Indexes.ascending("a")),
+                IndexModel(Indexes.descending("b"), IndexOptions().expireAfter(2, TimeUnit.MINUTES)),
+                IndexModel(Indexes.ascending("f")),
+                IndexModel(Indexes.ascending("g"), IndexOptions().name("e_1"))
+            ),
+            registry,
+            dropExtraIndexes = true
+        )
+        assertEquals(4, diff.toCreate.size)
+        assertEquals(listOf("a_1", "b_1", "e_1", "c_text", "d_1"), diff.toDrop)
+        assertTrue(diff.unchanged.isEmpty())
+        assertTrue(diff.extra.isEmpty())
+    }
+
+    @Test
+    fun `numeric directions of any type are the same keys`() {
+        val diff = IndexReconciliation.diff(
+            listOf(
+                "{v: 2, key: {a: 1.0}, name: 'a_1'}",
+                "{v: 2, key: {b: {\$numberLong: '1'}, c: -1}, name: 'b_1_c_-1'}",
+                "{v: 2, key: {d: 1, e: 1}, name: 'd_1_e_1'}"
+            ).map { BsonDocument.parse(it) },
+            listOf(
+                IndexModel(Indexes.ascending("a")),
+                IndexModel(Indexes.compoundIndex(Indexes.ascending("b"), Indexes.descending("c"))),
+                IndexModel(Indexes.ascending("e", "d"))
+            ),
+            registry
+        )
+        assertEquals(listOf("a_1", "b_1_c_-1"), diff.unchanged)
+        assertEquals(1, diff.toCreate.size)
+        assertEquals(listOf("d_1_e_1"), diff.extra)
+    }
+}
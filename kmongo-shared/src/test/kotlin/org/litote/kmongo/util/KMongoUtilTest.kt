@@ -16,7 +16,18 @@
 
 package org.litote.kmongo.util
 
+import com.mongodb.MongoClientException
+import com.mongodb.MongoCommandException
+import com.mongodb.MongoSocketReadTimeoutException
+import com.mongodb.ServerAddress
+import org.bson.BsonBinary
+import org.bson.BsonBinarySubType
+import org.bson.BsonDocument
+import org.bson.RawBsonDocument
+import org.bson.codecs.BsonDocumentCodec
 import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
 import org.junit.Test
 import org.litote.kmongo.KMongoRootTest
 
@@ -55,5 +66,37 @@ class KMongoUtilTest : KMongoRootTest() {
            ]"""))
     }
 
+    @Test
+    fun isResumableChangeStreamError() {
+        fun commandError(json: String) = MongoCommandException(BsonDocument.parse(json), ServerAddress())
+
+        assertTrue(KMongoUtil.isResumableChangeStreamError(MongoSocketReadTimeoutException("timeout", ServerAddress(), Exception())))
+        assertTrue(
+            KMongoUtil.isResumableChangeStreamError(
+                commandError("""{ok: 0, code: 6, errmsg: "unreachable", errorLabels: ["ResumableChangeStreamError"]}""")
+            )
+        )
+        assertFalse(KMongoUtil.isResumableChangeStreamError(commandError("""{ok: 0, code: 286, errmsg: "history lost"}""")))
+        assertFalse(KMongoUtil.isResumableChangeStreamError(commandError("""{ok: 0, code: 13, errmsg: "unauthorized"}""")))
+        assertFalse(KMongoUtil.isResumableChangeStreamError(MongoClientException("client")))
+        assertFalse(KMongoUtil.isResumableChangeStreamError(IllegalStateException()))
+    }
 
-}
\ No newline at end of file
+    @Test
+    fun bsonSize() {
+        val document = BsonDocument.parse(
+            """{
+                a: 1, b: {${'$'}numberLong: '2'}, c: 1.5, d: 'é€😀', e: [1, 'x', {f: null}, [true]],
+                g: {${'$'}oid: '507f1f77bcf86cd799439011'}, h: {${'$'}date: 0}, i: {${'$'}timestamp: {t: 1, i: 2}},
+                j: {${'$'}numberDecimal: '1.1'}, k: {${'$'}regex: 'a.*', ${'$'}options: 'i'}, l: {${'$'}minKey: 1},
+                m: {${'$'}code: 'f()'}, n: {${'$'}code: 'g()', ${'$'}scope: {x: 1}}, o: {${'$'}symbol: 's'}
+            }"""
+        )
+            .append("p", BsonBinary(byteArrayOf(1, 2, 3)))
+            .append("q", BsonBinary(BsonBinarySubType.OLD_BINARY, byteArrayOf(1, 2, 3)))
+
+        val raw = RawBsonDocument(document, BsonDocumentCodec())
+        assertEquals(raw.byteBuffer.remaining(), KMongoUtil.bsonSize(document))
+        assertEquals(raw.byteBuffer.remaining(), KMongoUtil.bsonSize(raw))
+    }
+}
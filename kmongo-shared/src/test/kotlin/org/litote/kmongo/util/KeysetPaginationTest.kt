@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.util
+
+import org.bson.BsonDocument
+import org.bson.BsonInt32
+import org.bson.BsonNull
+import org.bson.BsonString
+import org.junit.Test
+import org.litote.kmongo.EMPTY_BSON
+import org.litote.kmongo.KMongoRootTest
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+/**
+ *
+ */
+class KeysetPaginationTest : KMongoRootTest() {
+
+    private val paths = listOf("date", "_id")
+
+    @Test
+    fun testContinuationFilter() {
+        assertEquals(
+            BsonDocument.parse("""{${'$'}or: [{date: {${'$'}gt: 1}}, {date: 1, _id: {${'$'}gt: "a"}}]}"""),
+            KeysetPagination.continuationFilter(paths, listOf(BsonInt32(1), BsonString("a")))
+        )
+        assertEquals(
+            BsonDocument.parse("""{_id: {${'$'}lt: "a"}}"""),
+            KeysetPagination.continuationFilter(listOf("_id"), listOf(BsonString("a")), descending = true)
+        )
+    }
+
+    @Test
+    fun testValues() {
+        val document = BsonDocument.parse("""{_id: "a", date: 1, sub: {x: 2}}""")
+        assertEquals(
+            listOf(BsonInt32(1), BsonString("a"), BsonInt32(2), BsonNull.VALUE),
+            KeysetPagination.values(document, listOf("date", "_id", "sub.x", "missing"))
+        )
+    }
+
+    @Test
+    fun testTokenRoundTrip() {
+        val values = listOf(BsonInt32(1), BsonString("a"))
+        val token = KeysetPagination.encodeToken(paths, values)
+        assertTrue(token.all { it.isLetterOrDigit() || it == '-' || it == '_' })
+        assertEquals(values, KeysetPagination.decodeToken(token, paths))
+        assertFailsWith<IllegalArgumentException> { KeysetPagination.decodeToken(token, listOf("_id")) }
+        assertFailsWith<IllegalArgumentException> { KeysetPagination.decodeToken("not a token", paths) }
+    }
+
+    @Test
+    fun testPage() {
+        val documents = (0 until 11).map { BsonDocument("_id", BsonString("$it")).append("date", BsonInt32(it)) }
+        val page = KeysetPagination.page(documents, 10, paths) { it }
+        assertEquals(10, page.items.size)
+        assertEquals(
+            KeysetPagination.continuationFilter(paths, listOf(BsonInt32(9), BsonString("9"))),
+            KeysetPagination.filter(EMPTY_BSON, paths, page.nextToken)
+        )
+        assertNull(KeysetPagination.page(documents.take(10), 10, paths) { it }.nextToken)
+    }
+}
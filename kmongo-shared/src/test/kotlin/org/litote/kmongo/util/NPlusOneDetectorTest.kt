@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.litote.kmongo.util
+
+import com.mongodb.MongoNamespace
+import org.bson.BsonDocument
+import org.bson.BsonInt32
+import org.bson.codecs.BsonDocumentCodec
+import org.bson.codecs.configuration.CodecRegistries
+import org.junit.After
+import org.junit.Test
+import org.litote.kmongo.KMongoRootTest
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertNull
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+/**
+ *
+ */
+class NPlusOneDetectorTest : KMongoRootTest() {
+
+    private val namespace = MongoNamespace("test.friends")
+    private val registry = CodecRegistries.fromCodecs(BsonDocumentCodec())
+    private val detections = mutableListOf<NPlusOneDetection>()
+
+    init {
+        NPlusOneDetector.listener = { detections.add(it) }
+    }
+
+    @After
+    fun after() {
+        NPlusOneDetector.listener = { System.err.println(it) }
+    }
+
+    private fun lookup(id: Int, operation: String = "findOneById") =
+        NPlusOneDetector.record(operation, namespace, BsonDocument("_id", BsonInt32(id)), registry)
+
+    @Test
+    fun testRepeatedLookupsWithTheSameShapeAreDetected() {
+        val scope = NPlusOneScope(3)
+        scope.enter {
+            (1..5).forEach { lookup(it) }
+            lookup(1, "findOne")
+        }
+
+        val detection = scope.detections.single()
+        assertEquals("findOneById", detection.operation)
+        assertEquals("test.friends", detection.namespace)
+        assertEquals("""{"_id": "?"}""", detection.filterShape)
+        assertEquals(5, detection.count)
+        assertTrue(detection.callSite != null)
+        assertEquals(listOf(detection.copy(count = 3)), detections)
+    }
+
+    @Test
+    fun testLookupsBelowTheThresholdOrOutsideAScopeAreNotDetected() {
+        lookup(1)
+        val scope = NPlusOneScope(3)
+        scope.enter {
+            lookup(1)
+            lookup(2)
+        }
+        (3..10).forEach { lookup(it) }
+
+        assertTrue(scope.detections.isEmpty())
+        assertTrue(detections.isEmpty())
+    }
+
+    @Test
+    fun testNestedScopeRestoresTheOuterScope() {
+        val outer = NPlusOneScope(2)
+        val inner = NPlusOneScope(2)
+        outer.enter {
+            inner.enter { lookup(1) }
+            assertSame(outer, NPlusOneDetector.current.get())
+            lookup(2)
+        }
+
+        assertNull(NPlusOneDetector.current.get())
+        assertTrue(outer.detections.isEmpty())
+        assertTrue(inner.detections.isEmpty())
+    }
+
+    @Test
+    fun testThresholdMustBeGreaterThanOne() {
+        assertFailsWith<IllegalArgumentException> { NPlusOneScope(1) }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.litote.kmongo.util
+
+import com.mongodb.MongoNamespace
+import com.mongodb.RequestContext
+import com.mongodb.ServerAddress
+import com.mongodb.connection.ClusterId
+import com.mongodb.connection.ConnectionDescription
+import com.mongodb.connection.ServerId
+import com.mongodb.event.CommandSucceededEvent
+import org.bson.BsonDocument
+import org.bson.RawBsonDocument
+import org.bson.codecs.BsonDocumentCodec
+import org.bson.codecs.configuration.CodecRegistries
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.litote.kmongo.KMongoRootTest
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+/**
+ *
+ */
+class OperationTracerTest : KMongoRootTest() {
+
+    private val namespace = MongoNamespace("test.friends")
+    private val registry = CodecRegistries.fromCodecs(BsonDocumentCodec())
+    private val filter = BsonDocument.parse("""{"name":"Joe","age":{"${'$'}gt":18},"${'$'}or":[{"a":1},{"b":[1,2]}]}""")
+    private val reply = RawBsonDocument(
+        BsonDocument.parse("""{"cursor":{"id":0,"ns":"test.friends","firstBatch":[{"a":1},{"a":2}]},"ok":1.0}"""),
+        BsonDocumentCodec()
+    )
+    private val slowOperations = mutableListOf<SlowOperation>()
+
+    @Before
+    fun before() {
+        OperationTracer.enabled = true
+        OperationTracer.slowThresholdMillis = 0
+        OperationTracer.listener = object : SlowOperationListener {
+            override fun onSlowOperation(operation: SlowOperation) {
+                slowOperations.add(operation)
+            }
+        }
+    }
+
+    @After
+    fun after() {
+        OperationTracer.enabled = false
+        OperationTracer.slowThresholdMillis = 100
+    }
+
+    private fun succeeded(requestContext: RequestContext?, elapsedMillis: Long = 5): CommandSucceededEvent =
+        CommandSucceededEvent(
+            requestContext,
+            1,
+            1,
+            ConnectionDescription(ServerId(ClusterId(), ServerAddress())),
+            "test",
+            "find",
+            reply,
+            TimeUnit.MILLISECONDS.toNanos(elapsedMillis)
+        )
+
+    @Test
+    fun testFilterShapeRedactsTheValues() {
+        assertEquals(
+            BsonDocument.parse("""{"name":"?","age":{"${'$'}gt":"?"},"${'$'}or":[{"a":"?"},{"b":"?"}]}"""),
+            OperationTracer.filterShape(filter)
+        )
+    }
+
+    @Test
+    fun testSlowOperationIsReportedWithTheServerTimeAndTheCallSite() {
+        val result = OperationTracer.trace("findOne", namespace, filter, registry) {
+            OperationTracer.commandListener.commandSucceeded(succeeded(null))
+            "result"
+        }
+
+        assertEquals("result", result)
+        val operation = slowOperations.single()
+        assertEquals("findOne", operation.operation)
+        assertEquals("test.friends", operation.namespace)
+        assertEquals(OperationTracer.filterShape(filter).toJson(), operation.filterShape)
+        assertEquals(2, operation.documentCount)
+        assertEquals(reply.byteBuffer.remaining().toLong(), operation.bytesDecoded)
+        assertEquals(1, operation.commandCount)
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(5), operation.serverNanos)
+        //the simulated server time may be greater than the measured total time
+        assertEquals(maxOf(0, operation.totalNanos - operation.serverNanos), operation.clientNanos)
+        //this test is in a KMongo package, so the first caller outside KMongo is the test runner
+        assertTrue(operation.callSite!!.className.startsWith("org.junit."))
+    }
+
+    @Test
+    fun testNestedOperationsArePartOfTheOuterOperation() {
+        OperationTracer.trace("findOneById", namespace, filter, registry) {
+            OperationTracer.trace("findOne", namespace, filter, registry) {
+                OperationTracer.commandListener.commandSucceeded(succeeded(null))
+            }
+        }
+
+        assertEquals("findOneById", slowOperations.single().operation)
+        assertEquals(1, slowOperations.single().commandCount)
+    }
+
+    @Test
+    fun testCommandOfAnotherThreadIsCorrelatedByTheRequestContext() {
+        OperationTracer.trace("updateOne", namespace, null, registry) {
+            val requestContext = OperationTracer.requestContext()
+            thread { OperationTracer.commandListener.commandSucceeded(succeeded(requestContext)) }.join()
+            thread { OperationTracer.commandListener.commandSucceeded(succeeded(OperationTracer.requestContext())) }.join()
+        }
+
+        assertEquals(1, slowOperations.single().commandCount)
+        assertNull(slowOperations.single().filterShape)
+    }
+
+    @Test
+    fun testFastOrDisabledOperationsAreNotReported() {
+        OperationTracer.slowThresholdMillis = 60_000
+        OperationTracer.trace("findOne", namespace, filter, registry) {}
+        OperationTracer.slowThresholdMillis = 0
+        OperationTracer.enabled = false
+        OperationTracer.trace("findOne", namespace, filter, registry) {
+            OperationTracer.commandListener.commandSucceeded(succeeded(null))
+        }
+
+        assertTrue(slowOperations.isEmpty())
+        assertNull(OperationTracer.current.get())
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.util
+
+import com.mongodb.MongoClientSettings
+import org.bson.BsonDocument
+import org.bson.BsonInt32
+import org.bson.BsonString
+import org.junit.Test
+import org.litote.kmongo.EMPTY_BSON
+import org.litote.kmongo.KMongoRootTest
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+/**
+ *
+ */
+class ParallelScanTest : KMongoRootTest() {
+
+    private fun ids(count: Int) = (0 until count).map { BsonInt32(it) }
+
+    private fun json(filter: org.bson.conversions.Bson): String =
+        filter.toBsonDocument(BsonDocument::class.java, MongoClientSettings.getDefaultCodecRegistry()).toJson()
+
+    @Test
+    fun testSplitPoints() {
+        assertEquals(listOf(25, 50, 75), ParallelScan.splitPoints(ids(100), 4).map { it.asInt32().value })
+        assertEquals(listOf(1), ParallelScan.splitPoints(ids(2), 4).map { it.asInt32().value })
+        assertTrue(ParallelScan.splitPoints(emptyList(), 4).isEmpty())
+        assertTrue(ParallelScan.splitPoints(ids(100), 1).isEmpty())
+    }
+
+    @Test
+    fun testSplitPointsOfDifferentTypes() {
+        val ids = ids(50) + (0 until 50).map { BsonString("$it") }
+        assertTrue(ParallelScan.splitPoints(ids, 4).isEmpty())
+    }
+
+    @Test
+    fun testPartitionFilters() {
+        val filters = ParallelScan.partitionFilters(listOf(BsonInt32(10), BsonInt32(20)), EMPTY_BSON)
+
+        assertEquals(
+            listOf(
+                """{"_id": {"${'$'}not": {"${'$'}gte": 10}}}""",
+                """{"${'$'}and": [{"_id": {"${'$'}gte": 10}}, {"_id": {"${'$'}lt": 20}}]}""",
+                """{"_id": {"${'$'}gte": 20}}"""
+            ),
+            filters.map { json(it) }
+        )
+        assertEquals(
+            """{"${'$'}and": [{"a": 1}, {"_id": {"${'$'}gte": 20}}]}""",
+            json(ParallelScan.partitionFilters(listOf(BsonInt32(20)), BsonDocument("a", BsonInt32(1)))[1])
+        )
+        assertEquals(listOf(EMPTY_BSON), ParallelScan.partitionFilters(emptyList(), EMPTY_BSON))
+    }
+
+    @Test
+    fun testSamplePipelineMatchesTheFilter() {
+        assertEquals(
+            listOf(
+                """{"${'$'}match": {"a": 1}}""",
+                """{"${'$'}sample": {"size": 64}}""",
+                """{"${'$'}project": {"_id": 1}}""",
+                """{"${'$'}sort": {"_id": 1}}"""
+            ),
+            ParallelScan.samplePipeline(2, BsonDocument("a", BsonInt32(1))).map { json(it) }
+        )
+        assertEquals(
+            """{"${'$'}sample": {"size": 64}}""",
+            json(ParallelScan.samplePipeline(2, EMPTY_BSON).first())
+        )
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.util
+
+import com.mongodb.bulk.BulkWriteResult
+import com.mongodb.bulk.BulkWriteUpsert
+import com.mongodb.client.model.InsertOneModel
+import com.mongodb.client.model.ReplaceOneModel
+import org.bson.BsonInt32
+import org.bson.Document
+import org.bson.RawBsonDocument
+import org.bson.codecs.DocumentCodec
+import org.junit.Test
+import org.litote.kmongo.KMongoRootTest
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+/**
+ *
+ */
+class SaveAllTest : KMongoRootTest() {
+
+    private val codec = DocumentCodec()
+
+    private fun documents() = (0 until 25).map { if (it % 2 == 0) Document("a", it) else Document("_id", it).append("a", it) }
+
+    @Test
+    fun testBatchesBySize() {
+        val documents = documents()
+        val batches = SaveAll.batches(documents, codec, SaveAllOptions(maxBatchSize = 10)).toList()
+
+        assertEquals(listOf(10, 10, 5), batches.map { it.requests.size })
+        assertEquals(listOf(0, 10, 20), batches.map { it.offset })
+        assertTrue(batches[0].requests[0] is InsertOneModel)
+        assertTrue(batches[0].requests[1] is ReplaceOneModel)
+        assertTrue(documents.all { it["_id"] != null })
+    }
+
+    @Test
+    fun testBatchesByBytes() {
+        val size = RawBsonDocument(Document("_id", 1).append("a", 1), codec).byteBuffer.remaining()
+        val batches = SaveAll.batches(documents(), codec, SaveAllOptions(maxBatchBytes = size * 3)).toList()
+
+        assertTrue(batches.all { it.requests.size <= 3 })
+        assertEquals(25, batches.sumOf { it.requests.size })
+    }
+
+    @Test
+    fun testAggregate() {
+        val batches = SaveAll.batches(documents(), codec, SaveAllOptions(maxBatchSize = 10)).toList()
+        val result = SaveAll.aggregate(
+            batches.map {
+                it to BulkWriteResult.acknowledged(
+                    it.requests.count { r -> r is InsertOneModel }, 0, 0, 0,
+                    listOf(BulkWriteUpsert(1, BsonInt32(1))), emptyList()
+                )
+            }
+        )
+
+        assertEquals(13, result.insertedCount)
+        assertEquals(listOf(1, 11, 21), result.upserts.map { it.index })
+        assertEquals(0, SaveAll.aggregate(emptyList()).insertedCount)
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2016/2022 Litote
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litote.kmongo.util
+
+import org.junit.Test
+import org.litote.kmongo.KMongoRootTest
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+/**
+ *
+ */
+class StartupTimelineTest : KMongoRootTest() {
+
+    @Test
+    fun testDisabledTimelineRunsTheBlocksWithoutRecording() {
+        assertFalse(StartupTimeline.enabled)
+        assertEquals(1, StartupTimeline.record("component") { 1 })
+        assertEquals(2, StartupTimeline.recordFirstUse("component", String::class.java) { 2 })
+        assertEquals(3, StartupTimeline.recordFirstUse("component", String::class.java) { 3 })
+        assertTrue(StartupTimeline.entries.isEmpty())
+        assertTrue(StartupTimeline.report().endsWith("total 0 ms"))
+    }
+
+    @Test
+    fun testEnabledTimelineRecordsTheSteps() {
+        StartupTimeline.enabled = true
+        try {
+            StartupTimeline.clear()
+            assertEquals(1, StartupTimeline.record("bsonMapper") {
+                StartupTimeline.record("codec", String::class.java) { 1 }
+            })
+            assertEquals(2, StartupTimeline.recordFirstUse("codec", Int::class.java) { 2 })
+            assertEquals(3, StartupTimeline.recordFirstUse("codec", Int::class.java) { 3 })
+            assertFailsWith<IllegalStateException> {
+                StartupTimeline.record("codec", Long::class.java) { error("failure") }
+            }
+
+            val entries = StartupTimeline.entries
+            assertEquals(
+                listOf(
+                    "codec" to String::class.java,
+                    "bsonMapper" to null,
+                    "codec" to Int::class.java,
+                    "codec" to Long::class.java
+                ),
+                entries.map { it.component to it.type }
+            )
+            val (nested, parent) = entries
+            assertTrue(nested.startNanos >= parent.startNanos)
+            assertTrue(nested.durationNanos <= parent.durationNanos)
+
+            val report = StartupTimeline.report().lines()
+            assertEquals("by component", report[0])
+            assertEquals(setOf("bsonMapper", "codec"), report.subList(1, 3).map { it.substringAfter(" ms ") }.toSet())
+            assertEquals("by model class", report[3])
+            assertEquals(
+                setOf(String::class.java.name, Int::class.java.name, Long::class.java.name),
+                report.subList(4, 7).map { it.substringAfter(" ms ") }.toSet()
+            )
+            assertTrue(report[7].startsWith("total "))
+
+            StartupTimeline.clear()
+            assertTrue(StartupTimeline.entries.isEmpty())
+            StartupTimeline.recordFirstUse("codec", Int::class.java) { 4 }
+            assertEquals(1, StartupTimeline.entries.size)
+        } finally {
+            StartupTimeline.enabled = false
+            StartupTimeline.clear()
+        }
+    }
+
+    @Test
+    fun testEntryToString() {
+        assertEquals(
+            "kmongo startup +1.500 ms 0.250 ms jackson.codec java.lang.String",
+            StartupTimelineEntry("jackson.codec", String::class.java, 1_500_000, 250_000).toString()
+        )
+        assertEquals(
+            "kmongo startup +0.000 ms 2.000 ms ClassMappingTypeService",
+            StartupTimelineEntry("ClassMappingTypeService", null, 0, 2_000_000).toString()
+        )
+    }
+}